@@ -0,0 +1,315 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.attribute.resolver.ad.impl;
+
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.script.Bindings;
+import javax.script.ScriptContext;
+import javax.script.SimpleBindings;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import com.google.common.base.Supplier;
+
+/**
+ * A {@link ScriptContext} for scripted resolver plugins whose engine scope attributes may be supplied lazily.
+ * 
+ * <p>
+ * An attribute set with {@link #setLazyAttribute(String, Supplier)} is visible to the script, but its value is only
+ * computed the first time the script (or the caller) reads it. Objects such as the emulated V2 request context or the
+ * wrappers around dependency values are therefore only built for the scripts which use them.
+ * </p>
+ * 
+ * <p>
+ * Unlike {@link javax.script.SimpleScriptContext}, the reader and writers are only created when asked for, rather than
+ * for every context.
+ * </p>
+ */
+@NotThreadSafe
+public class LazyScriptContext implements ScriptContext {
+
+    /** The scopes supported. */
+    @Nonnull private static final List<Integer> SCOPES = Collections.unmodifiableList(Arrays.asList(ENGINE_SCOPE,
+            GLOBAL_SCOPE));
+
+    /** Engine scope attributes. */
+    @Nonnull private final LazyBindings engineScope;
+
+    /** Global scope attributes. */
+    @Nullable private Bindings globalScope;
+
+    /** Reader for script input. */
+    @Nullable private Reader reader;
+
+    /** Writer for script output. */
+    @Nullable private Writer writer;
+
+    /** Writer for script error output. */
+    @Nullable private Writer errorWriter;
+
+    /** Constructor. */
+    public LazyScriptContext() {
+        engineScope = new LazyBindings();
+    }
+
+    /**
+     * Set an engine scope attribute whose value is computed when first read.
+     * 
+     * @param name the attribute name
+     * @param supplier supplies the value, which may be null
+     */
+    public void setLazyAttribute(@Nonnull @NotEmpty final String name, @Nonnull final Supplier<?> supplier) {
+        engineScope.putLazy(name, supplier);
+    }
+
+    /** {@inheritDoc} */
+    @Override public void setBindings(@Nullable final Bindings bindings, final int scope) {
+        if (scope == ENGINE_SCOPE) {
+            throw new IllegalArgumentException("Engine scope bindings cannot be replaced");
+        } else if (scope == GLOBAL_SCOPE) {
+            globalScope = bindings;
+        } else {
+            throw new IllegalArgumentException("Invalid scope value");
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override @Nullable public Bindings getBindings(final int scope) {
+        if (scope == ENGINE_SCOPE) {
+            return engineScope;
+        } else if (scope == GLOBAL_SCOPE) {
+            return globalScope;
+        }
+        throw new IllegalArgumentException("Invalid scope value");
+    }
+
+    /** {@inheritDoc} */
+    @Override public void setAttribute(@Nonnull @NotEmpty final String name, @Nullable final Object value,
+            final int scope) {
+        final Bindings bindings = getBindings(scope);
+        if (bindings != null) {
+            bindings.put(name, value);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override @Nullable public Object getAttribute(@Nonnull @NotEmpty final String name, final int scope) {
+        final Bindings bindings = getBindings(scope);
+        return bindings != null ? bindings.get(name) : null;
+    }
+
+    /** {@inheritDoc} */
+    @Override @Nullable public Object removeAttribute(@Nonnull @NotEmpty final String name, final int scope) {
+        final Bindings bindings = getBindings(scope);
+        return bindings != null ? bindings.remove(name) : null;
+    }
+
+    /** {@inheritDoc} */
+    @Override @Nullable public Object getAttribute(@Nonnull @NotEmpty final String name) {
+        final int scope = getAttributesScope(name);
+        return scope != -1 ? getAttribute(name, scope) : null;
+    }
+
+    /** {@inheritDoc} */
+    @Override public int getAttributesScope(@Nonnull @NotEmpty final String name) {
+        Constraint.isNotNull(name, "Attribute name cannot be null");
+        if (engineScope.containsKey(name)) {
+            return ENGINE_SCOPE;
+        } else if (globalScope != null && globalScope.containsKey(name)) {
+            return GLOBAL_SCOPE;
+        }
+        return -1;
+    }
+
+    /** {@inheritDoc} */
+    @Override @Nonnull public Writer getWriter() {
+        if (writer == null) {
+            writer = new PrintWriter(System.out, true);
+        }
+        return writer;
+    }
+
+    /** {@inheritDoc} */
+    @Override @Nonnull public Writer getErrorWriter() {
+        if (errorWriter == null) {
+            errorWriter = new PrintWriter(System.err, true);
+        }
+        return errorWriter;
+    }
+
+    /** {@inheritDoc} */
+    @Override public void setWriter(@Nullable final Writer newWriter) {
+        writer = newWriter;
+    }
+
+    /** {@inheritDoc} */
+    @Override public void setErrorWriter(@Nullable final Writer newWriter) {
+        errorWriter = newWriter;
+    }
+
+    /** {@inheritDoc} */
+    @Override @Nonnull public Reader getReader() {
+        if (reader == null) {
+            reader = new InputStreamReader(System.in);
+        }
+        return reader;
+    }
+
+    /** {@inheritDoc} */
+    @Override public void setReader(@Nullable final Reader newReader) {
+        reader = newReader;
+    }
+
+    /** {@inheritDoc} */
+    @Override @Nonnull public List<Integer> getScopes() {
+        return SCOPES;
+    }
+
+    /** {@link Bindings} which compute the values of some entries when they are first read. */
+    private static final class LazyBindings extends SimpleBindings {
+
+        /** Suppliers for the entries not yet computed. */
+        @Nonnull private final Map<String,Supplier<?>> pending;
+
+        /** Constructor. */
+        LazyBindings() {
+            pending = new HashMap<>();
+        }
+
+        /**
+         * Add an entry whose value is computed when first read.
+         * 
+         * @param name the name
+         * @param supplier supplies the value
+         */
+        void putLazy(@Nonnull @NotEmpty final String name, @Nonnull final Supplier<?> supplier) {
+            super.remove(Constraint.isNotNull(name, "Attribute name cannot be null"));
+            pending.put(name, Constraint.isNotNull(supplier, "Supplier cannot be null"));
+        }
+
+        /** {@inheritDoc} */
+        @Override public Object put(final String name, final Object value) {
+            final Supplier<?> supplier = pending.remove(name);
+            final Object previous = super.put(name, value);
+            return supplier != null ? supplier.get() : previous;
+        }
+
+        /** {@inheritDoc} */
+        @Override public void putAll(final Map<? extends String,? extends Object> toMerge) {
+            for (final Map.Entry<? extends String,? extends Object> entry : toMerge.entrySet()) {
+                put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        /** {@inheritDoc} */
+        @Override public boolean containsKey(final Object key) {
+            return pending.containsKey(key) || super.containsKey(key);
+        }
+
+        /** {@inheritDoc} */
+        @Override public Object get(final Object key) {
+            materialize(key);
+            return super.get(key);
+        }
+
+        /** {@inheritDoc} */
+        @Override public Object remove(final Object key) {
+            materialize(key);
+            return super.remove(key);
+        }
+
+        /** {@inheritDoc} */
+        @Override public void clear() {
+            pending.clear();
+            super.clear();
+        }
+
+        /** {@inheritDoc} */
+        @Override public boolean containsValue(final Object value) {
+            materializeAll();
+            return super.containsValue(value);
+        }
+
+        /** {@inheritDoc} */
+        @Override public Set<Map.Entry<String,Object>> entrySet() {
+            materializeAll();
+            return super.entrySet();
+        }
+
+        /** {@inheritDoc} */
+        @Override public Set<String> keySet() {
+            materializeAll();
+            return super.keySet();
+        }
+
+        /** {@inheritDoc} */
+        @Override public Collection<Object> values() {
+            materializeAll();
+            return super.values();
+        }
+
+        /** {@inheritDoc} */
+        @Override public int size() {
+            return pending.size() + super.size();
+        }
+
+        /** {@inheritDoc} */
+        @Override public boolean isEmpty() {
+            return pending.isEmpty() && super.isEmpty();
+        }
+
+        /**
+         * Compute the value of an entry if it is pending.
+         * 
+         * @param key the entry name
+         */
+        private void materialize(final Object key) {
+            final Supplier<?> supplier = pending.remove(key);
+            if (supplier != null) {
+                super.put((String) key, supplier.get());
+            }
+        }
+
+        /** Compute the values of all pending entries. */
+        private void materializeAll() {
+            final Iterator<Map.Entry<String,Supplier<?>>> entries = pending.entrySet().iterator();
+            while (entries.hasNext()) {
+                final Map.Entry<String,Supplier<?>> entry = entries.next();
+                entries.remove();
+                super.put(entry.getKey(), entry.getValue().get());
+            }
+        }
+    }
+
+}
@@ -20,13 +20,14 @@ package net.shibboleth.idp.attribute.resolver.ad.impl;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.script.ScriptContext;
 import javax.script.ScriptException;
-import javax.script.SimpleScriptContext;
 
 import net.shibboleth.idp.attribute.IdPAttribute;
 import net.shibboleth.idp.attribute.IdPAttributeValue;
@@ -35,6 +36,7 @@ import net.shibboleth.idp.attribute.resolver.PluginDependencySupport;
 import net.shibboleth.idp.attribute.resolver.ResolutionException;
 import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
 import net.shibboleth.idp.attribute.resolver.context.AttributeResolverWorkContext;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.component.ComponentSupport;
@@ -47,6 +49,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Function;
+import com.google.common.base.Supplier;
 
 import edu.internet2.middleware.shibboleth.common.attribute.provider.V2SAMLProfileRequestContext;
 
@@ -67,6 +70,10 @@ import edu.internet2.middleware.shibboleth.common.attribute.provider.V2SAMLProfi
  * </ul>
  * </p>
  * <p>
+ * The profile request context, the emulated V2 request context and the dependency attributes are only constructed if
+ * the script reads them.
+ * </p>
+ * <p>
  * The evaluated script should populate the values of the newly constructed {@link IdPAttribute} mentioned above. No
  * other information from the script will be taken in to account.
  * </p>
@@ -86,10 +93,18 @@ public class ScriptedAttributeDefinition extends AbstractAttributeDefinition {
     /** The custom object we inject into all scripts. */
     @Nullable private Object customObject;
 
+    /** Number of script executions. */
+    @Nonnull private final AtomicLong executionCount;
+
+    /** Cumulative time spent executing the script in nanoseconds. */
+    @Nonnull private final AtomicLong executionTime;
+
     /** Constructor. */
     public ScriptedAttributeDefinition() {
         // Defaults to ProfileRequestContext -> AttributeContext.
         prcLookupStrategy = new ParentContextLookup<>();
+        executionCount = new AtomicLong();
+        executionTime = new AtomicLong();
     }
 
     /**
@@ -145,6 +160,24 @@ public class ScriptedAttributeDefinition extends AbstractAttributeDefinition {
         prcLookupStrategy = Constraint.isNotNull(strategy, "ProfileRequestContext lookup strategy cannot be null");
     }
 
+    /**
+     * Get the number of times the script has been executed.
+     * 
+     * @return the number of executions
+     */
+    @NonNegative public long getExecutionCount() {
+        return executionCount.get();
+    }
+
+    /**
+     * Get the cumulative time spent executing the script, including failed executions.
+     * 
+     * @return the time in milliseconds
+     */
+    @NonNegative public long getExecutionTime() {
+        return TimeUnit.NANOSECONDS.toMillis(executionTime.get());
+    }
+
     /** {@inheritDoc} */
     @Override protected void doInitialize() throws ComponentInitializationException {
         super.doInitialize();
@@ -163,10 +196,14 @@ public class ScriptedAttributeDefinition extends AbstractAttributeDefinition {
 
         final ScriptContext context = getScriptContext(resolutionContext, workContext);
 
+        final long start = System.nanoTime();
         try {
             script.eval(context);
         } catch (final ScriptException e) {
             throw new ResolutionException(getLogPrefix() + " unable to execute script", e);
+        } finally {
+            executionCount.incrementAndGet();
+            executionTime.addAndGet(System.nanoTime() - start);
         }
         final Object result = context.getAttribute(getId());
 
@@ -200,7 +237,7 @@ public class ScriptedAttributeDefinition extends AbstractAttributeDefinition {
     @Nonnull private ScriptContext getScriptContext(@Nonnull final AttributeResolutionContext resolutionContext,
             @Nonnull final AttributeResolverWorkContext workContext) throws ResolutionException {
 
-        final SimpleScriptContext scriptContext = new SimpleScriptContext();
+        final LazyScriptContext scriptContext = new LazyScriptContext();
         final Map<String, List<IdPAttributeValue<?>>> dependencyAttributes =
                 PluginDependencySupport.getAllAttributeValues(workContext, getDependencies());
 
@@ -217,26 +254,37 @@ public class ScriptedAttributeDefinition extends AbstractAttributeDefinition {
         scriptContext.setAttribute("resolutionContext", resolutionContext, ScriptContext.ENGINE_SCOPE);
         scriptContext.setAttribute("workContext", workContext, ScriptContext.ENGINE_SCOPE);
         scriptContext.setAttribute("custom", getCustomObject(), ScriptContext.ENGINE_SCOPE);
-        final ProfileRequestContext prc = prcLookupStrategy.apply(resolutionContext);
-        if (null == prc) {
-            log.error("{} ProfileRequestContext could not be located", getLogPrefix());
-        }
-        scriptContext.setAttribute("profileContext", prc, ScriptContext.ENGINE_SCOPE);
+        scriptContext.setLazyAttribute("profileContext", new Supplier<ProfileRequestContext>() {
+            public ProfileRequestContext get() {
+                final ProfileRequestContext prc = prcLookupStrategy.apply(resolutionContext);
+                if (null == prc) {
+                    log.error("{} ProfileRequestContext could not be located", getLogPrefix());
+                }
+                return prc;
+            }
+        });
 
         log.debug("{} adding emulated V2 request context to script context", getLogPrefix());
-        scriptContext.setAttribute("requestContext", new V2SAMLProfileRequestContext(resolutionContext, getId()),
-                ScriptContext.ENGINE_SCOPE);
+        scriptContext.setLazyAttribute("requestContext", new Supplier<V2SAMLProfileRequestContext>() {
+            public V2SAMLProfileRequestContext get() {
+                return new V2SAMLProfileRequestContext(resolutionContext, getId());
+            }
+        });
 
         for (final Entry<String, List<IdPAttributeValue<?>>> dependencyAttribute : dependencyAttributes.entrySet()) {
             log.debug("{} adding dependent attribute '{}' with the following values to the script context: {}",
                     new Object[] {getLogPrefix(), dependencyAttribute.getKey(), dependencyAttribute.getValue(),});
-            final IdPAttribute pseudoAttribute = new IdPAttribute(dependencyAttribute.getKey());
-            pseudoAttribute.setValues(dependencyAttribute.getValue());
-
-            scriptContext.setAttribute(dependencyAttribute.getKey(), new ScriptedIdPAttributeImpl(pseudoAttribute,
-                    getLogPrefix()), ScriptContext.ENGINE_SCOPE);
+            final String attributeId = dependencyAttribute.getKey();
+            final List<IdPAttributeValue<?>> values = dependencyAttribute.getValue();
+            scriptContext.setLazyAttribute(attributeId, new Supplier<ScriptedIdPAttributeImpl>() {
+                public ScriptedIdPAttributeImpl get() {
+                    final IdPAttribute pseudoAttribute = new IdPAttribute(attributeId);
+                    pseudoAttribute.setValues(values);
+                    return new ScriptedIdPAttributeImpl(pseudoAttribute, getLogPrefix());
+                }
+            });
         }
 
         return scriptContext;
     }
-}
\ No newline at end of file
+}
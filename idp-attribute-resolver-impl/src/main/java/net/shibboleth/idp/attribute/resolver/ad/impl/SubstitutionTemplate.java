@@ -0,0 +1,154 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.attribute.resolver.ad.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+
+/**
+ * A compiled form of a Velocity template which consists only of literal text and braced references such as
+ * <code>${a}-${b}</code> or <code>$!{a}</code>.
+ * 
+ * <p>Such a template is held as literal segments separated by references, so that it can be evaluated by appending
+ * to a {@link StringBuilder} without building a Velocity context. The output is the same as Velocity's with its default
+ * reference handling: a reference to a null value renders as its own text, or as nothing if it is quiet.</p>
+ */
+final class SubstitutionTemplate {
+
+    /** Literal text before, between and after the references. */
+    @Nonnull @NonnullElements private final String[] literals;
+
+    /** For each reference, the index of the value it refers to. */
+    @Nonnull private final int[] references;
+
+    /** For each reference, the text rendered for a null value. */
+    @Nonnull @NonnullElements private final String[] nullText;
+
+    /**
+     * Constructor.
+     * 
+     * @param literalSegments literal text, one more than the number of references
+     * @param referenceIndexes the index of the value for each reference
+     * @param nullSegments the text for each reference with a null value
+     */
+    private SubstitutionTemplate(@Nonnull @NonnullElements final String[] literalSegments,
+            @Nonnull final int[] referenceIndexes, @Nonnull @NonnullElements final String[] nullSegments) {
+        literals = literalSegments;
+        references = referenceIndexes;
+        nullText = nullSegments;
+    }
+
+    /**
+     * Compile a template, if it is simple enough.
+     * 
+     * @param text the template text
+     * @param names the names which references may use, in the order their values will be supplied
+     * 
+     * @return the compiled template, or null if the template contains anything other than literal text and braced
+     *  references to the given names
+     */
+    @Nullable static SubstitutionTemplate compile(@Nonnull final String text,
+            @Nonnull @NonnullElements final List<String> names) {
+        if (text.indexOf('#') >= 0 || text.indexOf('\\') >= 0) {
+            return null;
+        }
+
+        final List<String> literals = new ArrayList<>();
+        final List<Integer> references = new ArrayList<>();
+        final List<String> nullText = new ArrayList<>();
+
+        int position = 0;
+        int dollar = text.indexOf('$');
+        while (dollar >= 0) {
+            int open = dollar + 1;
+            final boolean quiet = open < text.length() && text.charAt(open) == '!';
+            if (quiet) {
+                open++;
+            }
+            if (open >= text.length() || text.charAt(open) != '{') {
+                return null;
+            }
+            final int close = text.indexOf('}', open);
+            if (close < 0) {
+                return null;
+            }
+            final String name = text.substring(open + 1, close);
+            final int index = names.indexOf(name);
+            if (!isIdentifier(name) || index < 0) {
+                return null;
+            }
+
+            literals.add(text.substring(position, dollar));
+            references.add(index);
+            nullText.add(quiet ? "" : text.substring(dollar, close + 1));
+            position = close + 1;
+            dollar = text.indexOf('$', position);
+        }
+        literals.add(text.substring(position));
+
+        final int[] referenceIndexes = new int[references.size()];
+        for (int i = 0; i < referenceIndexes.length; i++) {
+            referenceIndexes[i] = references.get(i);
+        }
+        return new SubstitutionTemplate(literals.toArray(new String[literals.size()]), referenceIndexes,
+                nullText.toArray(new String[nullText.size()]));
+    }
+
+    /**
+     * Evaluate the template.
+     * 
+     * @param values the values, in the order of the names the template was compiled with
+     * @param builder the builder to append the result to
+     */
+    void merge(@Nonnull final String[] values, @Nonnull final StringBuilder builder) {
+        builder.append(literals[0]);
+        for (int i = 0; i < references.length; i++) {
+            final String value = values[references[i]];
+            builder.append(value != null ? value : nullText[i]);
+            builder.append(literals[i + 1]);
+        }
+    }
+
+    /**
+     * Check whether a name is a Velocity identifier, which is all a braced reference may contain without becoming a
+     * method or property reference.
+     * 
+     * @param name the name
+     * 
+     * @return whether the name is an identifier
+     */
+    private static boolean isIdentifier(@Nonnull final String name) {
+        if (name.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            final char ch = name.charAt(i);
+            final boolean letter = (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || ch == '_';
+            if (!letter && (i == 0 || !((ch >= '0' && ch <= '9') || ch == '-'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
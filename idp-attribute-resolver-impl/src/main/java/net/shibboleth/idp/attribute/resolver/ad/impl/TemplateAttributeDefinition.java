@@ -20,6 +20,7 @@ package net.shibboleth.idp.attribute.resolver.ad.impl;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 
@@ -52,6 +53,7 @@ import net.shibboleth.utilities.java.support.velocity.Template;
 import org.apache.velocity.VelocityContext;
 import org.apache.velocity.app.VelocityEngine;
 import org.apache.velocity.exception.VelocityException;
+import org.apache.velocity.runtime.RuntimeConstants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -65,6 +67,10 @@ import com.google.common.base.Predicates;
  * 
  * <p>The template is inserted into the engine with a unique name derived from this class and from the id supplied for
  * this attribute.</p>
+ * 
+ * <p>Templates consisting only of literal text and braced references to source attributes, such as
+ * <code>${a}-${b}</code>, are evaluated for all values in one pass without Velocity, unless the engine is configured
+ * for strict references or with reference insertion event handlers. Other templates are merged by Velocity.</p>
  */
 @ThreadSafeAfterInit
 public class TemplateAttributeDefinition extends AbstractAttributeDefinition {
@@ -83,10 +89,17 @@ public class TemplateAttributeDefinition extends AbstractAttributeDefinition {
 
     /** The names of the attributes we need. */
     @Nonnull @NonnullElements private List<String> sourceAttributes;
+
+    /** The distinct names of the attributes we need, in the order their values are supplied to the template. */
+    @Nonnull @NonnullElements private List<String> templateSources;
+
+    /** Compiled form of the template, if it is simple enough to be evaluated without Velocity. */
+    @Nullable private SubstitutionTemplate substitutionTemplate;
     
     /** Constructor. */
     public TemplateAttributeDefinition() {
         sourceAttributes = Collections.emptyList();
+        templateSources = Collections.emptyList();
     }
 
     /**
@@ -195,6 +208,17 @@ public class TemplateAttributeDefinition extends AbstractAttributeDefinition {
         }
     
         template = Template.fromTemplate(engine, templateText);
+
+        templateSources = new ArrayList<>(new LinkedHashSet<>(sourceAttributes));
+        if (Boolean.parseBoolean(String.valueOf(engine.getProperty(RuntimeConstants.RUNTIME_REFERENCES_STRICT)))
+                || engine.getProperty(RuntimeConstants.EVENTHANDLER_REFERENCEINSERTION) != null) {
+            substitutionTemplate = null;
+        } else {
+            substitutionTemplate = SubstitutionTemplate.compile(templateText, templateSources);
+        }
+        if (substitutionTemplate != null) {
+            log.debug("{} Template will be evaluated without Velocity", getLogPrefix());
+        }
     }
 
     /** {@inheritDoc} */
@@ -209,34 +233,30 @@ public class TemplateAttributeDefinition extends AbstractAttributeDefinition {
 
         final List<IdPAttributeValue<?>> valueList = new ArrayList<>(valueCount);
 
+        if (substitutionTemplate != null) {
+            final String[] values = new String[templateSources.size()];
+            final StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < valueCount; i++) {
+                log.debug("{} Determing value {}", getLogPrefix(), i + 1);
+                for (int j = 0; j < values.length; j++) {
+                    values[j] = getVelocityValue(sourceValues.get(templateSources.get(j)).next());
+                }
+                builder.setLength(0);
+                substitutionTemplate.merge(values, builder);
+                log.debug("{} Result of template evaluating was '{}'", getLogPrefix(), builder);
+                valueList.add(StringAttributeValue.valueOf(builder.toString()));
+            }
+            resultantAttribute.setValues(valueList);
+            return resultantAttribute;
+        }
+
         for (int i = 0; i < valueCount; i++) {
             log.debug("{} Determing value {}", getLogPrefix(), i + 1);
             final VelocityContext velocityContext = new VelocityContext();
 
             // Build velocity context.
             for (final String attributeId : sourceValues.keySet()) {
-                final IdPAttributeValue<?> value = sourceValues.get(attributeId).next();
-                final String velocityValue;
-                if (value instanceof EmptyAttributeValue) {
-                    switch (((EmptyAttributeValue) value).getValue()) {
-                        case NULL_VALUE:
-                            velocityValue = null;
-                            break;
-                        case ZERO_LENGTH_VALUE:
-                            velocityValue = "";
-                            break;
-                        default:
-                            throw new ResolutionException(new UnsupportedAttributeTypeException(getLogPrefix()
-                                    + "Unknown empty attribute value type " + value.getValue()));
-                    }
-                } else if (value instanceof StringAttributeValue) {
-                    velocityValue = (String) value.getValue();
-                } else {
-                    throw new ResolutionException(new UnsupportedAttributeTypeException(getLogPrefix()
-                            + "This attribute definition only supports attribute value types of "
-                            + StringAttributeValue.class.getName() + " not values of type "
-                            + value.getClass().getName()));
-                }
+                final String velocityValue = getVelocityValue(sourceValues.get(attributeId).next());
                 log.debug("{} Adding value '{}' for attribute '{}' to the template context", new Object[] {
                         getLogPrefix(), velocityValue, attributeId,});
                 velocityContext.put(attributeId, velocityValue);
@@ -259,6 +279,35 @@ public class TemplateAttributeDefinition extends AbstractAttributeDefinition {
         return resultantAttribute;
     }
 
+    /**
+     * Convert a source value to the string supplied to the template.
+     * 
+     * @param value the source value
+     * 
+     * @return the string, or null for a null value
+     * @throws ResolutionException if the value is not a string or empty value
+     */
+    @Nullable private String getVelocityValue(@Nonnull final IdPAttributeValue<?> value) throws ResolutionException {
+        if (value instanceof EmptyAttributeValue) {
+            switch (((EmptyAttributeValue) value).getValue()) {
+                case NULL_VALUE:
+                    return null;
+                case ZERO_LENGTH_VALUE:
+                    return "";
+                default:
+                    throw new ResolutionException(new UnsupportedAttributeTypeException(getLogPrefix()
+                            + "Unknown empty attribute value type " + value.getValue()));
+            }
+        } else if (value instanceof StringAttributeValue) {
+            return (String) value.getValue();
+        } else {
+            throw new ResolutionException(new UnsupportedAttributeTypeException(getLogPrefix()
+                    + "This attribute definition only supports attribute value types of "
+                    + StringAttributeValue.class.getName() + " not values of type "
+                    + value.getClass().getName()));
+        }
+    }
+
     /**
      * Set up a map which can be used to populate the template. The key is the attribute name and the value is the
      * iterator to give all the names. We also return how deep the iteration will be and throw an exception if there is
@@ -18,6 +18,7 @@
 package net.shibboleth.idp.attribute.resolver.ad.mapped.impl;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -50,6 +51,7 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Predicates;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 
@@ -69,6 +71,12 @@ public class MappedAttributeDefinition extends AbstractAttributeDefinition {
     /** Value maps. */
     @Nonnull @NonnullElements private Set<ValueMap> valueMaps = Collections.emptySet();
 
+    /** Value maps in order of evaluation, as indexed by {@link #valueMapIndex}. */
+    @Nullable private List<ValueMap> valueMapList;
+
+    /** Index selecting the value maps which may match a given value. */
+    @Nullable private ValueMapIndex valueMapIndex;
+
     /** Whether the definition passes thru unmatched values. */
     private boolean passThru;
 
@@ -167,8 +175,9 @@ public class MappedAttributeDefinition extends AbstractAttributeDefinition {
 
         if (!Strings.isNullOrEmpty(value)) {
             boolean valueMapMatch = false;
-            for (final ValueMap valueMap : valueMaps) {
-                mappedValues.addAll(valueMap.apply(value));
+            final BitSet candidates = valueMapIndex.getCandidates(value);
+            for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+                mappedValues.addAll(valueMapList.get(i).apply(value));
                 if (!mappedValues.isEmpty()) {
                     valueMapMatch = true;
                 }
@@ -233,6 +242,8 @@ public class MappedAttributeDefinition extends AbstractAttributeDefinition {
     /** {@inheritDoc} */
     @Override protected void doDestroy() {
         valueMaps = null;
+        valueMapList = null;
+        valueMapIndex = null;
 
         super.doDestroy();
     }
@@ -250,6 +261,9 @@ public class MappedAttributeDefinition extends AbstractAttributeDefinition {
             throw new ComponentInitializationException("Attribute definition '" + getId()
                     + "': no value mappings were configured");
         }
+
+        valueMapList = ImmutableList.copyOf(valueMaps);
+        valueMapIndex = new ValueMapIndex(valueMapList);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,383 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.attribute.resolver.ad.mapped.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+
+/**
+ * An index over a list of {@link ValueMap}s that, for a given input value, finds the maps which may produce a
+ * result, so that the others need not be evaluated.
+ * 
+ * <p>Source values are indexed according to their form:</p>
+ * <ul>
+ * <li>regular expressions containing no metacharacters are looked up by value in a hash table;</li>
+ * <li>partial matches are found in a single pass over the input by an Aho-Corasick automaton;</li>
+ * <li>other regular expressions with a literal prefix are looked up by that prefix;</li>
+ * <li>anything else, including maps that are subclasses of {@link ValueMap}, is always a candidate.</li>
+ * </ul>
+ * 
+ * <p>Case-insensitive patterns are indexed by keys folded to lower case in the US-ASCII range only, which is the
+ * extent of the folding done by {@link Pattern#CASE_INSENSITIVE}. The index only selects candidates; each candidate
+ * map is then evaluated in full, so results are identical to evaluating every map.</p>
+ */
+final class ValueMapIndex {
+
+    /** Characters with special meaning in a regular expression. */
+    @Nonnull private static final String METACHARACTERS = "\\^$.|?*+()[]{}";
+
+    /** Quantifiers which make the preceding character optional. */
+    @Nonnull private static final String OPTIONAL_QUANTIFIERS = "?*{";
+
+    /** Maps which are always candidates. */
+    @Nonnull private final BitSet always;
+
+    /** Maps by exact, case-sensitive, source value. */
+    @Nonnull private final Map<String,BitSet> exact;
+
+    /** Maps by exact source value folded to lower case. */
+    @Nonnull private final Map<String,BitSet> exactIgnoreCase;
+
+    /** Maps by case-sensitive literal prefix of a regular expression. */
+    @Nonnull private final Map<String,BitSet> prefixes;
+
+    /** Maps by literal prefix of a case-insensitive regular expression, folded to lower case. */
+    @Nonnull private final Map<String,BitSet> prefixesIgnoreCase;
+
+    /** Distinct lengths of the case-sensitive prefixes, in ascending order. */
+    @Nonnull private final int[] prefixLengths;
+
+    /** Distinct lengths of the case-insensitive prefixes, in ascending order. */
+    @Nonnull private final int[] prefixLengthsIgnoreCase;
+
+    /** Matcher for partial match source values, or null if there are none. */
+    @Nullable private final ContainsMatcher containsMatcher;
+
+    /**
+     * Constructor.
+     * 
+     * @param valueMaps the maps to index, in order of evaluation
+     */
+    ValueMapIndex(@Nonnull @NonnullElements final List<ValueMap> valueMaps) {
+        always = new BitSet(valueMaps.size());
+        exact = new HashMap<>();
+        exactIgnoreCase = new HashMap<>();
+        prefixes = new HashMap<>();
+        prefixesIgnoreCase = new HashMap<>();
+        final TreeSet<Integer> lengths = new TreeSet<>();
+        final TreeSet<Integer> lengthsIgnoreCase = new TreeSet<>();
+        final Map<String,BitSet> partials = new HashMap<>();
+
+        for (int i = 0; i < valueMaps.size(); i++) {
+            final ValueMap valueMap = valueMaps.get(i);
+            if (valueMap.getClass() != ValueMap.class) {
+                always.set(i);
+                continue;
+            }
+
+            for (final SourceValue sourceValue : valueMap.getSourceValues()) {
+                if (sourceValue.isPartialMatch()) {
+                    if (sourceValue.getValue() == null) {
+                        continue;
+                    } else if (sourceValue.getValue().isEmpty()) {
+                        always.set(i);
+                    } else {
+                        add(partials, sourceValue.getValue(), i);
+                    }
+                    continue;
+                }
+
+                final Pattern pattern = sourceValue.getPattern();
+                if (pattern == null || (pattern.flags() & ~Pattern.CASE_INSENSITIVE) != 0) {
+                    always.set(i);
+                    continue;
+                }
+
+                final boolean ignoreCase = (pattern.flags() & Pattern.CASE_INSENSITIVE) != 0;
+                final String regex = pattern.pattern();
+                final String prefix = getLiteralPrefix(regex);
+                if (prefix == null || prefix.isEmpty()) {
+                    always.set(i);
+                } else if (prefix.length() == regex.length()) {
+                    if (ignoreCase) {
+                        add(exactIgnoreCase, fold(prefix), i);
+                    } else {
+                        add(exact, prefix, i);
+                    }
+                } else if (ignoreCase) {
+                    add(prefixesIgnoreCase, fold(prefix), i);
+                    lengthsIgnoreCase.add(prefix.length());
+                } else {
+                    add(prefixes, prefix, i);
+                    lengths.add(prefix.length());
+                }
+            }
+        }
+
+        prefixLengths = toArray(lengths);
+        prefixLengthsIgnoreCase = toArray(lengthsIgnoreCase);
+        containsMatcher = partials.isEmpty() ? null : new ContainsMatcher(partials);
+    }
+
+    /**
+     * Get the maps which may produce a result for an input value.
+     * 
+     * @param value the input value
+     * 
+     * @return the positions of the candidate maps
+     */
+    @Nonnull BitSet getCandidates(@Nonnull final String value) {
+        final BitSet candidates = (BitSet) always.clone();
+
+        BitSet hits = exact.get(value);
+        if (hits != null) {
+            candidates.or(hits);
+        }
+
+        final String folded = exactIgnoreCase.isEmpty() && prefixesIgnoreCase.isEmpty() ? null : fold(value);
+        if (folded != null) {
+            hits = exactIgnoreCase.get(folded);
+            if (hits != null) {
+                candidates.or(hits);
+            }
+        }
+
+        for (final int length : prefixLengths) {
+            if (length > value.length()) {
+                break;
+            }
+            hits = prefixes.get(value.substring(0, length));
+            if (hits != null) {
+                candidates.or(hits);
+            }
+        }
+
+        for (final int length : prefixLengthsIgnoreCase) {
+            if (length > folded.length()) {
+                break;
+            }
+            hits = prefixesIgnoreCase.get(folded.substring(0, length));
+            if (hits != null) {
+                candidates.or(hits);
+            }
+        }
+
+        if (containsMatcher != null) {
+            containsMatcher.match(value, candidates);
+        }
+
+        return candidates;
+    }
+
+    /**
+     * Get the literal text that any match of a regular expression must begin with.
+     * 
+     * @param regex the regular expression
+     * 
+     * @return the prefix, which is the whole expression if it contains no metacharacters, or null if the
+     *  expression contains an alternation
+     */
+    @Nullable static String getLiteralPrefix(@Nonnull final String regex) {
+        if (regex.indexOf('|') >= 0) {
+            return null;
+        }
+
+        int end = 0;
+        while (end < regex.length() && METACHARACTERS.indexOf(regex.charAt(end)) < 0) {
+            end++;
+        }
+        if (end < regex.length() && end > 0 && OPTIONAL_QUANTIFIERS.indexOf(regex.charAt(end)) >= 0) {
+            end--;
+            if (end > 0 && Character.isLowSurrogate(regex.charAt(end))
+                    && Character.isHighSurrogate(regex.charAt(end - 1))) {
+                end--;
+            }
+        }
+        return regex.substring(0, end);
+    }
+
+    /**
+     * Fold the US-ASCII letters of a string to lower case.
+     * 
+     * @param value the string
+     * 
+     * @return the folded string
+     */
+    @Nonnull static String fold(@Nonnull final String value) {
+        char[] chars = null;
+        for (int i = 0; i < value.length(); i++) {
+            final char ch = value.charAt(i);
+            if (ch >= 'A' && ch <= 'Z') {
+                if (chars == null) {
+                    chars = value.toCharArray();
+                }
+                chars[i] = (char) (ch + ('a' - 'A'));
+            }
+        }
+        return chars == null ? value : new String(chars);
+    }
+
+    /**
+     * Record a map position against a key.
+     * 
+     * @param index the index to add to
+     * @param key the key
+     * @param position the position of the map
+     */
+    private static void add(@Nonnull final Map<String,BitSet> index, @Nonnull final String key, final int position) {
+        BitSet positions = index.get(key);
+        if (positions == null) {
+            positions = new BitSet();
+            index.put(key, positions);
+        }
+        positions.set(position);
+    }
+
+    /**
+     * Convert a set of lengths to an array.
+     * 
+     * @param lengths the lengths
+     * 
+     * @return the lengths in ascending order
+     */
+    @Nonnull private static int[] toArray(@Nonnull final TreeSet<Integer> lengths) {
+        final int[] result = new int[lengths.size()];
+        int i = 0;
+        for (final Integer length : lengths) {
+            result[i++] = length;
+        }
+        return result;
+    }
+
+    /** An Aho-Corasick automaton finding every map with a partial match value contained in the input. */
+    private static final class ContainsMatcher {
+
+        /** Transitions of each state. */
+        @Nonnull private final List<Map<Character,Integer>> transitions;
+
+        /** Failure transition of each state. */
+        @Nonnull private int[] failure;
+
+        /** Nearest state along the failure transitions with its own output, or -1. */
+        @Nonnull private int[] outputLink;
+
+        /** Map positions output by each state, or null. */
+        @Nonnull private final List<BitSet> outputs;
+
+        /**
+         * Constructor.
+         * 
+         * @param partials map positions by partial match value
+         */
+        ContainsMatcher(@Nonnull final Map<String,BitSet> partials) {
+            transitions = new ArrayList<>();
+            outputs = new ArrayList<>();
+            newState();
+
+            for (final Map.Entry<String,BitSet> entry : partials.entrySet()) {
+                int state = 0;
+                for (int i = 0; i < entry.getKey().length(); i++) {
+                    final Character ch = entry.getKey().charAt(i);
+                    Integer next = transitions.get(state).get(ch);
+                    if (next == null) {
+                        next = newState();
+                        transitions.get(state).put(ch, next);
+                    }
+                    state = next;
+                }
+                if (outputs.get(state) == null) {
+                    outputs.set(state, new BitSet());
+                }
+                outputs.get(state).or(entry.getValue());
+            }
+
+            failure = new int[transitions.size()];
+            outputLink = new int[transitions.size()];
+            outputLink[0] = -1;
+            final Queue<Integer> queue = new ArrayDeque<>();
+            for (final Integer child : transitions.get(0).values()) {
+                failure[child] = 0;
+                outputLink[child] = -1;
+                queue.add(child);
+            }
+            while (!queue.isEmpty()) {
+                final int state = queue.remove();
+                for (final Map.Entry<Character,Integer> transition : transitions.get(state).entrySet()) {
+                    final int child = transition.getValue();
+                    int fallback = failure[state];
+                    while (fallback != 0 && !transitions.get(fallback).containsKey(transition.getKey())) {
+                        fallback = failure[fallback];
+                    }
+                    final Integer target = transitions.get(fallback).get(transition.getKey());
+                    failure[child] = target != null && target != child ? target : 0;
+                    outputLink[child] = outputs.get(failure[child]) != null ? failure[child]
+                            : outputLink[failure[child]];
+                    queue.add(child);
+                }
+            }
+        }
+
+        /**
+         * Add the positions of every map with a partial match value contained in the input.
+         * 
+         * @param value the input
+         * @param candidates the positions to add to
+         */
+        void match(@Nonnull final String value, @Nonnull final BitSet candidates) {
+            int state = 0;
+            for (int i = 0; i < value.length(); i++) {
+                final Character ch = value.charAt(i);
+                Integer next = transitions.get(state).get(ch);
+                while (next == null && state != 0) {
+                    state = failure[state];
+                    next = transitions.get(state).get(ch);
+                }
+                state = next != null ? next : 0;
+
+                for (int out = outputs.get(state) != null ? state : outputLink[state]; out > 0;
+                        out = outputLink[out]) {
+                    candidates.or(outputs.get(out));
+                }
+            }
+        }
+
+        /**
+         * Add a state with no transitions or output.
+         * 
+         * @return the new state
+         */
+        private int newState() {
+            transitions.add(new HashMap<Character,Integer>());
+            outputs.add(null);
+            return transitions.size() - 1;
+        }
+    }
+
+}
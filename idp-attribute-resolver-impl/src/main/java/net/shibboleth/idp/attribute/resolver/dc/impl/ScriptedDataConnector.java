@@ -25,21 +25,24 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.script.ScriptContext;
 import javax.script.ScriptException;
-import javax.script.SimpleScriptContext;
 
 import net.shibboleth.idp.attribute.IdPAttribute;
 import net.shibboleth.idp.attribute.IdPAttributeValue;
 import net.shibboleth.idp.attribute.resolver.AbstractDataConnector;
 import net.shibboleth.idp.attribute.resolver.PluginDependencySupport;
 import net.shibboleth.idp.attribute.resolver.ResolutionException;
+import net.shibboleth.idp.attribute.resolver.ad.impl.LazyScriptContext;
 import net.shibboleth.idp.attribute.resolver.ad.impl.ScriptedIdPAttributeImpl;
 import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
 import net.shibboleth.idp.attribute.resolver.context.AttributeResolverWorkContext;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.component.ComponentSupport;
@@ -52,6 +55,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Function;
+import com.google.common.base.Supplier;
 
 /**
  * A Data Connector which populates a series of attributes from a provided {@link ProfileRequestContext}.
@@ -73,10 +77,18 @@ public class ScriptedDataConnector extends AbstractDataConnector {
     /** The custom object we inject into all scripts. */
     @Nullable private Object customObject;
 
+    /** Number of script executions. */
+    @Nonnull private final AtomicLong executionCount;
+
+    /** Cumulative time spent executing the script in nanoseconds. */
+    @Nonnull private final AtomicLong executionTime;
+
     /** Constructor. */
     public ScriptedDataConnector() {
         // Defaults to ProfileRequestContext -> RelyingPartyContext -> AttributeContext.
         prcLookupStrategy = new ParentContextLookup<>();
+        executionCount = new AtomicLong();
+        executionTime = new AtomicLong();
     }
 
     /**
@@ -132,6 +144,24 @@ public class ScriptedDataConnector extends AbstractDataConnector {
         prcLookupStrategy = Constraint.isNotNull(strategy, "ProfileRequestContext lookup strategy cannot be null");
     }
 
+    /**
+     * Get the number of times the script has been executed.
+     * 
+     * @return the number of executions
+     */
+    @NonNegative public long getExecutionCount() {
+        return executionCount.get();
+    }
+
+    /**
+     * Get the cumulative time spent executing the script, including failed executions.
+     * 
+     * @return the time in milliseconds
+     */
+    @NonNegative public long getExecutionTime() {
+        return TimeUnit.NANOSECONDS.toMillis(executionTime.get());
+    }
+
     /** {@inheritDoc} */
     @Override protected void doInitialize() throws ComponentInitializationException {
         super.doInitialize();
@@ -151,7 +181,7 @@ public class ScriptedDataConnector extends AbstractDataConnector {
     @Nonnull private ScriptContext getScriptContext(@Nonnull final AttributeResolutionContext resolutionContext,
             @Nonnull AttributeResolverWorkContext workContext) throws ResolutionException {
 
-        final SimpleScriptContext scriptContext = new SimpleScriptContext();
+        final LazyScriptContext scriptContext = new LazyScriptContext();
 
         log.debug("{} adding to-be-populated attribute set {} to script context", getLogPrefix(), RESULTS_STRING);
         scriptContext.setAttribute(RESULTS_STRING, new HashSet<>(), ScriptContext.ENGINE_SCOPE);
@@ -159,8 +189,11 @@ public class ScriptedDataConnector extends AbstractDataConnector {
         log.debug("{} adding current attribute resolution contexts to script context", getLogPrefix());
         scriptContext.setAttribute("resolutionContext", resolutionContext, ScriptContext.ENGINE_SCOPE);
         scriptContext.setAttribute("workContext", workContext, ScriptContext.ENGINE_SCOPE);
-        scriptContext.setAttribute("profileContext", prcLookupStrategy.apply(resolutionContext),
-                ScriptContext.ENGINE_SCOPE);
+        scriptContext.setLazyAttribute("profileContext", new Supplier<ProfileRequestContext>() {
+            public ProfileRequestContext get() {
+                return prcLookupStrategy.apply(resolutionContext);
+            }
+        });
         scriptContext.setAttribute("custom", getCustomObject(), ScriptContext.ENGINE_SCOPE);
 
         final Map<String, List<IdPAttributeValue<?>>> dependencyAttributes =
@@ -169,11 +202,15 @@ public class ScriptedDataConnector extends AbstractDataConnector {
         for (final Entry<String, List<IdPAttributeValue<?>>> dependencyAttribute : dependencyAttributes.entrySet()) {
             log.debug("{} adding dependent attribute '{}' with the following values to the script context: {}",
                     new Object[] {getLogPrefix(), dependencyAttribute.getKey(), dependencyAttribute.getValue(),});
-            final IdPAttribute pseudoAttribute = new IdPAttribute(dependencyAttribute.getKey());
-            pseudoAttribute.setValues(dependencyAttribute.getValue());
-
-            scriptContext.setAttribute(dependencyAttribute.getKey(), new ScriptedIdPAttributeImpl(pseudoAttribute,
-                    getLogPrefix()), ScriptContext.ENGINE_SCOPE);
+            final String attributeId = dependencyAttribute.getKey();
+            final List<IdPAttributeValue<?>> values = dependencyAttribute.getValue();
+            scriptContext.setLazyAttribute(attributeId, new Supplier<ScriptedIdPAttributeImpl>() {
+                public ScriptedIdPAttributeImpl get() {
+                    final IdPAttribute pseudoAttribute = new IdPAttribute(attributeId);
+                    pseudoAttribute.setValues(values);
+                    return new ScriptedIdPAttributeImpl(pseudoAttribute, getLogPrefix());
+                }
+            });
         }
 
         return scriptContext;
@@ -255,10 +292,14 @@ public class ScriptedDataConnector extends AbstractDataConnector {
 
         final ScriptContext context = getScriptContext(resolutionContext, workContext);
 
+        final long start = System.nanoTime();
         try {
             script.eval(context);
         } catch (final ScriptException e) {
             throw new ResolutionException(getLogPrefix() + " unable to execute script", e);
+        } finally {
+            executionCount.incrementAndGet();
+            executionTime.addAndGet(System.nanoTime() - start);
         }
 
         return buildResult(context);
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.attribute.resolver.ad.impl;
+
+import javax.script.ScriptContext;
+import javax.script.ScriptException;
+
+import net.shibboleth.utilities.java.support.scripting.EvaluableScript;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Supplier;
+
+/** Tests for {@link LazyScriptContext}. */
+public class LazyScriptContextTest {
+
+    @Test public void lazyAttributes() {
+        final LazyScriptContext context = new LazyScriptContext();
+        final CountingSupplier supplier = new CountingSupplier("value");
+        context.setLazyAttribute("lazy", supplier);
+        context.setAttribute("eager", "other", ScriptContext.ENGINE_SCOPE);
+
+        Assert.assertEquals(context.getAttributesScope("lazy"), ScriptContext.ENGINE_SCOPE);
+        Assert.assertEquals(context.getBindings(ScriptContext.ENGINE_SCOPE).size(), 2);
+        Assert.assertEquals(supplier.getCount(), 0);
+
+        Assert.assertEquals(context.getAttribute("lazy"), "value");
+        Assert.assertEquals(context.getAttribute("lazy"), "value");
+        Assert.assertEquals(supplier.getCount(), 1);
+
+        Assert.assertEquals(context.getAttributesScope("missing"), -1);
+        Assert.assertNull(context.getAttribute("missing"));
+    }
+
+    @Test public void replaceLazy() {
+        final LazyScriptContext context = new LazyScriptContext();
+        final CountingSupplier supplier = new CountingSupplier("value");
+        context.setLazyAttribute("lazy", supplier);
+        context.setAttribute("lazy", "replaced", ScriptContext.ENGINE_SCOPE);
+
+        Assert.assertEquals(context.getAttribute("lazy"), "replaced");
+        Assert.assertEquals(context.getBindings(ScriptContext.ENGINE_SCOPE).size(), 1);
+    }
+
+    @Test public void script() throws ScriptException {
+        final LazyScriptContext context = new LazyScriptContext();
+        final CountingSupplier used = new CountingSupplier("used");
+        final CountingSupplier unused = new CountingSupplier("unused");
+        context.setLazyAttribute("used", used);
+        context.setLazyAttribute("unused", unused);
+        final StringBuilder output = new StringBuilder();
+        context.setAttribute("output", output, ScriptContext.ENGINE_SCOPE);
+
+        final EvaluableScript script = new EvaluableScript("JavaScript", "output.append(used);");
+        script.eval(context);
+
+        Assert.assertEquals(output.toString(), "used");
+        Assert.assertEquals(used.getCount(), 1);
+        Assert.assertEquals(unused.getCount(), 0);
+    }
+
+    /** A supplier which counts its calls. */
+    private static final class CountingSupplier implements Supplier<String> {
+
+        private final String value;
+
+        private int count;
+
+        CountingSupplier(final String theValue) {
+            value = theValue;
+        }
+
+        public String get() {
+            count++;
+            return value;
+        }
+
+        int getCount() {
+            return count;
+        }
+    }
+
+}
@@ -122,6 +122,7 @@ public class ScriptedAttributeTest extends XMLObjectBaseTestCase {
         Assert.assertTrue(test.equals(val), "Scripted result is the same as bases");
         Assert.assertEquals(results.size(), 1, "Scripted result value count");
         Assert.assertEquals(results.iterator().next().getValue(), SIMPLE_VALUE, "Scripted result contains known value");
+        Assert.assertEquals(attr.getExecutionCount(), 1);
     }
 
     /**
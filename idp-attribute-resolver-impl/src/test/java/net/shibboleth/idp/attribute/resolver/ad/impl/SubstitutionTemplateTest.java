@@ -0,0 +1,75 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.attribute.resolver.ad.impl;
+
+import java.util.Arrays;
+import java.util.List;
+
+import net.shibboleth.utilities.java.support.velocity.Template;
+
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/** Tests for {@link SubstitutionTemplate}. */
+public class SubstitutionTemplateTest {
+
+    private static final List<String> NAMES = Arrays.asList("a", "b", "c-d");
+
+    private VelocityEngine engine;
+
+    @BeforeClass public void setUp() throws Exception {
+        engine = new VelocityEngine();
+        engine.addProperty("string.resource.loader.class",
+                "org.apache.velocity.runtime.resource.loader.StringResourceLoader");
+        engine.addProperty("resource.loader", "string");
+        engine.init();
+    }
+
+    @Test public void notCompiled() {
+        Assert.assertNull(SubstitutionTemplate.compile("#if($a)x#end", NAMES));
+        Assert.assertNull(SubstitutionTemplate.compile("${a.length()}", NAMES));
+        Assert.assertNull(SubstitutionTemplate.compile("$a-$b", NAMES));
+        Assert.assertNull(SubstitutionTemplate.compile("\\${a}", NAMES));
+        Assert.assertNull(SubstitutionTemplate.compile("${unknown}", NAMES));
+        Assert.assertNull(SubstitutionTemplate.compile("${a", NAMES));
+        Assert.assertNull(SubstitutionTemplate.compile("cost $5", NAMES));
+    }
+
+    @Test public void sameAsVelocity() {
+        final String[][] rows = {{"x", "y", "z"}, {"", "y", null}, {null, null, null}};
+        for (final String text : Arrays.asList("plain", "${a}", "${a}-${b}", "{${a}}@${c-d} ", "$!{a}:$!{c-d}",
+                "${a}${a}${b}")) {
+            final SubstitutionTemplate compiled = SubstitutionTemplate.compile(text, NAMES);
+            Assert.assertNotNull(compiled, text);
+            final Template template = Template.fromTemplate(engine, text);
+            for (final String[] row : rows) {
+                final VelocityContext context = new VelocityContext();
+                for (int i = 0; i < row.length; i++) {
+                    context.put(NAMES.get(i), row[i]);
+                }
+                final StringBuilder builder = new StringBuilder();
+                compiled.merge(row, builder);
+                Assert.assertEquals(builder.toString(), template.merge(context), text);
+            }
+        }
+    }
+
+}
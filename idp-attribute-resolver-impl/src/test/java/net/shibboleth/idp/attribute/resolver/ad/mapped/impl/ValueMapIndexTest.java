@@ -0,0 +1,142 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.attribute.resolver.ad.mapped.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import net.shibboleth.idp.attribute.StringAttributeValue;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for {@link ValueMapIndex}.
+ */
+public class ValueMapIndexTest {
+
+    @Test public void literalPrefix() {
+        Assert.assertEquals(ValueMapIndex.getLiteralPrefix("staff"), "staff");
+        Assert.assertEquals(ValueMapIndex.getLiteralPrefix("staff@(.+)"), "staff@");
+        Assert.assertEquals(ValueMapIndex.getLiteralPrefix("staffs?"), "staff");
+        Assert.assertEquals(ValueMapIndex.getLiteralPrefix("staffs+"), "staffs");
+        Assert.assertEquals(ValueMapIndex.getLiteralPrefix("staffs{0,1}"), "staff");
+        Assert.assertEquals(ValueMapIndex.getLiteralPrefix("^staff"), "");
+        Assert.assertEquals(ValueMapIndex.getLiteralPrefix("x?"), "");
+        Assert.assertNull(ValueMapIndex.getLiteralPrefix("staff|faculty"));
+    }
+
+    @Test public void fold() {
+        Assert.assertEquals(ValueMapIndex.fold("Staff@Example.ORG"), "staff@example.org");
+        Assert.assertEquals(ValueMapIndex.fold("ÉCOLE"), "École");
+    }
+
+    @Test public void candidates() {
+        final List<ValueMap> maps = Arrays.asList(
+                valueMap(new SourceValue("staff", false, false)),
+                valueMap(new SourceValue("Faculty", true, false)),
+                valueMap(new SourceValue("member@(.+)", false, false)),
+                valueMap(new SourceValue("alum", false, true)),
+                valueMap(new SourceValue(".*@example\\.org", false, false)));
+        final ValueMapIndex index = new ValueMapIndex(maps);
+
+        Assert.assertEquals(index.getCandidates("staff"), bits(0, 4));
+        Assert.assertEquals(index.getCandidates("FACULTY"), bits(1, 4));
+        Assert.assertEquals(index.getCandidates("member@example.org"), bits(2, 4));
+        Assert.assertEquals(index.getCandidates("exalumnus"), bits(3, 4));
+        Assert.assertEquals(index.getCandidates("nothing"), bits(4));
+    }
+
+    @Test public void equivalence() {
+        final List<ValueMap> maps = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            switch (i % 7) {
+                case 0:
+                    maps.add(valueMap(new SourceValue("dept" + i, false, false)));
+                    break;
+                case 1:
+                    maps.add(valueMap(new SourceValue("Dept" + i, true, false)));
+                    break;
+                case 2:
+                    maps.add(valueMap(new SourceValue("ou=" + i + ",(.*)", false, false)));
+                    break;
+                case 3:
+                    maps.add(valueMap(new SourceValue("OU=" + i + "s?", true, false)));
+                    break;
+                case 4:
+                    maps.add(valueMap(new SourceValue("grp" + i, false, true)));
+                    break;
+                case 5:
+                    maps.add(valueMap(new SourceValue("(dept|ou)" + i, false, false)));
+                    break;
+                default:
+                    maps.add(valueMap(new SourceValue("dept" + i, false, false),
+                            new SourceValue("p" + i + ".*", true, false)));
+                    break;
+            }
+        }
+        final ValueMap custom = new ValueMap() {
+            public Set<StringAttributeValue> apply(final String attributeValue) {
+                return Collections.singleton(new StringAttributeValue("custom"));
+            }
+        };
+        maps.add(custom);
+
+        final ValueMapIndex index = new ValueMapIndex(maps);
+        final List<String> inputs = new ArrayList<>();
+        for (int i = 0; i < 210; i++) {
+            inputs.add("dept" + i);
+            inputs.add("DEPT" + i);
+            inputs.add("ou=" + i + ",dc=example");
+            inputs.add("ou=" + i + "s");
+            inputs.add("x-grp" + i + "-y");
+            inputs.add("P" + i + "suffix");
+        }
+        inputs.add("");
+        inputs.add("unmatched");
+
+        for (final String input : inputs) {
+            final BitSet candidates = index.getCandidates(input);
+            for (int i = 0; i < maps.size(); i++) {
+                if (!maps.get(i).apply(input).isEmpty()) {
+                    Assert.assertTrue(candidates.get(i), "Map " + i + " matching '" + input + "' not a candidate");
+                }
+            }
+        }
+    }
+
+    private ValueMap valueMap(final SourceValue... sourceValues) {
+        final ValueMap map = new ValueMap();
+        map.setReturnValue("mapped");
+        map.setSourceValues(Arrays.asList(sourceValues));
+        return map;
+    }
+
+    private BitSet bits(final int... positions) {
+        final BitSet result = new BitSet();
+        for (final int position : positions) {
+            result.set(position);
+        }
+        return result;
+    }
+
+}
@@ -74,6 +74,7 @@ public class ScriptedDataConnectorTest {
         final Map<String, IdPAttribute> result = connector.resolve(context);
 
         Assert.assertEquals(result.size(), 3);
+        Assert.assertEquals(connector.getExecutionCount(), 1);
         
         List<IdPAttributeValue<?>> values = result.get("ScriptedOne").getValues();
         Assert.assertEquals(values.size(), 2);
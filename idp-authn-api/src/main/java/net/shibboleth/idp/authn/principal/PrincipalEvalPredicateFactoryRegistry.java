@@ -18,8 +18,10 @@
 package net.shibboleth.idp.authn.principal;
 
 import java.security.Principal;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -37,19 +39,24 @@ import net.shibboleth.utilities.java.support.primitive.StringSupport;
  * A registry of mappings between a custom {@link Principal} subtype with a matching operator
  * and a corresponding {@link PrincipalEvalPredicateFactory} that returns predicates enforcing
  * a particular set of matching rules for that operator and subtype.
+ * 
+ * <p>The mappings are held in an immutable structure indexed first by principal type (by identity)
+ * and then by operator, and replaced wholesale when a mapping is added or removed. Lookups are
+ * therefore lock-free and do not allocate, which matters because they occur inside the nested loops
+ * of flow selection.</p>
  */
 public final class PrincipalEvalPredicateFactoryRegistry {
 
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(PrincipalEvalPredicateFactoryRegistry.class);
     
-    /** Storage for the registry mappings. */
+    /** Storage for the registry mappings, replaced on every modification. */
     @Nonnull @NonnullElements
-    private Map<Pair<Class<? extends Principal>, String>, PrincipalEvalPredicateFactory> registry;
+    private volatile Map<Class<? extends Principal>, Map<String,PrincipalEvalPredicateFactory>> registry;
 
     /** Constructor. */
     public PrincipalEvalPredicateFactoryRegistry() {
-        registry = new ConcurrentHashMap();
+        registry = Collections.emptyMap();
     }
     
     /**
@@ -59,7 +66,25 @@ public final class PrincipalEvalPredicateFactoryRegistry {
      */
     public PrincipalEvalPredicateFactoryRegistry(@Nonnull @NonnullElements
             Map<Pair<Class<? extends Principal>, String>, PrincipalEvalPredicateFactory> fromMap) {
-        registry = new ConcurrentHashMap(Constraint.isNotNull(fromMap, "Source map cannot be null"));
+        Constraint.isNotNull(fromMap, "Source map cannot be null");
+        
+        final Map<Class<? extends Principal>, Map<String,PrincipalEvalPredicateFactory>> copy =
+                new IdentityHashMap<>();
+        for (final Map.Entry<Pair<Class<? extends Principal>, String>, PrincipalEvalPredicateFactory> entry
+                : fromMap.entrySet()) {
+            final Class<? extends Principal> principalType =
+                    Constraint.isNotNull(entry.getKey().getFirst(), "Principal subtype cannot be null");
+            final String trimmed = Constraint.isNotNull(StringSupport.trimOrNull(entry.getKey().getSecond()),
+                    "Operator cannot be null or empty");
+            Map<String,PrincipalEvalPredicateFactory> byOperator = copy.get(principalType);
+            if (byOperator == null) {
+                byOperator = new HashMap<>();
+                copy.put(principalType, byOperator);
+            }
+            byOperator.put(trimmed.intern(),
+                    Constraint.isNotNull(entry.getValue(), "PrincipalEvalPredicateFactory cannot be null"));
+        }
+        registry = freeze(copy);
     }
     
     /**
@@ -72,13 +97,16 @@ public final class PrincipalEvalPredicateFactoryRegistry {
     @Nullable public PrincipalEvalPredicateFactory lookup(@Nonnull final Class<? extends Principal> principalType,
             @Nonnull @NotEmpty final String operator) {
         Constraint.isNotNull(principalType, "Principal subtype cannot be null");
-        String trimmed = Constraint.isNotNull(StringSupport.trimOrNull(operator), "Operator cannot be null or empty");
+        final String trimmed =
+                Constraint.isNotNull(StringSupport.trimOrNull(operator), "Operator cannot be null or empty");
         
-        Pair key = new Pair(principalType, trimmed);
-        PrincipalEvalPredicateFactory factory = registry.get(key);
+        final Map<String,PrincipalEvalPredicateFactory> byOperator = registry.get(principalType);
+        final PrincipalEvalPredicateFactory factory = byOperator != null ? byOperator.get(trimmed) : null;
         if (factory != null) {
-            log.debug("Registry located predicate factory of type '{}' for principal type '{}' and operator '{}'",
-                    factory.getClass().getName(), principalType, trimmed);
+            if (log.isTraceEnabled()) {
+                log.trace("Registry located predicate factory of type '{}' for principal type '{}' and operator '{}'",
+                        factory.getClass().getName(), principalType, trimmed);
+            }
             return factory;
         } else {
             log.debug("Registry failed to locate predicate factory for principal type '{}' and operator '{}'",
@@ -102,7 +130,16 @@ public final class PrincipalEvalPredicateFactoryRegistry {
         
         log.debug("Registering predicate factory of type '{}' for principal type '{}' and operator '{}'",
                 factory.getClass().getName(), principalType, operator);
-        registry.put(new Pair(principalType, trimmed), factory);
+        synchronized (this) {
+            final Map<Class<? extends Principal>, Map<String,PrincipalEvalPredicateFactory>> copy = thaw();
+            Map<String,PrincipalEvalPredicateFactory> byOperator = copy.get(principalType);
+            if (byOperator == null) {
+                byOperator = new HashMap<>();
+                copy.put(principalType, byOperator);
+            }
+            byOperator.put(trimmed.intern(), factory);
+            registry = freeze(copy);
+        }
     }
     
     /**
@@ -117,6 +154,49 @@ public final class PrincipalEvalPredicateFactoryRegistry {
         String trimmed = Constraint.isNotNull(StringSupport.trimOrNull(operator), "Operator cannot be null or empty");
         
         log.debug("Deregistering predicate factory for principal type '{}' and operator '{}'", principalType, operator);
-        registry.remove(new Pair(principalType, trimmed));
+        synchronized (this) {
+            final Map<Class<? extends Principal>, Map<String,PrincipalEvalPredicateFactory>> copy = thaw();
+            final Map<String,PrincipalEvalPredicateFactory> byOperator = copy.get(principalType);
+            if (byOperator != null) {
+                byOperator.remove(trimmed);
+                if (byOperator.isEmpty()) {
+                    copy.remove(principalType);
+                }
+                registry = freeze(copy);
+            }
+        }
+    }
+    
+    /**
+     * Build a mutable deep copy of the current mappings.
+     * 
+     * @return a mutable copy of the registry
+     */
+    @Nonnull @NonnullElements
+    private Map<Class<? extends Principal>, Map<String,PrincipalEvalPredicateFactory>> thaw() {
+        final Map<Class<? extends Principal>, Map<String,PrincipalEvalPredicateFactory>> copy =
+                new IdentityHashMap<>(registry.size() + 1);
+        for (final Map.Entry<Class<? extends Principal>, Map<String,PrincipalEvalPredicateFactory>> entry
+                : registry.entrySet()) {
+            copy.put(entry.getKey(), new HashMap<>(entry.getValue()));
+        }
+        return copy;
+    }
+    
+    /**
+     * Convert a set of mappings into the immutable form used for lookup.
+     * 
+     * @param mappings mutable mappings to freeze
+     * 
+     * @return an unmodifiable view of the mappings
+     */
+    @Nonnull @NonnullElements private static Map<Class<? extends Principal>, Map<String,PrincipalEvalPredicateFactory>>
+            freeze(@Nonnull @NonnullElements
+                    final Map<Class<? extends Principal>, Map<String,PrincipalEvalPredicateFactory>> mappings) {
+        for (final Map.Entry<Class<? extends Principal>, Map<String,PrincipalEvalPredicateFactory>> entry
+                : mappings.entrySet()) {
+            entry.setValue(Collections.unmodifiableMap(entry.getValue()));
+        }
+        return Collections.unmodifiableMap(mappings);
     }
 }
\ No newline at end of file
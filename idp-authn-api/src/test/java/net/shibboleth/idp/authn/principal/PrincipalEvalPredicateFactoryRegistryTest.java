@@ -0,0 +1,66 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.authn.principal;
+
+import java.security.Principal;
+import java.util.Collections;
+
+import javax.annotation.Nonnull;
+
+import net.shibboleth.utilities.java.support.collection.Pair;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/** {@link PrincipalEvalPredicateFactoryRegistry} unit test. */
+public class PrincipalEvalPredicateFactoryRegistryTest {
+
+    private final PrincipalEvalPredicateFactory factory = new PrincipalEvalPredicateFactory() {
+        @Nonnull public PrincipalEvalPredicate getPredicate(@Nonnull final Principal candidate) {
+            return null;
+        }
+    };
+
+    @Test public void testEmpty() {
+        final PrincipalEvalPredicateFactoryRegistry registry = new PrincipalEvalPredicateFactoryRegistry();
+        Assert.assertNull(registry.lookup(TestPrincipal.class, "exact"));
+    }
+
+    @Test public void testFromMap() {
+        final PrincipalEvalPredicateFactoryRegistry registry = new PrincipalEvalPredicateFactoryRegistry(
+                Collections.<Pair<Class<? extends Principal>, String>, PrincipalEvalPredicateFactory>singletonMap(
+                        new Pair<Class<? extends Principal>, String>(TestPrincipal.class, " exact "), factory));
+        Assert.assertSame(registry.lookup(TestPrincipal.class, "exact"), factory);
+        Assert.assertSame(registry.lookup(TestPrincipal.class, " exact"), factory);
+        Assert.assertNull(registry.lookup(TestPrincipal.class, "minimum"));
+        Assert.assertNull(registry.lookup(UsernamePrincipal.class, "exact"));
+    }
+
+    @Test public void testRegisterDeregister() {
+        final PrincipalEvalPredicateFactoryRegistry registry = new PrincipalEvalPredicateFactoryRegistry();
+        registry.register(TestPrincipal.class, "exact", factory);
+        registry.register(UsernamePrincipal.class, "minimum", factory);
+        Assert.assertSame(registry.lookup(TestPrincipal.class, "exact"), factory);
+        Assert.assertSame(registry.lookup(UsernamePrincipal.class, "minimum"), factory);
+
+        registry.deregister(TestPrincipal.class, "exact");
+        Assert.assertNull(registry.lookup(TestPrincipal.class, "exact"));
+        Assert.assertSame(registry.lookup(UsernamePrincipal.class, "minimum"), factory);
+    }
+
+}
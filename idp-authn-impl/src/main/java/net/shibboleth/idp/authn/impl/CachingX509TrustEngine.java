@@ -0,0 +1,347 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.authn.impl;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.codec.Base64Support;
+import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
+
+import org.opensaml.security.SecurityException;
+import org.opensaml.security.trust.TrustEngine;
+import org.opensaml.security.x509.X509Credential;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * A {@link TrustEngine} that wraps another engine and remembers successful validations of X.509 credentials,
+ * so that repeated presentation of the same certificate chain does not require path building.
+ *
+ * <p>Entries are keyed by the SHA-256 fingerprint of the certificate chain, qualified by the identity of the
+ * wrapped engine, and live no longer than the configured lifetime or the expiration of the end-entity
+ * certificate, whichever comes first. Only positive results are cached, and only when no additional criteria
+ * are supplied.</p>
+ *
+ * <p>If a revalidation interval is set, a background task periodically re-runs the wrapped engine against
+ * every cached credential and evicts any that no longer validate, which picks up changes such as newly
+ * published CRLs without burdening the request path.</p>
+ */
+public class CachingX509TrustEngine extends AbstractInitializableComponent implements TrustEngine<X509Credential> {
+
+    /** Digest algorithm used to fingerprint certificate chains. */
+    @Nonnull private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(CachingX509TrustEngine.class);
+
+    /** The engine to delegate to. */
+    @NonnullAfterInit private TrustEngine<? super X509Credential> trustEngine;
+
+    /** Maximum lifetime of a cached result. */
+    @Duration @Positive private long cacheLifetime;
+
+    /** Maximum number of cached results. */
+    @Positive private long maxCacheSize;
+
+    /** Interval between background revalidations, or 0 for none. */
+    @Duration @NonNegative private long revalidationInterval;
+
+    /** Timer used to schedule background revalidation. */
+    @Nullable private Timer taskTimer;
+
+    /** Whether the timer was created by this object and must be cancelled on destruction. */
+    private boolean createdOwnTaskTimer;
+
+    /** Scheduled revalidation task. */
+    @Nullable private TimerTask revalidationTask;
+
+    /** Qualifier identifying the wrapped engine within a cache key. */
+    @NonnullAfterInit private String engineKey;
+
+    /** Cached validation results. */
+    @NonnullAfterInit private Cache<String,CachedValidation> cache;
+
+    /** Constructor. */
+    public CachingX509TrustEngine() {
+        cacheLifetime = 60 * 60 * 1000;
+        maxCacheSize = 10000;
+    }
+
+    /**
+     * Set the {@link TrustEngine} to wrap.
+     *
+     * @param tm trust engine to wrap
+     */
+    public void setTrustEngine(@Nonnull final TrustEngine<? super X509Credential> tm) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        trustEngine = Constraint.isNotNull(tm, "TrustEngine cannot be null");
+    }
+
+    /**
+     * Set the maximum lifetime of a cached validation result.
+     *
+     * @param lifetime lifetime in milliseconds
+     */
+    public void setCacheLifetime(@Duration @Positive final long lifetime) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        cacheLifetime = Constraint.isGreaterThan(0, lifetime, "Cache lifetime must be greater than 0");
+    }
+
+    /**
+     * Set the maximum number of cached validation results.
+     *
+     * @param size maximum number of entries
+     */
+    public void setMaxCacheSize(@Positive final long size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        maxCacheSize = Constraint.isGreaterThan(0, size, "Maximum cache size must be greater than 0");
+    }
+
+    /**
+     * Set the interval between background revalidations of cached results, or 0 to disable.
+     *
+     * @param interval interval in milliseconds
+     */
+    public void setRevalidationInterval(@Duration @NonNegative final long interval) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        revalidationInterval = Constraint.isGreaterThanOrEqual(0, interval,
+                "Revalidation interval must be greater than or equal to 0");
+    }
+
+    /**
+     * Set the timer to use for background revalidation.
+     *
+     * <p>If not set and revalidation is enabled, a private daemon timer is created.</p>
+     *
+     * @param timer timer to use
+     */
+    public void setTaskTimer(@Nullable final Timer timer) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        taskTimer = timer;
+    }
+
+    /** Discard all cached validation results. */
+    public void invalidateAll() {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+
+        cache.invalidateAll();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+
+        if (trustEngine == null) {
+            throw new ComponentInitializationException("TrustEngine cannot be null");
+        }
+
+        engineKey = trustEngine.getClass().getName() + '@' + Integer.toHexString(System.identityHashCode(trustEngine));
+        cache = CacheBuilder.newBuilder().maximumSize(maxCacheSize)
+                .expireAfterWrite(cacheLifetime, TimeUnit.MILLISECONDS).build();
+
+        if (revalidationInterval > 0) {
+            if (taskTimer == null) {
+                taskTimer = new Timer(CachingX509TrustEngine.class.getSimpleName(), true);
+                createdOwnTaskTimer = true;
+            }
+            revalidationTask = new TimerTask() {
+                public void run() {
+                    revalidate();
+                }
+            };
+            taskTimer.schedule(revalidationTask, revalidationInterval, revalidationInterval);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        if (revalidationTask != null) {
+            revalidationTask.cancel();
+            revalidationTask = null;
+        }
+        if (createdOwnTaskTimer && taskTimer != null) {
+            taskTimer.cancel();
+        }
+        taskTimer = null;
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+
+        super.doDestroy();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean validate(@Nonnull final X509Credential token, @Nullable final CriteriaSet trustBasisCriteria)
+            throws SecurityException {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+
+        if (trustBasisCriteria != null && !trustBasisCriteria.isEmpty()) {
+            log.debug("Criteria supplied, bypassing validation cache");
+            return trustEngine.validate(token, trustBasisCriteria);
+        }
+
+        final String key = getCacheKey(token);
+        if (key == null) {
+            return trustEngine.validate(token, trustBasisCriteria);
+        }
+
+        final long now = System.currentTimeMillis();
+        final CachedValidation cached = cache.getIfPresent(key);
+        if (cached != null) {
+            if (cached.getExpiration() > now) {
+                log.debug("Using cached validation result for certificate '{}'",
+                        token.getEntityCertificate().getSubjectX500Principal().getName());
+                return true;
+            }
+            cache.invalidate(key);
+        }
+
+        if (!trustEngine.validate(token, trustBasisCriteria)) {
+            return false;
+        }
+
+        final long notAfter = token.getEntityCertificate().getNotAfter().getTime();
+        if (notAfter > now) {
+            cache.put(key, new CachedValidation(token, Math.min(notAfter, now + cacheLifetime)));
+        }
+        return true;
+    }
+
+    /**
+     * Re-run the wrapped engine against every cached credential, evicting those that fail or have expired.
+     */
+    protected void revalidate() {
+        final long now = System.currentTimeMillis();
+        log.debug("Revalidating {} cached X.509 validation results", cache.size());
+
+        for (final Map.Entry<String,CachedValidation> entry : cache.asMap().entrySet()) {
+            if (entry.getValue().getExpiration() <= now) {
+                cache.invalidate(entry.getKey());
+                continue;
+            }
+            try {
+                if (!trustEngine.validate(entry.getValue().getCredential(), new CriteriaSet())) {
+                    log.info("Certificate '{}' no longer validates, evicting from cache",
+                            entry.getValue().getCredential().getEntityCertificate().getSubjectX500Principal()
+                                .getName());
+                    cache.invalidate(entry.getKey());
+                }
+            } catch (final SecurityException|RuntimeException e) {
+                log.warn("Error revalidating cached certificate, evicting from cache", e);
+                cache.invalidate(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Compute the cache key for a credential.
+     *
+     * @param token credential to key
+     *
+     * @return the key, or null if the credential cannot be fingerprinted
+     */
+    @Nullable private String getCacheKey(@Nonnull final X509Credential token) {
+        if (token.getEntityCertificate() == null) {
+            return null;
+        }
+
+        try {
+            final MessageDigest md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            md.update(token.getEntityCertificate().getEncoded());
+            if (token.getEntityCertificateChain() != null) {
+                for (final X509Certificate cert : token.getEntityCertificateChain()) {
+                    md.update((byte) '!');
+                    md.update(cert.getEncoded());
+                }
+            }
+            return engineKey + '!' + Base64Support.encode(md.digest(), Base64Support.UNCHUNKED);
+        } catch (final NoSuchAlgorithmException | CertificateEncodingException e) {
+            log.warn("Unable to fingerprint certificate, bypassing validation cache", e);
+            return null;
+        }
+    }
+
+    /** A cached validation result. */
+    private static final class CachedValidation {
+
+        /** The validated credential. */
+        @Nonnull private final X509Credential credential;
+
+        /** Time after which the result is no longer usable. */
+        private final long expiration;
+
+        /**
+         * Constructor.
+         *
+         * @param cred validated credential
+         * @param exp expiration of the result
+         */
+        private CachedValidation(@Nonnull final X509Credential cred, final long exp) {
+            credential = cred;
+            expiration = exp;
+        }
+
+        /**
+         * Get the validated credential.
+         *
+         * @return the credential
+         */
+        @Nonnull public X509Credential getCredential() {
+            return credential;
+        }
+
+        /**
+         * Get the time after which the result is no longer usable.
+         *
+         * @return expiration time
+         */
+        public long getExpiration() {
+            return expiration;
+        }
+    }
+
+}
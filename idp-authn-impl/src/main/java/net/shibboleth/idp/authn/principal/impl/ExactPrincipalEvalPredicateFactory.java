@@ -27,19 +27,44 @@ import net.shibboleth.idp.authn.principal.PrincipalEvalPredicateFactory;
 import net.shibboleth.idp.authn.principal.PrincipalSupportingComponent;
 import net.shibboleth.utilities.java.support.logic.Constraint;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 /**
  * {@link PrincipalEvalPredicateFactory} that implements exact matching of principals,
  * and works for any type.
+ * 
+ * <p>The predicates produced are stateless, so they are cached per principal to avoid
+ * allocating new ones during flow selection. The cache is bounded because requested principals
+ * may originate from requests.</p>
  */
 public class ExactPrincipalEvalPredicateFactory implements PrincipalEvalPredicateFactory {
 
+    /** Default maximum number of cached predicates. */
+    private static final long DEFAULT_CACHE_SIZE = 500;
+
+    /** Previously built predicates. */
+    @Nonnull private final Cache<Principal,PrincipalEvalPredicate> predicateCache;
+
+    /** Constructor. */
+    public ExactPrincipalEvalPredicateFactory() {
+        predicateCache = CacheBuilder.newBuilder().maximumSize(DEFAULT_CACHE_SIZE).build();
+    }
+
     /** {@inheritDoc} */
     @Nonnull public PrincipalEvalPredicate getPredicate(@Nonnull final Principal candidate) {
-        return new ExactMatchPredicate(candidate);
+        Constraint.isNotNull(candidate, "Principal cannot be null");
+        
+        PrincipalEvalPredicate predicate = predicateCache.getIfPresent(candidate);
+        if (predicate == null) {
+            predicate = new ExactMatchPredicate(candidate);
+            predicateCache.put(candidate, predicate);
+        }
+        return predicate;
     }
 
     /** Implementation of an exact-matching predicate. */
-    private class ExactMatchPredicate implements PrincipalEvalPredicate {
+    private static class ExactMatchPredicate implements PrincipalEvalPredicate {
 
         /** The principal object to compare against. */
         @Nonnull private final Principal principal;
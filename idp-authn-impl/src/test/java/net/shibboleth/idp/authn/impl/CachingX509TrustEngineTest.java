@@ -0,0 +1,117 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.authn.impl;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Date;
+
+import javax.security.auth.x500.X500Principal;
+
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
+
+import org.opensaml.security.SecurityException;
+import org.opensaml.security.trust.TrustEngine;
+import org.opensaml.security.x509.X509Credential;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/** {@link CachingX509TrustEngine} unit test. */
+public class CachingX509TrustEngineTest {
+
+    private TrustEngine<X509Credential> delegate;
+
+    private CachingX509TrustEngine engine;
+
+    @SuppressWarnings("unchecked")
+    @BeforeMethod public void setUp() throws ComponentInitializationException {
+        delegate = mock(TrustEngine.class);
+        engine = new CachingX509TrustEngine();
+        engine.setTrustEngine(delegate);
+        engine.initialize();
+    }
+
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testNoEngine() throws ComponentInitializationException {
+        new CachingX509TrustEngine().initialize();
+    }
+
+    @Test public void testCachedSuccess() throws SecurityException, CertificateEncodingException {
+        final X509Credential cred = buildCredential(new byte[] {1, 2, 3}, System.currentTimeMillis() + 3600000);
+        when(delegate.validate(any(X509Credential.class), any(CriteriaSet.class))).thenReturn(true);
+
+        Assert.assertTrue(engine.validate(cred, new CriteriaSet()));
+        Assert.assertTrue(engine.validate(cred, new CriteriaSet()));
+        verify(delegate, times(1)).validate(any(X509Credential.class), any(CriteriaSet.class));
+
+        engine.invalidateAll();
+        Assert.assertTrue(engine.validate(cred, new CriteriaSet()));
+        verify(delegate, times(2)).validate(any(X509Credential.class), any(CriteriaSet.class));
+    }
+
+    @Test public void testFailureNotCached() throws SecurityException, CertificateEncodingException {
+        final X509Credential cred = buildCredential(new byte[] {1, 2, 3}, System.currentTimeMillis() + 3600000);
+        when(delegate.validate(any(X509Credential.class), any(CriteriaSet.class))).thenReturn(false);
+
+        Assert.assertFalse(engine.validate(cred, new CriteriaSet()));
+        Assert.assertFalse(engine.validate(cred, new CriteriaSet()));
+        verify(delegate, times(2)).validate(any(X509Credential.class), any(CriteriaSet.class));
+    }
+
+    @Test public void testExpiredNotCached() throws SecurityException, CertificateEncodingException {
+        final X509Credential cred = buildCredential(new byte[] {1, 2, 3}, System.currentTimeMillis() - 1000);
+        when(delegate.validate(any(X509Credential.class), any(CriteriaSet.class))).thenReturn(true);
+
+        Assert.assertTrue(engine.validate(cred, new CriteriaSet()));
+        Assert.assertTrue(engine.validate(cred, new CriteriaSet()));
+        verify(delegate, times(2)).validate(any(X509Credential.class), any(CriteriaSet.class));
+    }
+
+    @Test public void testDistinctCertificates() throws SecurityException, CertificateEncodingException {
+        final X509Credential cred1 = buildCredential(new byte[] {1, 2, 3}, System.currentTimeMillis() + 3600000);
+        final X509Credential cred2 = buildCredential(new byte[] {4, 5, 6}, System.currentTimeMillis() + 3600000);
+        when(delegate.validate(any(X509Credential.class), any(CriteriaSet.class))).thenReturn(true);
+
+        Assert.assertTrue(engine.validate(cred1, new CriteriaSet()));
+        Assert.assertTrue(engine.validate(cred2, new CriteriaSet()));
+        verify(delegate, times(2)).validate(any(X509Credential.class), any(CriteriaSet.class));
+    }
+
+    private X509Credential buildCredential(final byte[] encoded, final long notAfter)
+            throws CertificateEncodingException {
+        final X509Certificate cert = mock(X509Certificate.class);
+        when(cert.getEncoded()).thenReturn(encoded);
+        when(cert.getNotAfter()).thenReturn(new Date(notAfter));
+        when(cert.getSubjectX500Principal()).thenReturn(new X500Principal("CN=foo.example.org"));
+
+        final X509Credential cred = mock(X509Credential.class);
+        when(cred.getEntityCertificate()).thenReturn(cert);
+        when(cred.getEntityCertificateChain()).thenReturn(Collections.singletonList(cert));
+        return cred;
+    }
+
+}
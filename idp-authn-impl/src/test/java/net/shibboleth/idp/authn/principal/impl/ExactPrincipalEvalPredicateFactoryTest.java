@@ -65,4 +65,9 @@ public class ExactPrincipalEvalPredicateFactoryTest {
         Assert.assertFalse(factory.getPredicate(bar).apply(sample));
     }
 
+    @Test public void testPredicateReuse() {
+        Assert.assertSame(factory.getPredicate(foo), factory.getPredicate(new UsernamePrincipal("foo")));
+        Assert.assertNotSame(factory.getPredicate(foo), factory.getPredicate(bar));
+    }
+
 }
\ No newline at end of file
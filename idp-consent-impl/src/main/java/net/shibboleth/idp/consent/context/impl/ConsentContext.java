@@ -43,6 +43,9 @@ public class ConsentContext extends BaseContext {
     /** Map of current consent extracted from user input and keyed by consent id. */
     @Nonnull @NonnullElements @Live private Map<String, Consent> currentConsents;
 
+    /** Whether a previous consent was migrated from an earlier form and needs to be stored again. */
+    private boolean previousConsentsMigrated;
+
     /** Constructor. */
     public ConsentContext() {
         previousConsents = new LinkedHashMap<>();
@@ -67,11 +70,30 @@ public class ConsentContext extends BaseContext {
         return previousConsents;
     }
 
+    /**
+     * Get whether a previous consent was migrated from an earlier form and needs to be stored again.
+     * 
+     * @return whether a previous consent was migrated from an earlier form
+     */
+    public boolean isPreviousConsentsMigrated() {
+        return previousConsentsMigrated;
+    }
+
+    /**
+     * Set whether a previous consent was migrated from an earlier form and needs to be stored again.
+     * 
+     * @param flag whether a previous consent was migrated from an earlier form
+     */
+    public void setPreviousConsentsMigrated(final boolean flag) {
+        previousConsentsMigrated = flag;
+    }
+
     /** {@inheritDoc} */
     @Override public String toString() {
         return MoreObjects.toStringHelper(this)
                 .add("previousConsents", previousConsents)
                 .add("chosenConsents", currentConsents)
+                .add("previousConsentsMigrated", previousConsentsMigrated)
                 .toString();
     }
 
@@ -24,12 +24,15 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import net.shibboleth.idp.consent.flow.impl.ConsentFlowDescriptor;
+import net.shibboleth.idp.consent.impl.Consent;
 import net.shibboleth.idp.consent.storage.impl.CollectionSerializer;
+import net.shibboleth.idp.consent.storage.impl.ConsolidatedConsentRecord;
 import net.shibboleth.idp.profile.context.ProfileInterceptorContext;
 import net.shibboleth.idp.profile.interceptor.ProfileInterceptorResult;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
@@ -46,6 +49,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Function;
+import com.google.common.base.Predicate;
 
 /**
  * Base class for consent actions which write to a {@link org.opensaml.storage.StorageService}.
@@ -53,6 +57,9 @@ import com.google.common.base.Function;
  * To facilitate lookup of all storage keys for a storage context, an index record is maintained containing the storage
  * keys for the context. Because storage records may expire, the index record may contain keys which no longer exist in
  * the storage service.
+ * 
+ * When consents are stored in a consolidated consent record, no index record is needed: the record itself holds the
+ * storage keys, oldest first, and is pruned as part of the same write.
  */
 public class AbstractConsentIndexedStorageAction extends AbstractConsentStorageAction {
 
@@ -147,7 +154,7 @@ public class AbstractConsentIndexedStorageAction extends AbstractConsentStorageA
 
         storageIndexKey = storageIndexKeyLookupStrategy.apply(profileRequestContext);
         log.trace("{} Storage index key '{}'", getLogPrefix(), storageIndexKey);
-        if (storageIndexKey == null) {
+        if (storageIndexKey == null && !isConsolidatedStorage()) {
             log.debug("{} No storage index key", getLogPrefix());
             return false;
         }
@@ -245,6 +252,20 @@ public class AbstractConsentIndexedStorageAction extends AbstractConsentStorageA
         }
     }
 
+    /**
+     * Get the maximum number of storage records to retain, based on the record maximums set on the flow descriptor
+     * and the storage service value size.
+     * 
+     * @return the maximum number of storage records, or a number not greater than zero for no maximum
+     */
+    protected int getMaximumNumberOfStoredRecords() {
+        final ConsentFlowDescriptor flowDescriptor = getConsentFlowDescriptor();
+        if (getStorageService().getCapabilities().getValueSize() >= flowDescriptor.getExpandedStorageThreshold()) {
+            return flowDescriptor.getExpandedNumberOfStoredRecords();
+        }
+        return flowDescriptor.getMaximumNumberOfStoredRecords();
+    }
+
     /**
      * Storage records will be pruned based on the record maximums set on the flow descriptor,
      * and the storage service value size. Below a defined threshold, the basic maximum is applied, while at
@@ -260,11 +281,7 @@ public class AbstractConsentIndexedStorageAction extends AbstractConsentStorageA
      */
     protected void pruneStorageRecords(@Nonnull final ProfileRequestContext profileRequestContext) throws IOException {
 
-        final ConsentFlowDescriptor flowDescriptor = getConsentFlowDescriptor();
-        int maxStoredRecords = flowDescriptor.getMaximumNumberOfStoredRecords();
-        if (getStorageService().getCapabilities().getValueSize() >= flowDescriptor.getExpandedStorageThreshold()) {
-            maxStoredRecords = flowDescriptor.getExpandedNumberOfStoredRecords();
-        }
+        final int maxStoredRecords = getMaximumNumberOfStoredRecords();
         
         if (maxStoredRecords <= 0) {
             log.trace("{} Will not prune storage records, maximum number of records is not greater than zero",
@@ -360,4 +377,34 @@ public class AbstractConsentIndexedStorageAction extends AbstractConsentStorageA
 
         addKeyToStorageIndex(result.getStorageKey());
     }
+
+    /**
+     * Store consents as the newest entry of the consolidated consent record, pruning the oldest entries so that the
+     * number of entries is less than or equal to the maximum number of stored records.
+     * 
+     * @param consents the consents to be stored
+     * @param expiration the expiration of the entry, or <code>null</code>
+     * @return whether the consents were stored successfully
+     * @throws IOException if an error occurs
+     */
+    protected boolean storeConsolidatedConsents(@Nonnull @NonnullElements final Map<String, Consent> consents,
+            @Nullable final Long expiration) throws IOException {
+
+        final String key = getStorageKey();
+        final int maxStoredRecords = getMaximumNumberOfStoredRecords();
+
+        return updateConsolidatedRecord(new Predicate<ConsolidatedConsentRecord>() {
+            public boolean apply(final ConsolidatedConsentRecord record) {
+                record.put(key, consents, expiration);
+                if (maxStoredRecords > 0) {
+                    final int pruned = record.prune(maxStoredRecords);
+                    if (pruned > 0) {
+                        log.debug("{} Pruned '{}' entries from consolidated consent record of max '{}'",
+                                getLogPrefix(), pruned, maxStoredRecords);
+                    }
+                }
+                return true;
+            }
+        });
+    }
 }
@@ -17,26 +17,34 @@
 
 package net.shibboleth.idp.consent.flow.storage.impl;
 
+import java.io.IOException;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import net.shibboleth.idp.consent.flow.impl.AbstractConsentAction;
 import net.shibboleth.idp.consent.logic.impl.FlowIdLookupFunction;
 import net.shibboleth.idp.consent.storage.impl.ConsentSerializer;
+import net.shibboleth.idp.consent.storage.impl.ConsolidatedConsentRecord;
+import net.shibboleth.idp.consent.storage.impl.ConsolidatedConsentRecordSerializer;
 import net.shibboleth.idp.profile.context.ProfileInterceptorContext;
 import net.shibboleth.idp.profile.interceptor.ProfileInterceptorFlowDescriptor;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.component.ComponentSupport;
 import net.shibboleth.utilities.java.support.logic.Constraint;
 
 import org.opensaml.profile.context.ProfileRequestContext;
+import org.opensaml.storage.StorageRecord;
 import org.opensaml.storage.StorageSerializer;
 import org.opensaml.storage.StorageService;
+import org.opensaml.storage.VersionMismatchException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Function;
+import com.google.common.base.Predicate;
 
 /**
  * Base class for consent actions which interact with a {@link StorageService}.
@@ -49,6 +57,11 @@ import com.google.common.base.Function;
  * 
  * The storage context defaults to the flow ID provided by a {@link FlowIdLookupFunction}.
  * 
+ * If a consolidated storage key lookup strategy is set, the consents for every storage key of a user are kept as the
+ * entries of a single {@link ConsolidatedConsentRecord} rather than as separate storage records. The record is
+ * updated by compare-and-set on its version, so that each action needs at most one read and one write of the
+ * storage service.
+ * 
  * @pre <pre>InterceptorContext.getAttemptedFlow() != null</pre>
  * @pre <pre>FlowDescriptor.getStorageService() != null</pre>
  * @pre <pre>StorageSerializer != null</pre>
@@ -59,6 +72,9 @@ import com.google.common.base.Function;
  */
 public abstract class AbstractConsentStorageAction extends AbstractConsentAction {
 
+    /** Default storage key suffix for the consolidated consent record. */
+    @Nonnull @NotEmpty public static final String DEFAULT_CONSOLIDATED_STORAGE_KEY = "_consent";
+
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(AbstractConsentStorageAction.class);
 
@@ -71,6 +87,12 @@ public abstract class AbstractConsentStorageAction extends AbstractConsentAction
     /** Storage serializer. */
     @NonnullAfterInit private StorageSerializer storageSerializer;
 
+    /** Strategy used to determine the storage key of the consolidated consent record. */
+    @Nullable private Function<ProfileRequestContext, String> consolidatedStorageKeyLookupStrategy;
+
+    /** Serializer for the consolidated consent record. */
+    @Nullable private StorageSerializer<ConsolidatedConsentRecord> consolidatedRecordSerializer;
+
     /** Storage service from the {@link ProfileInterceptorFlowDescriptor}. */
     @Nullable private StorageService storageService;
 
@@ -80,6 +102,9 @@ public abstract class AbstractConsentStorageAction extends AbstractConsentAction
     /** Storage key resulting from lookup strategy. */
     @Nullable private String storageKey;
 
+    /** Storage key of the consolidated consent record resulting from lookup strategy. */
+    @Nullable private String consolidatedStorageKey;
+
     /** Constructor. */
     public AbstractConsentStorageAction() {
         setStorageContextLookupStrategy(new FlowIdLookupFunction());
@@ -146,6 +171,36 @@ public abstract class AbstractConsentStorageAction extends AbstractConsentAction
         storageSerializer = Constraint.isNotNull(serializer, "Storage serializer cannot be null");
     }
 
+    /**
+     * Set the strategy used to determine the storage key of the consolidated consent record.
+     * 
+     * <p>If <code>null</code>, the default, each storage key is stored as a separate storage record.</p>
+     * 
+     * @param strategy the consolidated storage key lookup strategy
+     */
+    public void setConsolidatedStorageKeyLookupStrategy(
+            @Nullable final Function<ProfileRequestContext, String> strategy) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        consolidatedStorageKeyLookupStrategy = strategy;
+    }
+
+    /**
+     * Set the serializer for the consolidated consent record.
+     * 
+     * <p>Defaults to a {@link ConsolidatedConsentRecordSerializer} wrapping the storage serializer if it is a
+     * {@link ConsentSerializer}.</p>
+     * 
+     * @param serializer the consolidated consent record serializer
+     */
+    public void setConsolidatedRecordSerializer(
+            @Nonnull final StorageSerializer<ConsolidatedConsentRecord> serializer) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        consolidatedRecordSerializer =
+                Constraint.isNotNull(serializer, "Consolidated consent record serializer cannot be null");
+    }
+
     /**
      * Get the storage service from the {@link ProfileInterceptorFlowDescriptor}.
      * 
@@ -173,6 +228,34 @@ public abstract class AbstractConsentStorageAction extends AbstractConsentAction
         return storageKey;
     }
 
+    /**
+     * Get the storage key of the consolidated consent record resulting from applying the consolidated storage key
+     * lookup strategy.
+     * 
+     * @return the storage key of the consolidated consent record
+     */
+    @Nullable public String getConsolidatedStorageKey() {
+        return consolidatedStorageKey;
+    }
+
+    /**
+     * Whether consents are stored in a consolidated consent record.
+     * 
+     * @return whether consents are stored in a consolidated consent record
+     */
+    public boolean isConsolidatedStorage() {
+        return consolidatedStorageKeyLookupStrategy != null;
+    }
+
+    /**
+     * Get the serializer for the consolidated consent record.
+     * 
+     * @return the consolidated consent record serializer
+     */
+    @Nullable public StorageSerializer<ConsolidatedConsentRecord> getConsolidatedRecordSerializer() {
+        return consolidatedRecordSerializer;
+    }
+
     /** {@inheritDoc} */
     @Override protected void doInitialize() throws ComponentInitializationException {
         super.doInitialize();
@@ -181,6 +264,12 @@ public abstract class AbstractConsentStorageAction extends AbstractConsentAction
             throw new ComponentInitializationException("Storage serializer cannot be null");
         }
 
+        if (consolidatedStorageKeyLookupStrategy != null && consolidatedRecordSerializer == null) {
+            consolidatedRecordSerializer = new ConsolidatedConsentRecordSerializer(
+                    storageSerializer instanceof ConsentSerializer ? (ConsentSerializer) storageSerializer
+                            : new ConsentSerializer());
+        }
+
         if (storageContextLookupStrategy == null) {
             throw new ComponentInitializationException("Storage context lookup strategy cannot be null");
         }
@@ -226,6 +315,98 @@ public abstract class AbstractConsentStorageAction extends AbstractConsentAction
             return false;
         }
 
+        if (consolidatedStorageKeyLookupStrategy != null) {
+            consolidatedStorageKey = consolidatedStorageKeyLookupStrategy.apply(profileRequestContext);
+            log.trace("{} Consolidated storage key '{}'", getLogPrefix(), consolidatedStorageKey);
+            if (consolidatedStorageKey == null) {
+                log.debug("{} No consolidated storage key", getLogPrefix());
+                return false;
+            }
+        }
+
         return true;
     }
+
+    /**
+     * Read the consolidated consent record.
+     * 
+     * @return the consolidated consent record, which is empty if it does not exist
+     * @throws IOException if an error occurs reading from the storage service
+     */
+    @Nonnull protected ConsolidatedConsentRecord readConsolidatedRecord() throws IOException {
+        final StorageRecord<ConsolidatedConsentRecord> storageRecord =
+                storageService.read(storageContext, consolidatedStorageKey);
+        log.debug("{} Read storage record '{}' with context '{}' and key '{}'", getLogPrefix(), storageRecord,
+                storageContext, consolidatedStorageKey);
+
+        if (storageRecord == null) {
+            return new ConsolidatedConsentRecord();
+        }
+
+        return storageRecord.getValue(consolidatedRecordSerializer, storageContext, consolidatedStorageKey);
+    }
+
+    /**
+     * Apply a change to the consolidated consent record and write it back to the storage service.
+     * 
+     * <p>The record is read, expired entries are dropped, and the change applied. The record is then created, updated,
+     * or deleted if no entries remain, conditionally on the version which was read. If another writer intervened, the
+     * whole sequence is retried, so an uncontended change costs one read and at most one write.</p>
+     * 
+     * @param change applies the change to the record, returning whether the record was modified
+     * @return whether the change was stored successfully
+     * @throws IOException if an error occurs reading from or writing to the storage service
+     */
+    protected boolean updateConsolidatedRecord(@Nonnull final Predicate<ConsolidatedConsentRecord> change)
+            throws IOException {
+
+        // Compare-and-set loop until we succeed or exhaust attempts.
+        int attempts = 10;
+        do {
+            final StorageRecord<ConsolidatedConsentRecord> storageRecord =
+                    storageService.read(storageContext, consolidatedStorageKey);
+            log.debug("{} Read storage record '{}' with context '{}' and key '{}'", getLogPrefix(), storageRecord,
+                    storageContext, consolidatedStorageKey);
+
+            final ConsolidatedConsentRecord record;
+            if (storageRecord == null) {
+                record = new ConsolidatedConsentRecord();
+            } else {
+                record = storageRecord.getValue(consolidatedRecordSerializer, storageContext, consolidatedStorageKey);
+            }
+
+            final int expired = record.removeExpired(System.currentTimeMillis());
+            if (!change.apply(record) && expired == 0) {
+                log.debug("{} Consolidated consent record is unchanged, nothing to do", getLogPrefix());
+                return true;
+            }
+
+            try {
+                if (record.isEmpty()) {
+                    if (storageRecord == null
+                            || storageService.deleteWithVersion(storageRecord.getVersion(), storageContext,
+                                    consolidatedStorageKey)) {
+                        log.debug("{} Deleted empty consolidated consent record", getLogPrefix());
+                        return true;
+                    }
+                } else if (storageRecord == null) {
+                    if (storageService.create(storageContext, consolidatedStorageKey, record,
+                            consolidatedRecordSerializer, record.getExpiration())) {
+                        log.debug("{} Created consolidated consent record '{}'", getLogPrefix(), record);
+                        return true;
+                    }
+                } else if (storageService.updateWithVersion(storageRecord.getVersion(), storageContext,
+                        consolidatedStorageKey, record, consolidatedRecordSerializer, record.getExpiration()) != null) {
+                    log.debug("{} Updated consolidated consent record '{}'", getLogPrefix(), record);
+                    return true;
+                }
+            } catch (final VersionMismatchException e) {
+                log.debug("{} Consolidated consent record was modified concurrently, retrying", getLogPrefix());
+            }
+        } while (--attempts > 0);
+
+        log.error("{} Exhausted retry attempts updating consolidated consent record with context '{}' and key '{}'",
+                getLogPrefix(), storageContext, consolidatedStorageKey);
+        return false;
+    }
 }
@@ -19,6 +19,7 @@ package net.shibboleth.idp.consent.flow.storage.impl;
 
 import java.io.IOException;
 import java.util.Collections;
+import java.util.Map;
 
 import javax.annotation.Nonnull;
 
@@ -39,6 +40,7 @@ import org.slf4j.LoggerFactory;
  * consent is represented by a consent object whose ID is the wildcard character, {@link Consent#WILDCARD}.
  * 
  * @event {@link org.opensaml.profile.action.EventIds#PROCEED_EVENT_ID}
+ * @event {@link org.opensaml.profile.action.EventIds#IO_ERROR}
  * @post See above.
  */
 public class CreateGlobalConsentResult extends AbstractConsentIndexedStorageAction {
@@ -55,11 +57,22 @@ public class CreateGlobalConsentResult extends AbstractConsentIndexedStorageActi
             globalConsent.setId(Consent.WILDCARD);
             globalConsent.setApproved(true);
 
-            final String value =
-                    getStorageSerializer().serialize(Collections.singletonMap(globalConsent.getId(), globalConsent));
-
+            final Map<String, Consent> consents = Collections.singletonMap(globalConsent.getId(), globalConsent);
             final long expiration = DateTime.now().plus(getConsentFlowDescriptor().getLifetime()).getMillis();
 
+            if (isConsolidatedStorage()) {
+                log.debug("{} Storing global consent with key '{}' in consolidated consent record", getLogPrefix(),
+                        getStorageKey());
+                if (!storeConsolidatedConsents(consents, expiration)) {
+                    log.error("{} Unable to update consolidated consent record with key '{}'", getLogPrefix(),
+                            getStorageKey());
+                    ActionSupport.buildEvent(profileRequestContext, EventIds.IO_ERROR);
+                }
+                return;
+            }
+
+            final String value = getStorageSerializer().serialize(consents);
+
             final ProfileInterceptorResult result =
                     new ConsentResult(getStorageContext(), getStorageKey(), value, expiration);
 
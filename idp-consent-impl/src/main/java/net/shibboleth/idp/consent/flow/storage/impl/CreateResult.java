@@ -28,6 +28,8 @@ import net.shibboleth.idp.profile.context.ProfileInterceptorContext;
 import net.shibboleth.idp.profile.interceptor.ProfileInterceptorResult;
 
 import org.joda.time.DateTime;
+import org.opensaml.profile.action.ActionSupport;
+import org.opensaml.profile.action.EventIds;
 import org.opensaml.profile.context.ProfileRequestContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,6 +40,7 @@ import org.slf4j.LoggerFactory;
  * the current consents of the consent context.
  * 
  * @event {@link org.opensaml.profile.action.EventIds#PROCEED_EVENT_ID}
+ * @event {@link org.opensaml.profile.action.EventIds#IO_ERROR}
  * @pre The current consents in the consent context must not be empty.
  * @post A {@link ConsentResult} will be created representing the current consents and will be added to the
  *       {@link ProfileInterceptorContext}.
@@ -69,10 +72,21 @@ public class CreateResult extends AbstractConsentIndexedStorageAction {
 
         try {
             final Map<String, Consent> currentConsents = getConsentContext().getCurrentConsents();
-            final String value = getStorageSerializer().serialize(currentConsents);
-
             final long expiration = DateTime.now().plus(getConsentFlowDescriptor().getLifetime()).getMillis();
 
+            if (isConsolidatedStorage()) {
+                log.debug("{} Storing current consents '{}' with key '{}' in consolidated consent record",
+                        getLogPrefix(), currentConsents, getStorageKey());
+                if (!storeConsolidatedConsents(currentConsents, expiration)) {
+                    log.error("{} Unable to update consolidated consent record with key '{}'", getLogPrefix(),
+                            getStorageKey());
+                    ActionSupport.buildEvent(profileRequestContext, EventIds.IO_ERROR);
+                }
+                return;
+            }
+
+            final String value = getStorageSerializer().serialize(currentConsents);
+
             final ProfileInterceptorResult result =
                     new ConsentResult(getStorageContext(), getStorageKey(), value, expiration);
 
@@ -18,22 +18,42 @@
 package net.shibboleth.idp.consent.flow.storage.impl;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import net.shibboleth.idp.consent.impl.Consent;
+import net.shibboleth.idp.consent.storage.impl.CollectionSerializer;
+import net.shibboleth.idp.consent.storage.impl.ConsolidatedConsentRecord;
 import net.shibboleth.idp.profile.context.ProfileInterceptorContext;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
 
 import org.opensaml.profile.context.ProfileRequestContext;
 import org.opensaml.storage.StorageRecord;
+import org.opensaml.storage.StorageSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+
 /**
  * Consent action which reads consent records from storage and adds the serialized consent records to the consent
  * context as previous consents.
  * 
+ * When consents are stored in a consolidated consent record, the entry for the storage key is read from that record.
+ * If there is no such entry, and the separate storage records written before consolidation was enabled have not yet
+ * been moved into the consolidated consent record, the storage records listed by the storage index record are read
+ * and moved into the consolidated consent record in a single write, after which they and the index record are
+ * deleted. The consolidated consent record then notes that this has been done, so that later misses do not read the
+ * separate storage records again. No separate storage records are read if there is no storage index key lookup
+ * strategy.
+ * 
  * @event {@link org.opensaml.profile.action.EventIds#PROCEED_EVENT_ID}
  */
 public class ReadConsentFromStorage extends AbstractConsentStorageAction {
@@ -41,6 +61,60 @@ public class ReadConsentFromStorage extends AbstractConsentStorageAction {
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(ReadConsentFromStorage.class);
 
+    /** Strategy used to determine the storage key of the index record of separate storage records. */
+    @Nullable private Function<ProfileRequestContext, String> storageIndexKeyLookupStrategy;
+
+    /** Storage keys serializer used to deserialize the value of the storage key index record. */
+    @Nonnull private StorageSerializer<Collection<String>> storageKeysSerializer;
+
+    /** Storage key of index record. */
+    @Nullable private String storageIndexKey;
+
+    /** Constructor. */
+    public ReadConsentFromStorage() {
+        storageKeysSerializer = new CollectionSerializer();
+    }
+
+    /**
+     * Set the strategy used to determine the storage key of the index record of the separate storage records to move
+     * into the consolidated consent record.
+     * 
+     * @param strategy the storage index key lookup strategy
+     */
+    public void setStorageIndexKeyLookupStrategy(@Nullable final Function<ProfileRequestContext, String> strategy) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        storageIndexKeyLookupStrategy = strategy;
+    }
+
+    /**
+     * Set the storage keys serializer used to deserialize the value of the storage key index record.
+     * 
+     * @param serializer the storage keys serializer
+     */
+    public void setStorageKeysSerializer(@Nonnull final StorageSerializer<Collection<String>> serializer) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        storageKeysSerializer = Constraint.isNotNull(serializer, "Storage keys serializer cannot be null");
+    }
+
+    /** {@inheritDoc} */
+    @Override protected boolean doPreExecute(@Nonnull final ProfileRequestContext profileRequestContext,
+            @Nonnull final ProfileInterceptorContext interceptorContext) {
+
+        if (!super.doPreExecute(profileRequestContext, interceptorContext)) {
+            return false;
+        }
+
+        storageIndexKey = null;
+        if (isConsolidatedStorage() && storageIndexKeyLookupStrategy != null) {
+            storageIndexKey = storageIndexKeyLookupStrategy.apply(profileRequestContext);
+            log.trace("{} Storage index key '{}'", getLogPrefix(), storageIndexKey);
+        }
+
+        return true;
+    }
+
     /** {@inheritDoc} */
     @Override protected void doExecute(@Nonnull final ProfileRequestContext profileRequestContext,
             @Nonnull final ProfileInterceptorContext interceptorContext) {
@@ -49,6 +123,20 @@ public class ReadConsentFromStorage extends AbstractConsentStorageAction {
         final String key = getStorageKey();
 
         try {
+            if (isConsolidatedStorage()) {
+                final ConsolidatedConsentRecord record = readConsolidatedRecord();
+                Map<String, Consent> consents = record.getConsents(key, System.currentTimeMillis());
+                if (consents == null && !record.isLegacyMigrated() && storageIndexKey != null) {
+                    consents = migrateToConsolidatedRecord().get(key);
+                }
+                if (consents != null) {
+                    log.debug("{} Read consents '{}' with key '{}' from consolidated consent record",
+                            getLogPrefix(), consents, key);
+                    getConsentContext().getPreviousConsents().putAll(consents);
+                }
+                return;
+            }
+
             final StorageRecord storageRecord = getStorageService().read(context, key);
             log.debug("{} Read storage record '{}' with context '{}' and key '{}'", getLogPrefix(), storageRecord,
                     context, key);
@@ -68,4 +156,65 @@ public class ReadConsentFromStorage extends AbstractConsentStorageAction {
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * Move the separate storage records listed by the storage index record into the consolidated consent record, and
+     * note in the consolidated consent record that this has been done.
+     * 
+     * @return the consents moved, keyed by storage key
+     * @throws IOException if an error occurs reading from or writing to the storage service
+     */
+    @Nonnull @NonnullElements private Map<String, Map<String, Consent>> migrateToConsolidatedRecord()
+            throws IOException {
+
+        final String context = getStorageContext();
+
+        final StorageRecord indexRecord = getStorageService().read(context, storageIndexKey);
+        log.debug("{} Read storage record '{}' with context '{}' and key '{}'", getLogPrefix(), indexRecord, context,
+                storageIndexKey);
+
+        final Map<String, Map<String, Consent>> legacyConsents = new LinkedHashMap<>();
+        final Map<String, Long> legacyExpirations = new LinkedHashMap<>();
+        if (indexRecord != null) {
+            final Collection<String> keys =
+                    (Collection<String>) indexRecord.getValue(storageKeysSerializer, context, storageIndexKey);
+            for (final String key : keys) {
+                final StorageRecord storageRecord = getStorageService().read(context, key);
+                log.debug("{} Read storage record '{}' with context '{}' and key '{}'", getLogPrefix(),
+                        storageRecord, context, key);
+                if (storageRecord != null) {
+                    legacyConsents.put(key,
+                            (Map<String, Consent>) storageRecord.getValue(getStorageSerializer(), context, key));
+                    legacyExpirations.put(key, storageRecord.getExpiration());
+                }
+            }
+        }
+
+        final boolean success = updateConsolidatedRecord(new Predicate<ConsolidatedConsentRecord>() {
+            public boolean apply(final ConsolidatedConsentRecord record) {
+                if (record.isLegacyMigrated()) {
+                    return false;
+                }
+                final long now = System.currentTimeMillis();
+                for (final Map.Entry<String, Map<String, Consent>> entry : legacyConsents.entrySet()) {
+                    if (record.getConsents(entry.getKey(), now) == null) {
+                        record.put(entry.getKey(), entry.getValue(), legacyExpirations.get(entry.getKey()));
+                    }
+                }
+                record.setLegacyMigrated(true);
+                return true;
+            }
+        });
+
+        if (success && indexRecord != null) {
+            log.debug("{} Moved storage records with keys '{}' into consolidated consent record", getLogPrefix(),
+                    legacyConsents.keySet());
+            for (final String key : legacyConsents.keySet()) {
+                getStorageService().delete(context, key);
+            }
+            getStorageService().delete(context, storageIndexKey);
+        }
+
+        return legacyConsents;
+    }
+
+}
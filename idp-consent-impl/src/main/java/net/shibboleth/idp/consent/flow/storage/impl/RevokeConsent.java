@@ -21,6 +21,7 @@ import java.io.IOException;
 
 import javax.annotation.Nonnull;
 
+import net.shibboleth.idp.consent.storage.impl.ConsolidatedConsentRecord;
 import net.shibboleth.idp.profile.context.ProfileInterceptorContext;
 import net.shibboleth.utilities.java.support.component.ComponentSupport;
 
@@ -30,6 +31,8 @@ import org.opensaml.profile.context.ProfileRequestContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Predicate;
+
 /**
  * Consent action which deletes a consent record from storage.
  * 
@@ -65,6 +68,11 @@ public class RevokeConsent extends AbstractConsentIndexedStorageAction {
         log.debug("{} Attempting to delete consent storage record with context '{}' and key '{}'", getLogPrefix(),
                 context, key);
         try {
+            if (isConsolidatedStorage()) {
+                revokeConsolidatedConsents(key);
+                return;
+            }
+
             final boolean success = getStorageService().delete(context, key);
             if (success) {
                 log.debug("{} Deleted consent storage record with context '{}' and key '{}'", getLogPrefix(), context,
@@ -85,4 +93,23 @@ public class RevokeConsent extends AbstractConsentIndexedStorageAction {
         }
     }
 
+    /**
+     * Remove the entry for a storage key from the consolidated consent record.
+     * 
+     * @param key the storage key
+     * @throws IOException if an error occurs reading from or writing to the storage service
+     */
+    private void revokeConsolidatedConsents(@Nonnull final String key) throws IOException {
+        final boolean success = updateConsolidatedRecord(new Predicate<ConsolidatedConsentRecord>() {
+            public boolean apply(final ConsolidatedConsentRecord record) {
+                return record.remove(key);
+            }
+        });
+        if (success) {
+            log.debug("{} Removed key '{}' from consolidated consent record", getLogPrefix(), key);
+        } else {
+            throw new IOException("Unable to update consolidated consent record");
+        }
+    }
+
 }
\ No newline at end of file
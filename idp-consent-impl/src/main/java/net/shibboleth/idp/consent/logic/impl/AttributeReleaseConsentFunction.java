@@ -35,6 +35,8 @@ import net.shibboleth.utilities.java.support.logic.Constraint;
 
 import org.opensaml.messaging.context.navigate.ChildContextLookup;
 import org.opensaml.profile.context.ProfileRequestContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Function;
 
@@ -46,6 +48,9 @@ import com.google.common.base.Function;
  */
 public class AttributeReleaseConsentFunction implements Function<ProfileRequestContext, Map<String, Consent>> {
 
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(AttributeReleaseConsentFunction.class);
+
     /** Strategy used to find the {@link ConsentContext} from the {@link ProfileRequestContext}. */
     @Nonnull private Function<ProfileRequestContext, ConsentContext> consentContextLookupStrategy;
 
@@ -58,6 +63,9 @@ public class AttributeReleaseConsentFunction implements Function<ProfileRequestC
     /** Function used to compute the hash of an attribute's values. */
     @Nonnull private Function<Collection<IdPAttributeValue<?>>, String> attributeValuesHashFunction;
 
+    /** Function used to recognize hashes stored in an earlier form, or null. */
+    @Nullable private Function<Collection<IdPAttributeValue<?>>, String> legacyAttributeValuesHashFunction;
+
     /** Constructor. */
     public AttributeReleaseConsentFunction() {
         consentContextLookupStrategy = new ChildContextLookup<>(ConsentContext.class, false);
@@ -65,6 +73,7 @@ public class AttributeReleaseConsentFunction implements Function<ProfileRequestC
                 new FlowDescriptorLookupFunction<>(ConsentFlowDescriptor.class);
         attributeReleaseContextLookupStrategy = new ChildContextLookup<>(AttributeReleaseContext.class, false);
         attributeValuesHashFunction = new AttributeValuesHashFunction();
+        legacyAttributeValuesHashFunction = new LegacyAttributeValuesHashFunction();
     }
 
     /**
@@ -109,6 +118,21 @@ public class AttributeReleaseConsentFunction implements Function<ProfileRequestC
         attributeValuesHashFunction = Constraint.isNotNull(function, "Hash function cannot be null");
     }
 
+    /**
+     * Set the function used to recognize hashes of an attribute's values stored in an earlier form.
+     * 
+     * <p>A previous consent whose value is not in the current form, and does not match the current hash, is
+     * compared against the result of this function instead. If it matches, the previous consent is given the
+     * current hash, so that it is treated as unchanged, and the consent context is marked as migrated, so that the
+     * flow stores the consents in the current form even though no consent is required.</p>
+     * 
+     * @param function the function, or null to disable recognition of earlier hashes
+     */
+    public void setLegacyAttributeValuesHashFunction(
+            @Nullable final Function<Collection<IdPAttributeValue<?>>, String> function) {
+        legacyAttributeValuesHashFunction = function;
+    }
+
     /** {@inheritDoc} */
     @Override @Nullable public Map<String, Consent> apply(@Nullable final ProfileRequestContext input) {
         if (input == null) {
@@ -146,6 +170,11 @@ public class AttributeReleaseConsentFunction implements Function<ProfileRequestC
             final Consent previousConsent = consentContext.getPreviousConsents().get(consent.getId());
             if (previousConsent != null) {
                 if (consentFlowDescriptor.compareValues()) {
+                    if (consent.getValue() != null && isLegacyMatch(attribute, consent.getValue(), previousConsent)) {
+                        log.debug("Migrating previous consent for '{}' to the current hash", consent.getId());
+                        previousConsent.setValue(consent.getValue());
+                        consentContext.setPreviousConsentsMigrated(true);
+                    }
                     if (Objects.equals(consent.getValue(), previousConsent.getValue())) {
                         consent.setApproved(previousConsent.isApproved());
                     }
@@ -160,4 +189,22 @@ public class AttributeReleaseConsentFunction implements Function<ProfileRequestC
         return currentConsents;
     }
 
+    /**
+     * Check whether a previous consent carries a hash in an earlier form that matches an attribute's values.
+     * 
+     * @param attribute the attribute
+     * @param currentValue the current hash of the attribute's values
+     * @param previousConsent the previous consent
+     * @return whether the previous consent carries an earlier hash of the same values
+     */
+    private boolean isLegacyMatch(@Nonnull final IdPAttribute attribute, @Nonnull final String currentValue,
+            @Nonnull final Consent previousConsent) {
+        if (legacyAttributeValuesHashFunction == null || previousConsent.getValue() == null
+                || !AttributeValuesHashFunction.isCurrentHash(currentValue)
+                || AttributeValuesHashFunction.isCurrentHash(previousConsent.getValue())) {
+            return false;
+        }
+        return previousConsent.getValue().equals(legacyAttributeValuesHashFunction.apply(attribute.getValues()));
+    }
+
 }
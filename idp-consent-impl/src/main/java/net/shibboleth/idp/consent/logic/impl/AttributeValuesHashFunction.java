@@ -17,31 +17,44 @@
 
 package net.shibboleth.idp.consent.logic.impl;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.xml.XMLConstants;
 
+import net.shibboleth.idp.attribute.ByteAttributeValue;
+import net.shibboleth.idp.attribute.EmptyAttributeValue;
 import net.shibboleth.idp.attribute.IdPAttributeValue;
 import net.shibboleth.idp.attribute.ScopedStringAttributeValue;
+import net.shibboleth.idp.attribute.StringAttributeValue;
 import net.shibboleth.idp.attribute.XMLObjectAttributeValue;
 import net.shibboleth.utilities.java.support.annotation.constraint.NullableElements;
-import net.shibboleth.utilities.java.support.xml.SerializeSupport;
 
 import org.cryptacular.util.CodecUtil;
-import org.cryptacular.util.HashUtil;
+import org.opensaml.core.xml.XMLObject;
 import org.opensaml.core.xml.io.MarshallingException;
 import org.opensaml.core.xml.util.XMLObjectSupport;
 import org.opensaml.saml.saml2.core.NameIDType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
 
 import com.google.common.base.Function;
-import com.google.common.base.Predicates;
-import com.google.common.collect.Collections2;
+import com.google.common.io.ByteStreams;
 
 /**
  * Function to calculate the hash of the values of an IdP attribute.
@@ -49,13 +62,81 @@ import com.google.common.collect.Collections2;
  * Returns <code>null</code> for a <code>null</code> input or empty collection of IdP attribute values.
  * <code>Null</code> IdP attribute values are ignored.
  * 
- * The hash returned is the Base64 encoded representation of the SHA-256 digest.
+ * Each value is fed to a per-thread SHA-256 digest as a type tag followed by length-prefixed UTF-8 fields, so no
+ * intermediate buffer or Java serialization is involved for the standard value types. XML values use their cached
+ * DOM, which is only marshalled if absent, and is walked rather than serialized. Values of other types fall back to
+ * Java serialization.
+ * 
+ * The hash returned is {@link #HASH_PREFIX} followed by the Base64 encoded representation of the SHA-256 digest.
+ * Hashes without that prefix were produced by {@link LegacyAttributeValuesHashFunction}.
  */
 public class AttributeValuesHashFunction implements Function<Collection<IdPAttributeValue<?>>, String> {
 
+    /** Prefix identifying hashes produced by this function. */
+    @Nonnull public static final String HASH_PREFIX = "v2:";
+
+    /** Tag for string values. */
+    private static final byte STRING_TAG = 'S';
+
+    /** Tag for scoped string values. */
+    private static final byte SCOPED_STRING_TAG = 'C';
+
+    /** Tag for byte values. */
+    private static final byte BYTE_TAG = 'B';
+
+    /** Tag for empty values. */
+    private static final byte EMPTY_TAG = 'E';
+
+    /** Tag for SAML name identifier values. */
+    private static final byte NAME_ID_TAG = 'N';
+
+    /** Tag for other XML values. */
+    private static final byte XML_TAG = 'X';
+
+    /** Tag for the start of an element within an XML value. */
+    private static final byte ELEMENT_START_TAG = '<';
+
+    /** Tag for the end of an element within an XML value. */
+    private static final byte ELEMENT_END_TAG = '>';
+
+    /** Tag for character data within an XML value. */
+    private static final byte TEXT_TAG = 'T';
+
+    /** Tag for values of other types. */
+    private static final byte OBJECT_TAG = 'O';
+
+    /** Orders attributes by namespace URI and then local name. */
+    private static final Comparator<Attr> ATTRIBUTE_ORDER = new Comparator<Attr>() {
+        public int compare(final Attr a1, final Attr a2) {
+            final int result = nullToEmpty(a1.getNamespaceURI()).compareTo(nullToEmpty(a2.getNamespaceURI()));
+            return result != 0 ? result : localName(a1).compareTo(localName(a2));
+        }
+    };
+
+    /** Digest for each thread. */
+    @Nonnull private static final ThreadLocal<MessageDigest> DIGEST = new ThreadLocal<MessageDigest>() {
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (final NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not available", e);
+            }
+        }
+    };
+
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(AttributeValuesHashFunction.class);
 
+    /**
+     * Check whether a hash was produced by this function, as opposed to {@link LegacyAttributeValuesHashFunction}.
+     * 
+     * @param hash the hash
+     * @return whether the hash was produced by this function
+     */
+    public static boolean isCurrentHash(@Nullable final String hash) {
+        return hash != null && hash.startsWith(HASH_PREFIX);
+    }
+
     /** {@inheritDoc} */
     @Override
     @Nullable public String apply(@Nullable @NullableElements final Collection<IdPAttributeValue<?>> input) {
@@ -64,47 +145,174 @@ public class AttributeValuesHashFunction implements Function<Collection<IdPAttri
             return null;
         }
 
-        final Collection<IdPAttributeValue<?>> filteredInput = Collections2.filter(input, Predicates.notNull());
+        final MessageDigest digest = DIGEST.get();
+        digest.reset();
 
-        if (filteredInput.isEmpty()) {
+        boolean empty = true;
+        try {
+            for (final IdPAttributeValue<?> value : input) {
+                if (value != null) {
+                    update(digest, value);
+                    empty = false;
+                }
+            }
+        } catch (final IOException e) {
+            log.error("Error while hashing attribute values", e);
+            digest.reset();
+            return null;
+        } catch (final MarshallingException e) {
+            log.error("Error while marshalling XMLObject value", e);
+            digest.reset();
             return null;
         }
 
-        try {
-            final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-            final ObjectOutputStream objectOutputStream = new ObjectOutputStream(byteArrayOutputStream);
-
-            for (final IdPAttributeValue value : filteredInput) {
-                if (value instanceof ScopedStringAttributeValue) {
-                    objectOutputStream.writeObject(((ScopedStringAttributeValue) value).getValue() + '@'
-                            + ((ScopedStringAttributeValue) value).getScope());
-                } else if (value instanceof XMLObjectAttributeValue) {
-                    if (value.getValue() instanceof NameIDType) {
-                        objectOutputStream.writeObject(((NameIDType) value.getValue()).getValue());
-                    } else {
-                        try {
-                            objectOutputStream.writeObject(SerializeSupport.nodeToString(
-                                    XMLObjectSupport.marshall(((XMLObjectAttributeValue) value).getValue())));
-                        } catch (final MarshallingException e) {
-                            log.error("Error while marshalling XMLObject value", e);
-                            return null;
-                        }
-                    }
-                } else if (value.getValue() != null) {
-                    objectOutputStream.writeObject(value.getValue());
-                }
+        if (empty) {
+            return null;
+        }
+
+        return HASH_PREFIX + CodecUtil.b64(digest.digest());
+    }
+
+    /**
+     * Feed a value to the digest.
+     * 
+     * @param digest the digest
+     * @param value the value
+     * 
+     * @throws IOException if a value of another type cannot be serialized
+     * @throws MarshallingException if an XML value without a cached DOM cannot be marshalled
+     */
+    private void update(@Nonnull final MessageDigest digest, @Nonnull final IdPAttributeValue<?> value)
+            throws IOException, MarshallingException {
+        if (value instanceof ScopedStringAttributeValue) {
+            digest.update(SCOPED_STRING_TAG);
+            update(digest, ((ScopedStringAttributeValue) value).getValue());
+            update(digest, ((ScopedStringAttributeValue) value).getScope());
+        } else if (value instanceof StringAttributeValue) {
+            digest.update(STRING_TAG);
+            update(digest, ((StringAttributeValue) value).getValue());
+        } else if (value instanceof ByteAttributeValue) {
+            digest.update(BYTE_TAG);
+            update(digest, ((ByteAttributeValue) value).getValue());
+        } else if (value instanceof EmptyAttributeValue) {
+            digest.update(EMPTY_TAG);
+            update(digest, ((EmptyAttributeValue) value).getValue().name());
+        } else if (value instanceof XMLObjectAttributeValue) {
+            final XMLObject xmlObject = ((XMLObjectAttributeValue) value).getValue();
+            if (xmlObject instanceof NameIDType) {
+                digest.update(NAME_ID_TAG);
+                update(digest, ((NameIDType) xmlObject).getValue());
+            } else {
+                digest.update(XML_TAG);
+                final Element element = xmlObject.getDOM() != null ? xmlObject.getDOM()
+                        : XMLObjectSupport.marshall(xmlObject);
+                update(digest, element);
             }
+        } else if (value.getValue() != null) {
+            digest.update(OBJECT_TAG);
+            update(digest, value.getClass().getName());
+            final ObjectOutputStream out =
+                    new ObjectOutputStream(new DigestOutputStream(ByteStreams.nullOutputStream(), digest));
+            out.writeObject(value.getValue());
+            out.flush();
+        }
+    }
 
-            objectOutputStream.flush();
-            objectOutputStream.close();
-            byteArrayOutputStream.close();
+    /**
+     * Feed an element and its content to the digest, ignoring namespace declarations, comments and processing
+     * instructions.
+     * 
+     * @param digest the digest
+     * @param element the element
+     */
+    private void update(@Nonnull final MessageDigest digest, @Nonnull final Element element) {
+        digest.update(ELEMENT_START_TAG);
+        update(digest, nullToEmpty(element.getNamespaceURI()));
+        update(digest, localName(element));
 
-            return CodecUtil.b64(HashUtil.sha256(byteArrayOutputStream.toByteArray()));
+        final NamedNodeMap attributeMap = element.getAttributes();
+        final List<Attr> attributes = new ArrayList<>(attributeMap.getLength());
+        for (int i = 0; i < attributeMap.getLength(); i++) {
+            final Attr attribute = (Attr) attributeMap.item(i);
+            if (!XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI())) {
+                attributes.add(attribute);
+            }
+        }
+        Collections.sort(attributes, ATTRIBUTE_ORDER);
+        updateLength(digest, attributes.size());
+        for (final Attr attribute : attributes) {
+            update(digest, nullToEmpty(attribute.getNamespaceURI()));
+            update(digest, localName(attribute));
+            update(digest, attribute.getValue());
+        }
 
-        } catch (final IOException e) {
-            log.error("Error while converting attribute values into a byte array", e);
-            return null;
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                update(digest, (Element) child);
+            } else if (child.getNodeType() == Node.TEXT_NODE || child.getNodeType() == Node.CDATA_SECTION_NODE) {
+                digest.update(TEXT_TAG);
+                update(digest, child.getNodeValue());
+            }
         }
+        digest.update(ELEMENT_END_TAG);
     }
-    
-}
\ No newline at end of file
+
+    /**
+     * Feed a length-prefixed string to the digest, with a negative length for null.
+     * 
+     * @param digest the digest
+     * @param value the string, or null
+     */
+    private void update(@Nonnull final MessageDigest digest, @Nullable final String value) {
+        update(digest, value != null ? value.getBytes(StandardCharsets.UTF_8) : null);
+    }
+
+    /**
+     * Feed length-prefixed bytes to the digest, with a negative length for null.
+     * 
+     * @param digest the digest
+     * @param value the bytes, or null
+     */
+    private void update(@Nonnull final MessageDigest digest, @Nullable final byte[] value) {
+        if (value == null) {
+            updateLength(digest, -1);
+        } else {
+            updateLength(digest, value.length);
+            digest.update(value);
+        }
+    }
+
+    /**
+     * Feed a length to the digest as four bytes, most significant first.
+     * 
+     * @param digest the digest
+     * @param length the length
+     */
+    private void updateLength(@Nonnull final MessageDigest digest, final int length) {
+        digest.update((byte) (length >>> 24));
+        digest.update((byte) (length >>> 16));
+        digest.update((byte) (length >>> 8));
+        digest.update((byte) length);
+    }
+
+    /**
+     * Get the local name of a node, allowing for nodes created without namespace support.
+     * 
+     * @param node the node
+     * @return the local name
+     */
+    @Nonnull private static String localName(@Nonnull final Node node) {
+        return node.getLocalName() != null ? node.getLocalName() : node.getNodeName();
+    }
+
+    /**
+     * Convert a null string to "".
+     * 
+     * @param value the string
+     * @return the string, or ""
+     */
+    @Nonnull private static String nullToEmpty(@Nullable final String value) {
+        return value != null ? value : "";
+    }
+
+}
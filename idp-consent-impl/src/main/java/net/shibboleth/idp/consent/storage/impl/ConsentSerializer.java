@@ -127,6 +127,62 @@ public class ConsentSerializer extends AbstractInitializableComponent implements
         }
     }
 
+    /**
+     * Read the consents contained in a JSON array, skipping entries which cannot be parsed.
+     * 
+     * @param array the JSON array
+     * 
+     * @return the consents keyed by consent ID
+     */
+    @Nonnull protected Map<String, Consent> readConsents(@Nonnull final JsonArray array) {
+        final Map<String, Consent> consents = new LinkedHashMap<>();
+
+        for (final JsonValue a : array) {
+            if (a.getValueType().equals(ValueType.OBJECT)) {
+                final JsonObject o = (JsonObject) a;
+
+                final String consentId = desymbolize(o.get(ID_FIELD));
+                if (consentId == null) {
+                    log.warn("Unparseable consent id in structure");
+                    continue;
+                }
+
+                final Consent consent = new Consent();
+                consent.setId(consentId);
+                if (o.containsKey(VALUE_FIELD)) {
+                    consent.setValue(o.getString(VALUE_FIELD));
+                }
+                consent.setApproved(o.getBoolean(IS_APPROVED_FIELD, true));
+                consents.put(consent.getId(), consent);
+            }
+        }
+
+        return consents;
+    }
+
+    /**
+     * Write a consent as a JSON object within the current array of a generator.
+     * 
+     * @param gen the JSON generator
+     * @param consent the consent
+     */
+    protected void writeConsent(@Nonnull final JsonGenerator gen, @Nonnull final Consent consent) {
+        gen.writeStartObject();
+        final Integer symbol = symbolics.get(consent.getId());
+        if (symbol != null) {
+            gen.write(ID_FIELD, symbol);
+        } else {
+            gen.write(ID_FIELD, consent.getId());
+        }
+        if (consent.getValue() != null) {
+            gen.write(VALUE_FIELD, consent.getValue());
+        }
+        if (!consent.isApproved()) {
+            gen.write(IS_APPROVED_FIELD, false);
+        }
+        gen.writeEnd();
+    }
+
     /** {@inheritDoc} */
     @Override
     @Nonnull public Map<String, Consent>
@@ -140,29 +196,7 @@ public class ConsentSerializer extends AbstractInitializableComponent implements
             if (!(st instanceof JsonArray)) {
                 throw new IOException("Found invalid data structure while parsing consent");
             }
-            final JsonArray array = (JsonArray) st;
-
-            final Map<String, Consent> consents = new LinkedHashMap<>();
-
-            for (final JsonValue a : array) {
-                if (a.getValueType().equals(ValueType.OBJECT)) {
-                    final JsonObject o = (JsonObject) a;
-
-                    final String consentId = desymbolize(o.get(ID_FIELD));
-                    if (consentId == null) {
-                        log.warn("Unparseable consent id in structure");
-                        continue;
-                    }
-
-                    final Consent consent = new Consent();
-                    consent.setId(consentId);
-                    if (o.containsKey(VALUE_FIELD)) {
-                        consent.setValue(o.getString(VALUE_FIELD));
-                    }
-                    consent.setApproved(o.getBoolean(IS_APPROVED_FIELD, true));
-                    consents.put(consent.getId(), consent);
-                }
-            }
+            final Map<String, Consent> consents = readConsents((JsonArray) st);
 
             log.debug("Deserialized context '{}' key '{}' value '{}' expiration '{}' as '{}'", new Object[] {context,
                     key, value, expiration, consents,});
@@ -186,20 +220,7 @@ public class ConsentSerializer extends AbstractInitializableComponent implements
 
         gen.writeStartArray();
         for (final Consent consent : filteredConsents) {
-            gen.writeStartObject();
-            final Integer symbol = symbolics.get(consent.getId());
-            if (symbol != null) {
-                gen.write(ID_FIELD, symbol);
-            } else {
-                gen.write(ID_FIELD, consent.getId());
-            }
-            if (consent.getValue() != null) {
-                gen.write(VALUE_FIELD, consent.getValue());
-            }
-            if (!consent.isApproved()) {
-                gen.write(IS_APPROVED_FIELD, false);
-            }
-            gen.writeEnd();
+            writeConsent(gen, consent);
         }
         gen.writeEnd();
         gen.close();
@@ -0,0 +1,269 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.shibboleth.idp.consent.storage.impl;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.idp.consent.impl.Consent;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.annotation.constraint.Unmodifiable;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * All of the consents stored for a user in a single storage record.
+ * 
+ * Each entry holds the consents previously keyed by a separate storage record, for example the consents for a
+ * relying party or global consent, along with the expiration of that entry. Entries are kept in the order in which
+ * they were last written, oldest first, so that the oldest entries may be pruned without consulting an index.
+ * 
+ * The record also notes whether the separate storage records written before consolidation was enabled have been
+ * moved into it, so that they need only be looked for once.
+ */
+public class ConsolidatedConsentRecord {
+
+    /** Entries keyed by storage key, oldest first. */
+    @Nonnull @NonnullElements private final Map<String, Entry> entries;
+
+    /** Whether separate storage records have been moved into this record. */
+    private boolean legacyMigrated;
+
+    /** Constructor. */
+    public ConsolidatedConsentRecord() {
+        entries = new LinkedHashMap<>();
+    }
+
+    /**
+     * Get the entries, oldest first.
+     * 
+     * @return the entries keyed by storage key
+     */
+    @Nonnull @NonnullElements @Unmodifiable public Map<String, Entry> getEntries() {
+        return Collections.unmodifiableMap(entries);
+    }
+
+    /**
+     * Get whether the separate storage records written before consolidation was enabled have been moved into this
+     * record.
+     * 
+     * @return whether separate storage records have been moved into this record
+     */
+    public boolean isLegacyMigrated() {
+        return legacyMigrated;
+    }
+
+    /**
+     * Set whether the separate storage records written before consolidation was enabled have been moved into this
+     * record.
+     * 
+     * @param flag whether separate storage records have been moved into this record
+     */
+    public void setLegacyMigrated(final boolean flag) {
+        legacyMigrated = flag;
+    }
+
+    /**
+     * Get the consents for a storage key.
+     * 
+     * @param key the storage key
+     * @param now the current time
+     * 
+     * @return the consents, or <code>null</code> if there is no entry for the key or the entry has expired
+     */
+    @Nullable public Map<String, Consent> getConsents(@Nonnull @NotEmpty final String key, final long now) {
+        final Entry entry = entries.get(key);
+        if (entry == null || entry.isExpired(now)) {
+            return null;
+        }
+        return entry.getConsents();
+    }
+
+    /**
+     * Add or replace the entry for a storage key, making it the newest entry.
+     * 
+     * @param key the storage key
+     * @param consents the consents
+     * @param expiration the expiration of the entry, or <code>null</code> if it does not expire
+     */
+    public void put(@Nonnull @NotEmpty final String key, @Nonnull @NonnullElements final Map<String, Consent> consents,
+            @Nullable @Positive final Long expiration) {
+        Constraint.isNotNull(key, "Storage key cannot be null");
+        entries.remove(key);
+        entries.put(key, new Entry(consents, expiration));
+    }
+
+    /**
+     * Remove the entry for a storage key.
+     * 
+     * @param key the storage key
+     * 
+     * @return whether an entry was removed
+     */
+    public boolean remove(@Nonnull @NotEmpty final String key) {
+        return entries.remove(key) != null;
+    }
+
+    /**
+     * Remove expired entries.
+     * 
+     * @param now the current time
+     * 
+     * @return the number of entries removed
+     */
+    public int removeExpired(final long now) {
+        int removed = 0;
+        final Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isExpired(now)) {
+                iterator.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Remove the oldest entries until no more than the given number remain.
+     * 
+     * @param maxEntries the maximum number of entries to retain
+     * 
+     * @return the number of entries removed
+     */
+    public int prune(@Positive final int maxEntries) {
+        int removed = 0;
+        final Iterator<Entry> iterator = entries.values().iterator();
+        while (entries.size() > maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            removed++;
+        }
+        return removed;
+    }
+
+    /**
+     * Get the number of entries.
+     * 
+     * @return the number of entries
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Whether there are no entries.
+     * 
+     * @return whether there are no entries
+     */
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Get the expiration of the record, which is the latest expiration of its entries.
+     * 
+     * @return the expiration, or <code>null</code> if any entry does not expire
+     */
+    @Nullable public Long getExpiration() {
+        long expiration = 0;
+        for (final Entry entry : entries.values()) {
+            if (entry.getExpiration() == null) {
+                return null;
+            }
+            expiration = Math.max(expiration, entry.getExpiration());
+        }
+        return expiration > 0 ? expiration : null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("entries", entries)
+                .add("legacyMigrated", legacyMigrated)
+                .toString();
+    }
+
+    /** The consents stored for a single storage key. */
+    public static class Entry {
+
+        /** The consents. */
+        @Nonnull @NonnullElements private final Map<String, Consent> consents;
+
+        /** The expiration, or <code>null</code>. */
+        @Nullable private final Long expiration;
+
+        /**
+         * Constructor.
+         * 
+         * @param entryConsents the consents
+         * @param entryExpiration the expiration, or <code>null</code> if the entry does not expire
+         */
+        public Entry(@Nonnull @NonnullElements final Map<String, Consent> entryConsents,
+                @Nullable @Positive final Long entryExpiration) {
+            consents = Constraint.isNotNull(entryConsents, "Consents cannot be null");
+            expiration = entryExpiration;
+        }
+
+        /**
+         * Get the consents.
+         * 
+         * @return the consents keyed by consent ID
+         */
+        @Nonnull @NonnullElements public Map<String, Consent> getConsents() {
+            return consents;
+        }
+
+        /**
+         * Get the expiration.
+         * 
+         * @return the expiration, or <code>null</code> if the entry does not expire
+         */
+        @Nullable public Long getExpiration() {
+            return expiration;
+        }
+
+        /**
+         * Whether the entry has expired.
+         * 
+         * @param now the current time
+         * 
+         * @return whether the entry has expired
+         */
+        public boolean isExpired(final long now) {
+            return expiration != null && expiration <= now;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("consents", consents)
+                    .add("expiration", expiration)
+                    .toString();
+        }
+    }
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.shibboleth.idp.consent.storage.impl;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonReaderFactory;
+import javax.json.JsonStructure;
+import javax.json.JsonValue;
+import javax.json.JsonValue.ValueType;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
+
+import net.shibboleth.idp.consent.impl.Consent;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import org.opensaml.storage.StorageSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serializes a {@link ConsolidatedConsentRecord}.
+ * 
+ * The record is a JSON object holding whether separate storage records have been moved into the record, if so, and an
+ * object whose members are the entries, oldest first, keyed by storage key. Each entry is an object holding the
+ * expiration of the entry, if any, and the consents of the entry in the format produced by a
+ * {@link ConsentSerializer}, whose symbolic mappings are used.
+ */
+public class ConsolidatedConsentRecordSerializer extends AbstractInitializableComponent implements
+        StorageSerializer<ConsolidatedConsentRecord> {
+
+    /** Field name of the flag indicating separate storage records have been moved into the record. */
+    @Nonnull @NotEmpty private static final String LEGACY_MIGRATED_FIELD = "m";
+
+    /** Field name of record entries. */
+    @Nonnull @NotEmpty private static final String ENTRIES_FIELD = "e";
+
+    /** Field name of entry expiration. */
+    @Nonnull @NotEmpty private static final String EXPIRATION_FIELD = "x";
+
+    /** Field name of entry consents. */
+    @Nonnull @NotEmpty private static final String CONSENTS_FIELD = "c";
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(ConsolidatedConsentRecordSerializer.class);
+
+    /** JSON generator factory. */
+    @Nonnull private final JsonGeneratorFactory generatorFactory;
+
+    /** JSON reader factory. */
+    @Nonnull private final JsonReaderFactory readerFactory;
+
+    /** Serializer for the consents of each entry. */
+    @Nonnull private final ConsentSerializer consentSerializer;
+
+    /**
+     * Constructor.
+     * 
+     * @param serializer serializer for the consents of each entry
+     */
+    public ConsolidatedConsentRecordSerializer(@Nonnull final ConsentSerializer serializer) {
+        generatorFactory = Json.createGeneratorFactory(null);
+        readerFactory = Json.createReaderFactory(null);
+        consentSerializer = Constraint.isNotNull(serializer, "Consent serializer cannot be null");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull public ConsolidatedConsentRecord deserialize(final long version, @Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key, @Nonnull @NotEmpty final String value,
+            @Nullable final Long expiration) throws IOException {
+
+        try (final JsonReader reader = readerFactory.createReader(new StringReader(value))) {
+            final JsonStructure st = reader.read();
+
+            if (!(st instanceof JsonObject)) {
+                throw new IOException("Found invalid data structure while parsing consolidated consent record");
+            }
+
+            final JsonObject obj = (JsonObject) st;
+            final ConsolidatedConsentRecord record = new ConsolidatedConsentRecord();
+            record.setLegacyMigrated(obj.getBoolean(LEGACY_MIGRATED_FIELD, false));
+            final JsonObject entries = obj.getJsonObject(ENTRIES_FIELD);
+            if (entries != null) {
+                for (final Map.Entry<String, JsonValue> member : entries.entrySet()) {
+                    if (!member.getValue().getValueType().equals(ValueType.OBJECT)) {
+                        log.warn("Unparseable entry '{}' in consolidated consent record", member.getKey());
+                        continue;
+                    }
+                    final JsonObject o = (JsonObject) member.getValue();
+                    final Long entryExpiration = o.containsKey(EXPIRATION_FIELD)
+                            ? o.getJsonNumber(EXPIRATION_FIELD).longValueExact() : null;
+                    final Map<String, Consent> consents =
+                            consentSerializer.readConsents(o.getJsonArray(CONSENTS_FIELD));
+                    record.put(member.getKey(), consents, entryExpiration);
+                }
+            }
+
+            log.debug("Deserialized context '{}' key '{}' value '{}' expiration '{}' as '{}'", new Object[] {context,
+                    key, value, expiration, record,});
+            return record;
+        } catch (final NullPointerException | ClassCastException | ArithmeticException | JsonException e) {
+            log.error("Exception while parsing consolidated consent record", e);
+            throw new IOException("Found invalid data structure while parsing consolidated consent record", e);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull @NotEmpty public String serialize(@Nonnull final ConsolidatedConsentRecord record) throws IOException {
+        Constraint.isNotNull(record, "Consolidated consent record cannot be null");
+
+        final StringWriter sink = new StringWriter(256);
+        final JsonGenerator gen = generatorFactory.createGenerator(sink);
+
+        gen.writeStartObject();
+        if (record.isLegacyMigrated()) {
+            gen.write(LEGACY_MIGRATED_FIELD, true);
+        }
+        gen.writeStartObject(ENTRIES_FIELD);
+        for (final Map.Entry<String, ConsolidatedConsentRecord.Entry> entry : record.getEntries().entrySet()) {
+            gen.writeStartObject(entry.getKey());
+            if (entry.getValue().getExpiration() != null) {
+                gen.write(EXPIRATION_FIELD, entry.getValue().getExpiration().longValue());
+            }
+            gen.writeStartArray(CONSENTS_FIELD);
+            for (final Consent consent : entry.getValue().getConsents().values()) {
+                if (consent != null) {
+                    consentSerializer.writeConsent(gen, consent);
+                }
+            }
+            gen.writeEnd();
+            gen.writeEnd();
+        }
+        gen.writeEnd();
+        gen.writeEnd();
+        gen.close();
+
+        final String serialized = sink.toString();
+        log.debug("Serialized '{}' as '{}'", record, serialized);
+        return serialized;
+    }
+
+}
@@ -42,6 +42,7 @@ public class ConsentContextTest {
     @Test public void testInstantiation() {
         Assert.assertTrue(ctx.getCurrentConsents().isEmpty());
         Assert.assertTrue(ctx.getPreviousConsents().isEmpty());
+        Assert.assertFalse(ctx.isPreviousConsentsMigrated());
     }
 
     @Test public void testCurrentConsents() {
@@ -54,4 +55,9 @@ public class ConsentContextTest {
         Assert.assertEquals(map, ctx.getPreviousConsents());
     }
 
+    @Test public void testPreviousConsentsMigrated() {
+        ctx.setPreviousConsentsMigrated(true);
+        Assert.assertTrue(ctx.isPreviousConsentsMigrated());
+    }
+
 }
@@ -17,6 +17,7 @@
 
 package net.shibboleth.idp.consent.flow.storage.impl;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -29,12 +30,15 @@ import net.shibboleth.idp.consent.context.impl.ConsentContext;
 import net.shibboleth.idp.consent.impl.Consent;
 import net.shibboleth.idp.consent.impl.ConsentTestingSupport;
 import net.shibboleth.idp.consent.storage.impl.ConsentSerializer;
+import net.shibboleth.idp.consent.storage.impl.ConsolidatedConsentRecord;
 import net.shibboleth.idp.profile.ActionTestingSupport;
 import net.shibboleth.idp.profile.context.ProfileInterceptorContext;
 import net.shibboleth.utilities.java.support.logic.FunctionSupport;
 
+import org.opensaml.profile.action.EventIds;
 import org.opensaml.profile.context.ProfileRequestContext;
 import org.opensaml.storage.StorageRecord;
+import org.opensaml.storage.impl.MemoryStorageService;
 import org.springframework.webflow.execution.Event;
 import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
@@ -208,4 +212,63 @@ public class CreateResultTest extends AbstractConsentIndexedStorageActionTest {
         }
         Assert.assertEquals(readStorageKeysFromIndex(), keys);
     }
+
+    @Test public void testConsolidatedMaxStoredRecords() throws Exception {
+        descriptor.setExpandedNumberOfStoredRecords(2);
+        descriptor.setMaximumNumberOfStoredRecords(2);
+
+        final ConsentContext consentCtx = prc.getSubcontext(ConsentContext.class);
+        consentCtx.getCurrentConsents().putAll(ConsentTestingSupport.newConsentMap());
+
+        for (int i = 1; i <= 3; i++) {
+            final CreateResult consolidatedAction = new CreateResult();
+            consolidatedAction.setStorageContextLookupStrategy(
+                    FunctionSupport.<ProfileRequestContext, String> constant("context"));
+            consolidatedAction.setStorageKeyLookupStrategy(
+                    FunctionSupport.<ProfileRequestContext, String> constant("key" + Integer.toString(i)));
+            consolidatedAction.setStorageIndexKeyLookupStrategy(
+                    FunctionSupport.<ProfileRequestContext, String> constant("_index"));
+            consolidatedAction.setConsolidatedStorageKeyLookupStrategy(
+                    FunctionSupport.<ProfileRequestContext, String> constant("_consent"));
+            consolidatedAction.initialize();
+            ActionTestingSupport.assertProceedEvent(consolidatedAction.execute(src));
+
+            final StorageRecord<ConsolidatedConsentRecord> record =
+                    getMemoryStorageService().read("context", "_consent");
+            Assert.assertNotNull(record);
+            final ConsolidatedConsentRecord consolidated = record.getValue(
+                    consolidatedAction.getConsolidatedRecordSerializer(), "context", "_consent");
+            Assert.assertEquals(consolidated.getConsents("key" + Integer.toString(i), System.currentTimeMillis()),
+                    ConsentTestingSupport.newConsentMap());
+            Assert.assertEquals(consolidated.size(), Math.min(i, 2));
+            Assert.assertNotNull(record.getExpiration());
+        }
+
+        Assert.assertNull(getMemoryStorageService().read("context", "key1"));
+        Assert.assertNull(getMemoryStorageService().read("context", "_index"));
+    }
+
+    @Test public void testConsolidatedStorageFailure() throws Exception {
+        final MemoryStorageService storageService = new MemoryStorageService() {
+            public boolean create(final String context, final String key, final String value, final Long expiration)
+                    throws IOException {
+                return false;
+            }
+        };
+        storageService.setId("test");
+        storageService.initialize();
+        prc.getSubcontext(ProfileInterceptorContext.class).getAttemptedFlow().setStorageService(storageService);
+
+        final ConsentContext consentCtx = prc.getSubcontext(ConsentContext.class);
+        consentCtx.getCurrentConsents().putAll(ConsentTestingSupport.newConsentMap());
+
+        ((CreateResult) action).setConsolidatedStorageKeyLookupStrategy(
+                FunctionSupport.<ProfileRequestContext, String> constant("_consent"));
+        action.initialize();
+
+        final Event event = action.execute(src);
+
+        ActionTestingSupport.assertEvent(event, EventIds.IO_ERROR);
+        Assert.assertNull(storageService.read("context", "_consent"));
+    }
 }
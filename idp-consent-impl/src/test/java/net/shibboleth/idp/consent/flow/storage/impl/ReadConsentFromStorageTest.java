@@ -17,10 +17,17 @@
 
 package net.shibboleth.idp.consent.flow.storage.impl;
 
+import java.util.Arrays;
+
 import net.shibboleth.idp.consent.context.impl.ConsentContext;
 import net.shibboleth.idp.consent.impl.ConsentTestingSupport;
+import net.shibboleth.idp.consent.storage.impl.CollectionSerializer;
+import net.shibboleth.idp.consent.storage.impl.ConsolidatedConsentRecord;
 import net.shibboleth.idp.profile.ActionTestingSupport;
+import net.shibboleth.utilities.java.support.logic.FunctionSupport;
 
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.opensaml.storage.StorageRecord;
 import org.opensaml.storage.impl.MemoryStorageService;
 import org.springframework.webflow.execution.Event;
 import org.testng.Assert;
@@ -52,6 +59,106 @@ public class ReadConsentFromStorageTest extends AbstractConsentStorageActionTest
         Assert.assertEquals(consentCtx.getPreviousConsents(), ConsentTestingSupport.newConsentMap());
     }
 
+    @Test public void testReadConsolidatedRecord() throws Exception {
+        ((AbstractConsentStorageAction) action).setConsolidatedStorageKeyLookupStrategy(
+                FunctionSupport.<ProfileRequestContext, String> constant("_consent"));
+        action.initialize();
+
+        final ConsolidatedConsentRecord consolidated = new ConsolidatedConsentRecord();
+        consolidated.put("otherKey", ConsentTestingSupport.newConsentMap(), null);
+        consolidated.put("key", ConsentTestingSupport.newConsentMap(), null);
+        getMemoryStorageService().create("context", "_consent", consolidated,
+                ((AbstractConsentStorageAction) action).getConsolidatedRecordSerializer(), null);
+
+        ActionTestingSupport.assertProceedEvent(action.execute(src));
+
+        final ConsentContext consentCtx = prc.getSubcontext(ConsentContext.class);
+        Assert.assertNotNull(consentCtx);
+        Assert.assertEquals(consentCtx.getPreviousConsents(), ConsentTestingSupport.newConsentMap());
+    }
+
+    @Test public void testMigrateToConsolidatedRecord() throws Exception {
+        ((AbstractConsentStorageAction) action).setConsolidatedStorageKeyLookupStrategy(
+                FunctionSupport.<ProfileRequestContext, String> constant("_consent"));
+        ((ReadConsentFromStorage) action).setStorageIndexKeyLookupStrategy(
+                FunctionSupport.<ProfileRequestContext, String> constant("_key_idx"));
+        action.initialize();
+
+        final MemoryStorageService ss = getMemoryStorageService();
+        ss.create("context", "key", ConsentTestingSupport.newConsentMap(),
+                ((AbstractConsentStorageAction) action).getStorageSerializer(), null);
+        ss.create("context", "otherKey", ConsentTestingSupport.newConsentMap(),
+                ((AbstractConsentStorageAction) action).getStorageSerializer(), null);
+        ss.create("context", "_key_idx", Arrays.asList("key", "otherKey"), new CollectionSerializer(), null);
+
+        ActionTestingSupport.assertProceedEvent(action.execute(src));
+
+        final ConsentContext consentCtx = prc.getSubcontext(ConsentContext.class);
+        Assert.assertNotNull(consentCtx);
+        Assert.assertEquals(consentCtx.getPreviousConsents(), ConsentTestingSupport.newConsentMap());
+
+        Assert.assertNull(ss.read("context", "key"));
+        Assert.assertNull(ss.read("context", "otherKey"));
+        Assert.assertNull(ss.read("context", "_key_idx"));
+        final StorageRecord<ConsolidatedConsentRecord> record = ss.read("context", "_consent");
+        Assert.assertNotNull(record);
+        final ConsolidatedConsentRecord consolidated = record.getValue(
+                ((AbstractConsentStorageAction) action).getConsolidatedRecordSerializer(), "context", "_consent");
+        Assert.assertTrue(consolidated.isLegacyMigrated());
+        Assert.assertEquals(consolidated.getConsents("key", System.currentTimeMillis()),
+                ConsentTestingSupport.newConsentMap());
+        Assert.assertEquals(consolidated.getConsents("otherKey", System.currentTimeMillis()),
+                ConsentTestingSupport.newConsentMap());
+    }
+
+    @Test public void testNoLegacyReadAfterMigration() throws Exception {
+        ((AbstractConsentStorageAction) action).setConsolidatedStorageKeyLookupStrategy(
+                FunctionSupport.<ProfileRequestContext, String> constant("_consent"));
+        ((ReadConsentFromStorage) action).setStorageIndexKeyLookupStrategy(
+                FunctionSupport.<ProfileRequestContext, String> constant("_key_idx"));
+        action.initialize();
+
+        final MemoryStorageService ss = getMemoryStorageService();
+        final ConsolidatedConsentRecord consolidated = new ConsolidatedConsentRecord();
+        consolidated.setLegacyMigrated(true);
+        consolidated.put("otherKey", ConsentTestingSupport.newConsentMap(), null);
+        ss.create("context", "_consent", consolidated,
+                ((AbstractConsentStorageAction) action).getConsolidatedRecordSerializer(), null);
+        ss.create("context", "key", ConsentTestingSupport.newConsentMap(),
+                ((AbstractConsentStorageAction) action).getStorageSerializer(), null);
+        ss.create("context", "_key_idx", Arrays.asList("key"), new CollectionSerializer(), null);
+
+        ActionTestingSupport.assertProceedEvent(action.execute(src));
+
+        final ConsentContext consentCtx = prc.getSubcontext(ConsentContext.class);
+        Assert.assertNotNull(consentCtx);
+        Assert.assertTrue(consentCtx.getPreviousConsents().isEmpty());
+
+        Assert.assertNotNull(ss.read("context", "key"));
+        Assert.assertNotNull(ss.read("context", "_key_idx"));
+        Assert.assertEquals(ss.read("context", "_consent").getVersion(), 1);
+    }
+
+    @Test public void testNoLegacyRecordsMarksMigrated() throws Exception {
+        ((AbstractConsentStorageAction) action).setConsolidatedStorageKeyLookupStrategy(
+                FunctionSupport.<ProfileRequestContext, String> constant("_consent"));
+        ((ReadConsentFromStorage) action).setStorageIndexKeyLookupStrategy(
+                FunctionSupport.<ProfileRequestContext, String> constant("_key_idx"));
+        action.initialize();
+
+        final MemoryStorageService ss = getMemoryStorageService();
+        final ConsolidatedConsentRecord consolidated = new ConsolidatedConsentRecord();
+        consolidated.put("otherKey", ConsentTestingSupport.newConsentMap(), null);
+        ss.create("context", "_consent", consolidated,
+                ((AbstractConsentStorageAction) action).getConsolidatedRecordSerializer(), null);
+
+        ActionTestingSupport.assertProceedEvent(action.execute(src));
+
+        final StorageRecord<ConsolidatedConsentRecord> record = ss.read("context", "_consent");
+        Assert.assertTrue(record.getValue(((AbstractConsentStorageAction) action).getConsolidatedRecordSerializer(),
+                "context", "_consent").isLegacyMigrated());
+    }
+
     @Test public void testReadEmptyStorage() throws Exception {
         action.initialize();
 
@@ -20,8 +20,12 @@ package net.shibboleth.idp.consent.flow.storage.impl;
 import java.util.Collections;
 
 import net.shibboleth.idp.consent.impl.ConsentTestingSupport;
+import net.shibboleth.idp.consent.storage.impl.ConsolidatedConsentRecord;
 import net.shibboleth.idp.profile.ActionTestingSupport;
+import net.shibboleth.utilities.java.support.logic.FunctionSupport;
 
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.opensaml.storage.StorageRecord;
 import org.opensaml.storage.impl.MemoryStorageService;
 import org.springframework.webflow.execution.Event;
 import org.testng.Assert;
@@ -54,6 +58,43 @@ public class RevokeConsentTest extends AbstractConsentIndexedStorageActionTest {
         Assert.assertTrue(readStorageKeysFromIndex().isEmpty());
     }
 
+    @Test public void testRevokeConsolidatedConsent() throws Exception {
+        ((AbstractConsentStorageAction) action).setConsolidatedStorageKeyLookupStrategy(
+                FunctionSupport.<ProfileRequestContext, String> constant("_consent"));
+        action.initialize();
+
+        final MemoryStorageService ss = getMemoryStorageService();
+        final ConsolidatedConsentRecord consolidated = new ConsolidatedConsentRecord();
+        consolidated.put("key", ConsentTestingSupport.newConsentMap(), null);
+        consolidated.put("otherKey", ConsentTestingSupport.newConsentMap(), null);
+        ss.create("context", "_consent", consolidated,
+                ((AbstractConsentStorageAction) action).getConsolidatedRecordSerializer(), null);
+
+        ActionTestingSupport.assertProceedEvent(action.execute(src));
+
+        final StorageRecord<ConsolidatedConsentRecord> record = ss.read("context", "_consent");
+        Assert.assertNotNull(record);
+        Assert.assertEquals(record.getValue(((AbstractConsentStorageAction) action).getConsolidatedRecordSerializer(),
+                "context", "_consent").getEntries().keySet(), Collections.singleton("otherKey"));
+        Assert.assertEquals(record.getVersion(), 2);
+
+        ActionTestingSupport.assertProceedEvent(buildConsolidatedAction("otherKey").execute(src));
+        Assert.assertNull(ss.read("context", "_consent"));
+    }
+
+    private RevokeConsent buildConsolidatedAction(final String key) throws Exception {
+        final RevokeConsent revokeAction = new RevokeConsent();
+        revokeAction.setStorageContextLookupStrategy(
+                FunctionSupport.<ProfileRequestContext, String> constant("context"));
+        revokeAction.setStorageKeyLookupStrategy(FunctionSupport.<ProfileRequestContext, String> constant(key));
+        revokeAction.setStorageIndexKeyLookupStrategy(
+                FunctionSupport.<ProfileRequestContext, String> constant("_index"));
+        revokeAction.setConsolidatedStorageKeyLookupStrategy(
+                FunctionSupport.<ProfileRequestContext, String> constant("_consent"));
+        revokeAction.initialize();
+        return revokeAction;
+    }
+
     @Test public void testRevokeEmptyStorage() throws Exception {
         action.initialize();
 
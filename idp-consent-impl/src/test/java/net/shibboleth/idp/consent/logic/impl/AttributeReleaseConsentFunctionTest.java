@@ -210,6 +210,38 @@ public class AttributeReleaseConsentFunctionTest {
         }
 
         Assert.assertEquals(function.apply(prc), expected);
+        Assert.assertFalse(consentCtx.isPreviousConsentsMigrated());
+    }
+
+    @Test public void testRememberPreviousConsentsLegacyValueCompareValues() {
+        final Consent previousConsent = new Consent();
+        previousConsent.setId("attribute1");
+        previousConsent.setValue(new LegacyAttributeValuesHashFunction().apply(ConsentTestingSupport.newAttributeMap()
+                .get("attribute1").getValues()));
+        previousConsent.setApproved(true);
+        final ConsentContext consentCtx = new ConsentContext();
+        consentCtx.getPreviousConsents().put(previousConsent.getId(), previousConsent);
+        prc.addSubcontext(consentCtx);
+
+        final AttributeReleaseContext arc = new AttributeReleaseContext();
+        arc.getConsentableAttributes().putAll(ConsentTestingSupport.newAttributeMap());
+        prc.addSubcontext(arc);
+        setUpDescriptor(true);
+
+        final Map<String, Consent> expected = new HashMap<>();
+        for (final IdPAttribute attr : ConsentTestingSupport.newAttributeMap().values()) {
+            final Consent consent = new Consent();
+            consent.setId(attr.getId());
+            consent.setValue(attributeValuesHashFunction.apply(attr.getValues()));
+            if (attr.getId().equals("attribute1")) {
+                consent.setApproved(true);
+            }
+            expected.put(consent.getId(), consent);
+        }
+
+        Assert.assertEquals(function.apply(prc), expected);
+        Assert.assertEquals(previousConsent.getValue(), expected.get("attribute1").getValue());
+        Assert.assertTrue(consentCtx.isPreviousConsentsMigrated());
     }
 
     @Test public void testRememberPreviousConsentsDifferentValueCompareValues() {
@@ -21,7 +21,11 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import net.shibboleth.idp.attribute.ByteAttributeValue;
+import net.shibboleth.idp.attribute.EmptyAttributeValue;
 import net.shibboleth.idp.attribute.IdPAttributeValue;
+import net.shibboleth.idp.attribute.ScopedStringAttributeValue;
+import net.shibboleth.idp.attribute.StringAttributeValue;
 import net.shibboleth.idp.consent.impl.ConsentTestingSupport;
 
 import org.testng.Assert;
@@ -53,12 +57,46 @@ public class AttributeValuesHashFunctionTest {
 
     @Test public void testSingleValue() {
         final String hash = function.apply(ConsentTestingSupport.newAttributeMap().get("attribute1").getValues());
-        Assert.assertEquals(hash, "yePBj0hcjLihhDtDb//R/ymyw2CHZAUreX/4RupmSXM=");
+        Assert.assertEquals(hash, "v2:kUrO79xCvPdf+F5kIeYoOOoZ1UjL5T7YWMZy5x5eWe8=");
     }
 
     @Test public void testMultipleValues() {
         final String hash = function.apply(ConsentTestingSupport.newAttributeMap().get("attribute2").getValues());
-        Assert.assertEquals(hash, "xxuA06hGJ1DcJ4JSaWiBXXGfcRr6oxHM5jaURXBBnbA=");
+        Assert.assertEquals(hash, "v2:XDfyC9Mi2WqoqX21B+e+Kcv0kDq7cYysy2FEQYVhAU8=");
+    }
+
+    @Test public void testValueTypes() {
+        final List<IdPAttributeValue<?>> scoped = new ArrayList<>();
+        scoped.add(new ScopedStringAttributeValue("value", "scope"));
+        final List<IdPAttributeValue<?>> string = new ArrayList<>();
+        string.add(new StringAttributeValue("value@scope"));
+        final List<IdPAttributeValue<?>> bytes = new ArrayList<>();
+        bytes.add(new ByteAttributeValue("value@scope".getBytes()));
+        final List<IdPAttributeValue<?>> empty = new ArrayList<>();
+        empty.add(EmptyAttributeValue.ZERO_LENGTH);
+
+        final String scopedHash = function.apply(scoped);
+        Assert.assertTrue(AttributeValuesHashFunction.isCurrentHash(scopedHash));
+        Assert.assertEquals(function.apply(scoped), scopedHash);
+        Assert.assertNotEquals(function.apply(string), scopedHash);
+        Assert.assertNotEquals(function.apply(bytes), function.apply(string));
+        Assert.assertNotNull(function.apply(empty));
+    }
+
+    @Test public void testValueBoundaries() {
+        final List<IdPAttributeValue<?>> split = new ArrayList<>();
+        split.add(new StringAttributeValue("value1"));
+        split.add(new StringAttributeValue("value2"));
+        final List<IdPAttributeValue<?>> joined = new ArrayList<>();
+        joined.add(new StringAttributeValue("value1value2"));
+        Assert.assertNotEquals(function.apply(split), function.apply(joined));
+    }
+
+    @Test public void testLegacyHashDetection() {
+        final String legacyHash = new LegacyAttributeValuesHashFunction().apply(
+                ConsentTestingSupport.newAttributeMap().get("attribute1").getValues());
+        Assert.assertFalse(AttributeValuesHashFunction.isCurrentHash(legacyHash));
+        Assert.assertFalse(AttributeValuesHashFunction.isCurrentHash(null));
     }
 
 }
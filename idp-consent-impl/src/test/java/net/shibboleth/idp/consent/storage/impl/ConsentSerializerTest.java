@@ -121,7 +121,7 @@ public class ConsentSerializerTest {
         final String serialized = serializer.serialize(consents);
         Assert.assertEquals(
                 serialized,
-                "[{\"id\":\"attribute1\",\"v\":\"yePBj0hcjLihhDtDb//R/ymyw2CHZAUreX/4RupmSXM=\"},{\"id\":\"attribute2\",\"v\":\"xxuA06hGJ1DcJ4JSaWiBXXGfcRr6oxHM5jaURXBBnbA=\",\"appr\":false}]");
+                "[{\"id\":\"attribute1\",\"v\":\"v2:kUrO79xCvPdf+F5kIeYoOOoZ1UjL5T7YWMZy5x5eWe8=\"},{\"id\":\"attribute2\",\"v\":\"v2:XDfyC9Mi2WqoqX21B+e+Kcv0kDq7cYysy2FEQYVhAU8=\",\"appr\":false}]");
 
         final Map<String, Consent> deserialized = serializer.deserialize(1, CONTEXT, KEY, serialized, null);
 
@@ -136,7 +136,7 @@ public class ConsentSerializerTest {
         final String serialized = serializer.serialize(consents);
         Assert.assertEquals(
                 serialized,
-                "[{\"id\":201,\"v\":\"yePBj0hcjLihhDtDb//R/ymyw2CHZAUreX/4RupmSXM=\"},{\"id\":202,\"v\":\"xxuA06hGJ1DcJ4JSaWiBXXGfcRr6oxHM5jaURXBBnbA=\",\"appr\":false}]");
+                "[{\"id\":201,\"v\":\"v2:kUrO79xCvPdf+F5kIeYoOOoZ1UjL5T7YWMZy5x5eWe8=\"},{\"id\":202,\"v\":\"v2:XDfyC9Mi2WqoqX21B+e+Kcv0kDq7cYysy2FEQYVhAU8=\",\"appr\":false}]");
 
         final Map<String, Consent> deserialized = serializer.deserialize(1, CONTEXT, KEY, serialized, null);
 
@@ -154,7 +154,7 @@ public class ConsentSerializerTest {
         final String serialized = serializer.serialize(consents);
         Assert.assertEquals(
                 serialized,
-                "[{\"id\":\"attribute1\",\"v\":\"yePBj0hcjLihhDtDb//R/ymyw2CHZAUreX/4RupmSXM=\"},{\"id\":\"attribute2\",\"v\":\"xxuA06hGJ1DcJ4JSaWiBXXGfcRr6oxHM5jaURXBBnbA=\",\"appr\":false}]");
+                "[{\"id\":\"attribute1\",\"v\":\"v2:kUrO79xCvPdf+F5kIeYoOOoZ1UjL5T7YWMZy5x5eWe8=\"},{\"id\":\"attribute2\",\"v\":\"v2:XDfyC9Mi2WqoqX21B+e+Kcv0kDq7cYysy2FEQYVhAU8=\",\"appr\":false}]");
 
         final Map<String, Consent> deserialized = serializer.deserialize(1, CONTEXT, KEY, serialized, null);
 
@@ -0,0 +1,147 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.shibboleth.idp.consent.storage.impl;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.shibboleth.idp.consent.impl.Consent;
+import net.shibboleth.idp.consent.impl.ConsentTestingSupport;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/** Unit tests for {@link ConsolidatedConsentRecordSerializer} and {@link ConsolidatedConsentRecord}. */
+public class ConsolidatedConsentRecordSerializerTest {
+
+    private static final String CONTEXT = "_context";
+
+    private static final String KEY = "_key";
+
+    private ConsentSerializer consentSerializer;
+
+    private ConsolidatedConsentRecordSerializer serializer;
+
+    private Map<String, Consent> consents;
+
+    private Map<String, Consent> globalConsent;
+
+    @BeforeMethod public void setUp() throws Exception {
+        consentSerializer = new ConsentSerializer();
+        consentSerializer.setSymbolics(ConsentTestingSupport.newSymbolicsMap());
+        consentSerializer.initialize();
+
+        serializer = new ConsolidatedConsentRecordSerializer(consentSerializer);
+        serializer.initialize();
+
+        consents = new LinkedHashMap<>();
+        for (final Consent consent : ConsentTestingSupport.newConsentMap().values()) {
+            consents.put(consent.getId(), consent);
+        }
+
+        final Consent wildcard = new Consent();
+        wildcard.setId(Consent.WILDCARD);
+        wildcard.setApproved(true);
+        globalConsent = Collections.singletonMap(wildcard.getId(), wildcard);
+    }
+
+    @Test public void testRoundTrip() throws Exception {
+        final ConsolidatedConsentRecord record = new ConsolidatedConsentRecord();
+        record.put("user:rp1", consents, 1000L);
+        record.put("user", globalConsent, null);
+
+        final String serialized = serializer.serialize(record);
+        Assert.assertTrue(serialized.startsWith("{\"e\":{\"user:rp1\":{\"x\":1000,\"c\":[{\"id\":10"));
+        Assert.assertTrue(serialized.endsWith(",\"user\":{\"c\":[{\"id\":\"*\"}]}}}"));
+
+        final ConsolidatedConsentRecord deserialized = serializer.deserialize(1, CONTEXT, KEY, serialized, null);
+        Assert.assertEquals(deserialized.getEntries().keySet(), record.getEntries().keySet());
+        Assert.assertEquals(deserialized.getConsents("user:rp1", 0), consents);
+        Assert.assertEquals(deserialized.getConsents("user", 0), globalConsent);
+        Assert.assertEquals(deserialized.getEntries().get("user:rp1").getExpiration(), Long.valueOf(1000));
+        Assert.assertNull(deserialized.getEntries().get("user").getExpiration());
+        Assert.assertFalse(deserialized.isLegacyMigrated());
+    }
+
+    @Test public void testLegacyMigrated() throws Exception {
+        final ConsolidatedConsentRecord record = new ConsolidatedConsentRecord();
+        record.setLegacyMigrated(true);
+        record.put("user", globalConsent, null);
+
+        final String serialized = serializer.serialize(record);
+        Assert.assertEquals(serialized, "{\"m\":true,\"e\":{\"user\":{\"c\":[{\"id\":\"*\"}]}}}");
+
+        final ConsolidatedConsentRecord deserialized = serializer.deserialize(1, CONTEXT, KEY, serialized, null);
+        Assert.assertTrue(deserialized.isLegacyMigrated());
+        Assert.assertEquals(deserialized.getConsents("user", 0), globalConsent);
+    }
+
+    @Test public void testEmptyRecord() throws Exception {
+        final String serialized = serializer.serialize(new ConsolidatedConsentRecord());
+        Assert.assertEquals(serialized, "{\"e\":{}}");
+        Assert.assertTrue(serializer.deserialize(1, CONTEXT, KEY, serialized, null).isEmpty());
+    }
+
+    @Test(expectedExceptions = IOException.class) public void testInvalidStructure() throws Exception {
+        serializer.deserialize(1, CONTEXT, KEY, "[{\"id\":\"consent1\"}]", null);
+    }
+
+    @Test(expectedExceptions = IOException.class) public void testMissingConsents() throws Exception {
+        serializer.deserialize(1, CONTEXT, KEY, "{\"e\":{\"user\":{\"x\":1000}}}", null);
+    }
+
+    @Test public void testExpiration() {
+        final ConsolidatedConsentRecord record = new ConsolidatedConsentRecord();
+        record.put("key1", consents, 1000L);
+        record.put("key2", consents, 2000L);
+        Assert.assertEquals(record.getExpiration(), Long.valueOf(2000));
+
+        Assert.assertNull(record.getConsents("key1", 1000));
+        Assert.assertNotNull(record.getConsents("key2", 1000));
+
+        Assert.assertEquals(record.removeExpired(1000), 1);
+        Assert.assertEquals(record.getEntries().keySet(), Collections.singleton("key2"));
+
+        record.put("key3", consents, null);
+        Assert.assertNull(record.getExpiration());
+    }
+
+    @Test public void testPrune() {
+        final ConsolidatedConsentRecord record = new ConsolidatedConsentRecord();
+        record.put("key1", consents, null);
+        record.put("key2", consents, null);
+        record.put("key3", consents, null);
+
+        record.put("key1", consents, null);
+        Assert.assertEquals(record.getEntries().keySet().toArray(), new Object[] {"key2", "key3", "key1",});
+
+        record.put("key2", consents, null);
+        Assert.assertEquals(record.prune(2), 1);
+        Assert.assertEquals(record.getEntries().keySet().toArray(), new Object[] {"key1", "key2",});
+        Assert.assertEquals(record.prune(2), 0);
+
+        Assert.assertTrue(record.remove("key1"));
+        Assert.assertFalse(record.remove("key1"));
+        Assert.assertEquals(record.size(), 1);
+        Assert.assertEquals(Arrays.asList(record.getEntries().keySet().toArray()), Arrays.asList("key2"));
+    }
+
+}
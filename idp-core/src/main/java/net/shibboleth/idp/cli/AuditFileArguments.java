@@ -0,0 +1,157 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.cli;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.Live;
+
+import org.joda.time.DateTime;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+
+/**
+ * Arguments for {@link AuditFileCLI}.
+ */
+@Parameters(separators = " =")
+public class AuditFileArguments {
+
+    /** Display command usage. */
+    @Parameter(names = {"-h", "--help"}, description = "Display program usage", help = true)
+    private boolean help;
+
+    /** Category to select. */
+    @Parameter(names = {"-c", "--category"}, description = "Category of records to select")
+    @Nullable private String category;
+
+    /** Field values to select. */
+    @Parameter(names = {"-f", "--field"}, description = "Field value to select, as name=value (may be repeated)")
+    @Nonnull private List<String> fields = new ArrayList<>();
+
+    /** Earliest time to select. */
+    @Parameter(names = "--from", description = "Earliest time of records to select, in ISO 8601 format")
+    @Nullable private String from;
+
+    /** Latest time to select. */
+    @Parameter(names = "--to", description = "Latest time of records to select, in ISO 8601 format")
+    @Nullable private String to;
+
+    /** Files to read. */
+    @Parameter(description = "Audit files to read, in order")
+    @Nonnull private List<String> files = new ArrayList<>();
+
+    /** Parsed earliest time. */
+    private long fromTime = Long.MIN_VALUE;
+
+    /** Parsed latest time. */
+    private long toTime = Long.MAX_VALUE;
+
+    /**
+     * Should command usage be displayed?
+     * 
+     * @return  true iff this is a help request
+     */
+    public boolean isUsage() {
+        return help;
+    }
+
+    /**
+     * Value of "category" parameter.
+     * 
+     * @return parameter value
+     */
+    @Nullable public String getCategory() {
+        return category;
+    }
+
+    /**
+     * Value of "field" parameters.
+     * 
+     * @return parameter values
+     */
+    @Nonnull @NonnullElements @Live public List<String> getFields() {
+        return fields;
+    }
+
+    /**
+     * Earliest time of records to select.
+     * 
+     * @return milliseconds since the epoch
+     */
+    public long getFromTime() {
+        return fromTime;
+    }
+
+    /**
+     * Latest time of records to select.
+     * 
+     * @return milliseconds since the epoch
+     */
+    public long getToTime() {
+        return toTime;
+    }
+
+    /**
+     * Files to read.
+     * 
+     * @return file names
+     */
+    @Nonnull @NonnullElements @Live public List<String> getFiles() {
+        return files;
+    }
+
+    /**
+     * Whether any record selection criteria were supplied.
+     * 
+     * @return true iff records must be parsed to be selected
+     */
+    public boolean isFiltered() {
+        return category != null || !fields.isEmpty() || fromTime != Long.MIN_VALUE || toTime != Long.MAX_VALUE;
+    }
+
+    /**
+     * Validate the parameter set.
+     * 
+     * @throws IllegalArgumentException if the parameters are invalid
+     */
+    public void validate() {
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("At least one audit file must be supplied");
+        }
+
+        for (final String field : fields) {
+            if (field.indexOf('=') < 1) {
+                throw new IllegalArgumentException("Field selection " + field + " is not of the form name=value");
+            }
+        }
+
+        if (from != null) {
+            fromTime = new DateTime(from).getMillis();
+        }
+        if (to != null) {
+            toTime = new DateTime(to).getMillis();
+        }
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.cli;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import net.shibboleth.idp.log.AuditRecord;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.ParameterException;
+
+/**
+ * Entry point for command line reading of audit files written by {@link net.shibboleth.idp.log.AuditFileWriter}.
+ * 
+ * <p>Lines of the named files are copied to standard output in order. If selection criteria are supplied, each
+ * line is parsed and only the matching records are copied; otherwise the files are copied without parsing.</p>
+ */
+public final class AuditFileCLI {
+
+    /** Constructor. */
+    private AuditFileCLI() {
+        
+    }
+
+    /**
+     * Command line entry point.
+     * 
+     * @param args  command line arguments
+     */
+    public static void main(@Nonnull final String[] args) {
+        final AuditFileArguments argObject = new AuditFileArguments();
+        try {
+            final JCommander jc = new JCommander(argObject, args);
+            if (argObject.isUsage()) {
+                jc.usage();
+                return;
+            }
+            argObject.validate();
+        } catch (final ParameterException | IllegalArgumentException e) {
+            errorAndExit(e.getMessage());
+        }
+
+        try (final Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8),
+                64 * 1024)) {
+            for (final String file : argObject.getFiles()) {
+                copy(file, argObject, out);
+            }
+        } catch (final IOException e) {
+            errorAndExit(e.getMessage());
+        }
+    }
+
+    /**
+     * Copy the selected records of a file to the output.
+     * 
+     * @param file name of file
+     * @param args selection criteria
+     * @param out output
+     * 
+     * @throws IOException if an error occurs reading or writing
+     */
+    static void copy(@Nonnull final String file, @Nonnull final AuditFileArguments args,
+            @Nonnull final Writer out) throws IOException {
+        try (final BufferedReader in = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            final boolean filtered = args.isFiltered();
+            int lineNumber = 0;
+            String line;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                if (filtered) {
+                    try {
+                        if (!isSelected(AuditRecord.parse(line), args)) {
+                            continue;
+                        }
+                    } catch (final IOException e) {
+                        System.err.println(file + ":" + lineNumber + ": " + e.getMessage());
+                        continue;
+                    }
+                }
+                out.write(line);
+                out.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Check whether a record meets the selection criteria.
+     * 
+     * @param record the record
+     * @param args selection criteria
+     * 
+     * @return true iff the record is selected
+     */
+    private static boolean isSelected(@Nonnull final AuditRecord record, @Nonnull final AuditFileArguments args) {
+        if (record.getTime() < args.getFromTime() || record.getTime() > args.getToTime()) {
+            return false;
+        } else if (args.getCategory() != null && !args.getCategory().equals(record.getCategory())) {
+            return false;
+        }
+
+        for (final String field : args.getFields()) {
+            final int sep = field.indexOf('=');
+            final List<String> values = record.getFields().get(field.substring(0, sep));
+            if (values == null || !values.contains(field.substring(sep + 1))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Logs, as an error, the error message and exits the program.
+     * 
+     * @param errorMessage error message
+     */
+    private static void errorAndExit(@Nonnull final String errorMessage) {
+        System.err.println(errorMessage);
+        System.exit(1);
+    }
+
+}
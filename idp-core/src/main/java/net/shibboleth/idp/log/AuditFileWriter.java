@@ -0,0 +1,447 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.primitive.StringSupport;
+
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes {@link AuditRecord}s as lines of JSON to a file that is rotated by size.
+ * 
+ * <p>Records are serialized on the calling thread and appended to a shared buffer. A background thread writes the
+ * buffer to the file in a single operation, a group commit, whenever it reaches a threshold size or the commit
+ * interval elapses, so many records share the cost of each write. The file is optionally forced to storage on each
+ * commit. A commit swaps in an empty buffer and writes the full one without holding the buffer's lock, so callers
+ * never wait for file I/O.</p>
+ * 
+ * <p>Records that fail to be written are retained and retried by the next commit, without writing any part of them
+ * twice. While more than a maximum size of records awaits retry, newly committed records are discarded instead,
+ * and counted. Records are likewise discarded if commits fall behind so far that the buffer exceeds its threshold
+ * by that maximum size.</p>
+ * 
+ * <p>The current file is named after the prefix with a ".jsonl" extension. When a commit would take it past the
+ * maximum size, it is renamed to include the time of rotation and a new file is started.</p>
+ */
+public class AuditFileWriter extends AbstractInitializableComponent {
+
+    /** File extension. */
+    @Nonnull @NotEmpty public static final String EXTENSION = ".jsonl";
+
+    /** Formatter for the time of rotation. */
+    @Nonnull private static final DateTimeFormatter ROTATION_FORMATTER =
+            DateTimeFormat.forPattern("yyyyMMdd'T'HHmmssSSS").withZoneUTC();
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(AuditFileWriter.class);
+
+    /** Directory to write files to. */
+    @NonnullAfterInit private File directory;
+
+    /** File name prefix. */
+    @Nonnull @NotEmpty private String prefix;
+
+    /** Size beyond which the file is rotated. */
+    @Positive private long maxFileSize;
+
+    /** Size of buffered records that triggers a commit. */
+    @Positive private int bufferSize;
+
+    /** Maximum time records are buffered. */
+    @Duration @Positive private long commitInterval;
+
+    /** Whether to force the file to storage on each commit. */
+    private boolean forceOnCommit;
+
+    /** Maximum size of records retained for retry. */
+    @Positive private int maxRetainedSize;
+
+    /** Buffered records, guarded by this object's monitor. */
+    @Nonnull private ByteArrayOutputStream buffer;
+
+    /** Number of buffered records. */
+    private int bufferedRecords;
+
+    /** Lock held while writing to the file, and guarding the fields below. */
+    @Nonnull private final Object fileLock;
+
+    /** Records taken from the buffer but not yet written. */
+    @Nullable private ByteBuffer unwritten;
+
+    /** Number of records not yet written. */
+    private int unwrittenRecords;
+
+    /** Whether the file ends part way through a record, following a failed write. */
+    private boolean partialWrite;
+
+    /** Number of records discarded. */
+    @Nonnull private final AtomicLong lostRecords;
+
+    /** Current file. */
+    @Nullable private FileChannel channel;
+
+    /** Size of the current file. */
+    private long fileSize;
+
+    /** Whether a commit has been requested of the background thread but has not yet started. */
+    @Nonnull private final AtomicBoolean commitPending;
+
+    /** Background thread performing commits. */
+    @Nullable private ScheduledExecutorService executor;
+
+    /** Task performing a commit. */
+    @Nonnull private final Runnable commitTask;
+
+    /** Constructor. */
+    public AuditFileWriter() {
+        prefix = "idp-audit";
+        maxFileSize = 100 * 1024 * 1024;
+        bufferSize = 64 * 1024;
+        commitInterval = 1000;
+        maxRetainedSize = 1024 * 1024;
+        buffer = new ByteArrayOutputStream();
+        fileLock = new Object();
+        lostRecords = new AtomicLong();
+        commitPending = new AtomicBoolean();
+        commitTask = new Runnable() {
+            public void run() {
+                commitPending.set(false);
+                commit();
+            }
+        };
+    }
+
+    /**
+     * Set the directory to write files to.
+     * 
+     * @param dir the directory
+     */
+    public void setDirectory(@Nonnull final File dir) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        directory = Constraint.isNotNull(dir, "Directory cannot be null");
+    }
+
+    /**
+     * Set the file name prefix.
+     * 
+     * @param name the prefix
+     */
+    public void setPrefix(@Nonnull @NotEmpty final String name) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        prefix = Constraint.isNotNull(StringSupport.trimOrNull(name), "Prefix cannot be null or empty");
+    }
+
+    /**
+     * Set the size beyond which the file is rotated.
+     * 
+     * @param size size in bytes
+     */
+    public void setMaxFileSize(@Positive final long size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        maxFileSize = Constraint.isGreaterThan(0, size, "Maximum file size must be greater than zero");
+    }
+
+    /**
+     * Set the size of buffered records that triggers a commit.
+     * 
+     * @param size size in bytes
+     */
+    public void setBufferSize(@Positive final int size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        bufferSize = (int) Constraint.isGreaterThan(0, size, "Buffer size must be greater than zero");
+    }
+
+    /**
+     * Set the maximum time records are buffered before being committed.
+     * 
+     * @param interval time in milliseconds
+     */
+    public void setCommitInterval(@Duration @Positive final long interval) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        commitInterval = Constraint.isGreaterThan(0, interval, "Commit interval must be greater than zero");
+    }
+
+    /**
+     * Set whether to force the file to storage on each commit.
+     * 
+     * @param flag flag to set
+     */
+    public void setForceOnCommit(final boolean flag) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        forceOnCommit = flag;
+    }
+
+    /**
+     * Set the maximum size of records retained for retry after a failed write.
+     * 
+     * @param size size in bytes
+     */
+    public void setMaxRetainedSize(@Positive final int size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        maxRetainedSize = (int) Constraint.isGreaterThan(0, size, "Maximum retained size must be greater than zero");
+    }
+
+    /**
+     * Get the number of records discarded because they could not be written.
+     * 
+     * @return number of records discarded
+     */
+    public long getLostRecordCount() {
+        return lostRecords.get();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+
+        if (directory == null) {
+            throw new ComponentInitializationException("Directory cannot be null");
+        }
+
+        try {
+            Files.createDirectories(directory.toPath());
+            openFile();
+        } catch (final IOException e) {
+            throw new ComponentInitializationException("Unable to open audit file in " + directory, e);
+        }
+
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "AuditFileWriter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(commitTask, commitInterval, commitInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(commitInterval, TimeUnit.MILLISECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        commit();
+        synchronized (fileLock) {
+            if (unwritten != null) {
+                log.error("Discarding {} audit records that could not be written", unwrittenRecords);
+                lostRecords.addAndGet(unwrittenRecords);
+                unwritten = null;
+                unwrittenRecords = 0;
+            }
+            closeFile();
+        }
+
+        super.doDestroy();
+    }
+
+    /**
+     * Buffer a record for writing, and request a commit from the background thread if the buffer is full.
+     * 
+     * @param record the record
+     */
+    public void write(@Nonnull final AuditRecord record) {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        ComponentSupport.ifDestroyedThrowDestroyedComponentException(this);
+
+        final byte[] line = (record.toJSON() + '\n').getBytes(StandardCharsets.UTF_8);
+        final boolean full;
+        synchronized (this) {
+            if (buffer.size() >= bufferSize + maxRetainedSize) {
+                full = true;
+                lostRecords.incrementAndGet();
+            } else {
+                buffer.write(line, 0, line.length);
+                bufferedRecords++;
+                full = buffer.size() >= bufferSize;
+            }
+        }
+        if (full && commitPending.compareAndSet(false, true)) {
+            try {
+                executor.execute(commitTask);
+            } catch (final RejectedExecutionException e) {
+                // Shutting down, the final commit will write the buffer.
+                commitPending.set(false);
+            }
+        }
+    }
+
+    /** Write any buffered records, and any retained from a failed write, to the file. */
+    public void commit() {
+        synchronized (fileLock) {
+            final ByteArrayOutputStream full;
+            final int records;
+            synchronized (this) {
+                full = buffer;
+                records = bufferedRecords;
+                if (records > 0) {
+                    buffer = new ByteArrayOutputStream(Math.min(bufferSize, full.size()));
+                    bufferedRecords = 0;
+                }
+            }
+            if (records > 0) {
+                retain(full.toByteArray(), records);
+            }
+            if (unwritten == null) {
+                return;
+            }
+
+            try {
+                if (channel == null) {
+                    // A previous rotation or write failed.
+                    openFile();
+                } else if (!partialWrite && fileSize > 0 && fileSize + unwritten.remaining() > maxFileSize) {
+                    rotate();
+                }
+                while (unwritten.hasRemaining()) {
+                    final int written = channel.write(unwritten);
+                    fileSize += written;
+                    partialWrite |= written > 0;
+                }
+                partialWrite = false;
+                if (forceOnCommit) {
+                    channel.force(false);
+                }
+                unwritten = null;
+                unwrittenRecords = 0;
+            } catch (final IOException e) {
+                log.error("Error writing audit records, retaining {} records for retry", unwrittenRecords, e);
+                closeFile();
+            }
+        }
+    }
+
+    /**
+     * Add records to those awaiting a write, or discard them if too many are already waiting.
+     * 
+     * @param bytes the serialized records
+     * @param records the number of records
+     */
+    private void retain(@Nonnull final byte[] bytes, final int records) {
+        if (unwritten == null) {
+            unwritten = ByteBuffer.wrap(bytes);
+            unwrittenRecords = records;
+        } else if (unwritten.remaining() + bytes.length > maxRetainedSize) {
+            log.error("Too many audit records awaiting retry, discarding {} records", records);
+            lostRecords.addAndGet(records);
+        } else {
+            final ByteBuffer combined = ByteBuffer.allocate(unwritten.remaining() + bytes.length);
+            combined.put(unwritten).put(bytes).flip();
+            unwritten = combined;
+            unwrittenRecords += records;
+        }
+    }
+
+    /** Close the current file, if open. */
+    private void closeFile() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (final IOException e) {
+                log.error("Error closing audit file", e);
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * Open the current file for appending.
+     * 
+     * @throws IOException if the file cannot be opened
+     */
+    private void openFile() throws IOException {
+        channel = FileChannel.open(getCurrentFile(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        fileSize = channel.size();
+    }
+
+    /**
+     * Rename the current file to include the time of rotation, and start a new one.
+     * 
+     * @throws IOException if the file cannot be rotated
+     */
+    private void rotate() throws IOException {
+        channel.close();
+        channel = null;
+
+        final String base = prefix + '-' + ROTATION_FORMATTER.print(System.currentTimeMillis());
+        Path target = directory.toPath().resolve(base + EXTENSION);
+        for (int i = 1; Files.exists(target); i++) {
+            target = directory.toPath().resolve(base + '-' + i + EXTENSION);
+        }
+        log.debug("Rotating audit file to {}", target);
+        Files.move(getCurrentFile(), target);
+
+        openFile();
+    }
+
+    /**
+     * Get the path of the current file.
+     * 
+     * @return the path
+     */
+    @Nonnull private Path getCurrentFile() {
+        return directory.toPath().resolve(prefix + EXTENSION);
+    }
+
+}
@@ -0,0 +1,184 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.log;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonReaderFactory;
+import javax.json.JsonValue;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotLive;
+import net.shibboleth.utilities.java.support.annotation.constraint.Unmodifiable;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * A structured audit record, consisting of a time, a category, and a set of named, multi-valued fields.
+ * 
+ * <p>Records are serialized as single lines of JSON of the form
+ * <code>{"time":1234567890123,"category":"...","fields":{"name":["value",...],...}}</code>. The JSON
+ * generator escapes line terminators within values, so each record occupies exactly one line.</p>
+ */
+public final class AuditRecord {
+
+    /** Field holding the time. */
+    @Nonnull @NotEmpty private static final String TIME_FIELD = "time";
+
+    /** Field holding the category. */
+    @Nonnull @NotEmpty private static final String CATEGORY_FIELD = "category";
+
+    /** Field holding the audit fields. */
+    @Nonnull @NotEmpty private static final String FIELDS_FIELD = "fields";
+
+    /** JSON generator factory. */
+    @Nonnull private static final JsonGeneratorFactory GENERATOR_FACTORY = Json.createGeneratorFactory(null);
+
+    /** JSON reader factory. */
+    @Nonnull private static final JsonReaderFactory READER_FACTORY = Json.createReaderFactory(null);
+
+    /** Time of the record, in milliseconds since the epoch. */
+    private final long time;
+
+    /** Category of the record. */
+    @Nonnull @NotEmpty private final String category;
+
+    /** Field values by name. */
+    @Nonnull @NonnullElements private final Map<String,List<String>> fields;
+
+    /**
+     * Constructor.
+     * 
+     * @param recordTime time of the record, in milliseconds since the epoch
+     * @param recordCategory category of the record
+     * @param recordFields field values by name
+     */
+    public AuditRecord(final long recordTime, @Nonnull @NotEmpty final String recordCategory,
+            @Nonnull @NonnullElements final Map<String,? extends Collection<String>> recordFields) {
+        time = recordTime;
+        category = Constraint.isNotNull(recordCategory, "Category cannot be null");
+        fields = new LinkedHashMap<>(recordFields.size());
+        for (final Map.Entry<String,? extends Collection<String>> entry : recordFields.entrySet()) {
+            fields.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<>(entry.getValue())));
+        }
+    }
+
+    /**
+     * Get the time of the record.
+     * 
+     * @return milliseconds since the epoch
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Get the category of the record.
+     * 
+     * @return the category
+     */
+    @Nonnull @NotEmpty public String getCategory() {
+        return category;
+    }
+
+    /**
+     * Get the field values by name.
+     * 
+     * @return the fields
+     */
+    @Nonnull @NonnullElements @NotLive @Unmodifiable public Map<String,List<String>> getFields() {
+        return Collections.unmodifiableMap(fields);
+    }
+
+    /**
+     * Serialize the record as a single line of JSON, without a line terminator.
+     * 
+     * @return the serialized record
+     */
+    @Nonnull public String toJSON() {
+        final StringWriter sink = new StringWriter(256);
+        final JsonGenerator gen = GENERATOR_FACTORY.createGenerator(sink);
+        gen.writeStartObject()
+            .write(TIME_FIELD, time)
+            .write(CATEGORY_FIELD, category)
+            .writeStartObject(FIELDS_FIELD);
+        for (final Map.Entry<String,List<String>> entry : fields.entrySet()) {
+            gen.writeStartArray(entry.getKey());
+            for (final String value : entry.getValue()) {
+                if (value != null) {
+                    gen.write(value);
+                } else {
+                    gen.writeNull();
+                }
+            }
+            gen.writeEnd();
+        }
+        gen.writeEnd().writeEnd().close();
+        return sink.toString();
+    }
+
+    /**
+     * Parse a record from a single line of JSON.
+     * 
+     * @param line the serialized record
+     * 
+     * @return the record
+     * @throws IOException if the line is not a serialized record
+     */
+    @Nonnull public static AuditRecord parse(@Nonnull final String line) throws IOException {
+        try (final JsonReader reader = READER_FACTORY.createReader(new StringReader(line))) {
+            final JsonObject obj = reader.readObject();
+            if (obj.getJsonNumber(TIME_FIELD) == null || obj.getJsonString(CATEGORY_FIELD) == null
+                    || obj.getJsonObject(FIELDS_FIELD) == null) {
+                throw new IOException("Audit record is missing a required member");
+            }
+
+            final Map<String,List<String>> recordFields = new LinkedHashMap<>();
+            for (final Map.Entry<String,JsonValue> member : obj.getJsonObject(FIELDS_FIELD).entrySet()) {
+                final JsonArray array = (JsonArray) member.getValue();
+                final List<String> values = new ArrayList<>(array.size());
+                for (int i = 0; i < array.size(); i++) {
+                    values.add(array.isNull(i) ? null : array.getString(i));
+                }
+                recordFields.put(member.getKey(), values);
+            }
+
+            return new AuditRecord(obj.getJsonNumber(TIME_FIELD).longValueExact(), obj.getString(CATEGORY_FIELD),
+                    recordFields);
+        } catch (final JsonException | ClassCastException | ArithmeticException e) {
+            throw new IOException("Audit record is malformed", e);
+        }
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.cli;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import net.shibboleth.idp.log.AuditRecord;
+
+import org.joda.time.DateTime;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.beust.jcommander.JCommander;
+
+/** {@link AuditFileCLI} unit test. */
+public class AuditFileCLITest {
+
+    private Path file;
+
+    private List<String> lines;
+
+    @BeforeMethod public void setUp() throws IOException {
+        lines = Arrays.asList(
+                new AuditRecord(new DateTime("2016-01-01T00:00:00Z").getMillis(), "SSO",
+                        Collections.singletonMap("u", Collections.singletonList("jdoe"))).toJSON(),
+                "not a record",
+                new AuditRecord(new DateTime("2016-01-02T00:00:00Z").getMillis(), "Logout",
+                        Collections.singletonMap("u", Collections.singletonList("jdoe"))).toJSON(),
+                new AuditRecord(new DateTime("2016-01-03T00:00:00Z").getMillis(), "SSO",
+                        Collections.singletonMap("u", Arrays.asList("jsmith", "other"))).toJSON());
+        file = Files.createTempFile("audit", ".jsonl");
+        Files.write(file, lines, StandardCharsets.UTF_8);
+    }
+
+    @AfterMethod public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test public void testUnfiltered() throws IOException {
+        Assert.assertEquals(copy(), lines);
+    }
+
+    @Test public void testCategory() throws IOException {
+        Assert.assertEquals(copy("--category", "SSO"), Arrays.asList(lines.get(0), lines.get(3)));
+    }
+
+    @Test public void testField() throws IOException {
+        Assert.assertEquals(copy("-f", "u=jdoe"), Arrays.asList(lines.get(0), lines.get(2)));
+        Assert.assertEquals(copy("-f", "u=other", "-c", "SSO"), Collections.singletonList(lines.get(3)));
+        Assert.assertTrue(copy("-f", "x=jdoe").isEmpty());
+    }
+
+    @Test public void testTimeRange() throws IOException {
+        Assert.assertEquals(copy("--from", "2016-01-02T00:00:00Z"), Arrays.asList(lines.get(2), lines.get(3)));
+        Assert.assertEquals(copy("--to", "2016-01-02T00:00:00Z"), Arrays.asList(lines.get(0), lines.get(2)));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class) public void testInvalidField() {
+        parse("-f", "jdoe");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class) public void testNoFiles() {
+        final AuditFileArguments args = new AuditFileArguments();
+        new JCommander(args, "-c", "SSO");
+        args.validate();
+    }
+
+    private AuditFileArguments parse(final String... options) {
+        final String[] argv = Arrays.copyOf(options, options.length + 1);
+        argv[options.length] = file.toString();
+        final AuditFileArguments args = new AuditFileArguments();
+        new JCommander(args, argv);
+        args.validate();
+        return args;
+    }
+
+    private List<String> copy(final String... options) throws IOException {
+        final StringWriter out = new StringWriter();
+        AuditFileCLI.copy(file.toString(), parse(options), out);
+        final String result = out.toString();
+        return result.isEmpty() ? Collections.<String>emptyList() : Arrays.asList(result.split("\n"));
+    }
+
+}
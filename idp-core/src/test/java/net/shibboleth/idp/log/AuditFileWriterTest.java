@@ -0,0 +1,197 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/** {@link AuditFileWriter} unit test. */
+public class AuditFileWriterTest {
+
+    private Path dir;
+
+    private AuditFileWriter writer;
+
+    @BeforeMethod public void setUp() throws IOException {
+        dir = Files.createTempDirectory("audit");
+        writer = new AuditFileWriter();
+        writer.setDirectory(dir.toFile());
+        writer.setPrefix("test");
+        writer.setCommitInterval(60 * 60 * 1000);
+    }
+
+    @AfterMethod public void tearDown() throws IOException {
+        if (writer.isInitialized() && !writer.isDestroyed()) {
+            writer.destroy();
+        }
+        delete(dir);
+        delete(dir.resolveSibling(dir.getFileName() + ".moved"));
+    }
+
+    @Test public void testCommit() throws ComponentInitializationException, IOException {
+        writer.initialize();
+
+        writer.write(record("one"));
+        writer.write(record("two"));
+        Assert.assertTrue(readLines(current()).isEmpty());
+
+        writer.commit();
+        Assert.assertEquals(readCategories(current()), Arrays.asList("one", "two"));
+
+        writer.commit();
+        writer.write(record("three"));
+        writer.destroy();
+        Assert.assertEquals(readCategories(current()), Arrays.asList("one", "two", "three"));
+        Assert.assertEquals(writer.getLostRecordCount(), 0);
+    }
+
+    @Test public void testBufferFull() throws ComponentInitializationException, IOException, InterruptedException {
+        writer.setBufferSize(1);
+        writer.initialize();
+
+        writer.write(record("one"));
+
+        // The commit happens on the background thread.
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (readLines(current()).isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(readCategories(current()), Collections.singletonList("one"));
+    }
+
+    @Test public void testRotation() throws ComponentInitializationException, IOException {
+        writer.setMaxFileSize(1);
+        writer.initialize();
+
+        writer.write(record("one"));
+        writer.commit();
+        writer.write(record("two"));
+        writer.commit();
+
+        Assert.assertEquals(readCategories(current()), Collections.singletonList("two"));
+        final List<Path> rotated = listRotated();
+        Assert.assertEquals(rotated.size(), 1);
+        Assert.assertTrue(rotated.get(0).getFileName().toString().startsWith("test-"));
+        Assert.assertEquals(readCategories(rotated.get(0)), Collections.singletonList("one"));
+    }
+
+    @Test public void testFailure() throws ComponentInitializationException, IOException {
+        final int lineLength = (record("two").toJSON() + '\n').getBytes(StandardCharsets.UTF_8).length;
+        writer.setMaxFileSize(1);
+        writer.setMaxRetainedSize(lineLength);
+        writer.initialize();
+
+        writer.write(record("one"));
+        writer.commit();
+
+        // Replace the directory with a file, so that rotating the current file fails.
+        final Path moved = dir.resolveSibling(dir.getFileName() + ".moved");
+        Files.move(dir, moved);
+        Files.createFile(dir);
+
+        writer.write(record("two"));
+        writer.commit();
+        writer.write(record("three"));
+        writer.commit();
+        Assert.assertEquals(writer.getLostRecordCount(), 1);
+        Assert.assertEquals(readCategories(moved.resolve("test" + AuditFileWriter.EXTENSION)),
+                Collections.singletonList("one"));
+
+        Files.delete(dir);
+        Files.move(moved, dir);
+
+        writer.commit();
+        Assert.assertEquals(readCategories(current()), Arrays.asList("one", "two"));
+        Assert.assertEquals(writer.getLostRecordCount(), 1);
+    }
+
+    @Test public void testRecordRoundTrip() throws IOException {
+        final AuditRecord record = new AuditRecord(1000, "category",
+                Collections.singletonMap("field", Arrays.asList("\"quoted\"\n", " ", "\\")));
+        final String json = record.toJSON();
+        Assert.assertEquals(json.indexOf('\n'), -1);
+
+        final AuditRecord parsed = AuditRecord.parse(json);
+        Assert.assertEquals(parsed.getTime(), 1000);
+        Assert.assertEquals(parsed.getCategory(), "category");
+        Assert.assertEquals(parsed.getFields(), record.getFields());
+    }
+
+    @Test(expectedExceptions = IOException.class) public void testRecordMissingMember() throws IOException {
+        AuditRecord.parse("{\"time\":1000,\"fields\":{}}");
+    }
+
+    @Test(expectedExceptions = IOException.class) public void testRecordMalformed() throws IOException {
+        AuditRecord.parse("{\"time\":1000,\"category\":\"c\",\"fields\":{\"f\":[");
+    }
+
+    private AuditRecord record(final String category) {
+        return new AuditRecord(System.currentTimeMillis(), category,
+                Collections.singletonMap("field", Collections.singletonList("value")));
+    }
+
+    private Path current() {
+        return dir.resolve("test" + AuditFileWriter.EXTENSION);
+    }
+
+    private List<Path> listRotated() throws IOException {
+        final List<Path> rotated = new ArrayList<>();
+        for (final File file : dir.toFile().listFiles()) {
+            if (!file.toPath().equals(current())) {
+                rotated.add(file.toPath());
+            }
+        }
+        return rotated;
+    }
+
+    private List<String> readLines(final Path file) throws IOException {
+        return Files.readAllLines(file, StandardCharsets.UTF_8);
+    }
+
+    private List<String> readCategories(final Path file) throws IOException {
+        final List<String> categories = new ArrayList<>();
+        for (final String line : readLines(file)) {
+            categories.add(AuditRecord.parse(line).getCategory());
+        }
+        return categories;
+    }
+
+    private void delete(final Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            for (final File file : path.toFile().listFiles()) {
+                Files.delete(file.toPath());
+            }
+        }
+        Files.deleteIfExists(path);
+    }
+
+}
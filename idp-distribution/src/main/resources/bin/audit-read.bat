@@ -0,0 +1,4 @@
+@echo off
+setlocal
+
+"%~dp0\runclass.bat" net.shibboleth.idp.cli.AuditFileCLI %*
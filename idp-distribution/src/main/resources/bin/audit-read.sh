@@ -0,0 +1,8 @@
+#! /bin/bash
+
+declare LOCATION
+
+LOCATION=$0
+LOCATION=${LOCATION%/*}
+
+$LOCATION/runclass.sh net.shibboleth.idp.cli.AuditFileCLI "$@"
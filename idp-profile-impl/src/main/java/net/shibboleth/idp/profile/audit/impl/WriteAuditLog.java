@@ -18,9 +18,11 @@
 package net.shibboleth.idp.profile.audit.impl;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -28,6 +30,8 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.servlet.http.HttpServletRequest;
 
+import net.shibboleth.idp.log.AuditFileWriter;
+import net.shibboleth.idp.log.AuditRecord;
 import net.shibboleth.idp.profile.AbstractProfileAction;
 import net.shibboleth.idp.profile.IdPAuditFields;
 import net.shibboleth.idp.profile.context.AuditContext;
@@ -39,8 +43,6 @@ import net.shibboleth.utilities.java.support.component.ComponentSupport;
 import net.shibboleth.utilities.java.support.logic.Constraint;
 import net.shibboleth.utilities.java.support.primitive.StringSupport;
 
-import org.joda.time.DateTime;
-import org.joda.time.DateTimeZone;
 import org.joda.time.format.DateTimeFormatter;
 import org.joda.time.format.ISODateTimeFormat;
 import org.opensaml.messaging.context.navigate.ChildContextLookup;
@@ -57,12 +59,21 @@ import com.google.common.collect.ImmutableMap;
 /**
  * Action that produces audit log entries based on an {@link AuditContext} and one or more formatting strings. 
  * 
+ * <p>Formatting strings are compiled into a sequence of typed fields when they are set, so that producing a
+ * record involves no further parsing. Records are handed to an SLF4J logger, and writing them off the request
+ * thread is a matter for the logging configuration (e.g., an asynchronous appender).</p>
+ * 
+ * <p>Independently of the formatting strings, an {@link AuditFileWriter} may be supplied to receive one
+ * structured record per execution, containing the standard request fields and every field of the
+ * {@link AuditContext}, categorized by the logging ID of the profile.</p>
+ * 
  * @event {@link EventIds#PROCEED_EVENT_ID}
  */
 public class WriteAuditLog extends AbstractProfileAction {
 
     /** Formatter used to convert timestamps to strings. */
-    private static DateTimeFormatter v2Formatter = ISODateTimeFormat.basicDateTimeNoMillis();
+    @Nonnull private static final DateTimeFormatter V2_FORMATTER =
+            ISODateTimeFormat.basicDateTimeNoMillis().withZoneUTC();
 
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(WriteAuditLog.class);
@@ -73,6 +84,12 @@ public class WriteAuditLog extends AbstractProfileAction {
     /** Map of log category to formatting tokens and literals to output. */
     @Nonnull @NotEmpty private Map<String,List<String>> formattingMap;
 
+    /** Map of log category to compiled fields to output. */
+    @Nonnull @NotEmpty private Map<String,FormatField[]> compiledFormattingMap;
+
+    /** Optional sink for structured records. */
+    @Nullable private AuditFileWriter structuredAuditWriter;
+
     /** The Spring RequestContext to operate on. */
     @Nullable private RequestContext requestContext;
 
@@ -86,6 +103,7 @@ public class WriteAuditLog extends AbstractProfileAction {
     public WriteAuditLog() {
         auditContextLookupStrategy = new ChildContextLookup<>(AuditContext.class);
         formattingMap = Collections.emptyMap();
+        compiledFormattingMap = Collections.emptyMap();
     }
 
     /**
@@ -100,6 +118,17 @@ public class WriteAuditLog extends AbstractProfileAction {
         auditContextLookupStrategy = Constraint.isNotNull(strategy, "AuditContext lookup strategy cannot be null");
     }
     
+    /**
+     * Set a sink for a structured record of each execution.
+     * 
+     * @param writer the sink, or null
+     */
+    public void setStructuredAuditWriter(@Nullable final AuditFileWriter writer) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        structuredAuditWriter = writer;
+    }
+
     /**
      * Get the map of logging category to formatting tokens for log entries.
      * 
@@ -124,6 +153,7 @@ public class WriteAuditLog extends AbstractProfileAction {
         Constraint.isNotNull(map, "Audit formatting map cannot be null");
         
         formattingMap = new HashMap<>(map.size());
+        compiledFormattingMap = new HashMap<>(map.size());
         
         for (final Map.Entry<String,String> entry : map.entrySet()) {
             final String category = StringSupport.trimOrNull(entry.getKey());
@@ -160,6 +190,7 @@ public class WriteAuditLog extends AbstractProfileAction {
             }
             
             formattingMap.put(category, format);
+            compiledFormattingMap.put(category, compile(format));
         }
     }
 // Checkstyle: CyclomaticComplexity ON
@@ -178,7 +209,7 @@ public class WriteAuditLog extends AbstractProfileAction {
     protected boolean doPreExecute(@Nonnull final ProfileRequestContext profileRequestContext) {
         if (!super.doPreExecute(profileRequestContext)) {
             return false;
-        } else if (formattingMap.isEmpty()) {
+        } else if (formattingMap.isEmpty() && structuredAuditWriter == null) {
             log.debug("No formatting for audit records supplied, nothing to do");
             return false;
         }
@@ -188,51 +219,74 @@ public class WriteAuditLog extends AbstractProfileAction {
         return true;
     }
     
-// Checkstyle: CyclomaticComplexity OFF
     /** {@inheritDoc} */
     @Override
     protected void doExecute(@Nonnull final ProfileRequestContext profileRequestContext) {
 
-        for (Map.Entry<String,List<String>> entry : formattingMap.entrySet()) {
+        String eventTime = null;
+        
+        for (final Map.Entry<String,FormatField[]> entry : compiledFormattingMap.entrySet()) {
         
             final StringBuilder record = new StringBuilder();
     
-            for (final String token : entry.getValue()) {
-                if (token.startsWith("%")) {
-                    if (token.length() == 1 || token.charAt(1) == '%') {
-                        record.append('%');
-                    } else {
-                        final String field = token.substring(1);
-                        
-                        if (IdPAuditFields.EVENT_TIME.equals(field)) {
-                            record.append(new DateTime().toString(v2Formatter.withZone(DateTimeZone.UTC)));
-                        } else if (IdPAuditFields.EVENT_TYPE.equals(field)) {
-                            final Event event = requestContext.getCurrentEvent();
-                            if (event != null && !event.getId().equals(EventIds.PROCEED_EVENT_ID)) {
-                                record.append(event.getId());
-                            }
-                        } else if (IdPAuditFields.PROFILE.equals(field)) {
-                            record.append(profileRequestContext.getProfileId());
-                        } else if (IdPAuditFields.REMOTE_ADDR.equals(field) && httpRequest != null) {
+            for (final FormatField field : entry.getValue()) {
+                switch (field.getType()) {
+                    case LITERAL:
+                        record.append(field.getValue());
+                        break;
+
+                    case EVENT_TIME:
+                        if (eventTime == null) {
+                            eventTime = V2_FORMATTER.print(System.currentTimeMillis());
+                        }
+                        record.append(eventTime);
+                        break;
+
+                    case EVENT_TYPE:
+                        final Event event = requestContext.getCurrentEvent();
+                        if (event != null && !event.getId().equals(EventIds.PROCEED_EVENT_ID)) {
+                            record.append(event.getId());
+                        }
+                        break;
+
+                    case PROFILE:
+                        record.append(profileRequestContext.getProfileId());
+                        break;
+
+                    case REMOTE_ADDR:
+                        if (httpRequest != null) {
                             record.append(httpRequest.getRemoteAddr());
-                        } else if (IdPAuditFields.URI.equals(field) && httpRequest != null) {
+                        } else {
+                            appendAuditField(record, field.getValue());
+                        }
+                        break;
+
+                    case URI:
+                        if (httpRequest != null) {
                             record.append(httpRequest.getRequestURI());
-                        } else if (IdPAuditFields.URL.equals(field) && httpRequest != null) {
+                        } else {
+                            appendAuditField(record, field.getValue());
+                        }
+                        break;
+
+                    case URL:
+                        if (httpRequest != null) {
                             record.append(httpRequest.getRequestURL());
-                        } else if (IdPAuditFields.USER_AGENT.equals(field) && httpRequest != null) {
+                        } else {
+                            appendAuditField(record, field.getValue());
+                        }
+                        break;
+
+                    case USER_AGENT:
+                        if (httpRequest != null) {
                             record.append(httpRequest.getHeader("User-Agent"));
-                        } else if (auditCtx != null) {
-                            final Iterator<String> iter = auditCtx.getFieldValues(field).iterator();
-                            while (iter.hasNext()) {
-                                record.append(iter.next());
-                                if (iter.hasNext()) {
-                                    record.append(',');
-                                }
-                            }
+                        } else {
+                            appendAuditField(record, field.getValue());
                         }
-                    }
-                } else {
-                    record.append(token);
+                        break;
+
+                    default:
+                        appendAuditField(record, field.getValue());
                 }
             }
             
@@ -241,8 +295,56 @@ public class WriteAuditLog extends AbstractProfileAction {
             LoggerFactory.getLogger(entry.getKey() + '.'
                     + profileRequestContext.getLoggingId()).info(record.toString());
         }
+        
+        if (structuredAuditWriter != null) {
+            structuredAuditWriter.write(buildStructuredRecord(profileRequestContext));
+        }
+    }
+
+    /**
+     * Build a structured record of the standard request fields and the fields of the {@link AuditContext}.
+     * 
+     * @param profileRequestContext profile request context
+     * 
+     * @return the record
+     */
+    @Nonnull private AuditRecord buildStructuredRecord(@Nonnull final ProfileRequestContext profileRequestContext) {
+        final Map<String,Collection<String>> fields = new LinkedHashMap<>();
+        
+        final Event event = requestContext.getCurrentEvent();
+        if (event != null && !event.getId().equals(EventIds.PROCEED_EVENT_ID)) {
+            fields.put(IdPAuditFields.EVENT_TYPE, Collections.singletonList(event.getId()));
+        }
+        if (profileRequestContext.getProfileId() != null) {
+            fields.put(IdPAuditFields.PROFILE, Collections.singletonList(profileRequestContext.getProfileId()));
+        }
+        if (httpRequest != null) {
+            addField(fields, IdPAuditFields.REMOTE_ADDR, httpRequest.getRemoteAddr());
+            addField(fields, IdPAuditFields.URI, httpRequest.getRequestURI());
+            addField(fields, IdPAuditFields.URL, httpRequest.getRequestURL().toString());
+            addField(fields, IdPAuditFields.USER_AGENT, httpRequest.getHeader("User-Agent"));
+        }
+        if (auditCtx != null) {
+            fields.putAll(auditCtx.getFields().asMap());
+        }
+        
+        return new AuditRecord(System.currentTimeMillis(), String.valueOf(profileRequestContext.getLoggingId()),
+                fields);
+    }
+
+    /**
+     * Add a single-valued field to a map if the value is non-null.
+     * 
+     * @param fields map of fields
+     * @param name field name
+     * @param value field value
+     */
+    private void addField(@Nonnull final Map<String,Collection<String>> fields, @Nonnull final String name,
+            @Nullable final String value) {
+        if (value != null) {
+            fields.put(name, Collections.singletonList(value));
+        }
     }
-// Checkstyle: CyclomaticComplexity ON
     
     /**
      * Optional override to filter the outgoing log message, does nothing by default.
@@ -253,4 +355,127 @@ public class WriteAuditLog extends AbstractProfileAction {
         
     }
     
-}
\ No newline at end of file
+    /**
+     * Append the values of an {@link AuditContext} field to a record.
+     * 
+     * @param record record to append to
+     * @param field name of field
+     */
+    private void appendAuditField(@Nonnull final StringBuilder record, @Nonnull final String field) {
+        if (auditCtx != null) {
+            final Iterator<String> iter = auditCtx.getFieldValues(field).iterator();
+            while (iter.hasNext()) {
+                record.append(iter.next());
+                if (iter.hasNext()) {
+                    record.append(',');
+                }
+            }
+        }
+    }
+
+// Checkstyle: CyclomaticComplexity OFF
+    /**
+     * Compile formatting tokens into fields.
+     * 
+     * @param format formatting tokens and literals
+     * 
+     * @return compiled fields
+     */
+    @Nonnull @NonnullElements private static FormatField[] compile(
+            @Nonnull @NonnullElements final List<String> format) {
+        final FormatField[] fields = new FormatField[format.size()];
+        int i = 0;
+        for (final String token : format) {
+            if (!token.startsWith("%")) {
+                fields[i++] = new FormatField(FieldType.LITERAL, token);
+            } else if (token.length() == 1 || token.charAt(1) == '%') {
+                fields[i++] = new FormatField(FieldType.LITERAL, "%");
+            } else {
+                final String field = token.substring(1);
+                final FieldType type;
+                if (IdPAuditFields.EVENT_TIME.equals(field)) {
+                    type = FieldType.EVENT_TIME;
+                } else if (IdPAuditFields.EVENT_TYPE.equals(field)) {
+                    type = FieldType.EVENT_TYPE;
+                } else if (IdPAuditFields.PROFILE.equals(field)) {
+                    type = FieldType.PROFILE;
+                } else if (IdPAuditFields.REMOTE_ADDR.equals(field)) {
+                    type = FieldType.REMOTE_ADDR;
+                } else if (IdPAuditFields.URI.equals(field)) {
+                    type = FieldType.URI;
+                } else if (IdPAuditFields.URL.equals(field)) {
+                    type = FieldType.URL;
+                } else if (IdPAuditFields.USER_AGENT.equals(field)) {
+                    type = FieldType.USER_AGENT;
+                } else {
+                    type = FieldType.AUDIT;
+                }
+                fields[i++] = new FormatField(type, field);
+            }
+        }
+        return fields;
+    }
+// Checkstyle: CyclomaticComplexity ON
+
+    /** Types of compiled field. */
+    private enum FieldType {
+        /** Literal text. */
+        LITERAL,
+        /** Time of the event. */
+        EVENT_TIME,
+        /** Type of the event. */
+        EVENT_TYPE,
+        /** Profile identifier. */
+        PROFILE,
+        /** Client address. */
+        REMOTE_ADDR,
+        /** Request URI. */
+        URI,
+        /** Request URL. */
+        URL,
+        /** Client user agent. */
+        USER_AGENT,
+        /** Field of the {@link AuditContext}. */
+        AUDIT
+    }
+
+    /** A compiled field of a formatting string. */
+    private static final class FormatField {
+
+        /** Field type. */
+        @Nonnull private final FieldType type;
+
+        /** Literal text, or the field name. */
+        @Nonnull private final String value;
+
+        /**
+         * Constructor.
+         * 
+         * @param fieldType field type
+         * @param fieldValue literal text, or the field name
+         */
+        private FormatField(@Nonnull final FieldType fieldType, @Nonnull final String fieldValue) {
+            type = fieldType;
+            value = fieldValue;
+        }
+
+        /**
+         * Get the field type.
+         * 
+         * @return field type
+         */
+        @Nonnull public FieldType getType() {
+            return type;
+        }
+
+        /**
+         * Get the literal text, or the field name.
+         * 
+         * @return literal text, or the field name
+         */
+        @Nonnull public String getValue() {
+            return value;
+        }
+    }
+    
+}
@@ -17,6 +17,11 @@
 
 package net.shibboleth.idp.profile.audit.impl;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -26,6 +31,8 @@ import net.shibboleth.idp.profile.ActionTestingSupport;
 
 import org.opensaml.profile.context.ProfileRequestContext;
 
+import net.shibboleth.idp.log.AuditFileWriter;
+import net.shibboleth.idp.log.AuditRecord;
 import net.shibboleth.idp.profile.RequestContextBuilder;
 import net.shibboleth.idp.profile.context.AuditContext;
 import net.shibboleth.idp.profile.context.navigate.WebflowRequestContextProfileRequestContextLookup;
@@ -140,6 +147,49 @@ public class WriteAuditLogTest {
         Assert.assertEquals(action.getResult(), "192.168.1.1 https://idp.example.org/path/to/foo - Mock");
     }
 
+    @Test public void testNullLoggingId() throws ComponentInitializationException {
+        prc.setLoggingId(null);
+        action.setFormattingMap(Collections.singletonMap("category", "%a"));
+        action.initialize();
+
+        ActionTestingSupport.assertProceedEvent(action.execute(src));
+        Assert.assertEquals(action.getResult(), "192.168.1.1");
+    }
+
+    @Test public void testStructured() throws ComponentInitializationException, IOException {
+        final AuditContext ac = prc.getSubcontext(AuditContext.class, true);
+        ac.getFieldValues("A").add("foo \"quoted\"\n");
+        ac.getFieldValues("B").add("bar");
+        ac.getFieldValues("B").add("baz");
+
+        final File dir = Files.createTempDirectory("audit").toFile();
+        final File file = new File(dir, "test" + AuditFileWriter.EXTENSION);
+        try {
+            final AuditFileWriter writer = new AuditFileWriter();
+            writer.setDirectory(dir);
+            writer.setPrefix("test");
+            writer.initialize();
+            
+            action.setStructuredAuditWriter(writer);
+            action.initialize();
+            
+            ActionTestingSupport.assertProceedEvent(action.execute(src));
+            ActionTestingSupport.assertProceedEvent(action.execute(src));
+            Assert.assertNull(action.getResult());
+            writer.destroy();
+            
+            final List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+            Assert.assertEquals(lines.size(), 2);
+            final AuditRecord record = AuditRecord.parse(lines.get(0));
+            Assert.assertEquals(record.getFields().get("A"), Collections.singletonList("foo \"quoted\"\n"));
+            Assert.assertEquals(record.getFields().get("B"), Arrays.asList("bar", "baz"));
+            Assert.assertEquals(record.getFields().get("a"), Collections.singletonList("192.168.1.1"));
+            Assert.assertEquals(AuditRecord.parse(record.toJSON()).getFields(), record.getFields());
+        } finally {
+            file.delete();
+            dir.delete();
+        }
+    }
 
     /**
      * Subclass for testing purposes that grants access to the built log entry.
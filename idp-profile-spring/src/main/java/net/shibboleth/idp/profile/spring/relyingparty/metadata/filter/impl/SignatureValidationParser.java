@@ -26,7 +26,9 @@ import net.shibboleth.ext.spring.util.SpringSupport;
 import net.shibboleth.idp.profile.spring.relyingparty.metadata.AbstractMetadataProviderParser;
 import net.shibboleth.idp.profile.spring.relyingparty.security.credential.impl.BasicInlineCredentialFactoryBean;
 import net.shibboleth.idp.profile.spring.relyingparty.security.credential.impl.X509ResourceCredentialFactoryBean;
+import net.shibboleth.idp.saml.metadata.impl.StreamingSignatureValidationFilter;
 import net.shibboleth.utilities.java.support.primitive.StringSupport;
+import net.shibboleth.utilities.java.support.xml.AttributeSupport;
 import net.shibboleth.utilities.java.support.xml.ElementSupport;
 
 import org.opensaml.saml.metadata.resolver.filter.impl.SignatureValidationFilter;
@@ -64,6 +66,10 @@ public class SignatureValidationParser extends AbstractSingleBeanDefinitionParse
 
     /** {@inheritDoc} */
     @Override protected Class getBeanClass(Element element) {
+        if (element.hasAttributeNS(null, "streaming")
+                && AttributeSupport.getAttributeValueAsBoolean(element.getAttributeNodeNS(null, "streaming"))) {
+            return StreamingSignatureValidationFilter.class;
+        }
         return SignatureValidationFilter.class;
     }
 
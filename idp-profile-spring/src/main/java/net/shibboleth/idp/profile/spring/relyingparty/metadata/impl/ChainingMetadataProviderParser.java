@@ -21,6 +21,9 @@ import java.util.List;
 
 import net.shibboleth.ext.spring.util.SpringSupport;
 import net.shibboleth.idp.profile.spring.relyingparty.metadata.AbstractMetadataProviderParser;
+import net.shibboleth.idp.saml.metadata.impl.IndexedChainingMetadataResolver;
+import net.shibboleth.utilities.java.support.primitive.StringSupport;
+import net.shibboleth.utilities.java.support.xml.AttributeSupport;
 import net.shibboleth.utilities.java.support.xml.ElementSupport;
 
 import org.opensaml.saml.metadata.resolver.ChainingMetadataResolver;
@@ -30,11 +33,16 @@ import org.w3c.dom.Element;
 
 /**
  * Parser for &lt;ChainingMetadataProvider&gt;.
+ * 
+ * <p>If the <code>indexed</code> attribute is true, an {@link IndexedChainingMetadataResolver} is created.</p>
  */
 public class ChainingMetadataProviderParser extends AbstractMetadataProviderParser {
 
     /** {@inheritDoc} */
-    @Override protected Class<ChainingMetadataResolver> getNativeBeanClass(Element element) {
+    @Override protected Class<? extends ChainingMetadataResolver> getNativeBeanClass(Element element) {
+        if (isIndexed(element)) {
+            return IndexedChainingMetadataResolver.class;
+        }
         return ChainingMetadataResolver.class;
     }
 
@@ -47,5 +55,30 @@ public class ChainingMetadataProviderParser extends AbstractMetadataProviderPars
                 ElementSupport.getChildElements(element, MetadataNamespaceHandler.METADATA_ELEMENT_NAME);
 
         builder.addPropertyValue("resolvers", SpringSupport.parseCustomElements(childProviders, parserContext));
+
+        if (isIndexed(element)) {
+            if (element.hasAttributeNS(null, "negativeLookupCacheDuration")) {
+                builder.addPropertyValue("negativeLookupCacheDuration",
+                        StringSupport.trimOrNull(element.getAttributeNS(null, "negativeLookupCacheDuration")));
+            }
+            if (element.hasAttributeNS(null, "maxCacheSize")) {
+                builder.addPropertyValue("maxCacheSize",
+                        StringSupport.trimOrNull(element.getAttributeNS(null, "maxCacheSize")));
+            }
+        }
+    }
+
+    /**
+     * Get whether the element asks for an entityID-indexed chain.
+     * 
+     * @param element the element being parsed
+     * 
+     * @return true iff the <code>indexed</code> attribute is true
+     */
+    private boolean isIndexed(final Element element) {
+        if (element.hasAttributeNS(null, "indexed")) {
+            return AttributeSupport.getAttributeValueAsBoolean(element.getAttributeNodeNS(null, "indexed"));
+        }
+        return false;
     }
 }
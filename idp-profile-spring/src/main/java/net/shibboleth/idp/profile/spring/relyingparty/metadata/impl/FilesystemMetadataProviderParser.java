@@ -20,8 +20,11 @@ package net.shibboleth.idp.profile.spring.relyingparty.metadata.impl;
 import javax.xml.namespace.QName;
 
 import net.shibboleth.idp.profile.spring.relyingparty.metadata.AbstractMetadataProviderParser;
+import net.shibboleth.idp.saml.metadata.impl.CompactFilesystemMetadataResolver;
 import net.shibboleth.utilities.java.support.primitive.StringSupport;
+import net.shibboleth.utilities.java.support.xml.AttributeSupport;
 
+import org.opensaml.saml.metadata.resolver.MetadataResolver;
 import org.opensaml.saml.metadata.resolver.impl.FilesystemMetadataResolver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,6 +37,8 @@ import org.w3c.dom.Element;
 
 /**
  * Parser for a &lt;FilesystemMetadataProvider&gt;.
+ * 
+ * <p>If the <code>compact</code> attribute is true, a {@link CompactFilesystemMetadataResolver} is created.</p>
  */
 public class FilesystemMetadataProviderParser extends AbstractReloadingMetadataProviderParser {
 
@@ -45,7 +50,10 @@ public class FilesystemMetadataProviderParser extends AbstractReloadingMetadataP
     private final Logger log = LoggerFactory.getLogger(FilesystemMetadataProviderParser.class);
 
     /** {@inheritDoc} */
-    @Override protected Class<FilesystemMetadataResolver> getNativeBeanClass(Element element) {
+    @Override protected Class<? extends MetadataResolver> getNativeBeanClass(Element element) {
+        if (isCompact(element)) {
+            return CompactFilesystemMetadataResolver.class;
+        }
         return FilesystemMetadataResolver.class;
     }
 
@@ -62,5 +70,24 @@ public class FilesystemMetadataProviderParser extends AbstractReloadingMetadataP
         }
 
         builder.addConstructorArgValue(StringSupport.trimOrNull(element.getAttributeNS(null, "metadataFile")));
+
+        if (isCompact(element) && element.hasAttributeNS(null, "liveEntityCacheSize")) {
+            builder.addPropertyValue("liveEntityCacheSize",
+                    StringSupport.trimOrNull(element.getAttributeNS(null, "liveEntityCacheSize")));
+        }
+    }
+
+    /**
+     * Get whether the element asks for entities to be held in compact form.
+     * 
+     * @param element the element being parsed
+     * 
+     * @return true iff the <code>compact</code> attribute is true
+     */
+    private boolean isCompact(final Element element) {
+        if (element.hasAttributeNS(null, "compact")) {
+            return AttributeSupport.getAttributeValueAsBoolean(element.getAttributeNodeNS(null, "compact"));
+        }
+        return false;
     }
 }
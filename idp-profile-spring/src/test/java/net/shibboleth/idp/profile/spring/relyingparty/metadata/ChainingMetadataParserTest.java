@@ -20,6 +20,7 @@ package net.shibboleth.idp.profile.spring.relyingparty.metadata;
 import java.io.IOException;
 import java.util.Iterator;
 
+import net.shibboleth.idp.saml.metadata.impl.IndexedChainingMetadataResolver;
 import net.shibboleth.utilities.java.support.resolver.ResolverException;
 
 import org.opensaml.saml.metadata.resolver.ChainingMetadataResolver;
@@ -56,4 +57,17 @@ public class ChainingMetadataParserTest extends AbstractMetadataParserTest {
         Assert.assertNull(resolver.resolveSingle(criteriaFor(SP_ID)));
         
     }
+
+    @Test public void chainIndexed() throws ResolverException, IOException {
+        ChainingMetadataResolver resolver = getBean(ChainingMetadataResolver.class, "chain-indexed.xml");
+        
+        Assert.assertEquals(resolver.getId(), "chainIndexed");
+        Assert.assertTrue(resolver instanceof IndexedChainingMetadataResolver);
+   
+        Assert.assertEquals(resolver.resolveSingle(criteriaFor(IDP_ID)).getEntityID(), IDP_ID);
+        Assert.assertEquals(resolver.resolveSingle(criteriaFor(IDP_ID)).getEntityID(), IDP_ID);
+        
+        Assert.assertNull(resolver.resolveSingle(criteriaFor(SP_ID)));
+        Assert.assertNull(resolver.resolveSingle(criteriaFor(SP_ID)));
+    }
 }
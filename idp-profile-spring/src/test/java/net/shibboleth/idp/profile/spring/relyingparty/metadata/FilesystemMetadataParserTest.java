@@ -19,6 +19,8 @@ package net.shibboleth.idp.profile.spring.relyingparty.metadata;
 
 import java.util.Iterator;
 
+import net.shibboleth.idp.saml.metadata.impl.CompactFilesystemMetadataResolver;
+
 import org.opensaml.saml.metadata.resolver.impl.FilesystemMetadataResolver;
 import org.opensaml.saml.saml2.metadata.EntityDescriptor;
 import org.testng.Assert;
@@ -64,4 +66,37 @@ public class FilesystemMetadataParserTest extends AbstractMetadataParserTest {
 
         Assert.assertNotNull(resolver.resolveSingle(criteriaFor(SP_ID)));
     }
+
+    @Test public void compactEntities() throws Exception {
+
+        CompactFilesystemMetadataResolver resolver =
+                getBean(CompactFilesystemMetadataResolver.class, "fileEntities-compact.xml", "beans.xml");
+        
+        Assert.assertEquals(resolver.getId(), "fileEntitiesCompact");
+        Assert.assertEquals(resolver.getMaxRefreshDelay(), 1000*60*55);
+        Assert.assertEquals(resolver.getMinRefreshDelay(), 1000*60*15);
+        Assert.assertEquals(resolver.getRefreshDelayFactor(), 0.5, 0.001);
+        Assert.assertEquals(resolver.getLiveEntityCacheSize(), 1);
+        Assert.assertNotSame(resolver.getParserPool(), parserPool);
+        Assert.assertTrue(resolver.isFailFastInitialization());
+        Assert.assertTrue(resolver.isRequireValidMetadata());
+   
+        final Iterator<EntityDescriptor> entities = resolver.resolve(criteriaFor(IDP_ID)).iterator();
+        final EntityDescriptor idp = entities.next();
+        Assert.assertEquals(idp.getEntityID(), IDP_ID);
+        Assert.assertFalse(entities.hasNext());
+        Assert.assertNotNull(idp.getIDPSSODescriptor("urn:oasis:names:tc:SAML:2.0:protocol"));
+        Assert.assertSame(resolver.resolveSingle(criteriaFor(IDP_ID)), idp);
+
+        final EntityDescriptor sp = resolver.resolveSingle(criteriaFor(SP_ID));
+        Assert.assertNotNull(sp);
+        Assert.assertEquals(sp.getEntityID(), SP_ID);
+
+        // Only one live entity is kept, so the IdP is restored again.
+        final EntityDescriptor restored = resolver.resolveSingle(criteriaFor(IDP_ID));
+        Assert.assertNotSame(restored, idp);
+        Assert.assertEquals(restored.getEntityID(), IDP_ID);
+
+        Assert.assertNull(resolver.resolveSingle(criteriaFor("https://unknown.example.org")));
+    }
 }
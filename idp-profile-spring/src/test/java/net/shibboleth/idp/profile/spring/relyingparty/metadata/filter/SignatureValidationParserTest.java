@@ -20,6 +20,7 @@ package net.shibboleth.idp.profile.spring.relyingparty.metadata.filter;
 import java.io.IOException;
 
 import net.shibboleth.idp.profile.spring.relyingparty.metadata.AbstractMetadataParserTest;
+import net.shibboleth.idp.saml.metadata.impl.StreamingSignatureValidationFilter;
 import net.shibboleth.utilities.java.support.resolver.ResolverException;
 
 import org.opensaml.saml.metadata.resolver.MetadataResolver;
@@ -119,6 +120,16 @@ public class SignatureValidationParserTest extends AbstractMetadataParserTest {
         Assert.assertSame(filter.getSignatureTrustEngine(), context.getBean("bean.pem"));
     }
 
+    @Test public void streaming() throws IOException {
+        ApplicationContext context = 
+                getApplicationContext("streaming", "filter/signatureValidationStreaming.xml", "filter/switch.xml", "filter/signatureValidationRefs-beans.xml");
+        
+        StreamingSignatureValidationFilter filter = context.getBean(StreamingSignatureValidationFilter.class);
+        Assert.assertNotNull(filter);
+        Assert.assertSame(filter.getDefaultCriteria(), context.getBean("test.CriteriaSet"));
+        Assert.assertFalse(filter.getRequireSignedRoot());
+    }
+
 
     @Test(expectedExceptions={BeanDefinitionStoreException.class,}) public void none() throws IOException, ResolverException {
                 getBean(MetadataResolver.class, "filter/signingNone.xml", "beans.xml");
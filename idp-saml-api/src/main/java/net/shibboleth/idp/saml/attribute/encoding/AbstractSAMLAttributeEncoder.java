@@ -38,6 +38,12 @@ import net.shibboleth.utilities.java.support.logic.Constraint;
 import net.shibboleth.utilities.java.support.primitive.StringSupport;
 
 import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.XMLObjectBuilder;
+import org.opensaml.core.xml.XMLObjectBuilderFactory;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.schema.XSAny;
+import org.opensaml.core.xml.schema.XSBase64Binary;
+import org.opensaml.core.xml.schema.XSString;
 import org.opensaml.profile.context.ProfileRequestContext;
 import org.opensaml.saml.common.SAMLObject;
 import org.slf4j.Logger;
@@ -69,10 +75,25 @@ public abstract class AbstractSAMLAttributeEncoder<AttributeType extends SAMLObj
     /** Whether to encode with xsi:type or not. */
     private boolean encodeType;
     
+    /** Builder for typed string values, obtained once to avoid a registry lookup per value. */
+    @Nonnull private final XMLObjectBuilder<XSString> stringBuilder;
+
+    /** Builder for typed base64 values. */
+    @Nonnull private final XMLObjectBuilder<XSBase64Binary> binaryBuilder;
+
+    /** Builder for untyped values. */
+    @Nonnull private final XMLObjectBuilder<XSAny> anyBuilder;
+    
     /** Constructor. */
     public AbstractSAMLAttributeEncoder() {
         activationCondition = Predicates.alwaysTrue();
         encodeType = true;
+        
+        final XMLObjectBuilderFactory builderFactory = XMLObjectProviderRegistrySupport.getBuilderFactory();
+        stringBuilder = (XMLObjectBuilder<XSString>) builderFactory.<XSString>getBuilderOrThrow(XSString.TYPE_NAME);
+        binaryBuilder = (XMLObjectBuilder<XSBase64Binary>) builderFactory.<XSBase64Binary>getBuilderOrThrow(
+                XSBase64Binary.TYPE_NAME);
+        anyBuilder = (XMLObjectBuilder<XSAny>) builderFactory.<XSAny>getBuilderOrThrow(XSAny.TYPE_NAME);
     }
     
     /** {@inheritDoc} */
@@ -135,6 +156,33 @@ public abstract class AbstractSAMLAttributeEncoder<AttributeType extends SAMLObj
         encodeType = flag;
     }
 
+    /**
+     * Get the builder for typed string values.
+     * 
+     * @return the builder
+     */
+    @Nonnull protected XMLObjectBuilder<XSString> getStringBuilder() {
+        return stringBuilder;
+    }
+
+    /**
+     * Get the builder for typed base64 values.
+     * 
+     * @return the builder
+     */
+    @Nonnull protected XMLObjectBuilder<XSBase64Binary> getBinaryBuilder() {
+        return binaryBuilder;
+    }
+
+    /**
+     * Get the builder for untyped values.
+     * 
+     * @return the builder
+     */
+    @Nonnull protected XMLObjectBuilder<XSAny> getAnyBuilder() {
+        return anyBuilder;
+    }
+
     /** {@inheritDoc} */
     @Override
     protected void doInitialize() throws ComponentInitializationException {
@@ -30,6 +30,7 @@ import net.shibboleth.utilities.java.support.logic.Constraint;
 
 import org.opensaml.core.xml.XMLObject;
 import org.opensaml.core.xml.XMLObjectBuilder;
+import org.opensaml.core.xml.XMLObjectBuilderFactory;
 import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
 import org.opensaml.core.xml.schema.XSAny;
 import org.opensaml.core.xml.schema.XSBase64Binary;
@@ -62,6 +63,28 @@ public final class SAMLEncoderSupport {
      */
     @Nullable public static XMLObject encodeStringValue(@Nonnull final IdPAttribute attribute,
             @Nonnull final QName attributeValueElementName, @Nullable final String value, final boolean withType) {
+        final XMLObjectBuilderFactory builderFactory = XMLObjectProviderRegistrySupport.getBuilderFactory();
+        return encodeStringValue(attribute, attributeValueElementName, value, withType,
+                (XMLObjectBuilder<XSString>) builderFactory.<XSString>getBuilderOrThrow(XSString.TYPE_NAME),
+                (XMLObjectBuilder<XSAny>) builderFactory.<XSAny>getBuilderOrThrow(XSAny.TYPE_NAME));
+    }
+
+    /**
+     * Encodes a String value into a SAML attribute value element using supplied builders.
+     * 
+     * @param attribute attribute to be encoded
+     * @param attributeValueElementName the element name to create
+     * @param value value to encoded
+     * @param withType whether to include xsi:type
+     * @param stringBuilder builder for the value when including xsi:type
+     * @param anyBuilder builder for the value when not including xsi:type
+     * 
+     * @return the attribute value element or null if the given value was null or empty
+     */
+    @Nullable public static XMLObject encodeStringValue(@Nonnull final IdPAttribute attribute,
+            @Nonnull final QName attributeValueElementName, @Nullable final String value, final boolean withType,
+            @Nonnull final XMLObjectBuilder<XSString> stringBuilder,
+            @Nonnull final XMLObjectBuilder<XSAny> anyBuilder) {
         Constraint.isNotNull(attribute, "Attribute cannot be null");
         Constraint.isNotNull(attributeValueElementName, "Attribute Element Name cannot be null");
 
@@ -73,16 +96,11 @@ public final class SAMLEncoderSupport {
         LOG.debug("Encoding value {} of attribute {}", value, attribute.getId());
         
         if (withType) {
-            final XMLObjectBuilder<XSString> stringBuilder = (XMLObjectBuilder<XSString>)
-                    XMLObjectProviderRegistrySupport.getBuilderFactory().<XSString>getBuilderOrThrow(
-                            XSString.TYPE_NAME);
             final XSString samlAttributeValue =
                     stringBuilder.buildObject(attributeValueElementName, XSString.TYPE_NAME);
             samlAttributeValue.setValue(value);
             return samlAttributeValue;
         } else {
-            final XMLObjectBuilder<XSAny> anyBuilder = (XMLObjectBuilder<XSAny>)
-                    XMLObjectProviderRegistrySupport.getBuilderFactory().<XSAny>getBuilderOrThrow(XSAny.TYPE_NAME);
             final XSAny samlAttributeValue = anyBuilder.buildObject(attributeValueElementName);
             samlAttributeValue.setTextContent(value);
             return samlAttributeValue;
@@ -101,6 +119,29 @@ public final class SAMLEncoderSupport {
      */
     @Nullable public static XMLObject encodeByteArrayValue(@Nonnull final IdPAttribute attribute,
             @Nonnull final QName attributeValueElementName, @Nullable final byte[] value, final boolean withType) {
+        final XMLObjectBuilderFactory builderFactory = XMLObjectProviderRegistrySupport.getBuilderFactory();
+        return encodeByteArrayValue(attribute, attributeValueElementName, value, withType,
+                (XMLObjectBuilder<XSBase64Binary>) builderFactory.<XSBase64Binary>getBuilderOrThrow(
+                        XSBase64Binary.TYPE_NAME),
+                (XMLObjectBuilder<XSAny>) builderFactory.<XSAny>getBuilderOrThrow(XSAny.TYPE_NAME));
+    }
+
+    /**
+     * Base64 encodes a <code>byte[]</code> into a SAML attribute value element using supplied builders.
+     * 
+     * @param attribute attribute to be encoded
+     * @param attributeValueElementName the element name to create
+     * @param value value to encoded
+     * @param withType whether to include xsi:type
+     * @param binaryBuilder builder for the value when including xsi:type
+     * @param anyBuilder builder for the value when not including xsi:type
+     * 
+     * @return the attribute value element or null if the given value was null or empty
+     */
+    @Nullable public static XMLObject encodeByteArrayValue(@Nonnull final IdPAttribute attribute,
+            @Nonnull final QName attributeValueElementName, @Nullable final byte[] value, final boolean withType,
+            @Nonnull final XMLObjectBuilder<XSBase64Binary> binaryBuilder,
+            @Nonnull final XMLObjectBuilder<XSAny> anyBuilder) {
         Constraint.isNotNull(attribute, "Attribute cannot be null");
         Constraint.isNotNull(attributeValueElementName, "Attribute Element Name cannot be null");
 
@@ -110,16 +151,11 @@ public final class SAMLEncoderSupport {
         }
 
         if (withType) {
-            final XMLObjectBuilder<XSBase64Binary> binaryBuilder = (XMLObjectBuilder<XSBase64Binary>)
-                    XMLObjectProviderRegistrySupport.getBuilderFactory().<XSBase64Binary>getBuilderOrThrow(
-                            XSBase64Binary.TYPE_NAME);
             final XSBase64Binary samlAttributeValue =
                     binaryBuilder.buildObject(attributeValueElementName, XSBase64Binary.TYPE_NAME);
             samlAttributeValue.setValue(Base64Support.encode(value, Base64Support.UNCHUNKED));
             return samlAttributeValue;
         } else {
-            final XMLObjectBuilder<XSAny> anyBuilder = (XMLObjectBuilder<XSAny>)
-                    XMLObjectProviderRegistrySupport.getBuilderFactory().<XSAny>getBuilderOrThrow(XSAny.TYPE_NAME);
             final XSAny samlAttributeValue = anyBuilder.buildObject(attributeValueElementName);
             samlAttributeValue.setTextContent(Base64Support.encode(value, Base64Support.UNCHUNKED));
             return samlAttributeValue;
@@ -137,6 +173,23 @@ public final class SAMLEncoderSupport {
      */
     @Nullable public static XMLObject encodeXMLObjectValue(@Nonnull final IdPAttribute attribute,
             @Nonnull final QName attributeValueElementName, @Nullable final XMLObject value) {
+        return encodeXMLObjectValue(attribute, attributeValueElementName, value, (XMLObjectBuilder<XSAny>)
+                XMLObjectProviderRegistrySupport.getBuilderFactory().getBuilder(XSAny.TYPE_NAME));
+    }
+
+    /**
+     * Encodes an {@link XMLObject} value in to a {@link XSAny} SAML attribute value using a supplied builder.
+     * 
+     * @param attribute attribute to be encoded
+     * @param attributeValueElementName the SAML 1 or SAML 1 attribute name
+     * @param value value to encoded
+     * @param attributeValueBuilder builder for the value
+     * 
+     * @return the attribute value element or null if the given value was null or empty
+     */
+    @Nullable public static XMLObject encodeXMLObjectValue(@Nonnull final IdPAttribute attribute,
+            @Nonnull final QName attributeValueElementName, @Nullable final XMLObject value,
+            @Nonnull final XMLObjectBuilder<XSAny> attributeValueBuilder) {
         if (value == null) {
             LOG.debug("Skipping empty value for attribute {}", attribute.getId());
             return null;
@@ -144,8 +197,6 @@ public final class SAMLEncoderSupport {
         Constraint.isNotNull(attribute, "Attribute cannot be null");
         Constraint.isNotNull(attributeValueElementName, "Attribute Element Name cannot be null");
 
-        final XMLObjectBuilder<XSAny> attributeValueBuilder = (XMLObjectBuilder<XSAny>)
-                XMLObjectProviderRegistrySupport.getBuilderFactory().getBuilder(XSAny.TYPE_NAME);
         final XSAny samlAttributeValue = attributeValueBuilder.buildObject(attributeValueElementName);
         samlAttributeValue.getUnknownXMLObjects().add(value);
 
@@ -167,6 +218,28 @@ public final class SAMLEncoderSupport {
     public static XMLObject encodeScopedStringValueAttribute(@Nonnull final IdPAttribute attribute,
             @Nonnull final QName attributeValueElementName, @Nullable final ScopedStringAttributeValue value,
             @Nonnull @NotEmpty final String scopeAttributeName, final boolean withType) {
+        return encodeScopedStringValueAttribute(attribute, attributeValueElementName, value, scopeAttributeName,
+                withType, (XMLObjectBuilder<ScopedValue>)
+                        XMLObjectProviderRegistrySupport.getBuilderFactory().getBuilder(ScopedValue.TYPE_NAME));
+    }
+
+    /**
+     * Encode a {@link ScopedStringAttributeValue} value in to an SAML attribute value element using the
+     * (older Shibboleth) sytnax where the scope is inside an XML attribute, using a supplied builder.
+     * 
+     * @param attribute attribute to be encoded
+     * @param attributeValueElementName the element name to create
+     * @param value value to encoded
+     * @param scopeAttributeName the name that the attribute will be given
+     * @param withType whether to include xsi:type
+     * @param scopedValueBuilder builder for the value
+     * 
+     * @return the attribute value element or null if the given value was null or empty
+     */
+    public static XMLObject encodeScopedStringValueAttribute(@Nonnull final IdPAttribute attribute,
+            @Nonnull final QName attributeValueElementName, @Nullable final ScopedStringAttributeValue value,
+            @Nonnull @NotEmpty final String scopeAttributeName, final boolean withType,
+            @Nonnull final XMLObjectBuilder<ScopedValue> scopedValueBuilder) {
         Constraint.isNotNull(attribute, "Attribute cannot be null");
         Constraint.isNotNull(attributeValueElementName, "Attribute Element Name cannot be null");
         Constraint.isNotNull(scopeAttributeName, "Scope Attribute Name cannot be null");
@@ -176,8 +249,6 @@ public final class SAMLEncoderSupport {
             return null;
         }
         
-        final XMLObjectBuilder<ScopedValue> scopedValueBuilder = (XMLObjectBuilder<ScopedValue>)
-                XMLObjectProviderRegistrySupport.getBuilderFactory().getBuilder(ScopedValue.TYPE_NAME);
         final ScopedValue scopedValue =
                 withType ? scopedValueBuilder.buildObject(attributeValueElementName, ScopedValue.TYPE_NAME)
                         : scopedValueBuilder.buildObject(attributeValueElementName);
@@ -204,6 +275,32 @@ public final class SAMLEncoderSupport {
     public static XMLObject encodeScopedStringValueInline(@Nonnull final IdPAttribute attribute,
             @Nonnull final QName attributeValueElementName, @Nullable final ScopedStringAttributeValue value,
             @Nonnull String scopeDelimiter, final boolean withType) {
+        final XMLObjectBuilderFactory builderFactory = XMLObjectProviderRegistrySupport.getBuilderFactory();
+        return encodeScopedStringValueInline(attribute, attributeValueElementName, value, scopeDelimiter, withType,
+                (XMLObjectBuilder<XSString>) builderFactory.<XSString>getBuilderOrThrow(XSString.TYPE_NAME),
+                (XMLObjectBuilder<XSAny>) builderFactory.<XSAny>getBuilderOrThrow(XSAny.TYPE_NAME));
+    }
+
+    /**
+     * Encode a {@link ScopedStringAttributeValue} value into a SAML attribute value element using
+     * the "inline" syntax where the scope and value are combined into a string, using supplied
+     * builders.
+     * 
+     * @param attribute attribute to be encoded
+     * @param attributeValueElementName the element name to create
+     * @param value value to encoded
+     * @param scopeDelimiter the delimiter to put between the value and the scope
+     * @param withType whether to include xsi:type
+     * @param stringBuilder builder for the value when including xsi:type
+     * @param anyBuilder builder for the value when not including xsi:type
+     * 
+     * @return the attribute value element or null if the given value was null or empty
+     */
+    public static XMLObject encodeScopedStringValueInline(@Nonnull final IdPAttribute attribute,
+            @Nonnull final QName attributeValueElementName, @Nullable final ScopedStringAttributeValue value,
+            @Nonnull String scopeDelimiter, final boolean withType,
+            @Nonnull final XMLObjectBuilder<XSString> stringBuilder,
+            @Nonnull final XMLObjectBuilder<XSAny> anyBuilder) {
         Constraint.isNotNull(attribute, "Attribute cannot be null");
         Constraint.isNotNull(attributeValueElementName, "Attribute Element Name cannot be null");
         Constraint.isNotNull(scopeDelimiter, "Scope delimiter cannot be null");
@@ -216,6 +313,7 @@ public final class SAMLEncoderSupport {
         final StringBuilder builder =
                 new StringBuilder(value.getValue()).append(scopeDelimiter).append(value.getScope());
 
-        return encodeStringValue(attribute, attributeValueElementName, builder.toString(), withType);
+        return encodeStringValue(attribute, attributeValueElementName, builder.toString(), withType, stringBuilder,
+                anyBuilder);
     }
 }
\ No newline at end of file
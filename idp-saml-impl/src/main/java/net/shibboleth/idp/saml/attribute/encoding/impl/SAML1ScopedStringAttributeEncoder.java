@@ -26,11 +26,14 @@ import net.shibboleth.idp.attribute.IdPAttributeValue;
 import net.shibboleth.idp.attribute.ScopedStringAttributeValue;
 import net.shibboleth.idp.saml.attribute.encoding.AbstractSAML1AttributeEncoder;
 import net.shibboleth.idp.saml.attribute.encoding.SAMLEncoderSupport;
+import net.shibboleth.idp.saml.xmlobject.ScopedValue;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.component.ComponentSupport;
 import net.shibboleth.utilities.java.support.primitive.StringSupport;
 
 import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.XMLObjectBuilder;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
 import org.opensaml.saml.saml1.core.AttributeValue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -53,6 +56,9 @@ public class SAML1ScopedStringAttributeEncoder extends AbstractSAML1AttributeEnc
     /** Attribute name used for "attribute" scopeType. */
     @Nullable private String scopeAttributeName;
 
+    /** Builder for values using the "attribute" scopeType. */
+    @Nonnull private final XMLObjectBuilder<ScopedValue> scopedValueBuilder;
+
     /**
      * Constructor.
      *
@@ -61,6 +67,9 @@ public class SAML1ScopedStringAttributeEncoder extends AbstractSAML1AttributeEnc
         scopeDelimiter = "@";
         scopeAttributeName =  "Scope";
         scopeType = "attribute";
+        scopedValueBuilder = (XMLObjectBuilder<ScopedValue>)
+                XMLObjectProviderRegistrySupport.getBuilderFactory().<ScopedValue>getBuilderOrThrow(
+                        ScopedValue.TYPE_NAME);
         
         // Turn off type encoding, because we default to a non-built-in type that consumers won't
         // have the schema for.
@@ -167,10 +176,12 @@ public class SAML1ScopedStringAttributeEncoder extends AbstractSAML1AttributeEnc
         
         if ("attribute".equals(getScopeType())) {
             return SAMLEncoderSupport.encodeScopedStringValueAttribute(attribute,
-                    AttributeValue.DEFAULT_ELEMENT_NAME, value, getScopeAttributeName(), encodeType());
+                    AttributeValue.DEFAULT_ELEMENT_NAME, value, getScopeAttributeName(), encodeType(),
+                    scopedValueBuilder);
         } else {
             return SAMLEncoderSupport.encodeScopedStringValueInline(attribute,
-                    AttributeValue.DEFAULT_ELEMENT_NAME, value, getScopeDelimiter(), encodeType());
+                    AttributeValue.DEFAULT_ELEMENT_NAME, value, getScopeDelimiter(), encodeType(),
+                    getStringBuilder(), getAnyBuilder());
         }
     }
 }
\ No newline at end of file
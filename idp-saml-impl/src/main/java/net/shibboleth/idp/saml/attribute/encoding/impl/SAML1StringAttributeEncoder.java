@@ -47,6 +47,7 @@ public class SAML1StringAttributeEncoder extends AbstractSAML1AttributeEncoder<S
     @Nullable protected XMLObject encodeValue(@Nonnull final IdPAttribute attribute,
             @Nonnull final StringAttributeValue value) throws AttributeEncodingException {
         return SAMLEncoderSupport.encodeStringValue(attribute,
-                AttributeValue.DEFAULT_ELEMENT_NAME, value.getValue(), encodeType());
+                AttributeValue.DEFAULT_ELEMENT_NAME, value.getValue(), encodeType(), getStringBuilder(),
+                getAnyBuilder());
     }
 }
\ No newline at end of file
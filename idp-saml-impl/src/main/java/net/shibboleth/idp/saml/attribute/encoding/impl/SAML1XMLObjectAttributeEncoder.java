@@ -47,6 +47,6 @@ public class SAML1XMLObjectAttributeEncoder extends AbstractSAML1AttributeEncode
     @Nullable protected XMLObject encodeValue(@Nonnull final IdPAttribute attribute,
             @Nonnull final XMLObjectAttributeValue value) throws AttributeEncodingException {
         return SAMLEncoderSupport.encodeXMLObjectValue(attribute,
-                AttributeValue.DEFAULT_ELEMENT_NAME, value.getValue());
+                AttributeValue.DEFAULT_ELEMENT_NAME, value.getValue(), getAnyBuilder());
     }
 }
\ No newline at end of file
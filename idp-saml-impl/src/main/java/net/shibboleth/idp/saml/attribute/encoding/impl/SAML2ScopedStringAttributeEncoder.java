@@ -30,11 +30,14 @@ import net.shibboleth.idp.saml.attribute.encoding.AttributeMapperProcessor;
 import net.shibboleth.idp.saml.attribute.encoding.SAMLEncoderSupport;
 import net.shibboleth.idp.saml.attribute.mapping.AbstractSAMLAttributeMapper;
 import net.shibboleth.idp.saml.attribute.mapping.impl.ScopedStringAttributeValueMapper;
+import net.shibboleth.idp.saml.xmlobject.ScopedValue;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.component.ComponentSupport;
 import net.shibboleth.utilities.java.support.primitive.StringSupport;
 
 import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.XMLObjectBuilder;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
 import org.opensaml.saml.saml2.core.AttributeValue;
 import org.opensaml.saml.saml2.metadata.RequestedAttribute;
 import org.slf4j.Logger;
@@ -58,6 +61,9 @@ public class SAML2ScopedStringAttributeEncoder extends AbstractSAML2AttributeEnc
 
     /** Attribute name used for "attribute" scopeType. */
     @Nullable private String scopeAttributeName;
+
+    /** Builder for values using the "attribute" scopeType. */
+    @Nonnull private final XMLObjectBuilder<ScopedValue> scopedValueBuilder;
     
     /**
      * Constructor.
@@ -67,6 +73,9 @@ public class SAML2ScopedStringAttributeEncoder extends AbstractSAML2AttributeEnc
         scopeDelimiter = "@";
         scopeAttributeName = "Scope";
         scopeType = "inline";
+        scopedValueBuilder = (XMLObjectBuilder<ScopedValue>)
+                XMLObjectProviderRegistrySupport.getBuilderFactory().<ScopedValue>getBuilderOrThrow(
+                        ScopedValue.TYPE_NAME);
     }
 
     /**
@@ -171,10 +180,12 @@ public class SAML2ScopedStringAttributeEncoder extends AbstractSAML2AttributeEnc
 
         if ("attribute".equals(getScopeType())) {
             return SAMLEncoderSupport.encodeScopedStringValueAttribute(attribute,
-                    AttributeValue.DEFAULT_ELEMENT_NAME, value, getScopeAttributeName(), encodeType());
+                    AttributeValue.DEFAULT_ELEMENT_NAME, value, getScopeAttributeName(), encodeType(),
+                    scopedValueBuilder);
         } else {
             return SAMLEncoderSupport.encodeScopedStringValueInline(
-                    attribute, AttributeValue.DEFAULT_ELEMENT_NAME, value, getScopeDelimiter(), encodeType());
+                    attribute, AttributeValue.DEFAULT_ELEMENT_NAME, value, getScopeDelimiter(), encodeType(),
+                    getStringBuilder(), getAnyBuilder());
         }
     }
 
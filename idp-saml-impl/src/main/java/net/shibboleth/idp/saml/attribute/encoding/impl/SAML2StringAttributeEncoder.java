@@ -52,7 +52,8 @@ public class SAML2StringAttributeEncoder extends AbstractSAML2AttributeEncoder<S
     @Override @Nullable protected XMLObject encodeValue(@Nonnull final IdPAttribute attribute,
             @Nonnull final StringAttributeValue value) throws AttributeEncodingException {
         return SAMLEncoderSupport.encodeStringValue(attribute,
-                AttributeValue.DEFAULT_ELEMENT_NAME, value.getValue(), encodeType());
+                AttributeValue.DEFAULT_ELEMENT_NAME, value.getValue(), encodeType(), getStringBuilder(),
+                getAnyBuilder());
     }
 
     /** {@inheritDoc} */
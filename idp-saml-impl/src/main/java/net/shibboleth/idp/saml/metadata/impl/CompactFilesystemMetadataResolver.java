@@ -0,0 +1,1210 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.saml.metadata.impl;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.XMLConstants;
+
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.component.AbstractIdentifiableInitializableComponent;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
+import net.shibboleth.utilities.java.support.resolver.ResolverException;
+import net.shibboleth.utilities.java.support.xml.ParserPool;
+import net.shibboleth.utilities.java.support.xml.SerializeSupport;
+import net.shibboleth.utilities.java.support.xml.XMLParserException;
+
+import org.joda.time.DateTime;
+import org.joda.time.chrono.ISOChronology;
+import org.opensaml.core.criterion.EntityIdCriterion;
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.core.xml.io.UnmarshallingException;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.saml.metadata.resolver.RefreshableMetadataResolver;
+import org.opensaml.saml.metadata.resolver.filter.FilterException;
+import org.opensaml.saml.metadata.resolver.filter.MetadataFilter;
+import org.opensaml.saml.metadata.resolver.filter.MetadataFilterChain;
+import org.opensaml.saml.metadata.resolver.filter.impl.NodeProcessingMetadataFilter;
+import org.opensaml.saml.metadata.resolver.filter.impl.RequiredValidUntilFilter;
+import org.opensaml.saml.saml2.common.CacheableSAMLObject;
+import org.opensaml.saml.saml2.common.TimeBoundSAMLObject;
+import org.opensaml.saml.saml2.metadata.EntitiesDescriptor;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * A metadata resolver for a local metadata file that holds each {@link EntityDescriptor} in a compressed,
+ * serialized form, and only keeps a bounded number of them as live objects.
+ *
+ * <p>The file is parsed, checked, and run through the configured {@link MetadataFilter} in full when it is
+ * loaded, so signature checking and other filters behave as they do for the standard resolvers. Each surviving
+ * entity is then serialized and deflated on its own, and the object tree is discarded. An entity is inflated
+ * and unmarshalled again the first time it is asked for, and is kept in a least recently used cache of
+ * <code>liveEntityCacheSize</code> objects.</p>
+ *
+ * <p>Enclosing {@link EntitiesDescriptor} elements are kept as childless copies carrying only their name, ID,
+ * validity and extensions, and are set as the parent of each inflated entity. Any
+ * {@link NodeProcessingMetadataFilter} in the filter is skipped when the file is filtered, and is instead applied
+ * once to each group copy when it is made and to each entity when it is inflated, so information that node
+ * processors attach to objects is preserved. Those group copies do not list their member entities.</p>
+ *
+ * <p>When the file changes, it is again read and filtered in full, but entities whose serialized form and
+ * enclosing groups are unchanged keep their compact form and any live object already restored from it, and
+ * unchanged group copies are kept. Group copies and compact entities are never modified once made; a group
+ * whose validity has changed is copied afresh, along with everything it encloses, and the new objects are only
+ * published when the whole file has been accepted. Node processing is therefore only repeated for what has
+ * changed.</p>
+ *
+ * <p>If the filter includes a {@link StreamingSignatureValidationFilter}, and the root of the file is an
+ * {@link EntitiesDescriptor}, the file is instead read one entity at a time by a {@link StreamingMetadataReader},
+ * so that the whole document is never held in memory as objects; the signature on the root is checked as the file
+ * is read into a compressed copy, and no other filter sees anything from the file until it has been verified.</p>
+ *
+ * <p>Only lookups by {@link EntityIdCriterion} are supported. Where an entityID appears more than once in the
+ * file, the first occurrence is used.</p>
+ */
+public class CompactFilesystemMetadataResolver extends AbstractIdentifiableInitializableComponent
+        implements RefreshableMetadataResolver {
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(CompactFilesystemMetadataResolver.class);
+
+    /** The metadata file. */
+    @Nonnull private final File metadataFile;
+
+    /** Timer used to schedule refreshes. */
+    @Nonnull private final Timer taskTimer;
+
+    /** Whether the timer was created by, and must be cancelled by, this resolver. */
+    private final boolean createdOwnTaskTimer;
+
+    /** Pool of parsers used to read metadata. */
+    @NonnullAfterInit private ParserPool parserPool;
+
+    /** Filter applied to the metadata when it is loaded. */
+    @Nullable private MetadataFilter metadataFilter;
+
+    /** Whether metadata that is no longer valid is rejected. */
+    private boolean requireValidMetadata;
+
+    /** Whether a failure to load metadata at startup is fatal. */
+    private boolean failFastInitialization;
+
+    /** Minimum time between refreshes. */
+    @Duration @Positive private long minRefreshDelay;
+
+    /** Maximum time between refreshes. */
+    @Duration @Positive private long maxRefreshDelay;
+
+    /** Fraction of the metadata's remaining lifetime to wait before refreshing. */
+    private float refreshDelayFactor;
+
+    /** Maximum number of entities held as live objects. */
+    @Positive private long liveEntityCacheSize;
+
+    /** Live entities, keyed on the identity of their compact form. */
+    @NonnullAfterInit private Cache<CompactEntity,EntityDescriptor> liveEntities;
+
+    /** The currently loaded metadata. */
+    @Nullable private volatile Snapshot snapshot;
+
+    /** Pending refresh task. */
+    @Nullable private TimerTask refreshTask;
+
+    /** Time of the last refresh. */
+    @Nullable private DateTime lastRefresh;
+
+    /** Time the loaded metadata was last replaced. */
+    @Nullable private DateTime lastUpdate;
+
+    /**
+     * Constructor.
+     *
+     * @param file the metadata file
+     */
+    public CompactFilesystemMetadataResolver(@Nonnull final File file) {
+        this(null, file);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param backgroundTaskTimer timer used to schedule refreshes, or null to create one
+     * @param file the metadata file
+     */
+    public CompactFilesystemMetadataResolver(@Nullable final Timer backgroundTaskTimer, @Nonnull final File file) {
+        metadataFile = Constraint.isNotNull(file, "Metadata file cannot be null");
+        if (backgroundTaskTimer == null) {
+            taskTimer = new Timer(true);
+            createdOwnTaskTimer = true;
+        } else {
+            taskTimer = backgroundTaskTimer;
+            createdOwnTaskTimer = false;
+        }
+        requireValidMetadata = true;
+        failFastInitialization = true;
+        minRefreshDelay = 5 * 60 * 1000;
+        maxRefreshDelay = 4 * 60 * 60 * 1000;
+        refreshDelayFactor = 0.75f;
+        liveEntityCacheSize = 1000;
+    }
+
+    /**
+     * Get the parser pool used to read metadata.
+     *
+     * @return the parser pool
+     */
+    @NonnullAfterInit public ParserPool getParserPool() {
+        return parserPool;
+    }
+
+    /**
+     * Set the parser pool used to read metadata.
+     *
+     * @param pool the parser pool
+     */
+    public void setParserPool(@Nonnull final ParserPool pool) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        parserPool = Constraint.isNotNull(pool, "ParserPool cannot be null");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nullable public MetadataFilter getMetadataFilter() {
+        return metadataFilter;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setMetadataFilter(@Nullable final MetadataFilter newFilter) {
+        metadataFilter = newFilter;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isRequireValidMetadata() {
+        return requireValidMetadata;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setRequireValidMetadata(final boolean flag) {
+        requireValidMetadata = flag;
+    }
+
+    /**
+     * Get whether a failure to load metadata at startup is fatal.
+     *
+     * @return whether a failure to load metadata at startup is fatal
+     */
+    public boolean isFailFastInitialization() {
+        return failFastInitialization;
+    }
+
+    /**
+     * Set whether a failure to load metadata at startup is fatal.
+     *
+     * @param flag flag to set
+     */
+    public void setFailFastInitialization(final boolean flag) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        failFastInitialization = flag;
+    }
+
+    /**
+     * Get the minimum time between refreshes.
+     *
+     * @return time in milliseconds
+     */
+    @Duration @Positive public long getMinRefreshDelay() {
+        return minRefreshDelay;
+    }
+
+    /**
+     * Set the minimum time between refreshes.
+     *
+     * @param delay time in milliseconds
+     */
+    public void setMinRefreshDelay(@Duration @Positive final long delay) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        minRefreshDelay = Constraint.isGreaterThan(0, delay, "Minimum refresh delay must be greater than 0");
+    }
+
+    /**
+     * Get the maximum time between refreshes.
+     *
+     * @return time in milliseconds
+     */
+    @Duration @Positive public long getMaxRefreshDelay() {
+        return maxRefreshDelay;
+    }
+
+    /**
+     * Set the maximum time between refreshes.
+     *
+     * @param delay time in milliseconds
+     */
+    public void setMaxRefreshDelay(@Duration @Positive final long delay) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        maxRefreshDelay = Constraint.isGreaterThan(0, delay, "Maximum refresh delay must be greater than 0");
+    }
+
+    /**
+     * Get the fraction of the metadata's remaining lifetime to wait before refreshing.
+     *
+     * @return the refresh delay factor
+     */
+    public float getRefreshDelayFactor() {
+        return refreshDelayFactor;
+    }
+
+    /**
+     * Set the fraction of the metadata's remaining lifetime to wait before refreshing.
+     *
+     * @param factor a value greater than 0 and less than 1
+     */
+    public void setRefreshDelayFactor(final float factor) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        if (factor <= 0 || factor >= 1) {
+            throw new IllegalArgumentException("Refresh delay factor must be greater than 0 and less than 1");
+        }
+        refreshDelayFactor = factor;
+    }
+
+    /**
+     * Get the maximum number of entities held as live objects.
+     *
+     * @return maximum number of entities
+     */
+    @Positive public long getLiveEntityCacheSize() {
+        return liveEntityCacheSize;
+    }
+
+    /**
+     * Set the maximum number of entities held as live objects.
+     *
+     * @param size maximum number of entities
+     */
+    public void setLiveEntityCacheSize(@Positive final long size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        liveEntityCacheSize = Constraint.isGreaterThan(0, size, "Live entity cache size must be greater than 0");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nullable public synchronized DateTime getLastRefresh() {
+        return lastRefresh;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nullable public synchronized DateTime getLastUpdate() {
+        return lastUpdate;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+
+        if (parserPool == null) {
+            throw new ComponentInitializationException("ParserPool cannot be null");
+        }
+        if (minRefreshDelay > maxRefreshDelay) {
+            throw new ComponentInitializationException(
+                    "Minimum refresh delay must be less than or equal to maximum refresh delay");
+        }
+
+        liveEntities = CacheBuilder.newBuilder().maximumSize(liveEntityCacheSize).build();
+
+        try {
+            refresh();
+        } catch (final ResolverException e) {
+            if (failFastInitialization) {
+                if (createdOwnTaskTimer) {
+                    taskTimer.cancel();
+                }
+                throw new ComponentInitializationException("Metadata provider failed to initialize", e);
+            }
+            log.error("Metadata provider '{}' failed to initialize, continuing without metadata", getId(), e);
+        }
+
+        // Refreshes are scheduled from here on, and not by a first load that may yet fail initialization.
+        synchronized (this) {
+            final Snapshot current = snapshot;
+            scheduleRefresh(current != null ? current.getExpiration() : null);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        synchronized (this) {
+            if (refreshTask != null) {
+                refreshTask.cancel();
+                refreshTask = null;
+            }
+        }
+        if (createdOwnTaskTimer) {
+            taskTimer.cancel();
+        }
+        snapshot = null;
+        if (liveEntities != null) {
+            liveEntities.invalidateAll();
+        }
+
+        super.doDestroy();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void refresh() throws ResolverException {
+        ComponentSupport.ifDestroyedThrowDestroyedComponentException(this);
+
+        final DateTime now = new DateTime(ISOChronology.getInstanceUTC());
+        Snapshot current = snapshot;
+        try {
+            final long modified = metadataFile.lastModified();
+            if (current != null && current.getLastModified() == modified) {
+                log.debug("Metadata provider '{}': metadata file '{}' is unchanged", getId(),
+                        metadataFile.getPath());
+            } else {
+                final Snapshot previous = current;
+                current = load(modified, previous);
+                snapshot = current;
+                if (previous != null) {
+                    for (final Map.Entry<String,CompactEntity> entry : previous.getIndex().entrySet()) {
+                        if (current.getIndex().get(entry.getKey()) != entry.getValue()) {
+                            liveEntities.invalidate(entry.getValue());
+                        }
+                    }
+                }
+                lastUpdate = now;
+                log.info("Metadata provider '{}': loaded {} entities from '{}'", getId(), current.getIndex().size(),
+                        metadataFile.getPath());
+            }
+        } finally {
+            lastRefresh = now;
+            if (isInitialized()) {
+                scheduleRefresh(current != null ? current.getExpiration() : null);
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull @NonnullElements public Iterable<EntityDescriptor> resolve(@Nullable final CriteriaSet criteria)
+            throws ResolverException {
+        final EntityDescriptor entity = resolveSingle(criteria);
+        if (entity != null) {
+            return Collections.singletonList(entity);
+        }
+        return Collections.emptyList();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nullable public EntityDescriptor resolveSingle(@Nullable final CriteriaSet criteria) throws ResolverException {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+
+        final EntityIdCriterion entityIdCriterion = criteria != null ? criteria.get(EntityIdCriterion.class) : null;
+        if (entityIdCriterion == null) {
+            log.debug("Metadata provider '{}': criteria did not contain an entityID", getId());
+            return null;
+        }
+
+        final Snapshot current = snapshot;
+        if (current == null) {
+            return null;
+        }
+
+        final CompactEntity compact = current.getIndex().get(entityIdCriterion.getEntityId());
+        if (compact == null) {
+            return null;
+        }
+
+        final EntityDescriptor entity;
+        try {
+            entity = liveEntities.get(compact, new Callable<EntityDescriptor>() {
+                public EntityDescriptor call() throws ResolverException {
+                    return inflate(compact, current.getNodeProcessingFilters());
+                }
+            });
+        } catch (final ExecutionException e) {
+            throw new ResolverException("Unable to restore metadata for " + entityIdCriterion.getEntityId(),
+                    e.getCause());
+        }
+
+        if (requireValidMetadata && !isValid(entity)) {
+            log.debug("Metadata provider '{}': metadata for '{}' is no longer valid", getId(),
+                    entity.getEntityID());
+            return null;
+        }
+        return entity;
+    }
+
+    /**
+     * Read, filter and compact the metadata file.
+     *
+     * @param modified the modification time of the file
+     * @param previous the previously loaded metadata, or null
+     *
+     * @return the compacted metadata
+     *
+     * @throws ResolverException if the file cannot be read or is unacceptable
+     */
+    @Nonnull private Snapshot load(final long modified, @Nullable final Snapshot previous)
+            throws ResolverException {
+        final StreamingSignatureValidationFilter streamingFilter = getStreamingFilter();
+        if (streamingFilter != null) {
+            final Snapshot streamed = loadStreaming(modified, previous, streamingFilter);
+            if (streamed != null) {
+                return streamed;
+            }
+            log.debug("Metadata provider '{}': metadata root is not an EntitiesDescriptor, reading it in full",
+                    getId());
+        }
+
+        XMLObject metadata;
+        try (final InputStream in = new FileInputStream(metadataFile)) {
+            metadata = XMLObjectSupport.unmarshallFromInputStream(parserPool, in);
+        } catch (final IOException | XMLParserException | UnmarshallingException e) {
+            throw new ResolverException("Unable to read metadata file " + metadataFile.getPath(), e);
+        }
+
+        if (requireValidMetadata && metadata instanceof TimeBoundSAMLObject
+                && !((TimeBoundSAMLObject) metadata).isValid()) {
+            throw new ResolverException("Metadata file " + metadataFile.getPath() + " is no longer valid");
+        }
+
+        // Node processors are applied to the group copies and restored entities instead.
+        for (final MetadataFilter filter : getFilters()) {
+            if (metadata == null) {
+                break;
+            } else if (!(filter instanceof NodeProcessingMetadataFilter)) {
+                try {
+                    metadata = filter.filter(metadata);
+                } catch (final FilterException e) {
+                    throw new ResolverException("Error filtering metadata from " + metadataFile.getPath(), e);
+                }
+            }
+        }
+
+        final Compactor compactor = new Compactor(previous, getNodeProcessingFilters());
+        if (metadata != null) {
+            compactor.compact(metadata, null, "");
+        } else {
+            log.warn("Metadata provider '{}': metadata filter removed all metadata", getId());
+        }
+        log.debug("Metadata provider '{}': reused {} unchanged entities and {} unchanged groups", getId(),
+                compactor.getReusedEntities(), compactor.getReusedGroups());
+
+        return new Snapshot(modified, getExpiration(metadata), compactor.getIndex(), compactor.getGroups(),
+                compactor.getNodeProcessingFilters());
+    }
+
+    /**
+     * Read, check and compact the metadata file one entity at a time.
+     *
+     * <p>Each entity is passed through the filters other than node processors, which are applied when it is
+     * restored, and {@link RequiredValidUntilFilter}, which is applied to the root alone.</p>
+     *
+     * @param modified the modification time of the file
+     * @param previous the previously loaded metadata, or null
+     * @param streamingFilter the filter used to check signatures
+     *
+     * @return the compacted metadata, or null if the root of the file is not an {@link EntitiesDescriptor}
+     *
+     * @throws ResolverException if the file cannot be read or is unacceptable
+     */
+    @Nullable private Snapshot loadStreaming(final long modified, @Nullable final Snapshot previous,
+            @Nonnull final StreamingSignatureValidationFilter streamingFilter) throws ResolverException {
+        final List<MetadataFilter> entityFilters = new ArrayList<>();
+        final List<MetadataFilter> rootFilters = new ArrayList<>();
+        for (final MetadataFilter filter : getFilters()) {
+            if (filter instanceof RequiredValidUntilFilter) {
+                rootFilters.add(filter);
+            } else if (!(filter instanceof NodeProcessingMetadataFilter) && filter != streamingFilter) {
+                entityFilters.add(filter);
+            }
+        }
+
+        final Compactor compactor = new Compactor(previous, getNodeProcessingFilters());
+        final EntitiesDescriptor root;
+        try (final InputStream in = new BufferedInputStream(new FileInputStream(metadataFile))) {
+            root = new StreamingMetadataReader(parserPool, streamingFilter, entityFilters).read(in, compactor);
+        } catch (final IOException | ResolverException e) {
+            throw new ResolverException("Unable to read metadata file " + metadataFile.getPath(), e);
+        }
+        if (root == null) {
+            return null;
+        }
+
+        if (requireValidMetadata && !root.isValid()) {
+            throw new ResolverException("Metadata file " + metadataFile.getPath() + " is no longer valid");
+        }
+        for (final MetadataFilter filter : rootFilters) {
+            try {
+                if (filter.filter(root) == null) {
+                    throw new ResolverException("Metadata from " + metadataFile.getPath() + " was rejected");
+                }
+            } catch (final FilterException e) {
+                throw new ResolverException("Error filtering metadata from " + metadataFile.getPath(), e);
+            }
+        }
+
+        log.debug("Metadata provider '{}': streamed metadata, reused {} unchanged entities and {} unchanged groups",
+                getId(), compactor.getReusedEntities(), compactor.getReusedGroups());
+
+        return new Snapshot(modified, getExpiration(root), compactor.getIndex(), compactor.getGroups(),
+                compactor.getNodeProcessingFilters());
+    }
+
+    /**
+     * Build a childless copy of a group.
+     *
+     * @param entities the group to copy
+     * @param parent the copy of the enclosing group, or null
+     * @param nodeProcessingFilters node processing filters to apply to the copy
+     *
+     * @return the copy
+     *
+     * @throws ResolverException if the group cannot be copied
+     */
+    @Nonnull private EntitiesDescriptor copyGroup(@Nonnull final EntitiesDescriptor entities,
+            @Nullable final EntitiesDescriptor parent,
+            @Nonnull @NonnullElements final List<NodeProcessingMetadataFilter> nodeProcessingFilters)
+                    throws ResolverException {
+
+        final EntitiesDescriptor groupCopy =
+                (EntitiesDescriptor) XMLObjectSupport.buildXMLObject(EntitiesDescriptor.DEFAULT_ELEMENT_NAME);
+        groupCopy.setName(entities.getName());
+        groupCopy.setID(entities.getID());
+        groupCopy.setValidUntil(entities.getValidUntil());
+        groupCopy.setCacheDuration(entities.getCacheDuration());
+        try {
+            if (entities.getExtensions() != null) {
+                groupCopy.setExtensions(XMLObjectSupport.cloneXMLObject(entities.getExtensions()));
+            }
+            groupCopy.setParent(parent);
+            for (final NodeProcessingMetadataFilter filter : nodeProcessingFilters) {
+                filter.filter(groupCopy);
+            }
+        } catch (final MarshallingException | UnmarshallingException | FilterException e) {
+            throw new ResolverException("Unable to copy EntitiesDescriptor " + entities.getName(), e);
+        }
+        return groupCopy;
+    }
+
+    /**
+     * Compute a key identifying a group by its position and content, other than its validity.
+     *
+     * @param entities the group
+     * @param parentKey the key of the enclosing group, or an empty string
+     *
+     * @return the key
+     *
+     * @throws ResolverException if the group's extensions cannot be serialized
+     */
+    @Nonnull private String getGroupKey(@Nonnull final EntitiesDescriptor entities, @Nonnull final String parentKey)
+            throws ResolverException {
+        final StringBuilder builder = new StringBuilder(parentKey).append('/').append(entities.getName())
+                .append('#').append(entities.getID());
+        if (entities.getExtensions() != null) {
+            try {
+                final Element element = XMLObjectProviderRegistrySupport.getMarshallerFactory()
+                        .getMarshaller(entities.getExtensions()).marshall(entities.getExtensions());
+                builder.append('!').append(SerializeSupport.nodeToString(element));
+            } catch (final MarshallingException e) {
+                throw new ResolverException("Unable to serialize extensions of " + entities.getName(), e);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Serialize an entity as a standalone document and deflate the result.
+     *
+     * <p>Namespace declarations made on enclosing elements are copied onto the entity, since they may be
+     * referenced by its content as well as its element and attribute names.</p>
+     *
+     * @param entity the entity
+     *
+     * @return the compressed document
+     *
+     * @throws ResolverException if the entity cannot be serialized
+     */
+    @Nonnull private byte[] serialize(@Nonnull final EntityDescriptor entity) throws ResolverException {
+        try {
+            final Element element =
+                    XMLObjectProviderRegistrySupport.getMarshallerFactory().getMarshaller(entity).marshall(entity);
+            final Document document = parserPool.newDocument();
+            final Element copy = (Element) document.importNode(element, true);
+            document.appendChild(copy);
+            for (Node ancestor = element.getParentNode(); ancestor instanceof Element;
+                    ancestor = ancestor.getParentNode()) {
+                final NamedNodeMap attributes = ancestor.getAttributes();
+                for (int i = 0; i < attributes.getLength(); i++) {
+                    final Attr attribute = (Attr) attributes.item(i);
+                    if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI())
+                            && !copy.hasAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, attribute.getLocalName())) {
+                        copy.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, attribute.getName(),
+                                attribute.getValue());
+                    }
+                }
+            }
+
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (final OutputStream out = new DeflaterOutputStream(bytes)) {
+                SerializeSupport.writeNode(copy, out);
+            }
+            return bytes.toByteArray();
+        } catch (final MarshallingException | XMLParserException | IOException e) {
+            throw new ResolverException("Unable to serialize metadata for " + entity.getEntityID(), e);
+        }
+    }
+
+    /**
+     * Restore an entity from its compact form.
+     *
+     * @param compact the compact form
+     * @param nodeProcessingFilters node processing filters to apply to the entity
+     *
+     * @return the entity
+     *
+     * @throws ResolverException if the entity cannot be restored
+     */
+    @Nonnull private EntityDescriptor inflate(@Nonnull final CompactEntity compact,
+            @Nonnull @NonnullElements final List<NodeProcessingMetadataFilter> nodeProcessingFilters)
+                    throws ResolverException {
+        try (final InputStream in = new InflaterInputStream(new ByteArrayInputStream(compact.getData()))) {
+            final XMLObject xmlObject = XMLObjectSupport.unmarshallFromInputStream(parserPool, in);
+            if (!(xmlObject instanceof EntityDescriptor)) {
+                throw new ResolverException("Compacted metadata was not an EntityDescriptor");
+            }
+            final EntityDescriptor entity = (EntityDescriptor) xmlObject;
+            entity.releaseDOM();
+            entity.releaseChildrenDOM(true);
+            entity.setParent(compact.getGroup());
+            for (final NodeProcessingMetadataFilter filter : nodeProcessingFilters) {
+                filter.filter(entity);
+            }
+            log.trace("Metadata provider '{}': restored metadata for '{}'", getId(), entity.getEntityID());
+            return entity;
+        } catch (final IOException | XMLParserException | UnmarshallingException | FilterException e) {
+            throw new ResolverException("Unable to restore compacted metadata", e);
+        }
+    }
+
+    /**
+     * Get the filters making up the configured filter.
+     *
+     * @return the filters
+     */
+    @Nonnull @NonnullElements private List<MetadataFilter> getFilters() {
+        if (metadataFilter instanceof MetadataFilterChain) {
+            return ((MetadataFilterChain) metadataFilter).getFilters();
+        } else if (metadataFilter != null) {
+            return Collections.singletonList(metadataFilter);
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Get the node processing filters within the configured filter.
+     *
+     * @return the node processing filters
+     */
+    @Nonnull @NonnullElements private List<NodeProcessingMetadataFilter> getNodeProcessingFilters() {
+        final List<NodeProcessingMetadataFilter> filters = new ArrayList<>();
+        for (final MetadataFilter filter : getFilters()) {
+            if (filter instanceof NodeProcessingMetadataFilter) {
+                filters.add((NodeProcessingMetadataFilter) filter);
+            }
+        }
+        return filters;
+    }
+
+    /**
+     * Get the filter that allows the metadata file to be read one entity at a time, if configured.
+     *
+     * @return the filter, or null
+     */
+    @Nullable private StreamingSignatureValidationFilter getStreamingFilter() {
+        for (final MetadataFilter filter : getFilters()) {
+            if (filter instanceof StreamingSignatureValidationFilter) {
+                return (StreamingSignatureValidationFilter) filter;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check whether an entity and its enclosing groups are still valid.
+     *
+     * @param entity the entity
+     *
+     * @return true iff neither the entity nor any enclosing group has expired
+     */
+    private boolean isValid(@Nonnull final EntityDescriptor entity) {
+        for (XMLObject node = entity; node != null; node = node.getParent()) {
+            if (node instanceof TimeBoundSAMLObject && !((TimeBoundSAMLObject) node).isValid()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the time at which metadata should be considered stale.
+     *
+     * @param metadata the metadata, or null
+     *
+     * @return the expiration time, or null if the metadata does not specify one
+     */
+    @Nullable private DateTime getExpiration(@Nullable final XMLObject metadata) {
+        DateTime expiration = null;
+        if (metadata instanceof CacheableSAMLObject && ((CacheableSAMLObject) metadata).getCacheDuration() != null) {
+            expiration = new DateTime(ISOChronology.getInstanceUTC())
+                    .plus(((CacheableSAMLObject) metadata).getCacheDuration());
+        }
+        if (metadata instanceof TimeBoundSAMLObject) {
+            final DateTime validUntil = ((TimeBoundSAMLObject) metadata).getValidUntil();
+            if (validUntil != null && (expiration == null || validUntil.isBefore(expiration))) {
+                expiration = validUntil;
+            }
+        }
+        return expiration;
+    }
+
+    /**
+     * Schedule the next refresh.
+     *
+     * @param expiration the time at which the current metadata becomes stale, or null
+     */
+    private void scheduleRefresh(@Nullable final DateTime expiration) {
+        long delay = maxRefreshDelay;
+        if (expiration != null) {
+            delay = Math.min(delay, (long) ((expiration.getMillis() - System.currentTimeMillis())
+                    * refreshDelayFactor));
+        }
+        delay = Math.max(delay, minRefreshDelay);
+
+        if (refreshTask != null) {
+            refreshTask.cancel();
+        }
+        refreshTask = new RefreshTask();
+        taskTimer.schedule(refreshTask, delay);
+        log.debug("Metadata provider '{}': next refresh in {}ms", getId(), delay);
+    }
+
+    /**
+     * Builds the compact form of one version of the metadata, reusing what is unchanged from the previous
+     * version.
+     *
+     * <p>An entity is unchanged if its serialized form is identical and it sits in the same, unchanged group.
+     * Its compact form is then carried over as is, which keeps any live object already restored from it. A
+     * group is unchanged if its position, name, ID, extensions and validity are identical and its enclosing
+     * group is unchanged; its copy is then carried over, along with the node processing results attached to it.
+     * Anything else is built anew, so objects that may be in use are never modified.</p>
+     *
+     * <p>Metadata may be supplied either as a filtered object tree, or group by group and entity by entity as a
+     * {@link StreamingMetadataReader} reads it.</p>
+     */
+    private class Compactor implements StreamingMetadataReader.Handler {
+
+        /** The previously loaded metadata, or null if nothing can be reused. */
+        @Nullable private final Snapshot previous;
+
+        /** Node processing filters to apply to new group copies. */
+        @Nonnull @NonnullElements private final List<NodeProcessingMetadataFilter> nodeProcessingFilters;
+
+        /** Compacted entities by entityID. */
+        @Nonnull private final Map<String,CompactEntity> index;
+
+        /** Group copies by key. */
+        @Nonnull private final Map<String,EntitiesDescriptor> groups;
+
+        /** Copies of the groups currently open while streaming. */
+        @Nonnull private final Deque<EntitiesDescriptor> openGroups;
+
+        /** Keys of the groups currently open while streaming. */
+        @Nonnull private final Deque<String> openGroupKeys;
+
+        /** Number of entities carried over. */
+        private int reusedEntities;
+
+        /** Number of groups carried over. */
+        private int reusedGroups;
+
+        /**
+         * Constructor.
+         *
+         * @param last the previously loaded metadata, or null
+         * @param filters node processing filters to apply to new group copies and restored entities
+         */
+        Compactor(@Nullable final Snapshot last,
+                @Nonnull @NonnullElements final List<NodeProcessingMetadataFilter> filters) {
+            // Objects processed by a different set of filters cannot be reused.
+            previous = last != null && last.getNodeProcessingFilters().equals(filters) ? last : null;
+            nodeProcessingFilters = filters;
+            index = new HashMap<>();
+            groups = new HashMap<>();
+            openGroups = new ArrayDeque<>();
+            openGroupKeys = new ArrayDeque<>();
+        }
+
+        /**
+         * Add the compact form of an entity, or of the entities within a group.
+         *
+         * @param metadata the metadata to compact
+         * @param group the group copy enclosing the metadata, or null
+         * @param groupKey the key of the enclosing group, or an empty string
+         *
+         * @throws ResolverException if the metadata cannot be compacted
+         */
+        void compact(@Nonnull final XMLObject metadata, @Nullable final EntitiesDescriptor group,
+                @Nonnull final String groupKey) throws ResolverException {
+
+            if (metadata instanceof EntityDescriptor) {
+                addEntity((EntityDescriptor) metadata, group);
+            } else if (metadata instanceof EntitiesDescriptor) {
+                final EntitiesDescriptor entities = (EntitiesDescriptor) metadata;
+                final String key = getGroupKey(entities, groupKey);
+                final EntitiesDescriptor groupCopy = addGroup(entities, group, key);
+                for (final EntityDescriptor entity : entities.getEntityDescriptors()) {
+                    compact(entity, groupCopy, key);
+                }
+                for (final EntitiesDescriptor child : entities.getEntitiesDescriptors()) {
+                    compact(child, groupCopy, key);
+                }
+            } else {
+                log.warn("Metadata provider '{}': ignoring metadata of type {}", getId(),
+                        metadata.getElementQName());
+            }
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void startGroup(@Nonnull final EntitiesDescriptor group) throws ResolverException {
+            final String key = getGroupKey(group, openGroupKeys.isEmpty() ? "" : openGroupKeys.peek());
+            openGroups.push(addGroup(group, openGroups.peek(), key));
+            openGroupKeys.push(key);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void endGroup() {
+            openGroups.pop();
+            openGroupKeys.pop();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void entity(@Nonnull final EntityDescriptor entity) throws ResolverException {
+            addEntity(entity, openGroups.peek());
+        }
+
+        /**
+         * Add the compact form of an entity.
+         *
+         * @param entity the entity
+         * @param group the group copy enclosing the entity, or null
+         *
+         * @throws ResolverException if the entity cannot be compacted
+         */
+        private void addEntity(@Nonnull final EntityDescriptor entity, @Nullable final EntitiesDescriptor group)
+                throws ResolverException {
+            if (index.containsKey(entity.getEntityID())) {
+                log.warn("Metadata provider '{}': ignoring duplicate metadata for '{}'", getId(),
+                        entity.getEntityID());
+                return;
+            }
+            final byte[] data = serialize(entity);
+            final CompactEntity last = previous != null ? previous.getIndex().get(entity.getEntityID()) : null;
+            if (last != null && Arrays.equals(last.getData(), data)) {
+                if (last.getGroup() == group) {
+                    index.put(entity.getEntityID(), last);
+                    reusedEntities++;
+                } else {
+                    index.put(entity.getEntityID(), new CompactEntity(last.getData(), group));
+                }
+            } else {
+                index.put(entity.getEntityID(), new CompactEntity(data, group));
+            }
+        }
+
+        /**
+         * Add the copy of a group, without its children.
+         *
+         * @param entities the group
+         * @param group the copy of the enclosing group, or null
+         * @param key the key of the group
+         *
+         * @return the group copy
+         *
+         * @throws ResolverException if the group cannot be copied
+         */
+        @Nonnull private EntitiesDescriptor addGroup(@Nonnull final EntitiesDescriptor entities,
+                @Nullable final EntitiesDescriptor group, @Nonnull final String key) throws ResolverException {
+            EntitiesDescriptor groupCopy = previous != null ? previous.getGroups().get(key) : null;
+            if (groupCopy != null && !groups.containsKey(key) && groupCopy.getParent() == group
+                    && Objects.equals(groupCopy.getValidUntil(), entities.getValidUntil())
+                    && Objects.equals(groupCopy.getCacheDuration(), entities.getCacheDuration())) {
+                reusedGroups++;
+            } else {
+                groupCopy = copyGroup(entities, group, nodeProcessingFilters);
+            }
+            groups.put(key, groupCopy);
+            return groupCopy;
+        }
+
+        /**
+         * Get the compacted entities by entityID.
+         *
+         * @return compacted entities
+         */
+        @Nonnull Map<String,CompactEntity> getIndex() {
+            return index;
+        }
+
+        /**
+         * Get the group copies by key.
+         *
+         * @return group copies
+         */
+        @Nonnull Map<String,EntitiesDescriptor> getGroups() {
+            return groups;
+        }
+
+        /**
+         * Get the node processing filters to apply to restored entities.
+         *
+         * @return node processing filters
+         */
+        @Nonnull @NonnullElements List<NodeProcessingMetadataFilter> getNodeProcessingFilters() {
+            return nodeProcessingFilters;
+        }
+
+        /**
+         * Get the number of entities carried over.
+         *
+         * @return number of entities
+         */
+        int getReusedEntities() {
+            return reusedEntities;
+        }
+
+        /**
+         * Get the number of groups carried over.
+         *
+         * @return number of groups
+         */
+        int getReusedGroups() {
+            return reusedGroups;
+        }
+    }
+
+    /** Background task that refreshes the metadata. */
+    private class RefreshTask extends TimerTask {
+
+        /** {@inheritDoc} */
+        @Override
+        public void run() {
+            try {
+                refresh();
+            } catch (final ResolverException e) {
+                log.error("Metadata provider '{}': error refreshing metadata, continuing with previous metadata",
+                        getId(), e);
+            } catch (final RuntimeException e) {
+                log.error("Metadata provider '{}': unexpected error refreshing metadata", getId(), e);
+            }
+        }
+    }
+
+    /** A compressed, serialized entity and the copy of its enclosing group. */
+    private static final class CompactEntity {
+
+        /** The deflated document. */
+        @Nonnull private final byte[] data;
+
+        /** The copy of the enclosing group, or null. */
+        @Nullable private final EntitiesDescriptor group;
+
+        /**
+         * Constructor.
+         *
+         * @param bytes the deflated document
+         * @param parent the copy of the enclosing group, or null
+         */
+        private CompactEntity(@Nonnull final byte[] bytes, @Nullable final EntitiesDescriptor parent) {
+            data = bytes;
+            group = parent;
+        }
+
+        /**
+         * Get the deflated document.
+         *
+         * @return the deflated document
+         */
+        @Nonnull public byte[] getData() {
+            return data;
+        }
+
+        /**
+         * Get the copy of the enclosing group.
+         *
+         * @return the group copy, or null
+         */
+        @Nullable public EntitiesDescriptor getGroup() {
+            return group;
+        }
+    }
+
+    /** The compacted contents of one version of the metadata file. */
+    private static final class Snapshot {
+
+        /** Modification time of the file. */
+        private final long lastModified;
+
+        /** Time at which the metadata becomes stale, or null. */
+        @Nullable private final DateTime expiration;
+
+        /** Compacted entities by entityID. */
+        @Nonnull private final Map<String,CompactEntity> index;
+
+        /** Group copies by key. */
+        @Nonnull private final Map<String,EntitiesDescriptor> groups;
+
+        /** Node processing filters to apply to restored entities. */
+        @Nonnull @NonnullElements private final List<NodeProcessingMetadataFilter> nodeProcessingFilters;
+
+        /**
+         * Constructor.
+         *
+         * @param modified modification time of the file
+         * @param expires time at which the metadata becomes stale, or null
+         * @param entities compacted entities by entityID
+         * @param groupCopies group copies by key
+         * @param filters node processing filters to apply to restored entities
+         */
+        private Snapshot(final long modified, @Nullable final DateTime expires,
+                @Nonnull final Map<String,CompactEntity> entities,
+                @Nonnull final Map<String,EntitiesDescriptor> groupCopies,
+                @Nonnull @NonnullElements final List<NodeProcessingMetadataFilter> filters) {
+            lastModified = modified;
+            expiration = expires;
+            index = entities;
+            groups = groupCopies;
+            nodeProcessingFilters = filters;
+        }
+
+        /**
+         * Get the modification time of the file.
+         *
+         * @return modification time
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Get the time at which the metadata becomes stale.
+         *
+         * @return expiration time, or null
+         */
+        @Nullable public DateTime getExpiration() {
+            return expiration;
+        }
+
+        /**
+         * Get the compacted entities by entityID.
+         *
+         * @return compacted entities
+         */
+        @Nonnull public Map<String,CompactEntity> getIndex() {
+            return index;
+        }
+
+        /**
+         * Get the group copies by key.
+         *
+         * @return group copies
+         */
+        @Nonnull public Map<String,EntitiesDescriptor> getGroups() {
+            return groups;
+        }
+
+        /**
+         * Get the node processing filters to apply to restored entities.
+         *
+         * @return node processing filters
+         */
+        @Nonnull @NonnullElements public List<NodeProcessingMetadataFilter> getNodeProcessingFilters() {
+            return nodeProcessingFilters;
+        }
+    }
+
+}
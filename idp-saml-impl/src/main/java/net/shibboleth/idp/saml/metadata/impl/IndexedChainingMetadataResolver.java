@@ -0,0 +1,243 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.saml.metadata.impl;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
+import net.shibboleth.utilities.java.support.resolver.ResolverException;
+
+import org.joda.time.DateTime;
+import org.opensaml.core.criterion.EntityIdCriterion;
+import org.opensaml.saml.metadata.resolver.ChainingMetadataResolver;
+import org.opensaml.saml.metadata.resolver.MetadataResolver;
+import org.opensaml.saml.metadata.resolver.RefreshableMetadataResolver;
+import org.opensaml.saml.metadata.resolver.impl.AbstractDynamicMetadataResolver;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * A {@link ChainingMetadataResolver} that remembers which member resolver answered for each entityID, and
+ * which entityIDs no member could answer for.
+ *
+ * <p>Lookups by entityID go straight to the member that last supplied the entity, falling back to the usual
+ * ordered search if that member no longer has it. Only members with no dynamic member ahead of them in the chain
+ * are indexed, since a dynamic member may acquire an entity at any time and must then take precedence. Lookups
+ * that fail everywhere are remembered for a bounded time, so that repeated requests for unknown entities do not
+ * reach dynamic members each time.</p>
+ *
+ * <p>When the chain is refreshed, both indexes are discarded if the last update time of any non-dynamic member
+ * has changed, which preserves the ordering semantics of the chain across refreshes. Dynamic members are excluded
+ * from that check because they update on every fetch; entities they later acquire become visible once any
+ * negative entry for them expires. Members that reload on their own schedule are not tracked between refreshes
+ * of the chain; {@link #invalidateIndex()} discards the indexes on demand.</p>
+ *
+ * <p>The indexes are keyed on entityID alone, which matches the behavior of member resolvers that select
+ * entities only by {@link EntityIdCriterion}. Lookups without that criterion use the ordinary search.</p>
+ */
+public class IndexedChainingMetadataResolver extends ChainingMetadataResolver {
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(IndexedChainingMetadataResolver.class);
+
+    /** Maximum number of entityIDs to index. */
+    @Positive private long maxCacheSize;
+
+    /** Time to remember that an entityID could not be resolved, or 0 to disable. */
+    @Duration @NonNegative private long negativeLookupCacheDuration;
+
+    /** Member resolver that last supplied each entityID. */
+    @Nullable private Cache<String,MetadataResolver> ownerIndex;
+
+    /** EntityIDs that no member could supply. */
+    @Nullable private Cache<String,Boolean> negativeIndex;
+
+    /** Member resolvers that may be recorded in the owner index. */
+    @Nonnull @NonnullElements private final Set<MetadataResolver> indexedResolvers;
+
+    /** Summary of member update times when the indexes were last valid. */
+    private volatile long indexedGeneration;
+
+    /** Constructor. */
+    public IndexedChainingMetadataResolver() {
+        maxCacheSize = 100000;
+        negativeLookupCacheDuration = 10 * 60 * 1000;
+        indexedResolvers = Collections.newSetFromMap(new IdentityHashMap<MetadataResolver,Boolean>());
+    }
+
+    /**
+     * Set the maximum number of entityIDs to index.
+     *
+     * @param size maximum number of entries
+     */
+    public void setMaxCacheSize(@Positive final long size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        maxCacheSize = Constraint.isGreaterThan(0, size, "Maximum cache size must be greater than 0");
+    }
+
+    /**
+     * Set the time to remember that an entityID could not be resolved, or 0 to disable negative caching.
+     *
+     * @param duration time in milliseconds
+     */
+    public void setNegativeLookupCacheDuration(@Duration @NonNegative final long duration) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        negativeLookupCacheDuration = Constraint.isGreaterThanOrEqual(0, duration,
+                "Negative lookup cache duration must be greater than or equal to 0");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+
+        ownerIndex = CacheBuilder.newBuilder().maximumSize(maxCacheSize).build();
+        if (negativeLookupCacheDuration > 0) {
+            negativeIndex = CacheBuilder.newBuilder().maximumSize(maxCacheSize)
+                    .expireAfterWrite(negativeLookupCacheDuration, TimeUnit.MILLISECONDS).build();
+        }
+        for (final MetadataResolver resolver : getResolvers()) {
+            indexedResolvers.add(resolver);
+            if (resolver instanceof AbstractDynamicMetadataResolver) {
+                break;
+            }
+        }
+        indexedGeneration = computeGeneration();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void refresh() throws ResolverException {
+        try {
+            super.refresh();
+        } finally {
+            checkGeneration();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull @NonnullElements public Iterable<EntityDescriptor> resolve(@Nullable final CriteriaSet criteria)
+            throws ResolverException {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+
+        final EntityIdCriterion entityIdCriterion = criteria != null ? criteria.get(EntityIdCriterion.class) : null;
+        if (entityIdCriterion == null) {
+            return super.resolve(criteria);
+        }
+
+        final String entityID = entityIdCriterion.getEntityId();
+        if (negativeIndex != null && negativeIndex.getIfPresent(entityID) != null) {
+            log.trace("Metadata for '{}' was recently unavailable from every member resolver", entityID);
+            return Collections.emptyList();
+        }
+
+        final MetadataResolver owner = ownerIndex.getIfPresent(entityID);
+        if (owner != null) {
+            try {
+                final Iterable<EntityDescriptor> descriptors = owner.resolve(criteria);
+                if (descriptors != null && descriptors.iterator().hasNext()) {
+                    return descriptors;
+                }
+            } catch (final ResolverException e) {
+                log.warn("Error retrieving metadata from indexed resolver of type {}, searching all resolvers",
+                        owner.getClass().getName(), e);
+            }
+            ownerIndex.invalidate(entityID);
+        }
+
+        boolean failed = false;
+        for (final MetadataResolver resolver : getResolvers()) {
+            try {
+                final Iterable<EntityDescriptor> descriptors = resolver.resolve(criteria);
+                if (descriptors != null && descriptors.iterator().hasNext()) {
+                    if (indexedResolvers.contains(resolver)) {
+                        ownerIndex.put(entityID, resolver);
+                    }
+                    return descriptors;
+                }
+            } catch (final ResolverException e) {
+                log.warn("Error retrieving metadata from resolver of type {}, proceeding to next resolver",
+                        resolver.getClass().getName(), e);
+                failed = true;
+            }
+        }
+
+        if (negativeIndex != null && !failed) {
+            negativeIndex.put(entityID, Boolean.TRUE);
+        }
+        return Collections.emptyList();
+    }
+
+    /** Discard both indexes. */
+    public void invalidateIndex() {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+
+        ownerIndex.invalidateAll();
+        if (negativeIndex != null) {
+            negativeIndex.invalidateAll();
+        }
+    }
+
+    /** Discard the indexes if any non-dynamic member has been updated since they were built. */
+    private void checkGeneration() {
+        final long generation = computeGeneration();
+        if (generation != indexedGeneration) {
+            log.debug("Member resolver update detected, discarding entityID index");
+            invalidateIndex();
+            indexedGeneration = generation;
+        }
+    }
+
+    /**
+     * Summarize the last update times of the non-dynamic member resolvers.
+     *
+     * @return a value that changes when any of those members is updated
+     */
+    private long computeGeneration() {
+        long generation = 1;
+        for (final MetadataResolver resolver : getResolvers()) {
+            if (resolver instanceof RefreshableMetadataResolver
+                    && !(resolver instanceof AbstractDynamicMetadataResolver)) {
+                final DateTime lastUpdate = ((RefreshableMetadataResolver) resolver).getLastUpdate();
+                generation = 31 * generation + (lastUpdate != null ? lastUpdate.getMillis() : 0);
+            }
+        }
+        return generation;
+    }
+
+}
@@ -0,0 +1,455 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.saml.metadata.impl;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+
+/**
+ * Writes the exclusive XML canonicalization (without comments) of a sequence of StAX events.
+ *
+ * <p>The caller supplies start tags, end tags, character data and processing instructions for an element and
+ * its descendants, omitting comments and any content excluded by other transforms. Namespace declarations are
+ * rendered where they are visibly utilized, or listed in the inclusive namespace prefix list, and not already
+ * rendered by an output ancestor. Namespace declarations and attributes are sorted, and character data is
+ * escaped, as the canonicalization rules require.</p>
+ */
+final class StreamingExclusiveCanonicalizer {
+
+    /** Prefix list token for the default namespace. */
+    private static final String DEFAULT_PREFIX_TOKEN = "#default";
+
+    /**
+     * Orders strings by Unicode code point, as canonicalization requires, rather than by UTF-16 code unit as
+     * {@link String#compareTo(String)} does.
+     */
+    private static final Comparator<String> CODE_POINT_ORDER = new Comparator<String>() {
+        public int compare(final String s1, final String s2) {
+            int i1 = 0;
+            int i2 = 0;
+            while (i1 < s1.length() && i2 < s2.length()) {
+                final int c1 = s1.codePointAt(i1);
+                final int c2 = s2.codePointAt(i2);
+                if (c1 != c2) {
+                    return c1 < c2 ? -1 : 1;
+                }
+                i1 += Character.charCount(c1);
+                i2 += Character.charCount(c2);
+            }
+            if (i1 < s1.length()) {
+                return 1;
+            }
+            return i2 < s2.length() ? -1 : 0;
+        }
+    };
+
+    /** Orders attributes by namespace URI and then local name. */
+    private static final Comparator<StartTag.Attribute> ATTRIBUTE_ORDER = new Comparator<StartTag.Attribute>() {
+        public int compare(final StartTag.Attribute a1, final StartTag.Attribute a2) {
+            final int result = CODE_POINT_ORDER.compare(a1.getNamespaceURI(), a2.getNamespaceURI());
+            return result != 0 ? result : CODE_POINT_ORDER.compare(a1.getLocalName(), a2.getLocalName());
+        }
+    };
+
+    /** Output. */
+    @Nonnull private final Writer writer;
+
+    /** Prefixes to treat as in the inclusive namespace prefix list, with the default namespace as "". */
+    @Nonnull @NonnullElements private final Set<String> inclusivePrefixes;
+
+    /** Namespace declarations rendered by each open output element. */
+    @Nonnull private final Deque<Map<String,String>> rendered;
+
+    /**
+     * Constructor.
+     *
+     * @param out stream to write the UTF-8 encoded canonical form to
+     * @param prefixes the inclusive namespace prefix list
+     */
+    StreamingExclusiveCanonicalizer(@Nonnull final OutputStream out,
+            @Nonnull @NonnullElements final Set<String> prefixes) {
+        writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        inclusivePrefixes = new HashSet<>();
+        for (final String prefix : prefixes) {
+            inclusivePrefixes.add(DEFAULT_PREFIX_TOKEN.equals(prefix) ? "" : prefix);
+        }
+        rendered = new ArrayDeque<>();
+        rendered.push(Collections.<String,String>emptyMap());
+    }
+
+    /**
+     * Write a start tag.
+     *
+     * @param tag the start tag
+     *
+     * @throws IOException if the output cannot be written
+     */
+    void startElement(@Nonnull final StartTag tag) throws IOException {
+        final Map<String,String> parent = rendered.peek();
+
+        final Map<String,String> utilized = new TreeMap<>(CODE_POINT_ORDER);
+        utilized.put(tag.getPrefix(), tag.getNamespaceURI());
+        for (final StartTag.Attribute attribute : tag.getAttributes()) {
+            if (!attribute.getPrefix().isEmpty()) {
+                utilized.put(attribute.getPrefix(), attribute.getNamespaceURI());
+            }
+        }
+        for (final String prefix : inclusivePrefixes) {
+            final String namespaceURI = tag.getNamespaces().get(prefix);
+            if (namespaceURI != null) {
+                utilized.put(prefix, namespaceURI);
+            }
+        }
+        utilized.remove(XMLConstants.XML_NS_PREFIX);
+
+        writer.write('<');
+        writer.write(tag.getQualifiedName());
+
+        Map<String,String> current = parent;
+        for (final Map.Entry<String,String> entry : utilized.entrySet()) {
+            final String prefix = entry.getKey();
+            final String namespaceURI = entry.getValue();
+            String previous = parent.get(prefix);
+            if (previous == null && prefix.isEmpty()) {
+                previous = "";
+            }
+            if (!namespaceURI.equals(previous)) {
+                if (current == parent) {
+                    current = new HashMap<>(parent);
+                }
+                current.put(prefix, namespaceURI);
+                writer.write(prefix.isEmpty() ? " xmlns=\"" : " xmlns:" + prefix + "=\"");
+                writeEscapedAttribute(namespaceURI);
+                writer.write('"');
+            }
+        }
+
+        final List<StartTag.Attribute> attributes = new ArrayList<>(tag.getAttributes());
+        Collections.sort(attributes, ATTRIBUTE_ORDER);
+        for (final StartTag.Attribute attribute : attributes) {
+            writer.write(' ');
+            writer.write(attribute.getQualifiedName());
+            writer.write("=\"");
+            writeEscapedAttribute(attribute.getValue());
+            writer.write('"');
+        }
+        writer.write('>');
+
+        rendered.push(current);
+    }
+
+    /**
+     * Write an end tag.
+     *
+     * @param qualifiedName the qualified name of the element
+     *
+     * @throws IOException if the output cannot be written
+     */
+    void endElement(@Nonnull final String qualifiedName) throws IOException {
+        writer.write("</");
+        writer.write(qualifiedName);
+        writer.write('>');
+        rendered.pop();
+    }
+
+    /**
+     * Write character data.
+     *
+     * @param text the character data
+     *
+     * @throws IOException if the output cannot be written
+     */
+    void characters(@Nonnull final String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            switch (c) {
+                case '&':
+                    writer.write("&amp;");
+                    break;
+                case '<':
+                    writer.write("&lt;");
+                    break;
+                case '>':
+                    writer.write("&gt;");
+                    break;
+                case '\r':
+                    writer.write("&#xD;");
+                    break;
+                default:
+                    writer.write(c);
+            }
+        }
+    }
+
+    /**
+     * Write a processing instruction.
+     *
+     * @param target the target
+     * @param data the data, or null
+     *
+     * @throws IOException if the output cannot be written
+     */
+    void processingInstruction(@Nonnull final String target, @Nullable final String data) throws IOException {
+        writer.write("<?");
+        writer.write(target);
+        if (data != null && !data.isEmpty()) {
+            writer.write(' ');
+            writer.write(data);
+        }
+        writer.write("?>");
+    }
+
+    /**
+     * Flush buffered output to the underlying stream.
+     *
+     * @throws IOException if the output cannot be written
+     */
+    void flush() throws IOException {
+        writer.flush();
+    }
+
+    /**
+     * Write an attribute value with the escaping that canonicalization requires.
+     *
+     * @param value the value
+     *
+     * @throws IOException if the output cannot be written
+     */
+    private void writeEscapedAttribute(@Nonnull final String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    writer.write("&amp;");
+                    break;
+                case '<':
+                    writer.write("&lt;");
+                    break;
+                case '"':
+                    writer.write("&quot;");
+                    break;
+                case '\t':
+                    writer.write("&#x9;");
+                    break;
+                case '\n':
+                    writer.write("&#xA;");
+                    break;
+                case '\r':
+                    writer.write("&#xD;");
+                    break;
+                default:
+                    writer.write(c);
+            }
+        }
+    }
+
+    /** The parts of a start tag needed to canonicalize it. */
+    static final class StartTag {
+
+        /** Element prefix, or "". */
+        @Nonnull private final String prefix;
+
+        /** Element namespace URI, or "". */
+        @Nonnull private final String namespaceURI;
+
+        /** Element local name. */
+        @Nonnull private final String localName;
+
+        /** Attributes, excluding namespace declarations. */
+        @Nonnull @NonnullElements private final List<Attribute> attributes;
+
+        /** Namespaces in scope, by prefix with the default namespace as "". */
+        @Nonnull private final Map<String,String> namespaces;
+
+        /**
+         * Constructor.
+         *
+         * @param reader a reader positioned on a start element
+         * @param inScope namespaces in scope on the element
+         */
+        StartTag(@Nonnull final XMLStreamReader reader, @Nonnull final Map<String,String> inScope) {
+            prefix = nullToEmpty(reader.getPrefix());
+            namespaceURI = nullToEmpty(reader.getNamespaceURI());
+            localName = reader.getLocalName();
+            final int count = reader.getAttributeCount();
+            attributes = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                attributes.add(new Attribute(nullToEmpty(reader.getAttributePrefix(i)),
+                        nullToEmpty(reader.getAttributeNamespace(i)), reader.getAttributeLocalName(i),
+                        reader.getAttributeValue(i)));
+            }
+            namespaces = inScope;
+        }
+
+        /**
+         * Get the element prefix.
+         *
+         * @return the prefix, or ""
+         */
+        @Nonnull String getPrefix() {
+            return prefix;
+        }
+
+        /**
+         * Get the element namespace URI.
+         *
+         * @return the namespace URI, or ""
+         */
+        @Nonnull String getNamespaceURI() {
+            return namespaceURI;
+        }
+
+        /**
+         * Get the qualified name of the element.
+         *
+         * @return the qualified name
+         */
+        @Nonnull String getQualifiedName() {
+            return prefix.isEmpty() ? localName : prefix + ':' + localName;
+        }
+
+        /**
+         * Get the attributes, excluding namespace declarations.
+         *
+         * @return the attributes
+         */
+        @Nonnull @NonnullElements List<Attribute> getAttributes() {
+            return attributes;
+        }
+
+        /**
+         * Get the namespaces in scope on the element.
+         *
+         * @return namespace URIs by prefix, with the default namespace as ""
+         */
+        @Nonnull Map<String,String> getNamespaces() {
+            return namespaces;
+        }
+
+        /**
+         * Convert a null string to "".
+         *
+         * @param value the string
+         *
+         * @return the string, or ""
+         */
+        @Nonnull private static String nullToEmpty(@Nullable final String value) {
+            return value != null ? value : "";
+        }
+
+        /** An attribute of a start tag. */
+        static final class Attribute {
+
+            /** Prefix, or "". */
+            @Nonnull private final String prefix;
+
+            /** Namespace URI, or "". */
+            @Nonnull private final String namespaceURI;
+
+            /** Local name. */
+            @Nonnull private final String localName;
+
+            /** Normalized value. */
+            @Nonnull private final String value;
+
+            /**
+             * Constructor.
+             *
+             * @param attributePrefix prefix, or ""
+             * @param attributeNamespaceURI namespace URI, or ""
+             * @param attributeLocalName local name
+             * @param attributeValue normalized value
+             */
+            Attribute(@Nonnull final String attributePrefix, @Nonnull final String attributeNamespaceURI,
+                    @Nonnull final String attributeLocalName, @Nonnull final String attributeValue) {
+                prefix = attributePrefix;
+                namespaceURI = attributeNamespaceURI;
+                localName = attributeLocalName;
+                value = attributeValue;
+            }
+
+            /**
+             * Get the prefix.
+             *
+             * @return the prefix, or ""
+             */
+            @Nonnull String getPrefix() {
+                return prefix;
+            }
+
+            /**
+             * Get the namespace URI.
+             *
+             * @return the namespace URI, or ""
+             */
+            @Nonnull String getNamespaceURI() {
+                return namespaceURI;
+            }
+
+            /**
+             * Get the local name.
+             *
+             * @return the local name
+             */
+            @Nonnull String getLocalName() {
+                return localName;
+            }
+
+            /**
+             * Get the qualified name.
+             *
+             * @return the qualified name
+             */
+            @Nonnull String getQualifiedName() {
+                return prefix.isEmpty() ? localName : prefix + ':' + localName;
+            }
+
+            /**
+             * Get the normalized value.
+             *
+             * @return the value
+             */
+            @Nonnull String getValue() {
+                return value;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,758 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.saml.metadata.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.resolver.ResolverException;
+import net.shibboleth.utilities.java.support.xml.ParserPool;
+import net.shibboleth.utilities.java.support.xml.XMLParserException;
+
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.io.Unmarshaller;
+import org.opensaml.core.xml.io.UnmarshallingException;
+import org.opensaml.saml.metadata.resolver.filter.FilterException;
+import org.opensaml.saml.metadata.resolver.filter.MetadataFilter;
+import org.opensaml.saml.saml2.metadata.EntitiesDescriptor;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml.saml2.metadata.Extensions;
+import org.opensaml.xmlsec.signature.Signature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * Reads a metadata aggregate one entity at a time, checking the signature on its root as it goes.
+ *
+ * <p>The document is read with StAX, in two passes. The first pass builds nothing but the root signature; if the
+ * root is signed, every event within the root other than those of the signature itself is canonicalized and
+ * digested as it is read, and the signature is verified once the root ends. A deflated copy of the document is
+ * kept as it is read, and the second pass reads that copy, so it sees exactly what was verified. Only then are
+ * the start tag and extensions of each {@link EntitiesDescriptor}, and one {@link EntityDescriptor} at a time,
+ * built as DOM and unmarshalled; each entity is checked and filtered on its own and passed to a {@link Handler}.
+ * No filter or handler is therefore ever given content whose root signature has not been verified.</p>
+ *
+ * <p>DTDs, processing instructions outside the document element, and signatures on anything but the root
+ * and individual entities are rejected. Each instance reads a single document.</p>
+ */
+final class StreamingMetadataReader {
+
+    /** Name of the signature element. */
+    @Nonnull private static final QName SIGNATURE_NAME = Signature.DEFAULT_ELEMENT_NAME;
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(StreamingMetadataReader.class);
+
+    /** Pool of parsers used to obtain documents. */
+    @Nonnull private final ParserPool parserPool;
+
+    /** Filter used to check signatures. */
+    @Nonnull private final StreamingSignatureValidationFilter signatureFilter;
+
+    /** Filters to apply to each entity once its signature has been checked. */
+    @Nonnull @NonnullElements private final List<MetadataFilter> entityFilters;
+
+    /** Factory for stream readers. */
+    @Nonnull private final XMLInputFactory inputFactory;
+
+    /** Namespaces in scope on each open element. */
+    @Nonnull private final Deque<Map<String,String>> namespaces;
+
+    /** Reader over the document, in the current pass. */
+    @Nullable private XMLStreamReader reader;
+
+    /** Canonicalizer fed the root element, once its signature has been read. */
+    @Nullable private StreamingExclusiveCanonicalizer canonicalizer;
+
+    /** The signature on the root, once read. */
+    @Nullable private StreamingSignatureValidationFilter.RootSignature rootSignature;
+
+    /**
+     * Constructor.
+     *
+     * @param pool pool of parsers used to obtain documents
+     * @param filter filter used to check signatures
+     * @param filters filters to apply to each entity once its signature has been checked
+     */
+    StreamingMetadataReader(@Nonnull final ParserPool pool, @Nonnull final StreamingSignatureValidationFilter filter,
+            @Nonnull @NonnullElements final List<MetadataFilter> filters) {
+        parserPool = Constraint.isNotNull(pool, "ParserPool cannot be null");
+        signatureFilter = Constraint.isNotNull(filter, "Signature filter cannot be null");
+        entityFilters = Constraint.isNotNull(filters, "Entity filter list cannot be null");
+
+        inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        namespaces = new ArrayDeque<>();
+    }
+
+    /**
+     * Read a document, passing its groups and entities to a handler.
+     *
+     * @param in the document
+     * @param handler the handler
+     *
+     * @return the root group, without its children, or null if the root is not an {@link EntitiesDescriptor},
+     *          in which case nothing has been passed to the handler
+     *
+     * @throws ResolverException if the document cannot be read, or is not acceptable
+     */
+    @Nullable EntitiesDescriptor read(@Nonnull final InputStream in, @Nonnull final Handler handler)
+            throws ResolverException {
+        Constraint.isNull(reader, "A StreamingMetadataReader can only read one document");
+
+        try {
+            final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+            try (final OutputStream deflater = new DeflaterOutputStream(copy)) {
+                if (!verify(new CopyingInputStream(in, deflater))) {
+                    return null;
+                }
+            }
+
+            try (final InputStream verified = new InflaterInputStream(new ByteArrayInputStream(copy.toByteArray()))) {
+                return readVerified(verified, handler);
+            }
+        } catch (final XMLStreamException | IOException e) {
+            throw new ResolverException("Unable to read metadata", e);
+        }
+    }
+
+    /**
+     * Read a document in full, checking its structure and verifying the signature on its root.
+     *
+     * @param in the document
+     *
+     * @return true, or false if the root is not an {@link EntitiesDescriptor}
+     *
+     * @throws XMLStreamException if the document cannot be read
+     * @throws IOException if the canonical form cannot be written
+     * @throws ResolverException if the document is not acceptable
+     */
+    private boolean verify(@Nonnull final InputStream in) throws XMLStreamException, IOException, ResolverException {
+        reader = inputFactory.createXMLStreamReader(in);
+        try {
+            if (!startDocument()) {
+                return false;
+            }
+            readGroup(null, null, true);
+            endDocument();
+        } finally {
+            reader.close();
+        }
+
+        if (rootSignature != null) {
+            canonicalizer.flush();
+            signatureFilter.verifyRootSignature(rootSignature);
+            canonicalizer = null;
+            rootSignature = null;
+        }
+        return true;
+    }
+
+    /**
+     * Read a document that has been verified, passing its groups and entities to a handler.
+     *
+     * @param in the document
+     * @param handler the handler
+     *
+     * @return the root group, without its children
+     *
+     * @throws XMLStreamException if the document cannot be read
+     * @throws IOException if the document cannot be read
+     * @throws ResolverException if the document is not acceptable
+     */
+    @Nonnull private EntitiesDescriptor readVerified(@Nonnull final InputStream in, @Nonnull final Handler handler)
+            throws XMLStreamException, IOException, ResolverException {
+        namespaces.clear();
+        reader = inputFactory.createXMLStreamReader(in);
+        try {
+            if (!startDocument()) {
+                throw new ResolverException("Metadata document changed while it was read");
+            }
+            final EntitiesDescriptor root = readGroup(null, handler, true);
+            endDocument();
+            return root;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Advance to the document element.
+     *
+     * @return whether the document element is an {@link EntitiesDescriptor}
+     *
+     * @throws XMLStreamException if the document cannot be read
+     * @throws IOException if the canonical form cannot be written
+     * @throws ResolverException if the document is not acceptable
+     */
+    private boolean startDocument() throws XMLStreamException, IOException, ResolverException {
+        int event;
+        do {
+            event = next();
+        } while (event != XMLStreamConstants.START_ELEMENT && event != XMLStreamConstants.END_DOCUMENT);
+        if (event != XMLStreamConstants.START_ELEMENT) {
+            throw new ResolverException("Metadata document has no document element");
+        }
+        return EntitiesDescriptor.DEFAULT_ELEMENT_NAME.equals(reader.getName());
+    }
+
+    /**
+     * Read what follows the document element.
+     *
+     * @throws XMLStreamException if the document cannot be read
+     * @throws IOException if the canonical form cannot be written
+     * @throws ResolverException if the document is not acceptable
+     */
+    private void endDocument() throws XMLStreamException, IOException, ResolverException {
+        while (next() != XMLStreamConstants.END_DOCUMENT) {
+            // Only to reject content after the document element.
+        }
+    }
+
+    /**
+     * Read a group whose start tag is the current event.
+     *
+     * <p>Without a handler, the root signature is read and nothing else is built; with one, the root signature
+     * is assumed to have been verified already, and is skipped.</p>
+     *
+     * @param parent the enclosing group, or null
+     * @param handler the handler, or null when verifying
+     * @param root whether the group is the document element
+     *
+     * @return the group, without its children, or null when verifying
+     *
+     * @throws XMLStreamException if the document cannot be read
+     * @throws IOException if the canonical form cannot be written
+     * @throws ResolverException if the group is not acceptable
+     */
+    @Nullable private EntitiesDescriptor readGroup(@Nullable final EntitiesDescriptor parent,
+            @Nullable final Handler handler, final boolean root)
+                    throws XMLStreamException, IOException, ResolverException {
+        final boolean verifying = handler == null;
+        final Document document = verifying ? null : newDocument();
+        final Element groupElement = verifying ? null : createElement(document, true);
+        if (!verifying) {
+            document.appendChild(groupElement);
+        }
+
+        final StreamingExclusiveCanonicalizer.StartTag rootTag =
+                root && verifying ? new StreamingExclusiveCanonicalizer.StartTag(reader, namespaces.peek()) : null;
+        final String rootID = root ? reader.getAttributeValue(null, "ID") : null;
+        final StringBuilder leadingText = new StringBuilder();
+        boolean firstChild = true;
+        EntitiesDescriptor group = null;
+
+        while (true) {
+            final int event = next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                final QName name = reader.getName();
+                if (SIGNATURE_NAME.equals(name)) {
+                    if (!root || !firstChild) {
+                        throw new ResolverException("Streamed metadata may only be signed on its root and entities");
+                    }
+                    if (verifying) {
+                        readRootSignature(rootTag, rootID, leadingText.toString());
+                    } else {
+                        skipElement();
+                    }
+                } else {
+                    if (root && firstChild && signatureFilter.getRequireSignedRoot()) {
+                        throw new ResolverException("Metadata root element was unsigned and signatures are required");
+                    }
+                    if (verifying) {
+                        skipElement();
+                    } else if (group == null && Extensions.DEFAULT_ELEMENT_NAME.equals(name)) {
+                        buildElement(document, groupElement, false);
+                    } else if (EntityDescriptor.DEFAULT_ELEMENT_NAME.equals(name)) {
+                        group = group != null ? group : startGroup(groupElement, parent, handler);
+                        readEntity(group, handler);
+                    } else if (EntitiesDescriptor.DEFAULT_ELEMENT_NAME.equals(name)) {
+                        group = group != null ? group : startGroup(groupElement, parent, handler);
+                        readGroup(group, handler, false);
+                    } else {
+                        skipElement();
+                    }
+                }
+                firstChild = false;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if (root && firstChild && signatureFilter.getRequireSignedRoot()) {
+                    throw new ResolverException("Metadata root element was unsigned and signatures are required");
+                }
+                if (verifying) {
+                    return null;
+                }
+                group = group != null ? group : startGroup(groupElement, parent, handler);
+                handler.endGroup();
+                return group;
+            } else if (root && firstChild && verifying && isText(event)) {
+                leadingText.append(reader.getText());
+            }
+        }
+    }
+
+    /**
+     * Read the signature on the root, whose start tag is the current event, and begin canonicalizing the root.
+     *
+     * @param rootTag the start tag of the root
+     * @param rootID the ID of the root, or null
+     * @param leadingText character data between the root start tag and the signature
+     *
+     * @throws XMLStreamException if the document cannot be read
+     * @throws IOException if the canonical form cannot be written
+     * @throws ResolverException if the signature is not acceptable
+     */
+    private void readRootSignature(@Nonnull final StreamingExclusiveCanonicalizer.StartTag rootTag,
+            @Nullable final String rootID, @Nonnull final String leadingText)
+                    throws XMLStreamException, IOException, ResolverException {
+        final Element signature = buildElement(newDocument(), null, true);
+        rootSignature = signatureFilter.parseRootSignature(signature, rootID);
+
+        canonicalizer = new StreamingExclusiveCanonicalizer(
+                new DigestOutputStream(ByteStreams.nullOutputStream(), rootSignature.getDigest()),
+                rootSignature.getInclusivePrefixes());
+        canonicalizer.startElement(rootTag);
+        canonicalizer.characters(leadingText);
+    }
+
+    /**
+     * Read an entity whose start tag is the current event, check and filter it, and pass it to the handler.
+     *
+     * @param group the enclosing group
+     * @param handler the handler
+     *
+     * @throws XMLStreamException if the document cannot be read
+     * @throws IOException if the canonical form cannot be written
+     * @throws ResolverException if the entity cannot be processed
+     */
+    private void readEntity(@Nonnull final EntitiesDescriptor group, @Nonnull final Handler handler)
+            throws XMLStreamException, IOException, ResolverException {
+        final EntityDescriptor entity = (EntityDescriptor) unmarshall(buildElement(newDocument(), null, true));
+        entity.setParent(group);
+
+        XMLObject filtered;
+        try {
+            filtered = signatureFilter.filterEntity(entity);
+        } catch (final FilterException e) {
+            log.warn("Removing metadata for '{}', its signature could not be verified", entity.getEntityID(), e);
+            return;
+        }
+
+        for (final MetadataFilter filter : entityFilters) {
+            if (filtered == null) {
+                break;
+            }
+            try {
+                filtered = filter.filter(filtered);
+            } catch (final FilterException e) {
+                throw new ResolverException("Error filtering metadata for " + entity.getEntityID(), e);
+            }
+        }
+
+        if (filtered instanceof EntityDescriptor) {
+            handler.entity((EntityDescriptor) filtered);
+        } else {
+            log.debug("Metadata for '{}' was removed by a filter", entity.getEntityID());
+        }
+    }
+
+    /**
+     * Unmarshall the start tag and extensions of a group and pass the group to the handler.
+     *
+     * @param groupElement the group element
+     * @param parent the enclosing group, or null
+     * @param handler the handler
+     *
+     * @return the group
+     *
+     * @throws ResolverException if the group cannot be processed
+     */
+    @Nonnull private EntitiesDescriptor startGroup(@Nonnull final Element groupElement,
+            @Nullable final EntitiesDescriptor parent, @Nonnull final Handler handler) throws ResolverException {
+        final EntitiesDescriptor group = (EntitiesDescriptor) unmarshall(groupElement);
+        group.setParent(parent);
+        handler.startGroup(group);
+        return group;
+    }
+
+    /**
+     * Build the element whose start tag is the current event, and its content, as DOM.
+     *
+     * @param document the document to build the element in
+     * @param parent the node to append the element to, or null to make it the document element
+     * @param declareInScope whether to declare every namespace in scope on the element, or only those the
+     *          start tag itself declares
+     *
+     * @return the element
+     *
+     * @throws XMLStreamException if the document cannot be read
+     * @throws IOException if the canonical form cannot be written
+     * @throws ResolverException if the document contains unacceptable content
+     */
+    @Nonnull private Element buildElement(@Nonnull final Document document, @Nullable final Node parent,
+            final boolean declareInScope) throws XMLStreamException, IOException, ResolverException {
+        final Element element = createElement(document, declareInScope);
+        if (parent != null) {
+            parent.appendChild(element);
+        } else {
+            document.appendChild(element);
+        }
+
+        while (true) {
+            final int event = next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                buildElement(document, element, false);
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                return element;
+            } else if (isText(event)) {
+                element.appendChild(document.createTextNode(reader.getText()));
+            }
+        }
+    }
+
+    /**
+     * Create an element, with its attributes and namespace declarations, from the current start tag.
+     *
+     * @param document the document to create the element in
+     * @param declareInScope whether to declare every namespace in scope on the element
+     *
+     * @return the element
+     */
+    @Nonnull private Element createElement(@Nonnull final Document document, final boolean declareInScope) {
+        final Element element = document.createElementNS(emptyToNull(reader.getNamespaceURI()),
+                qualifiedName(reader.getPrefix(), reader.getLocalName()));
+
+        if (declareInScope) {
+            for (final Map.Entry<String,String> entry : namespaces.peek().entrySet()) {
+                if (!entry.getValue().isEmpty()) {
+                    declareNamespace(element, entry.getKey(), entry.getValue());
+                }
+            }
+        } else {
+            for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                declareNamespace(element, nullToEmpty(reader.getNamespacePrefix(i)),
+                        nullToEmpty(reader.getNamespaceURI(i)));
+            }
+        }
+
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            element.setAttributeNS(emptyToNull(reader.getAttributeNamespace(i)),
+                    qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)),
+                    reader.getAttributeValue(i));
+        }
+        return element;
+    }
+
+    /**
+     * Skip the element whose start tag is the current event.
+     *
+     * @throws XMLStreamException if the document cannot be read
+     * @throws IOException if the canonical form cannot be written
+     * @throws ResolverException if the document contains unacceptable content
+     */
+    private void skipElement() throws XMLStreamException, IOException, ResolverException {
+        final int depth = namespaces.size();
+        while (namespaces.size() >= depth) {
+            next();
+        }
+    }
+
+    /**
+     * Advance to the next event, tracking namespaces in scope and feeding the canonicalizer.
+     *
+     * @return the event type
+     *
+     * @throws XMLStreamException if the document cannot be read
+     * @throws IOException if the canonical form cannot be written
+     * @throws ResolverException if the document contains unacceptable content
+     */
+    private int next() throws XMLStreamException, IOException, ResolverException {
+        final int event = reader.next();
+        switch (event) {
+            case XMLStreamConstants.START_ELEMENT:
+                pushNamespaces();
+                if (canonicalizer != null) {
+                    canonicalizer.startElement(new StreamingExclusiveCanonicalizer.StartTag(reader,
+                            namespaces.peek()));
+                }
+                break;
+
+            case XMLStreamConstants.END_ELEMENT:
+                if (canonicalizer != null) {
+                    canonicalizer.endElement(qualifiedName(reader.getPrefix(), reader.getLocalName()));
+                }
+                namespaces.pop();
+                break;
+
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+                if (canonicalizer != null && !namespaces.isEmpty()) {
+                    canonicalizer.characters(reader.getText());
+                }
+                break;
+
+            case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                if (namespaces.isEmpty()) {
+                    throw new ResolverException("Processing instructions outside the document element are not "
+                            + "supported in streamed metadata");
+                }
+                if (canonicalizer != null) {
+                    canonicalizer.processingInstruction(reader.getPITarget(), reader.getPIData());
+                }
+                break;
+
+            case XMLStreamConstants.DTD:
+            case XMLStreamConstants.ENTITY_REFERENCE:
+            case XMLStreamConstants.ENTITY_DECLARATION:
+            case XMLStreamConstants.NOTATION_DECLARATION:
+                throw new ResolverException("DTDs are not supported in streamed metadata");
+
+            default:
+                break;
+        }
+        return event;
+    }
+
+    /** Record the namespaces in scope on the current start tag. */
+    private void pushNamespaces() {
+        final Map<String,String> parent =
+                namespaces.isEmpty() ? Collections.<String,String>emptyMap() : namespaces.peek();
+        final int count = reader.getNamespaceCount();
+        if (count == 0) {
+            namespaces.push(parent);
+            return;
+        }
+
+        final Map<String,String> scope = new HashMap<>(parent);
+        for (int i = 0; i < count; i++) {
+            scope.put(nullToEmpty(reader.getNamespacePrefix(i)), nullToEmpty(reader.getNamespaceURI(i)));
+        }
+        namespaces.push(scope);
+    }
+
+    /**
+     * Obtain a new document.
+     *
+     * @return the document
+     *
+     * @throws ResolverException if no document can be obtained
+     */
+    @Nonnull private Document newDocument() throws ResolverException {
+        try {
+            return parserPool.newDocument();
+        } catch (final XMLParserException e) {
+            throw new ResolverException("Unable to obtain a new document", e);
+        }
+    }
+
+    /**
+     * Unmarshall an element.
+     *
+     * @param element the element
+     *
+     * @return the unmarshalled object
+     *
+     * @throws ResolverException if the element cannot be unmarshalled
+     */
+    @Nonnull private XMLObject unmarshall(@Nonnull final Element element) throws ResolverException {
+        final Unmarshaller unmarshaller =
+                XMLObjectProviderRegistrySupport.getUnmarshallerFactory().getUnmarshaller(element);
+        if (unmarshaller == null) {
+            throw new ResolverException("No unmarshaller for element " + element.getTagName());
+        }
+        try {
+            return unmarshaller.unmarshall(element);
+        } catch (final UnmarshallingException e) {
+            throw new ResolverException("Unable to unmarshall element " + element.getTagName(), e);
+        }
+    }
+
+    /**
+     * Declare a namespace on an element.
+     *
+     * @param element the element
+     * @param prefix the prefix, or "" for the default namespace
+     * @param namespaceURI the namespace URI
+     */
+    private static void declareNamespace(@Nonnull final Element element, @Nonnull final String prefix,
+            @Nonnull final String namespaceURI) {
+        if (XMLConstants.XML_NS_PREFIX.equals(prefix)) {
+            return;
+        }
+        element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                prefix.isEmpty() ? XMLConstants.XMLNS_ATTRIBUTE : XMLConstants.XMLNS_ATTRIBUTE + ':' + prefix,
+                namespaceURI);
+    }
+
+    /**
+     * Check whether an event is character data.
+     *
+     * @param event the event type
+     *
+     * @return whether the event is character data
+     */
+    private static boolean isText(final int event) {
+        return event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+                || event == XMLStreamConstants.SPACE;
+    }
+
+    /**
+     * Build a qualified name.
+     *
+     * @param prefix the prefix, or null or "" if none
+     * @param localName the local name
+     *
+     * @return the qualified name
+     */
+    @Nonnull private static String qualifiedName(@Nullable final String prefix, @Nonnull final String localName) {
+        return prefix == null || prefix.isEmpty() ? localName : prefix + ':' + localName;
+    }
+
+    /**
+     * Convert a null string to "".
+     *
+     * @param value the string
+     *
+     * @return the string, or ""
+     */
+    @Nonnull private static String nullToEmpty(@Nullable final String value) {
+        return value != null ? value : "";
+    }
+
+    /**
+     * Convert "" to null.
+     *
+     * @param value the string
+     *
+     * @return the string, or null
+     */
+    @Nullable private static String emptyToNull(@Nullable final String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    /** Writes everything read from a stream to another stream. */
+    private static final class CopyingInputStream extends FilterInputStream {
+
+        /** Stream to copy to. */
+        @Nonnull private final OutputStream copy;
+
+        /**
+         * Constructor.
+         *
+         * @param in the stream to read
+         * @param out the stream to copy to
+         */
+        CopyingInputStream(@Nonnull final InputStream in, @Nonnull final OutputStream out) {
+            super(in);
+            copy = out;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b >= 0) {
+                copy.write(b);
+            }
+            return b;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int count = super.read(b, off, len);
+            if (count > 0) {
+                copy.write(b, off, count);
+            }
+            return count;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public long skip(final long n) throws IOException {
+            final byte[] buffer = new byte[(int) Math.min(n, 8192)];
+            final int count = read(buffer, 0, buffer.length);
+            return count > 0 ? count : 0;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    /** Receives the groups and entities of a document as they are read. */
+    interface Handler {
+
+        /**
+         * Called when a group begins, before any of its entities or nested groups.
+         *
+         * @param group the group, without its children
+         *
+         * @throws ResolverException if the group cannot be handled
+         */
+        void startGroup(@Nonnull final EntitiesDescriptor group) throws ResolverException;
+
+        /** Called when the most recently started group ends. */
+        void endGroup();
+
+        /**
+         * Called for each entity that passes its checks and filters.
+         *
+         * @param entity the entity, whose parent is its enclosing group
+         *
+         * @throws ResolverException if the entity cannot be handled
+         */
+        void entity(@Nonnull final EntityDescriptor entity) throws ResolverException;
+    }
+
+}
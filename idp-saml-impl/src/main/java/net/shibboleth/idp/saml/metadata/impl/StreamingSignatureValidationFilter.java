@@ -0,0 +1,509 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.saml.metadata.impl;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.primitive.StringSupport;
+import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
+import net.shibboleth.utilities.java.support.resolver.ResolverException;
+import net.shibboleth.utilities.java.support.xml.ElementSupport;
+
+import org.apache.xml.security.algorithms.JCEMapper;
+import org.apache.xml.security.algorithms.implementations.SignatureECDSA;
+import org.apache.xml.security.exceptions.XMLSecurityException;
+import org.apache.xml.security.signature.Reference;
+import org.apache.xml.security.signature.SignedInfo;
+import org.apache.xml.security.signature.XMLSignature;
+import org.apache.xml.security.transforms.Transform;
+import org.apache.xml.security.transforms.Transforms;
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.io.UnmarshallingException;
+import org.opensaml.saml.metadata.resolver.filter.FilterException;
+import org.opensaml.saml.metadata.resolver.filter.MetadataFilter;
+import org.opensaml.saml.metadata.resolver.filter.impl.SignatureValidationFilter;
+import org.opensaml.security.SecurityException;
+import org.opensaml.security.credential.Credential;
+import org.opensaml.security.credential.UsageType;
+import org.opensaml.security.criteria.UsageCriterion;
+import org.opensaml.xmlsec.keyinfo.KeyInfoCredentialResolver;
+import org.opensaml.xmlsec.keyinfo.KeyInfoCriterion;
+import org.opensaml.xmlsec.signature.KeyInfo;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
+import org.opensaml.xmlsec.signature.support.SignaturePrevalidator;
+import org.opensaml.xmlsec.signature.support.SignatureTrustEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * A metadata filter that checks signatures in the same way as {@link SignatureValidationFilter}, and that can
+ * also check the signature on the root of a metadata aggregate while the aggregate is read as a stream.
+ *
+ * <p>Used as an ordinary filter, this delegates to a {@link SignatureValidationFilter} with the same settings.
+ * A {@link CompactFilesystemMetadataResolver} that finds this filter in its filter chain instead reads the
+ * aggregate with {@link StreamingMetadataReader}, which computes the digest of the root element as the
+ * document is read, and hands each entity to {@link #filterEntity(XMLObject)} on its own.</p>
+ *
+ * <p>Streaming checks are deliberately narrower than the DOM-based ones. The root signature must be the first
+ * child of the root, have a single reference to the root using only the enveloped signature and exclusive
+ * canonicalization transforms, and use one of a fixed set of SHA-2 based algorithms. Anything else is
+ * rejected rather than handled by a slower path. The signature prevalidator and dynamic trusted names strategy
+ * apply only to signatures checked on DOM, which includes those on individual entities but not a streamed
+ * root.</p>
+ */
+public class StreamingSignatureValidationFilter implements MetadataFilter {
+
+    /** Signature algorithms accepted on a streamed root. */
+    @Nonnull @NonnullElements private static final Set<String> SIGNATURE_ALGORITHMS = ImmutableSet.of(
+            SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256, SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA384,
+            SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA512, SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA256,
+            SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA384, SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA512);
+
+    /** ECDSA signature algorithms, whose values need converting before verification. */
+    @Nonnull @NonnullElements private static final Set<String> ECDSA_ALGORITHMS = ImmutableSet.of(
+            SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA256, SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA384,
+            SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA512);
+
+    /** Digest algorithms accepted on a streamed root. */
+    @Nonnull @NonnullElements private static final Set<String> DIGEST_ALGORITHMS = ImmutableSet.of(
+            SignatureConstants.ALGO_ID_DIGEST_SHA256, SignatureConstants.ALGO_ID_DIGEST_SHA384,
+            SignatureConstants.ALGO_ID_DIGEST_SHA512);
+
+    /** Namespace of the exclusive canonicalization InclusiveNamespaces element. */
+    @Nonnull private static final String EXCLUSIVE_C14N_NS = "http://www.w3.org/2001/10/xml-exc-c14n#";
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(StreamingSignatureValidationFilter.class);
+
+    /** Trust engine used to validate signatures. */
+    @Nonnull private final SignatureTrustEngine signatureTrustEngine;
+
+    /** Filter used for whole documents. */
+    @Nonnull private final SignatureValidationFilter documentFilter;
+
+    /** Filter used for entities read on their own, which need not be signed. */
+    @Nonnull private final SignatureValidationFilter entityFilter;
+
+    /** Whether the root of the metadata must be signed. */
+    private boolean requireSignedRoot;
+
+    /** Criteria supplied to the trust engine. */
+    @Nullable private CriteriaSet defaultCriteria;
+
+    /**
+     * Constructor.
+     *
+     * @param engine the trust engine used to validate signatures
+     */
+    public StreamingSignatureValidationFilter(@Nonnull final SignatureTrustEngine engine) {
+        signatureTrustEngine = Constraint.isNotNull(engine, "SignatureTrustEngine cannot be null");
+        documentFilter = new SignatureValidationFilter(engine);
+        entityFilter = new SignatureValidationFilter(engine);
+        entityFilter.setRequireSignedRoot(false);
+        requireSignedRoot = true;
+        documentFilter.setRequireSignedRoot(true);
+    }
+
+    /**
+     * Get whether the root of the metadata must be signed.
+     *
+     * @return whether the root of the metadata must be signed
+     */
+    public boolean getRequireSignedRoot() {
+        return requireSignedRoot;
+    }
+
+    /**
+     * Set whether the root of the metadata must be signed.
+     *
+     * @param flag flag to set
+     */
+    public void setRequireSignedRoot(final boolean flag) {
+        requireSignedRoot = flag;
+        documentFilter.setRequireSignedRoot(flag);
+    }
+
+    /**
+     * Get the criteria supplied to the trust engine.
+     *
+     * @return the criteria, or null
+     */
+    @Nullable public CriteriaSet getDefaultCriteria() {
+        return defaultCriteria;
+    }
+
+    /**
+     * Set the criteria supplied to the trust engine.
+     *
+     * @param criteria the criteria, or null
+     */
+    public void setDefaultCriteria(@Nullable final CriteriaSet criteria) {
+        defaultCriteria = criteria;
+        documentFilter.setDefaultCriteria(criteria);
+        entityFilter.setDefaultCriteria(criteria);
+    }
+
+    /**
+     * Set the prevalidator applied to signatures checked on whole documents and on individual entities.
+     *
+     * @param prevalidator the prevalidator, or null
+     */
+    public void setSignaturePrevalidator(@Nullable final SignaturePrevalidator prevalidator) {
+        documentFilter.setSignaturePrevalidator(prevalidator);
+        entityFilter.setSignaturePrevalidator(prevalidator);
+    }
+
+    /**
+     * Set the strategy used to build dynamic trusted names for signatures checked on whole documents and on
+     * individual entities.
+     *
+     * @param strategy the strategy, or null
+     */
+    public void setDynamicTrustedNamesStrategy(@Nullable final Function<XMLObject,Set<String>> strategy) {
+        documentFilter.setDynamicTrustedNamesStrategy(strategy);
+        entityFilter.setDynamicTrustedNamesStrategy(strategy);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nullable public XMLObject filter(@Nullable final XMLObject metadata) throws FilterException {
+        return documentFilter.filter(metadata);
+    }
+
+    /**
+     * Check any signatures within an entity read on its own from a streamed aggregate.
+     *
+     * @param metadata the entity
+     *
+     * @return the entity
+     *
+     * @throws FilterException if a signature on the entity is not valid
+     */
+    @Nullable public XMLObject filterEntity(@Nullable final XMLObject metadata) throws FilterException {
+        return entityFilter.filter(metadata);
+    }
+
+    /**
+     * Parse the signature on the root of a streamed aggregate, and check that it is one that can be verified
+     * while the aggregate is read.
+     *
+     * @param signatureElement the signature element, declaring every namespace in scope on it
+     * @param rootID the ID attribute of the root element, or null
+     *
+     * @return the parsed signature
+     *
+     * @throws ResolverException if the signature is not acceptable
+     */
+    @Nonnull public RootSignature parseRootSignature(@Nonnull final Element signatureElement,
+            @Nullable final String rootID) throws ResolverException {
+        try {
+            final XMLSignature signature = new XMLSignature(signatureElement, "", true);
+            final SignedInfo signedInfo = signature.getSignedInfo();
+
+            final String signatureAlgorithm = signedInfo.getSignatureMethodURI();
+            if (!SIGNATURE_ALGORITHMS.contains(signatureAlgorithm)) {
+                throw new ResolverException("Signature algorithm " + signatureAlgorithm
+                        + " is not supported for streamed metadata");
+            }
+
+            if (signedInfo.getLength() != 1) {
+                throw new ResolverException("Signature on streamed metadata must contain exactly one reference");
+            }
+            final Reference reference = signedInfo.item(0);
+            final String uri = reference.getURI();
+            if (uri == null || !(uri.isEmpty() || rootID != null && uri.equals("#" + rootID))) {
+                throw new ResolverException("Signature on streamed metadata does not reference the root element");
+            }
+
+            Set<String> inclusivePrefixes = null;
+            final Transforms transforms = reference.getTransforms();
+            for (int i = 0; transforms != null && i < transforms.getLength(); i++) {
+                final Transform transform = transforms.item(i);
+                if (Transforms.TRANSFORM_C14N_EXCL_OMIT_COMMENTS.equals(transform.getURI())) {
+                    inclusivePrefixes = getInclusivePrefixes(transform.getElement());
+                } else if (!Transforms.TRANSFORM_ENVELOPED_SIGNATURE.equals(transform.getURI())) {
+                    throw new ResolverException("Transform " + transform.getURI()
+                            + " is not supported for streamed metadata");
+                }
+            }
+            if (inclusivePrefixes == null) {
+                throw new ResolverException("Signature on streamed metadata must use exclusive canonicalization");
+            }
+
+            final String digestAlgorithm = reference.getMessageDigestAlgorithm().getAlgorithmURI();
+            if (!DIGEST_ALGORITHMS.contains(digestAlgorithm)) {
+                throw new ResolverException("Digest algorithm " + digestAlgorithm
+                        + " is not supported for streamed metadata");
+            }
+            final MessageDigest digest = MessageDigest.getInstance(JCEMapper.translateURItoJCEID(digestAlgorithm));
+
+            return new RootSignature(signatureAlgorithm, signedInfo.getCanonicalizedOctetStream(),
+                    signature.getSignatureValue(), digest, reference.getDigestValue(), inclusivePrefixes,
+                    getKeyInfo(signatureElement));
+        } catch (final XMLSecurityException | NoSuchAlgorithmException e) {
+            throw new ResolverException("Unable to process signature on streamed metadata", e);
+        }
+    }
+
+    /**
+     * Verify the signature on the root of a streamed aggregate, once the digest of the root has been computed.
+     *
+     * @param signature the parsed signature, whose digest has been fed the canonical form of the root
+     *
+     * @throws ResolverException if the signature is not valid or not trusted
+     */
+    public void verifyRootSignature(@Nonnull final RootSignature signature) throws ResolverException {
+        if (!MessageDigest.isEqual(signature.getDigest().digest(), signature.getDigestValue())) {
+            throw new ResolverException("Digest of streamed metadata does not match its signature");
+        }
+
+        final CriteriaSet criteria = new CriteriaSet();
+        if (defaultCriteria != null) {
+            criteria.addAll(defaultCriteria);
+        }
+        if (!criteria.contains(UsageCriterion.class)) {
+            criteria.add(new UsageCriterion(UsageType.SIGNING));
+        }
+
+        try {
+            byte[] signatureValue = signature.getSignatureValue();
+            if (ECDSA_ALGORITHMS.contains(signature.getAlgorithm())) {
+                signatureValue = SignatureECDSA.convertXMLDSIGtoASN1(signatureValue);
+            }
+
+            for (final Credential candidate : getCandidateCredentials(signature.getKeyInfo())) {
+                if (signatureTrustEngine.validate(signatureValue, signature.getSignedInfo(), signature.getAlgorithm(),
+                        criteria, candidate)) {
+                    log.debug("Signature on streamed metadata was valid and trusted using KeyInfo credential");
+                    return;
+                }
+            }
+            if (signatureTrustEngine.validate(signatureValue, signature.getSignedInfo(), signature.getAlgorithm(),
+                    criteria, null)) {
+                log.debug("Signature on streamed metadata was valid and trusted");
+                return;
+            }
+        } catch (final SecurityException | IOException e) {
+            throw new ResolverException("Error validating signature on streamed metadata", e);
+        }
+
+        throw new ResolverException("Signature on streamed metadata was not valid or not trusted");
+    }
+
+    /**
+     * Get the inclusive namespace prefix list of an exclusive canonicalization transform.
+     *
+     * @param transformElement the transform element
+     *
+     * @return the prefixes
+     */
+    @Nonnull @NonnullElements private Set<String> getInclusivePrefixes(@Nonnull final Element transformElement) {
+        final List<Element> inclusiveNamespaces =
+                ElementSupport.getChildElementsByTagNameNS(transformElement, EXCLUSIVE_C14N_NS, "InclusiveNamespaces");
+        if (inclusiveNamespaces.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        final Set<String> prefixes = new HashSet<>();
+        final String prefixList = StringSupport.trimOrNull(inclusiveNamespaces.get(0).getAttributeNS(null,
+                "PrefixList"));
+        if (prefixList != null) {
+            for (final String prefix : prefixList.split("\\s+")) {
+                prefixes.add(prefix);
+            }
+        }
+        return prefixes;
+    }
+
+    /**
+     * Unmarshall the KeyInfo of a signature, if present.
+     *
+     * @param signatureElement the signature element
+     *
+     * @return the KeyInfo, or null
+     *
+     * @throws ResolverException if the KeyInfo cannot be unmarshalled
+     */
+    @Nullable private KeyInfo getKeyInfo(@Nonnull final Element signatureElement) throws ResolverException {
+        final List<Element> keyInfos =
+                ElementSupport.getChildElementsByTagNameNS(signatureElement, SignatureConstants.XMLSIG_NS, "KeyInfo");
+        if (keyInfos.isEmpty()) {
+            return null;
+        }
+        try {
+            final Element element = keyInfos.get(0);
+            return (KeyInfo) XMLObjectProviderRegistrySupport.getUnmarshallerFactory().getUnmarshaller(element)
+                    .unmarshall(element);
+        } catch (final UnmarshallingException | ClassCastException e) {
+            throw new ResolverException("Unable to unmarshall KeyInfo of signature on streamed metadata", e);
+        }
+    }
+
+    /**
+     * Get the credentials described by a KeyInfo, for the trust engine to evaluate.
+     *
+     * @param keyInfo the KeyInfo, or null
+     *
+     * @return the credentials
+     *
+     * @throws SecurityException if the KeyInfo cannot be resolved
+     */
+    @Nonnull @NonnullElements private Iterable<Credential> getCandidateCredentials(@Nullable final KeyInfo keyInfo)
+            throws SecurityException {
+        final KeyInfoCredentialResolver resolver = signatureTrustEngine.getKeyInfoResolver();
+        if (keyInfo == null || resolver == null) {
+            return Collections.emptyList();
+        }
+        try {
+            return resolver.resolve(new CriteriaSet(new KeyInfoCriterion(keyInfo)));
+        } catch (final ResolverException e) {
+            throw new SecurityException("Unable to resolve credentials from KeyInfo", e);
+        }
+    }
+
+    /** The parts of a root signature needed to verify it once the root has been read. */
+    public static final class RootSignature {
+
+        /** Signature algorithm URI. */
+        @Nonnull private final String algorithm;
+
+        /** Canonical form of the SignedInfo. */
+        @Nonnull private final byte[] signedInfo;
+
+        /** Signature value. */
+        @Nonnull private final byte[] signatureValue;
+
+        /** Digest to feed the canonical form of the root to. */
+        @Nonnull private final MessageDigest digest;
+
+        /** Expected digest value. */
+        @Nonnull private final byte[] digestValue;
+
+        /** Inclusive namespace prefix list for canonicalizing the root. */
+        @Nonnull @NonnullElements private final Set<String> inclusivePrefixes;
+
+        /** KeyInfo of the signature, or null. */
+        @Nullable private final KeyInfo keyInfo;
+
+        /**
+         * Constructor.
+         *
+         * @param signatureAlgorithm signature algorithm URI
+         * @param canonicalSignedInfo canonical form of the SignedInfo
+         * @param value signature value
+         * @param messageDigest digest to feed the canonical form of the root to
+         * @param expectedDigest expected digest value
+         * @param prefixes inclusive namespace prefix list
+         * @param signatureKeyInfo KeyInfo of the signature, or null
+         */
+        // Checkstyle: ParameterNumber OFF
+        RootSignature(@Nonnull final String signatureAlgorithm, @Nonnull final byte[] canonicalSignedInfo,
+                @Nonnull final byte[] value, @Nonnull final MessageDigest messageDigest,
+                @Nonnull final byte[] expectedDigest, @Nonnull @NonnullElements final Set<String> prefixes,
+                @Nullable final KeyInfo signatureKeyInfo) {
+            algorithm = signatureAlgorithm;
+            signedInfo = canonicalSignedInfo;
+            signatureValue = value;
+            digest = messageDigest;
+            digestValue = expectedDigest;
+            inclusivePrefixes = prefixes;
+            keyInfo = signatureKeyInfo;
+        }
+        // Checkstyle: ParameterNumber ON
+
+        /**
+         * Get the signature algorithm URI.
+         *
+         * @return the algorithm
+         */
+        @Nonnull public String getAlgorithm() {
+            return algorithm;
+        }
+
+        /**
+         * Get the canonical form of the SignedInfo.
+         *
+         * @return the canonical SignedInfo
+         */
+        @Nonnull public byte[] getSignedInfo() {
+            return signedInfo;
+        }
+
+        /**
+         * Get the signature value.
+         *
+         * @return the signature value
+         */
+        @Nonnull public byte[] getSignatureValue() {
+            return signatureValue;
+        }
+
+        /**
+         * Get the digest to feed the canonical form of the root to.
+         *
+         * @return the digest
+         */
+        @Nonnull public MessageDigest getDigest() {
+            return digest;
+        }
+
+        /**
+         * Get the expected digest value.
+         *
+         * @return the expected digest value
+         */
+        @Nonnull public byte[] getDigestValue() {
+            return digestValue;
+        }
+
+        /**
+         * Get the inclusive namespace prefix list for canonicalizing the root.
+         *
+         * @return the prefixes
+         */
+        @Nonnull @NonnullElements public Set<String> getInclusivePrefixes() {
+            return inclusivePrefixes;
+        }
+
+        /**
+         * Get the KeyInfo of the signature.
+         *
+         * @return the KeyInfo, or null
+         */
+        @Nullable public KeyInfo getKeyInfo() {
+            return keyInfo;
+        }
+    }
+
+}
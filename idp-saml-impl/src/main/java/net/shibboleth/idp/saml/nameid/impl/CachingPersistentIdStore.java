@@ -0,0 +1,612 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.saml.nameid.impl;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonValue;
+
+import net.shibboleth.idp.saml.nameid.PersistentIdEntry;
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.primitive.StringSupport;
+
+import org.joda.time.DateTime;
+import org.opensaml.storage.StorageRecord;
+import org.opensaml.storage.StorageService;
+import org.opensaml.storage.VersionMismatchException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+
+/**
+ * A {@link PersistentIdStoreEx} that wraps another store and remembers active persistent IDs, both by source ID
+ * and by issued value, so that returning subjects do not cost a round-trip to the wrapped store.
+ * 
+ * <p>Both indexes are bounded in size and entries expire after a fixed interval. Deactivating an ID or attaching
+ * an SPProvidedID to it through this store invalidates the cached entries for that ID.</p>
+ * 
+ * <p>To propagate invalidations to other nodes sharing the wrapped store, a {@link StorageService} may be supplied.
+ * Each invalidation is appended to a bounded log held in a single record of that service, and every node checks the
+ * log for changes at most once per polling interval while serving requests. A node that has missed part of the log
+ * discards its whole cache.</p>
+ * 
+ * <p>The log carries a generation identifier chosen when its record is created, and entries are numbered within
+ * that generation. Record versions are not relied upon, since they restart when the record expires and is created
+ * again.</p>
+ */
+public class CachingPersistentIdStore extends AbstractInitializableComponent implements PersistentIdStoreEx {
+
+    /** Default storage context for the invalidation log. */
+    @Nonnull @NotEmpty public static final String DEFAULT_STORAGE_CONTEXT = "_persistentIdCache";
+
+    /** Storage key of the invalidation log. */
+    @Nonnull @NotEmpty public static final String STORAGE_KEY = "invalidations";
+
+    /** Number of attempts to append to the invalidation log before giving up. */
+    private static final int MAX_LOG_ATTEMPTS = 10;
+
+    /** Field holding the generation identifier of the log. */
+    @Nonnull @NotEmpty private static final String GENERATION_FIELD = "g";
+
+    /** Field holding the sequence number of the newest entry dropped from the log. */
+    @Nonnull @NotEmpty private static final String TRIMMED_FIELD = "t";
+
+    /** Field holding the entries of the log. */
+    @Nonnull @NotEmpty private static final String ENTRIES_FIELD = "e";
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(CachingPersistentIdStore.class);
+
+    /** Wrapped store. */
+    @NonnullAfterInit private PersistentIdStoreEx pidStore;
+
+    /** Maximum number of entries held in each index. */
+    @Positive private long maxCacheSize;
+
+    /** Time after which a cached entry is discarded. */
+    @Duration @Positive private long cacheExpiration;
+
+    /** Optional store for the invalidation log. */
+    @Nullable private StorageService storageService;
+
+    /** Storage context for the invalidation log. */
+    @Nonnull @NotEmpty private String storageContext;
+
+    /** Maximum number of entries retained in the invalidation log. */
+    @Positive private int maxLogSize;
+
+    /** Minimum time between checks of the invalidation log. */
+    @Duration @Positive private long pollingInterval;
+
+    /** Active entries by issuer, recipient, and source ID. */
+    @NonnullAfterInit private Cache<String,PersistentIdEntry> bySource;
+
+    /** Active entries by issuer, recipient, and persistent ID. */
+    @NonnullAfterInit private Cache<String,PersistentIdEntry> byIssued;
+
+    /** Keys of {@link #bySource} by issuer, recipient, and persistent ID, kept in step with that index. */
+    @Nonnull private final ConcurrentMap<String,String> sourceKeys;
+
+    /** Incremented on every invalidation, to keep lookups racing an invalidation out of the cache. */
+    @Nonnull private final AtomicLong generation;
+
+    /** Time after which the invalidation log should next be checked. */
+    @Nonnull private final AtomicLong nextPoll;
+
+    /** Generation of the invalidation log last processed. */
+    @Nullable private String lastLogGeneration;
+
+    /** Sequence number of the newest invalidation log entry processed. */
+    private long lastLogSequence;
+
+    /** Number of lookups answered from the cache. */
+    @Nonnull private final AtomicLong hitCount;
+
+    /** Number of lookups passed to the wrapped store. */
+    @Nonnull private final AtomicLong missCount;
+
+    /** Constructor. */
+    public CachingPersistentIdStore() {
+        maxCacheSize = 10000;
+        cacheExpiration = 10 * 60 * 1000;
+        storageContext = DEFAULT_STORAGE_CONTEXT;
+        maxLogSize = 100;
+        pollingInterval = 30 * 1000;
+        sourceKeys = new ConcurrentHashMap<>();
+        generation = new AtomicLong();
+        nextPoll = new AtomicLong();
+        hitCount = new AtomicLong();
+        missCount = new AtomicLong();
+    }
+
+    /**
+     * Set the store to wrap.
+     * 
+     * @param store the store to wrap
+     */
+    public void setIDStore(@Nonnull final PersistentIdStoreEx store) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        pidStore = Constraint.isNotNull(store, "PersistentIdStoreEx cannot be null");
+    }
+
+    /**
+     * Set the maximum number of entries held in each of the source ID and persistent ID indexes.
+     * 
+     * @param size maximum number of entries
+     */
+    public void setMaxCacheSize(@Positive final long size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        maxCacheSize = Constraint.isGreaterThan(0, size, "Cache size must be greater than zero");
+    }
+
+    /**
+     * Set the time after which a cached entry is discarded.
+     * 
+     * <p>This bounds how long a node may use an entry that another node has deactivated when no
+     * invalidation log is configured.</p>
+     * 
+     * @param expiration time in milliseconds
+     */
+    public void setCacheExpiration(@Duration @Positive final long expiration) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        cacheExpiration = Constraint.isGreaterThan(0, expiration, "Cache expiration must be greater than zero");
+    }
+
+    /**
+     * Set a {@link StorageService} through which to share invalidations with other nodes.
+     * 
+     * @param storage the storage service, or null for local invalidation only
+     */
+    public void setStorageService(@Nullable final StorageService storage) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        storageService = storage;
+    }
+
+    /**
+     * Set the storage context for the invalidation log.
+     * 
+     * @param context the storage context
+     */
+    public void setStorageContext(@Nonnull @NotEmpty final String context) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        storageContext = Constraint.isNotNull(StringSupport.trimOrNull(context),
+                "Storage context cannot be null or empty");
+    }
+
+    /**
+     * Set the maximum number of entries retained in the invalidation log.
+     * 
+     * @param size maximum number of entries
+     */
+    public void setMaxLogSize(@Positive final int size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        maxLogSize = (int) Constraint.isGreaterThan(0, size, "Log size must be greater than zero");
+    }
+
+    /**
+     * Set the minimum time between checks of the invalidation log.
+     * 
+     * @param interval time in milliseconds
+     */
+    public void setPollingInterval(@Duration @Positive final long interval) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        pollingInterval = Constraint.isGreaterThan(0, interval, "Polling interval must be greater than zero");
+    }
+
+    /**
+     * Get the number of lookups answered from the cache.
+     * 
+     * @return the number of hits
+     */
+    @NonNegative public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Get the number of lookups passed to the wrapped store.
+     * 
+     * @return the number of misses
+     */
+    @NonNegative public long getMissCount() {
+        return missCount.get();
+    }
+
+    /** Discard all cached entries. */
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        bySource.invalidateAll();
+        byIssued.invalidateAll();
+        sourceKeys.clear();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+
+        if (pidStore == null) {
+            throw new ComponentInitializationException("PersistentIdStoreEx cannot be null");
+        }
+
+        bySource = CacheBuilder.newBuilder().maximumSize(maxCacheSize)
+                .expireAfterWrite(cacheExpiration, TimeUnit.MILLISECONDS)
+                .removalListener(new RemovalListener<String,PersistentIdEntry>() {
+                    public void onRemoval(final RemovalNotification<String,PersistentIdEntry> notification) {
+                        // A replacement for the same persistent ID keeps its mapping, even if this
+                        // notification is delivered after the replacement was indexed.
+                        final PersistentIdEntry entry = notification.getValue();
+                        if (entry != null) {
+                            final String issuedKey = getIssuedKey(entry);
+                            final PersistentIdEntry current = bySource.asMap().get(notification.getKey());
+                            if (current == null || !issuedKey.equals(getIssuedKey(current))) {
+                                sourceKeys.remove(issuedKey, notification.getKey());
+                            }
+                        }
+                    }
+                }).build();
+        byIssued = CacheBuilder.newBuilder().maximumSize(maxCacheSize)
+                .expireAfterWrite(cacheExpiration, TimeUnit.MILLISECONDS).build();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nullable public PersistentIdEntry getByIssuedValue(@Nonnull @NotEmpty final String nameQualifier,
+            @Nonnull @NotEmpty final String spNameQualifier, @Nonnull @NotEmpty final String persistentId)
+                    throws IOException {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        pollInvalidationLog();
+
+        final String key = getKey(nameQualifier, spNameQualifier, persistentId);
+        final PersistentIdEntry cached = byIssued.getIfPresent(key);
+        if (cached != null && isActive(cached)) {
+            log.trace("Using cached entry for persistent ID {}", persistentId);
+            hitCount.incrementAndGet();
+            return cached;
+        }
+
+        missCount.incrementAndGet();
+        final long startGeneration = generation.get();
+        final PersistentIdEntry entry = pidStore.getByIssuedValue(nameQualifier, spNameQualifier, persistentId);
+        if (entry != null && isActive(entry)) {
+            cache(entry, null, key, startGeneration);
+        }
+        return entry;
+    }
+
+// Checkstyle: ParameterNumber OFF
+    /** {@inheritDoc} */
+    @Override
+    @Nullable public PersistentIdEntry getBySourceValue(@Nonnull @NotEmpty final String nameQualifier,
+            @Nonnull @NotEmpty final String spNameQualifier, @Nonnull @NotEmpty final String sourceId,
+            @Nonnull @NotEmpty final String principal, final boolean allowCreate,
+            @Nullable final ComputedPersistentIdGenerationStrategy computedIdStrategy) throws IOException {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        pollInvalidationLog();
+
+        final String key = getKey(nameQualifier, spNameQualifier, sourceId);
+        final PersistentIdEntry cached = bySource.getIfPresent(key);
+        if (cached != null && isActive(cached)) {
+            log.trace("Using cached persistent ID for source ID {}", sourceId);
+            hitCount.incrementAndGet();
+            return cached;
+        }
+
+        missCount.incrementAndGet();
+        final long startGeneration = generation.get();
+        final PersistentIdEntry entry = pidStore.getBySourceValue(nameQualifier, spNameQualifier, sourceId,
+                principal, allowCreate, computedIdStrategy);
+        if (entry != null && isActive(entry)) {
+            cache(entry, key, getKey(nameQualifier, spNameQualifier, entry.getPersistentId()), startGeneration);
+        }
+        return entry;
+    }
+// Checkstyle: ParameterNumber ON
+
+    /** {@inheritDoc} */
+    @Override
+    public void deactivate(@Nonnull @NotEmpty final String nameQualifier,
+            @Nonnull @NotEmpty final String spNameQualifier, @Nonnull @NotEmpty final String persistentId,
+            @Nullable final DateTime deactivation) throws IOException {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+
+        try {
+            pidStore.deactivate(nameQualifier, spNameQualifier, persistentId, deactivation);
+        } finally {
+            invalidate(nameQualifier, spNameQualifier, persistentId);
+            publishInvalidation(nameQualifier, spNameQualifier, persistentId);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void attach(@Nonnull @NotEmpty final String nameQualifier,
+            @Nonnull @NotEmpty final String spNameQualifier, @Nonnull @NotEmpty final String persistentId,
+            @Nonnull @NotEmpty final String spProvidedId) throws IOException {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+
+        try {
+            pidStore.attach(nameQualifier, spNameQualifier, persistentId, spProvidedId);
+        } finally {
+            invalidate(nameQualifier, spNameQualifier, persistentId);
+            publishInvalidation(nameQualifier, spNameQualifier, persistentId);
+        }
+    }
+
+    /**
+     * Cache an entry read from the wrapped store, unless an invalidation has begun since the read started.
+     * 
+     * <p>The generation is checked again once the entry is in place, so an invalidation that begins between
+     * the first check and the insertion cannot leave the entry behind.</p>
+     * 
+     * @param entry the entry
+     * @param sourceKey the key under which to index the entry by source ID, or null
+     * @param issuedKey the key under which to index the entry by persistent ID
+     * @param startGeneration the generation read before the wrapped store was consulted
+     */
+    private void cache(@Nonnull final PersistentIdEntry entry, @Nullable final String sourceKey,
+            @Nonnull final String issuedKey, final long startGeneration) {
+        if (generation.get() != startGeneration) {
+            return;
+        }
+
+        if (sourceKey != null) {
+            bySource.put(sourceKey, entry);
+            sourceKeys.put(getIssuedKey(entry), sourceKey);
+        }
+        byIssued.put(issuedKey, entry);
+
+        if (generation.get() != startGeneration) {
+            if (sourceKey != null) {
+                bySource.invalidate(sourceKey);
+            }
+            byIssued.invalidate(issuedKey);
+        }
+    }
+
+    /**
+     * Discard the cached entries for a persistent ID.
+     * 
+     * @param nameQualifier the NameQualifier value
+     * @param spNameQualifier the SPNameQualifier value
+     * @param persistentId the persistent ID value
+     */
+    private void invalidate(@Nonnull @NotEmpty final String nameQualifier,
+            @Nonnull @NotEmpty final String spNameQualifier, @Nonnull @NotEmpty final String persistentId) {
+        log.debug("Invalidating cached entries for persistent ID {}", persistentId);
+        generation.incrementAndGet();
+        final String issuedKey = getKey(nameQualifier, spNameQualifier, persistentId);
+        byIssued.invalidate(issuedKey);
+
+        final String sourceKey = sourceKeys.remove(issuedKey);
+        if (sourceKey != null) {
+            bySource.invalidate(sourceKey);
+        }
+    }
+
+    /**
+     * Append an invalidation to the shared log, if one is configured.
+     * 
+     * <p>Failures are logged but otherwise ignored, as the wrapped store has already been updated and other
+     * nodes will discard their copies when the cached entries expire.</p>
+     * 
+     * @param nameQualifier the NameQualifier value
+     * @param spNameQualifier the SPNameQualifier value
+     * @param persistentId the persistent ID value
+     */
+    private void publishInvalidation(@Nonnull @NotEmpty final String nameQualifier,
+            @Nonnull @NotEmpty final String spNameQualifier, @Nonnull @NotEmpty final String persistentId) {
+        if (storageService == null) {
+            return;
+        }
+
+        try {
+            for (int attempt = 0; attempt < MAX_LOG_ATTEMPTS; attempt++) {
+                final StorageRecord<?> record = storageService.read(storageContext, STORAGE_KEY);
+
+                String logGeneration = UUID.randomUUID().toString();
+                long trimmed = 0;
+                long sequence = 1;
+                final JsonArrayBuilder builder = Json.createArrayBuilder();
+                if (record != null) {
+                    final JsonObject logObject = parseLog(record.getValue());
+                    logGeneration = logObject.getString(GENERATION_FIELD);
+                    final JsonArray entries = logObject.getJsonArray(ENTRIES_FIELD);
+                    trimmed = logObject.getJsonNumber(TRIMMED_FIELD).longValue();
+                    final int skip = Math.max(0, entries.size() + 1 - maxLogSize);
+                    for (int i = 0; i < entries.size(); i++) {
+                        final JsonArray entry = entries.getJsonArray(i);
+                        if (i < skip) {
+                            trimmed = entry.getJsonNumber(0).longValue();
+                        } else {
+                            builder.add(entry);
+                        }
+                        sequence = entry.getJsonNumber(0).longValue() + 1;
+                    }
+                }
+                builder.add(Json.createArrayBuilder().add(sequence).add(nameQualifier).add(spNameQualifier)
+                        .add(persistentId));
+
+                final String value = Json.createObjectBuilder().add(GENERATION_FIELD, logGeneration)
+                        .add(TRIMMED_FIELD, trimmed).add(ENTRIES_FIELD, builder).build().toString();
+                final long expiration = System.currentTimeMillis() + cacheExpiration;
+                if (record == null) {
+                    if (storageService.create(storageContext, STORAGE_KEY, value, expiration)) {
+                        return;
+                    }
+                } else {
+                    try {
+                        if (storageService.updateWithVersion(record.getVersion(), storageContext, STORAGE_KEY,
+                                value, expiration) != null) {
+                            return;
+                        }
+                    } catch (final VersionMismatchException e) {
+                        log.debug("Invalidation log was updated concurrently, retrying");
+                    }
+                }
+            }
+            log.warn("Unable to record invalidation of persistent ID {} after {} attempts", persistentId,
+                    MAX_LOG_ATTEMPTS);
+        } catch (final IOException | JsonException | ClassCastException | IndexOutOfBoundsException e) {
+            log.error("Error recording invalidation of persistent ID {}", persistentId, e);
+        }
+    }
+
+    /**
+     * Apply any invalidations added to the shared log by other nodes, if it is due to be checked.
+     */
+    private void pollInvalidationLog() {
+        if (storageService == null) {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        final long due = nextPoll.get();
+        if (now < due || !nextPoll.compareAndSet(due, now + pollingInterval)) {
+            return;
+        }
+
+        synchronized (this) {
+            try {
+                final StorageRecord<?> record = storageService.read(storageContext, STORAGE_KEY);
+                if (record == null) {
+                    return;
+                }
+
+                final JsonObject logObject = parseLog(record.getValue());
+                final String logGeneration = logObject.getString(GENERATION_FIELD);
+                if (!logGeneration.equals(lastLogGeneration)) {
+                    log.debug("Invalidation log generation is now {}", logGeneration);
+                    lastLogGeneration = logGeneration;
+                    lastLogSequence = 0;
+                }
+
+                if (lastLogSequence < logObject.getJsonNumber(TRIMMED_FIELD).longValue()) {
+                    log.debug("Missed part of the invalidation log, discarding all cached entries");
+                    invalidateAll();
+                }
+
+                for (final JsonValue value : logObject.getJsonArray(ENTRIES_FIELD)) {
+                    final JsonArray entry = (JsonArray) value;
+                    final long sequence = entry.getJsonNumber(0).longValue();
+                    if (sequence > lastLogSequence) {
+                        invalidate(entry.getString(1), entry.getString(2), entry.getString(3));
+                        lastLogSequence = sequence;
+                    }
+                }
+            } catch (final IOException | JsonException | ClassCastException | IndexOutOfBoundsException e) {
+                log.error("Error reading persistent ID invalidation log, discarding all cached entries", e);
+                invalidateAll();
+            }
+        }
+    }
+
+    /**
+     * Parse the invalidation log.
+     * 
+     * @param value the stored value
+     * 
+     * @return the parsed log
+     * @throws IOException if the value is not a well-formed log
+     */
+    @Nonnull private JsonObject parseLog(@Nonnull final String value) throws IOException {
+        try (final JsonReader reader = Json.createReader(new StringReader(value))) {
+            final JsonObject logObject = reader.readObject();
+            if (logObject.getJsonString(GENERATION_FIELD) == null || logObject.getJsonNumber(TRIMMED_FIELD) == null
+                    || logObject.getJsonArray(ENTRIES_FIELD) == null) {
+                throw new IOException("Invalidation log is missing required fields");
+            }
+            return logObject;
+        } catch (final JsonException | ClassCastException e) {
+            throw new IOException("Invalidation log is malformed", e);
+        }
+    }
+
+    /**
+     * Check whether an entry is active.
+     * 
+     * @param entry the entry
+     * 
+     * @return whether the entry has no deactivation time, or one in the future
+     */
+    private boolean isActive(@Nonnull final PersistentIdEntry entry) {
+        return entry.getDeactivationTime() == null
+                || entry.getDeactivationTime().getTime() > System.currentTimeMillis();
+    }
+
+    /**
+     * Build the key of an entry by issuer, recipient, and persistent ID.
+     * 
+     * @param entry the entry
+     * 
+     * @return the key
+     */
+    @Nonnull private String getIssuedKey(@Nonnull final PersistentIdEntry entry) {
+        return getKey(entry.getIssuerEntityId(), entry.getRecipientEntityId(), entry.getPersistentId());
+    }
+
+    /**
+     * Build a cache key.
+     * 
+     * @param nameQualifier the NameQualifier value
+     * @param spNameQualifier the SPNameQualifier value
+     * @param value the source or persistent ID value
+     * 
+     * @return the key
+     */
+    @Nonnull private String getKey(@Nonnull final String nameQualifier, @Nonnull final String spNameQualifier,
+            @Nonnull final String value) {
+        return new StringBuilder(nameQualifier.length() + spNameQualifier.length() + value.length() + 16)
+                .append(nameQualifier.length()).append(':').append(nameQualifier)
+                .append(spNameQualifier.length()).append(':').append(spNameQualifier)
+                .append(value).toString();
+    }
+
+}
@@ -17,10 +17,14 @@
 
 package net.shibboleth.idp.saml.nameid.impl;
 
+import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
@@ -38,6 +42,13 @@ import org.slf4j.LoggerFactory;
 /**
  * The basis of a {@link PersistentIdGenerationStrategy} that generates a unique ID by computing the hash of
  * a given attribute value, the entity ID of the inbound message issuer, and a provided salt.
+ * 
+ * <p>If the algorithm names a JCE MAC algorithm (one beginning with "Hmac"), the salt is used as the key of that
+ * MAC instead of being appended to the hashed data. This produces different IDs from the plain digest, so it
+ * should only be chosen for new deployments.</p>
+ * 
+ * <p>The algorithm is resolved, and any MAC keyed, once at initialization. Each thread then works with its own
+ * copy of that state rather than looking up the algorithm on every call.</p>
  */
 public class ComputedPersistentIdGenerationStrategy extends AbstractInitializableComponent
         implements PersistentIdGenerationStrategy {
@@ -50,6 +61,12 @@ public class ComputedPersistentIdGenerationStrategy extends AbstractInitializabl
 
     /** JCE digest algorithm name to use. */
     @Nonnull @NotEmpty private String algorithm;
+
+    /** Per-thread digest, if a digest algorithm is in use. */
+    @Nullable private ThreadLocal<MessageDigest> digest;
+
+    /** Per-thread keyed MAC, if a MAC algorithm is in use. */
+    @Nullable private ThreadLocal<Mac> mac;
     
     /** Constructor. */
     public ComputedPersistentIdGenerationStrategy() {
@@ -77,9 +94,9 @@ public class ComputedPersistentIdGenerationStrategy extends AbstractInitializabl
     }
 
     /**
-     * Set the JCE algorithm name of the digest algorithm to use (default is SHA).
+     * Set the JCE algorithm name of the digest or MAC algorithm to use (default is SHA).
      * 
-     * @param alg JCE message digest algorithm
+     * @param alg JCE message digest or MAC algorithm
      */
     public void setAlgorithm(@Nonnull @NotEmpty final String alg) {
         ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
@@ -100,6 +117,26 @@ public class ComputedPersistentIdGenerationStrategy extends AbstractInitializabl
             throw new ComponentInitializationException("Salt must be at least 16 bytes in size");
         }
 
+        try {
+            if (algorithm.regionMatches(true, 0, "Hmac", 0, 4)) {
+                final Mac prototype = Mac.getInstance(algorithm);
+                prototype.init(new SecretKeySpec(salt, algorithm));
+                mac = new ThreadLocal<Mac>() {
+                    protected Mac initialValue() {
+                        return copyMac(prototype);
+                    }
+                };
+            } else {
+                final MessageDigest prototype = MessageDigest.getInstance(algorithm);
+                digest = new ThreadLocal<MessageDigest>() {
+                    protected MessageDigest initialValue() {
+                        return copyDigest(prototype);
+                    }
+                };
+            }
+        } catch (final NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new ComponentInitializationException("Algorithm " + algorithm + " is not supported", e);
+        }
     }
     
     /** {@inheritDoc} */
@@ -110,16 +147,66 @@ public class ComputedPersistentIdGenerationStrategy extends AbstractInitializabl
         ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
         
         try {
-            final MessageDigest md = MessageDigest.getInstance(algorithm);
+            if (mac != null) {
+                final Mac keyedMac = mac.get();
+                keyedMac.update(relyingPartyId.getBytes());
+                keyedMac.update((byte) '!');
+                keyedMac.update(sourceId.getBytes());
+                keyedMac.update((byte) '!');
+                
+                return Base64Support.encode(keyedMac.doFinal(), Base64Support.UNCHUNKED);
+            }
+            
+            final MessageDigest md = digest.get();
             md.update(relyingPartyId.getBytes());
             md.update((byte) '!');
             md.update(sourceId.getBytes());
             md.update((byte) '!');
 
             return Base64Support.encode(md.digest(salt), Base64Support.UNCHUNKED);
-        } catch (final NoSuchAlgorithmException e) {
-            log.error("Digest algorithm {} is not supported", algorithm);
-            throw new SAMLException("Digest algorithm was not supported, unable to compute ID", e);
+        } catch (final IllegalStateException e) {
+            log.error("Algorithm {} could not be instantiated", algorithm);
+            throw new SAMLException("Algorithm could not be instantiated, unable to compute ID", e);
+        }
+    }
+
+    /**
+     * Copy an initialized digest, falling back to a new instance if the provider does not support cloning.
+     * 
+     * @param prototype the digest to copy
+     * 
+     * @return a digest in the same state as the prototype
+     */
+    @Nonnull private MessageDigest copyDigest(@Nonnull final MessageDigest prototype) {
+        try {
+            return (MessageDigest) prototype.clone();
+        } catch (final CloneNotSupportedException e) {
+            try {
+                return MessageDigest.getInstance(algorithm);
+            } catch (final NoSuchAlgorithmException e2) {
+                throw new IllegalStateException(e2);
+            }
+        }
+    }
+
+    /**
+     * Copy a keyed MAC, falling back to a new, keyed, instance if the provider does not support cloning.
+     * 
+     * @param prototype the MAC to copy
+     * 
+     * @return a MAC in the same state as the prototype
+     */
+    @Nonnull private Mac copyMac(@Nonnull final Mac prototype) {
+        try {
+            return (Mac) prototype.clone();
+        } catch (final CloneNotSupportedException e) {
+            try {
+                final Mac keyedMac = Mac.getInstance(algorithm);
+                keyedMac.init(new SecretKeySpec(salt, algorithm));
+                return keyedMac;
+            } catch (final NoSuchAlgorithmException | InvalidKeyException e2) {
+                throw new IllegalStateException(e2);
+            }
         }
     }
     
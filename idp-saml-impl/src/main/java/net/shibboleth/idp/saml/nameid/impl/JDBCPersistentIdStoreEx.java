@@ -29,6 +29,8 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -72,6 +74,12 @@ import org.slf4j.LoggerFactory;
  *    
  * The first three columns should be defined as the primary key of the table, and the other columns
  * should be indexed.</p>
+ * 
+ * <p>Lookups run on an auto-commit connection at a lighter isolation level, read committed by default, and select
+ * only the columns needed. Only when a persistent ID has to be created does the store fall back to a serializable
+ * transaction that repeats the lookup, inserts the new record, and is retried on the configured errors. Statements
+ * are closed as soon as they have been used, so that a pool which caches prepared statements per connection can
+ * reuse them. Counts and cumulative latencies of both paths are available from the store.</p>
  */
 public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent implements PersistentIdStoreEx {
 
@@ -92,6 +100,24 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
 
     /** Whether to fail if the database cannot be verified.  */
     private boolean verifyDatabase;
+
+    /** Transaction isolation level for lookups outside of the create path. */
+    private int readIsolation;
+
+    /** Number of lookups. */
+    @Nonnull private final AtomicLong lookupCount;
+
+    /** Cumulative time spent on lookups in nanoseconds. */
+    @Nonnull private final AtomicLong lookupTime;
+
+    /** Number of serializable lookup/create transactions. */
+    @Nonnull private final AtomicLong createTransactionCount;
+
+    /** Cumulative time spent on serializable lookup/create transactions in nanoseconds. */
+    @Nonnull private final AtomicLong createTransactionTime;
+
+    /** Number of serializable lookup/create transactions retried. */
+    @Nonnull private final AtomicLong retryCount;
     
     /** Name of the database table. */
     @Nonnull @NotEmpty private String tableName;
@@ -144,6 +170,12 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
         retryableErrors = Collections.singletonList("23505");
         queryTimeout = 5000;
         verifyDatabase = true;
+        readIsolation = Connection.TRANSACTION_READ_COMMITTED;
+        lookupCount = new AtomicLong();
+        lookupTime = new AtomicLong();
+        createTransactionCount = new AtomicLong();
+        createTransactionTime = new AtomicLong();
+        retryCount = new AtomicLong();
         
         tableName = "shibpid";
         issuerColumn = "localEntity";
@@ -234,6 +266,68 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
         verifyDatabase = flag;
     }
 
+    /**
+     * Set the transaction isolation level used for lookups that do not create a persistent ID.
+     * 
+     * <p>Defaults to {@link Connection#TRANSACTION_READ_COMMITTED}. Creation of persistent IDs always uses
+     * {@link Connection#TRANSACTION_SERIALIZABLE}.</p>
+     * 
+     * @param level a transaction isolation level constant from {@link Connection}
+     */
+    public void setReadTransactionIsolation(final int level) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        Constraint.isTrue(level == Connection.TRANSACTION_READ_UNCOMMITTED
+                || level == Connection.TRANSACTION_READ_COMMITTED || level == Connection.TRANSACTION_REPEATABLE_READ
+                || level == Connection.TRANSACTION_SERIALIZABLE, "Invalid transaction isolation level");
+        readIsolation = level;
+    }
+
+    /**
+     * Get the number of lookups performed outside of the create path.
+     * 
+     * @return the number of lookups
+     */
+    @NonNegative public long getLookupCount() {
+        return lookupCount.get();
+    }
+
+    /**
+     * Get the cumulative time spent on lookups performed outside of the create path.
+     * 
+     * @return the time in milliseconds
+     */
+    @NonNegative public long getLookupTime() {
+        return TimeUnit.NANOSECONDS.toMillis(lookupTime.get());
+    }
+
+    /**
+     * Get the number of serializable transactions run to look up and create persistent IDs, including retries.
+     * 
+     * @return the number of transactions
+     */
+    @NonNegative public long getCreateTransactionCount() {
+        return createTransactionCount.get();
+    }
+
+    /**
+     * Get the cumulative time spent on serializable transactions run to look up and create persistent IDs.
+     * 
+     * @return the time in milliseconds
+     */
+    @NonNegative public long getCreateTransactionTime() {
+        return TimeUnit.NANOSECONDS.toMillis(createTransactionTime.get());
+    }
+
+    /**
+     * Get the number of serializable transactions which were retried.
+     * 
+     * @return the number of retries
+     */
+    @NonNegative public long getRetryCount() {
+        return retryCount.get();
+    }
+
     /**
      * Set the table name.
      * 
@@ -419,14 +513,18 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
             throw new ComponentInitializationException(getLogPrefix() + " No database connection provided");
         }
         
+        final String columns = issuerColumn + ", " + recipientColumn + ", " + persistentIdColumn + ", "
+                + principalNameColumn + ", " + sourceIdColumn + ", " + peerProvidedIdColumn + ", "
+                + creationTimeColumn + ", " + deactivationTimeColumn;
+
         if (getByIssuedSelectSQL == null) {
-            getByIssuedSelectSQL = "SELECT * FROM " + tableName + " WHERE " + issuerColumn + "= ? AND "
+            getByIssuedSelectSQL = "SELECT " + columns + " FROM " + tableName + " WHERE " + issuerColumn + "= ? AND "
                     + recipientColumn + "= ? AND " + persistentIdColumn + "= ? AND "
                     + deactivationTimeColumn + " IS NULL";
         }
         
         if (getBySourceSelectSQL == null) {
-            getBySourceSelectSQL = "SELECT * FROM " + tableName + " WHERE " + issuerColumn + "= ? AND "
+            getBySourceSelectSQL = "SELECT " + columns + " FROM " + tableName + " WHERE " + issuerColumn + "= ? AND "
                     + recipientColumn + "= ? AND " + sourceIdColumn + "= ? "
                     + "AND (" + deactivationTimeColumn + " IS NULL OR "
                     + deactivationTimeColumn + " = (SELECT MAX(" + deactivationTimeColumn
@@ -491,15 +589,19 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
         log.trace("{} Setting prepared statement parameter {}: {}", getLogPrefix(), 2, spNameQualifier);
         log.trace("{} Setting prepared statement parameter {}: {}", getLogPrefix(), 3, persistentId);
 
-        try (final Connection dbConn = getConnection(true)) {
-            final PreparedStatement statement = dbConn.prepareStatement(getByIssuedSelectSQL);
+        final long start = System.nanoTime();
+        try (final Connection dbConn = getConnection(true, readIsolation);
+                final PreparedStatement statement = dbConn.prepareStatement(getByIssuedSelectSQL)) {
             statement.setQueryTimeout((int) (queryTimeout / 1000));
 
             statement.setString(1, nameQualifier);
             statement.setString(2, spNameQualifier);
             statement.setString(3, persistentId);
 
-            final List<PersistentIdEntry> entries = buildIdentifierEntries(statement.executeQuery());
+            final List<PersistentIdEntry> entries;
+            try (final ResultSet resultSet = statement.executeQuery()) {
+                entries = buildIdentifierEntries(resultSet);
+            }
 
             if (entries == null || entries.size() == 0) {
                 return null;
@@ -512,6 +614,9 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
             return entries.get(0);
         } catch (final SQLException e) {
             throw new IOException(e);
+        } finally {
+            lookupCount.incrementAndGet();
+            lookupTime.addAndGet(System.nanoTime() - start);
         }
     }
 
@@ -534,30 +639,37 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
         log.trace("{} Setting prepared statement parameter {}: {}", getLogPrefix(), 5, spNameQualifier);
         log.trace("{} Setting prepared statement parameter {}: {}", getLogPrefix(), 6, sourceId);
 
+        final long start = System.nanoTime();
+        try (final Connection dbConn = getConnection(true, readIsolation)) {
+            log.debug("{} Getting active persistent Id entry", getLogPrefix());
+            final List<PersistentIdEntry> entries = selectBySource(dbConn, nameQualifier, spNameQualifier, sourceId);
+            if (isActive(entries)) {
+                log.debug("{} Returning existing active persistent ID: {}", getLogPrefix(),
+                        entries.get(0).getPersistentId());
+                return entries.get(0);
+            } else if (!allowCreate) {
+                log.debug("{} No existing persistent ID and creation is not permitted", getLogPrefix());
+                return null;
+            }
+        } catch (final SQLException e) {
+            throw new IOException(e);
+        } finally {
+            lookupCount.incrementAndGet();
+            lookupTime.addAndGet(System.nanoTime() - start);
+        }
+
         int retries = transactionRetry;
         while (true) {
-            try (final Connection dbConn = getConnection(false)) {
-                final PreparedStatement statement = dbConn.prepareStatement(getBySourceSelectSQL);
-                statement.setQueryTimeout((int) (queryTimeout / 1000));
-                statement.setString(1, nameQualifier);
-                statement.setString(2, spNameQualifier);
-                statement.setString(3, sourceId);
-                statement.setString(4, nameQualifier);
-                statement.setString(5, spNameQualifier);
-                statement.setString(6, sourceId);
-        
+            final long transactionStart = System.nanoTime();
+            try (final Connection dbConn = getConnection(false, Connection.TRANSACTION_SERIALIZABLE)) {
                 log.debug("{} Getting active and/or last inactive persistent Id entry", getLogPrefix());
-                final List<PersistentIdEntry> entries = buildIdentifierEntries(statement.executeQuery());
-                if (entries != null && entries.size() > 0 && (entries.get(0).getDeactivationTime() == null
-                        || entries.get(0).getDeactivationTime().getTime() > System.currentTimeMillis())) {
+                final List<PersistentIdEntry> entries =
+                        selectBySource(dbConn, nameQualifier, spNameQualifier, sourceId);
+                if (isActive(entries)) {
                     log.debug("{} Returning existing active persistent ID: {}", getLogPrefix(),
                             entries.get(0).getPersistentId());
                     dbConn.commit();
                     return entries.get(0);
-                } else if (!allowCreate) {
-                    log.debug("{} No existing persistent ID and creation is not permitted", getLogPrefix());
-                    dbConn.commit();
-                    return null;
                 }
 
                 final PersistentIdEntry newEntry = new PersistentIdEntry();
@@ -596,16 +708,60 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
                         throw new IOException(e);
                     } else {
                         log.info("{} Retrying persistent ID lookup/create operation", getLogPrefix());
+                        retryCount.incrementAndGet();
                     }
                 } else {
                     throw new IOException(e);
                 }
             } catch (final SAMLException e) {
                 throw new IOException(e);
+            } finally {
+                createTransactionCount.incrementAndGet();
+                createTransactionTime.addAndGet(System.nanoTime() - transactionStart);
             }
         }
     }
 // Checkstyle: MethodLength|CyclomaticComplexity|ParameterNumber ON
+
+    /**
+     * Select the active and/or last inactive entries for a source ID, most recent first.
+     * 
+     * @param dbConn connection to obtain a statement from
+     * @param nameQualifier the issuer
+     * @param spNameQualifier the recipient
+     * @param sourceId the source ID
+     * 
+     * @return the entries
+     * @throws SQLException if an error occurs
+     */
+    @Nonnull @NonnullElements @Live private List<PersistentIdEntry> selectBySource(@Nonnull final Connection dbConn,
+            @Nonnull @NotEmpty final String nameQualifier, @Nonnull @NotEmpty final String spNameQualifier,
+            @Nonnull @NotEmpty final String sourceId) throws SQLException {
+        try (final PreparedStatement statement = dbConn.prepareStatement(getBySourceSelectSQL)) {
+            statement.setQueryTimeout((int) (queryTimeout / 1000));
+            statement.setString(1, nameQualifier);
+            statement.setString(2, spNameQualifier);
+            statement.setString(3, sourceId);
+            statement.setString(4, nameQualifier);
+            statement.setString(5, spNameQualifier);
+            statement.setString(6, sourceId);
+            try (final ResultSet resultSet = statement.executeQuery()) {
+                return buildIdentifierEntries(resultSet);
+            }
+        }
+    }
+
+    /**
+     * Check whether the most recent of a list of entries is active.
+     * 
+     * @param entries the entries, most recent first
+     * 
+     * @return whether the first entry is active
+     */
+    private boolean isActive(@Nullable final List<PersistentIdEntry> entries) {
+        return entries != null && entries.size() > 0 && (entries.get(0).getDeactivationTime() == null
+                || entries.get(0).getDeactivationTime().getTime() > System.currentTimeMillis());
+    }
     
     /** {@inheritDoc} */
     @Override
@@ -629,8 +785,8 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
         log.trace("{} Setting prepared statement parameter {}: {}", getLogPrefix(), 3, spNameQualifier);
         log.trace("{} Setting prepared statement parameter {}: {}", getLogPrefix(), 4, persistentId);
         
-        try (final Connection dbConn = getConnection(true)) {
-            final PreparedStatement statement = dbConn.prepareStatement(deactivateSQL);
+        try (final Connection dbConn = getConnection(true, Connection.TRANSACTION_SERIALIZABLE);
+                final PreparedStatement statement = dbConn.prepareStatement(deactivateSQL)) {
             statement.setQueryTimeout((int) (queryTimeout / 1000));
             statement.setTimestamp(1, deactivationTime);
             statement.setString(2, nameQualifier);
@@ -661,8 +817,8 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
         log.trace("{} Setting prepared statement parameter {}: {}", getLogPrefix(), 3, spNameQualifier);
         log.trace("{} Setting prepared statement parameter {}: {}", getLogPrefix(), 4, persistentId);
         
-        try (final Connection dbConn = getConnection(true)) {
-            final PreparedStatement statement = dbConn.prepareStatement(deactivateSQL);
+        try (final Connection dbConn = getConnection(true, Connection.TRANSACTION_SERIALIZABLE);
+                final PreparedStatement statement = dbConn.prepareStatement(deactivateSQL)) {
             statement.setQueryTimeout((int) (queryTimeout / 1000));
             statement.setString(1, spProvidedId);
             statement.setString(2, nameQualifier);
@@ -710,27 +866,28 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
         log.trace("{} Setting prepared statement parameter {}: {}", getLogPrefix(), 7, entry.getCreationTime());
         log.trace("{} Setting prepared statement parameter {}: {}", getLogPrefix(), 8, entry.getDeactivationTime());
         
-        final PreparedStatement statement = dbConn.prepareStatement(insertSQL);
-        statement.setQueryTimeout((int) (queryTimeout / 1000));
-    
-        statement.setString(1, entry.getIssuerEntityId());
-        statement.setString(2, entry.getRecipientEntityId());
-        statement.setString(3, entry.getPersistentId());
-        statement.setString(4, entry.getPrincipalName());
-        statement.setString(5, entry.getSourceId());
-        if (entry.getPeerProvidedId() != null) {
-            statement.setString(6, entry.getPeerProvidedId());
-        } else {
-            statement.setNull(6, Types.VARCHAR);
-        }
-        statement.setTimestamp(7, entry.getCreationTime());
-        if (entry.getDeactivationTime() != null) {
-            statement.setTimestamp(8, entry.getDeactivationTime());
-        } else {
-            statement.setNull(8, Types.TIMESTAMP);
+        try (final PreparedStatement statement = dbConn.prepareStatement(insertSQL)) {
+            statement.setQueryTimeout((int) (queryTimeout / 1000));
+        
+            statement.setString(1, entry.getIssuerEntityId());
+            statement.setString(2, entry.getRecipientEntityId());
+            statement.setString(3, entry.getPersistentId());
+            statement.setString(4, entry.getPrincipalName());
+            statement.setString(5, entry.getSourceId());
+            if (entry.getPeerProvidedId() != null) {
+                statement.setString(6, entry.getPeerProvidedId());
+            } else {
+                statement.setNull(6, Types.VARCHAR);
+            }
+            statement.setTimestamp(7, entry.getCreationTime());
+            if (entry.getDeactivationTime() != null) {
+                statement.setTimestamp(8, entry.getDeactivationTime());
+            } else {
+                statement.setNull(8, Types.TIMESTAMP);
+            }
+        
+            statement.executeUpdate();
         }
-    
-        statement.executeUpdate();
     }
 
     /**
@@ -739,14 +896,15 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
      * <p>The caller must close the connection.</p>
      * 
      * @param autoCommit auto-commit setting to apply to the connection
+     * @param isolation transaction isolation level to apply to the connection
      * 
      * @return a fresh connection
      * @throws SQLException if an error occurs
      */
-    @Nonnull private Connection getConnection(final boolean autoCommit) throws SQLException {
+    @Nonnull private Connection getConnection(final boolean autoCommit, final int isolation) throws SQLException {
         final Connection conn = dataSource.getConnection();
         conn.setAutoCommit(autoCommit);
-        conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+        conn.setTransactionIsolation(isolation);
         return conn;
     }
     
@@ -767,14 +925,14 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
         newEntry.setCreationTime(new Timestamp(System.currentTimeMillis()));
         newEntry.setPersistentId(uuid);
         
-        try (final Connection conn = getConnection(true)) {
+        try (final Connection conn = getConnection(true, Connection.TRANSACTION_SERIALIZABLE)) {
             store(newEntry, conn);
         } finally {
             
         }
 
         boolean keyMissing = false;
-        try (final Connection conn = getConnection(true)) {
+        try (final Connection conn = getConnection(true, Connection.TRANSACTION_SERIALIZABLE)) {
             store(newEntry, conn);
             keyMissing = true;
         } catch (final SQLException e) {
@@ -786,8 +944,8 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
             
         }
 
-        try (final Connection conn = getConnection(true)) {
-            final PreparedStatement statement = conn.prepareStatement(deleteSQL);
+        try (final Connection conn = getConnection(true, Connection.TRANSACTION_SERIALIZABLE);
+                final PreparedStatement statement = conn.prepareStatement(deleteSQL)) {
             statement.setQueryTimeout((int) (queryTimeout / 1000));
             statement.setString(1, "http://dummy.com/idp/" + uuid);
             statement.executeUpdate();
@@ -0,0 +1,167 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.saml.profile.impl;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
+import net.shibboleth.utilities.java.support.resolver.Criterion;
+import net.shibboleth.utilities.java.support.resolver.ResolverException;
+
+import org.opensaml.saml.common.binding.EndpointResolver;
+import org.opensaml.saml.criterion.BindingCriterion;
+import org.opensaml.saml.criterion.EndpointCriterion;
+import org.opensaml.saml.criterion.RoleDescriptorCriterion;
+import org.opensaml.saml.saml2.metadata.Endpoint;
+import org.opensaml.saml.saml2.metadata.IndexedEndpoint;
+import org.opensaml.saml.saml2.metadata.RoleDescriptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * An {@link EndpointResolver} that wraps another resolver and remembers the endpoint selected for a given
+ * combination of metadata role, candidate bindings, and requested endpoint.
+ *
+ * <p>Results are keyed on the identity of the {@link RoleDescriptor} supplied in the criteria. Both the role and
+ * the selected endpoints, whose parent chain leads back to the role, are held weakly, so once a metadata refresh
+ * replaces a role nothing cached against it keeps the old metadata in memory, and the new role starts with no
+ * entries. The number of roles tracked is also bounded. Only
+ * {@link #resolveSingle(CriteriaSet)} calls that require validation against metadata are cached; trusted
+ * endpoints, calls without metadata, and calls with additional criteria always go to the wrapped resolver.</p>
+ */
+public class CachingEndpointResolver implements EndpointResolver<Endpoint> {
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(CachingEndpointResolver.class);
+
+    /** The resolver to delegate to. */
+    @Nonnull private final EndpointResolver<? extends Endpoint> endpointResolver;
+
+    /** Maximum number of roles to hold endpoints for. */
+    private static final long MAX_ROLES = 10000;
+
+    /** Resolved endpoints, by role and then by request key. */
+    @Nonnull private final Cache<RoleDescriptor,ConcurrentMap<String,WeakReference<Endpoint>>> cache;
+
+    /**
+     * Constructor.
+     *
+     * @param resolver the resolver to wrap
+     */
+    public CachingEndpointResolver(@Nonnull final EndpointResolver<? extends Endpoint> resolver) {
+        endpointResolver = Constraint.isNotNull(resolver, "EndpointResolver cannot be null");
+        cache = CacheBuilder.newBuilder().weakKeys().maximumSize(MAX_ROLES).build();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @SuppressWarnings("unchecked")
+    @Nonnull public Iterable<Endpoint> resolve(@Nullable final CriteriaSet criteria) throws ResolverException {
+        return (Iterable<Endpoint>) endpointResolver.resolve(criteria);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nullable public Endpoint resolveSingle(@Nullable final CriteriaSet criteria) throws ResolverException {
+        final RoleDescriptorCriterion roleCriterion =
+                criteria != null ? criteria.get(RoleDescriptorCriterion.class) : null;
+        final String key = getCacheKey(criteria);
+        if (roleCriterion == null || key == null) {
+            return endpointResolver.resolveSingle(criteria);
+        }
+
+        final RoleDescriptor role = roleCriterion.getRole();
+        ConcurrentMap<String,WeakReference<Endpoint>> endpoints = cache.getIfPresent(role);
+        if (endpoints != null) {
+            final WeakReference<Endpoint> ref = endpoints.get(key);
+            final Endpoint endpoint = ref != null ? ref.get() : null;
+            if (endpoint != null) {
+                log.trace("Using cached endpoint at location {}", endpoint.getLocation());
+                return endpoint;
+            }
+        }
+
+        final Endpoint endpoint = endpointResolver.resolveSingle(criteria);
+        if (endpoint != null) {
+            if (endpoints == null) {
+                endpoints = new ConcurrentHashMap<>();
+                final ConcurrentMap<String,WeakReference<Endpoint>> existing =
+                        cache.asMap().putIfAbsent(role, endpoints);
+                if (existing != null) {
+                    endpoints = existing;
+                }
+            }
+            endpoints.put(key, new WeakReference<>(endpoint));
+        }
+        return endpoint;
+    }
+
+    /** Discard all cached endpoints. */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Compute a key capturing everything in the criteria that can affect the result, or null if the
+     * criteria are not eligible for caching.
+     *
+     * @param criteria input criteria
+     *
+     * @return the key, or null
+     */
+    @Nullable private String getCacheKey(@Nullable final CriteriaSet criteria) {
+        if (criteria == null) {
+            return null;
+        }
+
+        final EndpointCriterion<?> endpointCriterion = criteria.get(EndpointCriterion.class);
+        final BindingCriterion bindingCriterion = criteria.get(BindingCriterion.class);
+        if (endpointCriterion == null || endpointCriterion.isTrusted() || bindingCriterion == null) {
+            return null;
+        }
+
+        for (final Criterion criterion : criteria) {
+            if (!(criterion instanceof EndpointCriterion || criterion instanceof BindingCriterion
+                    || criterion instanceof RoleDescriptorCriterion)) {
+                return null;
+            }
+        }
+
+        final Endpoint template = endpointCriterion.getEndpoint();
+        final StringBuilder builder = new StringBuilder(128);
+        builder.append(template.getElementQName()).append('!')
+            .append(bindingCriterion.getBindings()).append('!')
+            .append(template.getBinding()).append('!')
+            .append(template.getLocation()).append('!')
+            .append(template.getResponseLocation());
+        if (template instanceof IndexedEndpoint) {
+            builder.append('!').append(((IndexedEndpoint) template).getIndex());
+        }
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.saml.saml2.binding.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+
+import javax.annotation.Nonnull;
+
+import net.shibboleth.utilities.java.support.codec.HTMLEncoder;
+import net.shibboleth.utilities.java.support.xml.SerializeSupport;
+
+import org.apache.velocity.VelocityContext;
+import org.opensaml.messaging.context.MessageContext;
+import org.opensaml.messaging.encoder.MessageEncodingException;
+import org.opensaml.saml.common.SAMLObject;
+import org.opensaml.saml.common.binding.SAMLBindingSupport;
+import org.opensaml.saml.saml2.binding.encoding.impl.HTTPPostEncoder;
+import org.opensaml.saml.saml2.core.RequestAbstractType;
+import org.opensaml.saml.saml2.core.StatusResponseType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
+
+import com.google.common.io.BaseEncoding;
+
+/**
+ * Variant of the SAML 2 HTTP-POST encoder that serializes the marshalled message directly into a base64
+ * encoding stream.
+ *
+ * <p>The parent class serializes the DOM into a string, converts that to a UTF-8 byte array, and then
+ * base64-encodes the array. This class produces identical output without the intermediate string and byte
+ * array. The encoded form field is still accumulated in a buffer and copied once into the string handed to the
+ * template, and marshalling and signing are unchanged, so the DOM itself is still built.</p>
+ */
+public class StreamingHTTPPostEncoder extends HTTPPostEncoder {
+
+    /** Initial size of the output buffer. */
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(StreamingHTTPPostEncoder.class);
+
+    /** {@inheritDoc} */
+    @Override
+    protected void populateVelocityContext(final VelocityContext velocityContext,
+            final MessageContext<SAMLObject> messageContext, final String endpointURL)
+                    throws MessageEncodingException {
+
+        final String encodedEndpointURL = HTMLEncoder.encodeForHTMLAttribute(endpointURL);
+        log.debug("Encoding action url of '{}' with encoded value '{}'", endpointURL, encodedEndpointURL);
+        velocityContext.put("action", encodedEndpointURL);
+        velocityContext.put("binding", getBindingURI());
+
+        final SAMLObject outboundMessage = messageContext.getMessage();
+
+        log.debug("Marshalling and Base64 encoding SAML message");
+        final Element domMessage = marshallMessage(outboundMessage);
+
+        final String encodedMessage = encodeMessage(domMessage);
+        if (outboundMessage instanceof RequestAbstractType) {
+            velocityContext.put("SAMLRequest", encodedMessage);
+        } else if (outboundMessage instanceof StatusResponseType) {
+            velocityContext.put("SAMLResponse", encodedMessage);
+        } else {
+            throw new MessageEncodingException(
+                    "SAML message is neither a SAML RequestAbstractType or StatusResponseType");
+        }
+
+        final String relayState = SAMLBindingSupport.getRelayState(messageContext);
+        if (SAMLBindingSupport.checkRelayState(relayState)) {
+            final String encodedRelayState = HTMLEncoder.encodeForHTMLAttribute(relayState);
+            log.debug("Setting RelayState parameter to: '{}', encoded as '{}'", relayState, encodedRelayState);
+            velocityContext.put("RelayState", encodedRelayState);
+        }
+    }
+
+    /**
+     * Serialize a DOM element as UTF-8 and base64-encode the result in a single pass.
+     *
+     * @param domMessage the element to encode
+     *
+     * @return the unchunked base64 encoding of the serialized element
+     *
+     * @throws MessageEncodingException if the element cannot be serialized
+     */
+    @Nonnull protected String encodeMessage(@Nonnull final Element domMessage) throws MessageEncodingException {
+        final StringWriter writer = new StringWriter(INITIAL_BUFFER_SIZE);
+        try (final OutputStream out = BaseEncoding.base64().encodingStream(writer)) {
+            SerializeSupport.writeNode(domMessage, out);
+        } catch (final IOException e) {
+            throw new MessageEncodingException("Unable to serialize and encode SAML message", e);
+        }
+
+        return writer.toString();
+    }
+
+}
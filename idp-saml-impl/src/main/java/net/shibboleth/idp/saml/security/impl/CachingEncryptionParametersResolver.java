@@ -0,0 +1,290 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.saml.security.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
+import net.shibboleth.utilities.java.support.resolver.Criterion;
+import net.shibboleth.utilities.java.support.resolver.ResolverException;
+
+import org.opensaml.core.criterion.EntityIdCriterion;
+import org.opensaml.saml.criterion.EntityRoleCriterion;
+import org.opensaml.saml.criterion.ProtocolCriterion;
+import org.opensaml.saml.criterion.RoleDescriptorCriterion;
+import org.opensaml.saml.saml2.metadata.RoleDescriptor;
+import org.opensaml.security.credential.BasicCredential;
+import org.opensaml.security.credential.Credential;
+import org.opensaml.security.x509.BasicX509Credential;
+import org.opensaml.security.x509.X509Credential;
+import org.opensaml.xmlsec.EncryptionConfiguration;
+import org.opensaml.xmlsec.EncryptionParameters;
+import org.opensaml.xmlsec.EncryptionParametersResolver;
+import org.opensaml.xmlsec.criterion.EncryptionConfigurationCriterion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * An {@link EncryptionParametersResolver} that wraps another resolver and remembers the parameters resolved
+ * for a given peer role and set of {@link EncryptionConfiguration} objects.
+ *
+ * <p>Results are keyed on the identity of the {@link RoleDescriptor} supplied in the criteria, and held weakly,
+ * so a metadata refresh that replaces the role invalidates everything cached against it. Within a role,
+ * results are keyed on the identity of the configurations in effect. The number of roles is bounded and entries
+ * expire, so resolution is repeated periodically.</p>
+ *
+ * <p>The key transport credential is cached as a copy without its credential context, because that context
+ * refers back to the metadata the role belongs to and would keep the role from being released. Each caller
+ * receives its own copy of the cached parameters, so changes made by one request are not seen by others.</p>
+ *
+ * <p>Only calls that supply role metadata, and no criteria other than the configurations and the entityID,
+ * protocol and role that the metadata implies, are cached. Parameters carrying a data encryption credential
+ * are never cached, so that a generated content key is not reused.</p>
+ */
+public class CachingEncryptionParametersResolver implements EncryptionParametersResolver {
+
+    /** Maximum number of configuration sets cached per role. */
+    private static final int MAX_CONFIGURATIONS_PER_ROLE = 16;
+
+    /** Maximum number of roles cached. */
+    private static final long MAX_ROLES = 10000;
+
+    /** Lifetime of cached entries in minutes. */
+    private static final long EXPIRATION_MINUTES = 60;
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(CachingEncryptionParametersResolver.class);
+
+    /** The resolver to delegate to. */
+    @Nonnull private final EncryptionParametersResolver parametersResolver;
+
+    /** Resolved parameters, by role and then by configuration set. */
+    @Nonnull private final Cache<RoleDescriptor,Cache<ConfigurationKey,EncryptionParameters>> cache;
+
+    /**
+     * Constructor.
+     *
+     * @param resolver the resolver to wrap
+     */
+    public CachingEncryptionParametersResolver(@Nonnull final EncryptionParametersResolver resolver) {
+        parametersResolver = Constraint.isNotNull(resolver, "EncryptionParametersResolver cannot be null");
+        cache = CacheBuilder.newBuilder().weakKeys().maximumSize(MAX_ROLES)
+                .expireAfterWrite(EXPIRATION_MINUTES, TimeUnit.MINUTES).build();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull public Iterable<EncryptionParameters> resolve(@Nullable final CriteriaSet criteria)
+            throws ResolverException {
+        final EncryptionParameters params = resolveSingle(criteria);
+        if (params != null) {
+            return Collections.singletonList(params);
+        }
+        return Collections.emptyList();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nullable public EncryptionParameters resolveSingle(@Nullable final CriteriaSet criteria)
+            throws ResolverException {
+        if (!isCacheable(criteria)) {
+            return parametersResolver.resolveSingle(criteria);
+        }
+
+        final RoleDescriptor role = criteria.get(RoleDescriptorCriterion.class).getRole();
+        final ConfigurationKey key =
+                new ConfigurationKey(criteria.get(EncryptionConfigurationCriterion.class).getConfigurations());
+
+        Cache<ConfigurationKey,EncryptionParameters> roleCache = cache.getIfPresent(role);
+        if (roleCache != null) {
+            final EncryptionParameters params = roleCache.getIfPresent(key);
+            if (params != null) {
+                log.trace("Using cached EncryptionParameters");
+                return copy(params, params.getKeyTransportEncryptionCredential());
+            }
+        }
+
+        final EncryptionParameters params = parametersResolver.resolveSingle(criteria);
+        if (params != null && params.getDataEncryptionCredential() == null) {
+            final Credential detached = detach(params.getKeyTransportEncryptionCredential());
+            if (detached == null && params.getKeyTransportEncryptionCredential() != null) {
+                log.trace("Key transport credential of type {} cannot be cached",
+                        params.getKeyTransportEncryptionCredential().getClass().getName());
+                return params;
+            }
+            if (roleCache == null) {
+                try {
+                    roleCache = cache.get(role, new Callable<Cache<ConfigurationKey,EncryptionParameters>>() {
+                        public Cache<ConfigurationKey,EncryptionParameters> call() {
+                            return CacheBuilder.newBuilder().maximumSize(MAX_CONFIGURATIONS_PER_ROLE).build();
+                        }
+                    });
+                } catch (final ExecutionException e) {
+                    log.error("Error creating cache for EncryptionParameters", e);
+                    return params;
+                }
+            }
+            roleCache.put(key, copy(params, detached));
+        }
+        return params;
+    }
+
+    /** Discard all cached parameters. */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Copy a set of parameters.
+     *
+     * @param params the parameters to copy
+     * @param keyTransportCredential the key transport credential to use in the copy
+     *
+     * @return the copy
+     */
+    @Nonnull private EncryptionParameters copy(@Nonnull final EncryptionParameters params,
+            @Nullable final Credential keyTransportCredential) {
+        final EncryptionParameters copy = new EncryptionParameters();
+        copy.setDataEncryptionCredential(params.getDataEncryptionCredential());
+        copy.setDataEncryptionAlgorithm(params.getDataEncryptionAlgorithm());
+        copy.setDataKeyInfoGenerator(params.getDataKeyInfoGenerator());
+        copy.setKeyTransportEncryptionCredential(keyTransportCredential);
+        copy.setKeyTransportEncryptionAlgorithm(params.getKeyTransportEncryptionAlgorithm());
+        copy.setKeyTransportKeyInfoGenerator(params.getKeyTransportKeyInfoGenerator());
+        return copy;
+    }
+
+    /**
+     * Copy a public key credential without its credential context.
+     *
+     * @param credential the credential to copy
+     *
+     * @return the copy, or null if the input was null or is not a public key credential
+     */
+    @Nullable private Credential detach(@Nullable final Credential credential) {
+        if (credential == null || credential.getPrivateKey() != null || credential.getSecretKey() != null) {
+            return null;
+        }
+
+        final BasicCredential copy;
+        if (credential instanceof X509Credential) {
+            final X509Credential x509 = (X509Credential) credential;
+            final BasicX509Credential x509Copy = new BasicX509Credential(x509.getEntityCertificate());
+            x509Copy.setEntityCertificateChain(x509.getEntityCertificateChain());
+            x509Copy.setCRLs(x509.getCRLs());
+            copy = x509Copy;
+        } else if (credential.getPublicKey() != null) {
+            copy = new BasicCredential(credential.getPublicKey());
+        } else {
+            return null;
+        }
+        copy.setEntityId(credential.getEntityId());
+        copy.setUsageType(credential.getUsageType());
+        copy.getKeyNames().addAll(credential.getKeyNames());
+        return copy;
+    }
+
+    /**
+     * Check whether the criteria are eligible for caching.
+     *
+     * @param criteria input criteria
+     *
+     * @return true iff the result of resolution may be cached
+     */
+    private boolean isCacheable(@Nullable final CriteriaSet criteria) {
+        if (criteria == null || !criteria.contains(RoleDescriptorCriterion.class)
+                || !criteria.contains(EncryptionConfigurationCriterion.class)) {
+            return false;
+        }
+
+        for (final Criterion criterion : criteria) {
+            if (!(criterion instanceof RoleDescriptorCriterion
+                    || criterion instanceof EncryptionConfigurationCriterion || criterion instanceof EntityIdCriterion
+                    || criterion instanceof ProtocolCriterion || criterion instanceof EntityRoleCriterion)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /** Key comparing a list of configurations by identity. */
+    private static final class ConfigurationKey {
+
+        /** The configurations. */
+        @Nonnull @NonnullElements private final List<EncryptionConfiguration> configurations;
+
+        /** Precomputed hash code. */
+        private final int hashCode;
+
+        /**
+         * Constructor.
+         *
+         * @param configs configurations in effect
+         */
+        private ConfigurationKey(@Nonnull @NonnullElements final List<EncryptionConfiguration> configs) {
+            configurations = new ArrayList<>(configs);
+            int hash = 1;
+            for (final EncryptionConfiguration config : configurations) {
+                hash = 31 * hash + System.identityHashCode(config);
+            }
+            hashCode = hash;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public boolean equals(final Object obj) {
+            if (obj == this) {
+                return true;
+            } else if (!(obj instanceof ConfigurationKey)) {
+                return false;
+            }
+
+            final List<EncryptionConfiguration> other = ((ConfigurationKey) obj).configurations;
+            if (other.size() != configurations.size()) {
+                return false;
+            }
+            for (int i = 0; i < configurations.size(); i++) {
+                if (other.get(i) != configurations.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+}
@@ -39,6 +39,9 @@ import org.slf4j.LoggerFactory;
 /**
  * An implementation of {@link MetadataNodeProcessor} which supports processing the 
  * Shibboleth {@link KeyAuthority} information within a metadata document.
+ * 
+ * <p>Validation information is extracted at load time, both for authorities attached to groups and for those
+ * attached directly to an entity, so that trust evaluation does not have to parse it on first use.</p>
  */
 public class KeyAuthorityNodeProcessor implements MetadataNodeProcessor {
     
@@ -74,19 +77,7 @@ public class KeyAuthorityNodeProcessor implements MetadataNodeProcessor {
         log.debug("Saw at least one KeyAuthority for EntitiesDescriptor with id '{}', name '{}'", 
                 entitiesDescriptor.getID(), entitiesDescriptor.getName());
         
-        for (XMLObject keyAuthority : keyAuthorities) {
-            try {
-                PKIXValidationInformation pkixInfo = KeyAuthoritySupport.
-                        extractPKIXValidationInfo((KeyAuthority) keyAuthority);
-                if (pkixInfo != null) {
-                    keyAuthority.getObjectMetadata().put(pkixInfo);
-                }
-            } catch (SecurityException e) {
-                //TODO should throw here or just log error and continue?  
-                throw new FilterException("Error extracting PKIX validation info from KeyAuthority", e);
-            }
-        }
-        
+        extractPKIXValidationInfo(keyAuthorities);
     }
 
     /**
@@ -97,6 +88,16 @@ public class KeyAuthorityNodeProcessor implements MetadataNodeProcessor {
      * @throws FilterException if there is a fatal error during processing
      */
     protected void handleEntityDescriptor(EntityDescriptor entityDescriptor) throws FilterException {
+        if (entityDescriptor.getExtensions() != null) {
+            final List<XMLObject> keyAuthorities =
+                    entityDescriptor.getExtensions().getUnknownXMLObjects(KeyAuthority.DEFAULT_ELEMENT_NAME);
+            if (keyAuthorities != null && !keyAuthorities.isEmpty()) {
+                log.debug("Saw at least one KeyAuthority for EntityDescriptor with entityID '{}'",
+                        entityDescriptor.getEntityID());
+                extractPKIXValidationInfo(keyAuthorities);
+            }
+        }
+        
         XMLObject currentParent = entityDescriptor.getParent();
         while (currentParent != null) {
             if (currentParent instanceof EntitiesDescriptor) {
@@ -109,6 +110,32 @@ public class KeyAuthorityNodeProcessor implements MetadataNodeProcessor {
         }
     }
     
+    /**
+     * Extract the validation information from a list of KeyAuthority elements and attach it to each
+     * element's object metadata.
+     * 
+     * @param keyAuthorities the KeyAuthority elements to process
+     * 
+     * @throws FilterException if the validation information cannot be extracted
+     */
+    private void extractPKIXValidationInfo(@Nonnull final List<XMLObject> keyAuthorities) throws FilterException {
+        for (XMLObject keyAuthority : keyAuthorities) {
+            if (!keyAuthority.getObjectMetadata().get(PKIXValidationInformation.class).isEmpty()) {
+                continue;
+            }
+            try {
+                PKIXValidationInformation pkixInfo = KeyAuthoritySupport.
+                        extractPKIXValidationInfo((KeyAuthority) keyAuthority);
+                if (pkixInfo != null) {
+                    keyAuthority.getObjectMetadata().put(pkixInfo);
+                }
+            } catch (SecurityException e) {
+                //TODO should throw here or just log error and continue?  
+                throw new FilterException("Error extracting PKIX validation info from KeyAuthority", e);
+            }
+        }
+    }
+    
     /**
      * Get the list of KeyAuthority's from an EntitiesDescriptor's Extensions.
      * 
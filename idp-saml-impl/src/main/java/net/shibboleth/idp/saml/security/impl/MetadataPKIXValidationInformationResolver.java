@@ -23,6 +23,8 @@ import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import javax.annotation.Nonnull;
@@ -57,6 +59,11 @@ import org.opensaml.xmlsec.signature.KeyInfo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
 /**
  * An implementation of {@link PKIXValidationInformationResolver} which resolves {@link PKIXValidationInformation} based
  * on information stored in SAML 2 metadata. Validation information is retrieved from Shibboleth-specific metadata
@@ -66,6 +73,10 @@ import org.slf4j.LoggerFactory;
  * 
  * Resolution of trusted names for an entity is also supported, based on {@link org.opensaml.xmlsec.signature.KeyName}
  * information contained within the {@link KeyInfo} of a role descriptor's {@link KeyDescriptor} element.
+ * 
+ * The validation information for each {@link EntityDescriptor}, and the trusted names for each
+ * {@link RoleDescriptor} and usage, are computed once and cached against the metadata objects themselves, which
+ * are held weakly. A metadata refresh that replaces those objects therefore replaces the cached results too.
  */
 public class MetadataPKIXValidationInformationResolver extends AbstractInitializableComponent
         implements PKIXValidationInformationResolver {
@@ -79,6 +90,12 @@ public class MetadataPKIXValidationInformationResolver extends AbstractInitializ
     /** Metadata RoleDescriptor resolver used to resolve metadata information. */
     @Nonnull private RoleDescriptorResolver roleDescriptorResolver;
 
+    /** Validation information by entity. */
+    @Nonnull private final Cache<EntityDescriptor,List<PKIXValidationInformation>> entityPKIXInfoCache;
+
+    /** Trusted names by role and key usage. */
+    @Nonnull private final Cache<RoleDescriptor,ConcurrentMap<UsageType,Set<String>>> trustedNamesCache;
+
     /**
      * Constructor.
      * 
@@ -86,6 +103,8 @@ public class MetadataPKIXValidationInformationResolver extends AbstractInitializ
      */
     public MetadataPKIXValidationInformationResolver(@Nonnull final RoleDescriptorResolver resolver) {
         roleDescriptorResolver = Constraint.isNotNull(resolver, "RoleDescriptor resolver cannot be null");
+        entityPKIXInfoCache = CacheBuilder.newBuilder().weakKeys().build();
+        trustedNamesCache = CacheBuilder.newBuilder().weakKeys().build();
     }
 
     /**
@@ -231,19 +250,29 @@ public class MetadataPKIXValidationInformationResolver extends AbstractInitializ
         if (roleDescriptor.getParent() instanceof EntityDescriptor) {
             final EntityDescriptor entityDescriptor = (EntityDescriptor) roleDescriptor.getParent();
 
-            resolvePKIXInfo(accumulator, entityDescriptor.getExtensions());
-
-            // These would have been cached on the EntityDescriptor by another mechanism,
-            // for example via pre-processing by the MetadataResolver.
-            final LockableClassToInstanceMultiMap<Object> entityDescriptorObjectMetadata =
-                    entityDescriptor.getObjectMetadata();
-            final ReadWriteLock rwlock = entityDescriptorObjectMetadata.getReadWriteLock();
-            try {
-                rwlock.readLock().lock();
-                accumulator.addAll(entityDescriptorObjectMetadata.get(PKIXValidationInformation.class));
-            } finally {
-                rwlock.readLock().unlock();
+            List<PKIXValidationInformation> entityPKIXInfo = entityPKIXInfoCache.getIfPresent(entityDescriptor);
+            if (entityPKIXInfo == null) {
+                final Collection<PKIXValidationInformation> entityAccumulator = new LinkedHashSet<>();
+                
+                resolvePKIXInfo(entityAccumulator, entityDescriptor.getExtensions());
+    
+                // These would have been cached on the EntityDescriptor by another mechanism,
+                // for example via pre-processing by the MetadataResolver.
+                final LockableClassToInstanceMultiMap<Object> entityDescriptorObjectMetadata =
+                        entityDescriptor.getObjectMetadata();
+                final ReadWriteLock rwlock = entityDescriptorObjectMetadata.getReadWriteLock();
+                try {
+                    rwlock.readLock().lock();
+                    entityAccumulator.addAll(entityDescriptorObjectMetadata.get(PKIXValidationInformation.class));
+                } finally {
+                    rwlock.readLock().unlock();
+                }
+                
+                entityPKIXInfo = ImmutableList.copyOf(entityAccumulator);
+                entityPKIXInfoCache.put(entityDescriptor, entityPKIXInfo);
             }
+            
+            accumulator.addAll(entityPKIXInfo);
         }
 
     }
@@ -358,22 +387,53 @@ public class MetadataPKIXValidationInformationResolver extends AbstractInitializ
         }
 
         for (final RoleDescriptor roleDescriptor : roleDescriptors) {
-            final List<KeyDescriptor> keyDescriptors = roleDescriptor.getKeyDescriptors();
-            for (final KeyDescriptor keyDescriptor : keyDescriptors) {
-                UsageType mdUsage = keyDescriptor.getUse();
-                if (mdUsage == null) {
-                    mdUsage = UsageType.UNSPECIFIED;
-                }
-                if (matchUsage(mdUsage, usage)) {
-                    if (keyDescriptor.getKeyInfo() != null) {
-                        getTrustedNames(trustedNames, keyDescriptor.getKeyInfo());
-                    }
-                }
+            trustedNames.addAll(getTrustedNames(roleDescriptor, usage));
+        }
+
+        return trustedNames;
+    }
+
+    /**
+     * Get the trusted names for a role descriptor and usage, computing and caching them if necessary.
+     * 
+     * @param roleDescriptor the role descriptor from which to extract trusted names
+     * @param usage usage specifier for key descriptors to evaluate
+     * 
+     * @return immutable set of trusted names
+     */
+    @Nonnull private Set<String> getTrustedNames(@Nonnull final RoleDescriptor roleDescriptor,
+            @Nonnull final UsageType usage) {
+        ConcurrentMap<UsageType,Set<String>> namesByUsage = trustedNamesCache.getIfPresent(roleDescriptor);
+        if (namesByUsage != null) {
+            final Set<String> names = namesByUsage.get(usage);
+            if (names != null) {
+                return names;
+            }
+        } else {
+            namesByUsage = new ConcurrentHashMap<>();
+            final ConcurrentMap<UsageType,Set<String>> existing =
+                    trustedNamesCache.asMap().putIfAbsent(roleDescriptor, namesByUsage);
+            if (existing != null) {
+                namesByUsage = existing;
             }
+        }
 
+        final Set<String> accumulator = new HashSet<>();
+        for (final KeyDescriptor keyDescriptor : roleDescriptor.getKeyDescriptors()) {
+            UsageType mdUsage = keyDescriptor.getUse();
+            if (mdUsage == null) {
+                mdUsage = UsageType.UNSPECIFIED;
+            }
+            if (matchUsage(mdUsage, usage)) {
+                if (keyDescriptor.getKeyInfo() != null) {
+                    getTrustedNames(accumulator, keyDescriptor.getKeyInfo());
+                }
+            }
         }
 
-        return trustedNames;
+        final Set<String> names = ImmutableSet.copyOf(accumulator);
+        namesByUsage.put(usage, names);
+        return names;
     }
 
     /**
@@ -0,0 +1,204 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.saml.metadata.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
+import net.shibboleth.utilities.java.support.resolver.ResolverException;
+
+import org.opensaml.core.criterion.EntityIdCriterion;
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.XMLObjectBaseTestCase;
+import org.opensaml.saml.metadata.resolver.filter.FilterException;
+import org.opensaml.saml.metadata.resolver.filter.MetadataNodeProcessor;
+import org.opensaml.saml.metadata.resolver.filter.impl.NodeProcessingMetadataFilter;
+import org.opensaml.saml.saml2.metadata.EntitiesDescriptor;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/** Unit test for {@link CompactFilesystemMetadataResolver}. */
+public class CompactFilesystemMetadataResolverTest extends XMLObjectBaseTestCase {
+
+    private static final String SP1 = "https://sp1.example.org";
+
+    private static final String SP2 = "https://sp2.example.org";
+
+    private File metadataFile;
+
+    private CompactFilesystemMetadataResolver resolver;
+
+    @BeforeMethod public void setUp() throws IOException, ComponentInitializationException {
+        metadataFile = File.createTempFile("compact", ".xml");
+        writeMetadata("urn:oasis:names:tc:SAML:2.0:protocol", 0);
+
+        resolver = new CompactFilesystemMetadataResolver(metadataFile);
+        resolver.setId("compact");
+        resolver.setParserPool(parserPool);
+        resolver.initialize();
+    }
+
+    @AfterMethod public void tearDown() {
+        resolver.destroy();
+        metadataFile.delete();
+    }
+
+    @Test public void testResolve() throws ResolverException {
+        final EntityDescriptor sp1 = resolver.resolveSingle(criteriaFor(SP1));
+        Assert.assertNotNull(sp1);
+        Assert.assertEquals(sp1.getEntityID(), SP1);
+        Assert.assertNotNull(sp1.getSPSSODescriptor("urn:oasis:names:tc:SAML:2.0:protocol"));
+        Assert.assertTrue(sp1.getParent() instanceof EntitiesDescriptor);
+        Assert.assertEquals(((EntitiesDescriptor) sp1.getParent()).getName(), "group");
+        Assert.assertSame(resolver.resolveSingle(criteriaFor(SP1)), sp1);
+
+        Assert.assertNotNull(resolver.resolveSingle(criteriaFor(SP2)));
+        Assert.assertNull(resolver.resolveSingle(criteriaFor("https://unknown.example.org")));
+        Assert.assertFalse(resolver.resolve(new CriteriaSet()).iterator().hasNext());
+    }
+
+    @Test public void testFailFastInitialization() {
+        final AtomicInteger scheduled = new AtomicInteger();
+        final Timer timer = new Timer(true) {
+            public void schedule(final TimerTask task, final long delay) {
+                scheduled.incrementAndGet();
+                super.schedule(task, delay);
+            }
+        };
+
+        final CompactFilesystemMetadataResolver failing =
+                new CompactFilesystemMetadataResolver(timer, new File(metadataFile.getPath() + ".missing"));
+        failing.setId("failing");
+        failing.setParserPool(parserPool);
+        try {
+            failing.initialize();
+            Assert.fail("Initialization should have failed");
+        } catch (final ComponentInitializationException e) {
+            // expected
+        } finally {
+            timer.cancel();
+        }
+        Assert.assertEquals(scheduled.get(), 0);
+    }
+
+    @Test public void testDifferentialRefresh() throws ResolverException, IOException {
+        final EntityDescriptor sp1 = resolver.resolveSingle(criteriaFor(SP1));
+        final EntityDescriptor sp2 = resolver.resolveSingle(criteriaFor(SP2));
+
+        writeMetadata("urn:oasis:names:tc:SAML:1.1:protocol", 10000);
+        resolver.refresh();
+
+        Assert.assertSame(resolver.resolveSingle(criteriaFor(SP1)), sp1);
+        final EntityDescriptor changed = resolver.resolveSingle(criteriaFor(SP2));
+        Assert.assertNotSame(changed, sp2);
+        Assert.assertNotNull(changed.getSPSSODescriptor("urn:oasis:names:tc:SAML:1.1:protocol"));
+        Assert.assertSame(changed.getParent(), sp1.getParent());
+    }
+
+    @Test public void testGroupValidityChanged() throws ResolverException, IOException {
+        final EntityDescriptor sp1 = resolver.resolveSingle(criteriaFor(SP1));
+        final EntitiesDescriptor group = (EntitiesDescriptor) sp1.getParent();
+        Assert.assertNull(group.getValidUntil());
+
+        writeMetadata("urn:oasis:names:tc:SAML:2.0:protocol", "2100-01-01T00:00:00Z", 10000);
+        resolver.refresh();
+
+        // The copy held by the live entity is left alone, and a new one is published.
+        Assert.assertNull(group.getValidUntil());
+        final EntityDescriptor refreshed = resolver.resolveSingle(criteriaFor(SP1));
+        Assert.assertNotSame(refreshed, sp1);
+        Assert.assertNotSame(refreshed.getParent(), group);
+        Assert.assertNotNull(((EntitiesDescriptor) refreshed.getParent()).getValidUntil());
+        Assert.assertSame(sp1.getParent(), group);
+    }
+
+    @Test public void testNodeProcessingOnce() throws Exception {
+        final AtomicInteger groupCount = new AtomicInteger();
+        final AtomicInteger entityCount = new AtomicInteger();
+        final NodeProcessingMetadataFilter filter = new NodeProcessingMetadataFilter();
+        filter.setNodeProcessors(Collections.<MetadataNodeProcessor>singletonList(new MetadataNodeProcessor() {
+            public void process(final XMLObject metadataNode) throws FilterException {
+                if (metadataNode instanceof EntitiesDescriptor) {
+                    groupCount.incrementAndGet();
+                } else if (metadataNode instanceof EntityDescriptor) {
+                    entityCount.incrementAndGet();
+                }
+            }
+        }));
+        filter.initialize();
+
+        final CompactFilesystemMetadataResolver processing = new CompactFilesystemMetadataResolver(metadataFile);
+        processing.setId("processing");
+        processing.setParserPool(parserPool);
+        processing.setMetadataFilter(filter);
+        processing.initialize();
+        try {
+            Assert.assertEquals(groupCount.get(), 1);
+            Assert.assertEquals(entityCount.get(), 0);
+
+            processing.resolveSingle(criteriaFor(SP1));
+            processing.resolveSingle(criteriaFor(SP1));
+            Assert.assertEquals(entityCount.get(), 1);
+
+            writeMetadata("urn:oasis:names:tc:SAML:1.1:protocol", 10000);
+            processing.refresh();
+            Assert.assertEquals(groupCount.get(), 1);
+            processing.resolveSingle(criteriaFor(SP1));
+            processing.resolveSingle(criteriaFor(SP2));
+            Assert.assertEquals(entityCount.get(), 2);
+        } finally {
+            processing.destroy();
+        }
+    }
+
+    private CriteriaSet criteriaFor(final String entityID) {
+        return new CriteriaSet(new EntityIdCriterion(entityID));
+    }
+
+    private void writeMetadata(final String sp2Protocol, final long age) throws IOException {
+        writeMetadata(sp2Protocol, null, age);
+    }
+
+    private void writeMetadata(final String sp2Protocol, final String validUntil, final long age)
+            throws IOException {
+        final String metadata = "<EntitiesDescriptor xmlns=\"urn:oasis:names:tc:SAML:2.0:metadata\" Name=\"group\""
+                + (validUntil != null ? " validUntil=\"" + validUntil + "\">" : ">")
+                + entity(SP1, "urn:oasis:names:tc:SAML:2.0:protocol") + entity(SP2, sp2Protocol)
+                + "</EntitiesDescriptor>";
+        Files.write(metadataFile.toPath(), metadata.getBytes(StandardCharsets.UTF_8));
+        metadataFile.setLastModified(System.currentTimeMillis() + age);
+    }
+
+    private String entity(final String entityID, final String protocol) {
+        return "<EntityDescriptor entityID=\"" + entityID + "\"><SPSSODescriptor protocolSupportEnumeration=\""
+                + protocol + "\"><AssertionConsumerService Binding=\"urn:oasis:names:tc:SAML:2.0:bindings:HTTP-POST\""
+                + " Location=\"" + entityID + "/acs\" index=\"1\"/></SPSSODescriptor></EntityDescriptor>";
+    }
+
+}
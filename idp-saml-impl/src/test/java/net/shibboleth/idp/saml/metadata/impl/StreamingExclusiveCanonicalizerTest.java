@@ -0,0 +1,146 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.saml.metadata.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import net.shibboleth.utilities.java.support.xml.XMLParserException;
+
+import org.apache.xml.security.c14n.Canonicalizer;
+import org.apache.xml.security.exceptions.XMLSecurityException;
+import org.opensaml.core.xml.XMLObjectBaseTestCase;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.w3c.dom.Document;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableSet;
+
+/** Unit test for {@link StreamingExclusiveCanonicalizer}. */
+public class StreamingExclusiveCanonicalizerTest extends XMLObjectBaseTestCase {
+
+    @Test public void testNamespaces() throws Exception {
+        assertSameAsSantuario("<a:root xmlns:a=\"urn:a\" xmlns:b=\"urn:b\" xmlns:unused=\"urn:unused\""
+                + " xmlns=\"urn:default\"><child b:attr=\"1\" attr=\"2\"><b:inner xmlns:a=\"urn:a\" xmlns=\"\">"
+                + "<plain/></b:inner></child><a:x xmlns:a=\"urn:a2\"><a:y/></a:x><b:z xmlns:b=\"urn:b\"/></a:root>",
+                Collections.<String>emptySet());
+    }
+
+    @Test public void testInclusivePrefixes() throws Exception {
+        assertSameAsSantuario("<root xmlns:p=\"urn:p\" xmlns:q=\"urn:q\" xmlns=\"urn:d\"><p:c/><c q:a=\"1\"/>"
+                + "<n xmlns=\"\"/></root>", ImmutableSet.of("p", "#default"));
+    }
+
+    @Test public void testAttributeOrder() throws Exception {
+        assertSameAsSantuario("<r xmlns:z=\"urn:a\" xmlns:y=\"urn:b\" xmlns:x=\"urn:b\" z:m=\"1\" y:a=\"2\" x:b=\"3\""
+                + " b=\"4\" a=\"5\" xml:lang=\"en\"><c y:b=\"1\" z:a=\"2\" aa=\"3\" a=\"4\"/></r>",
+                Collections.<String>emptySet());
+    }
+
+    @Test public void testEscaping() throws Exception {
+        assertSameAsSantuario("<r a=\"x&amp;y&lt;&quot;&#9;&#10;&#13;&gt;'\" b=\"&#x1F600;\">t &amp; &lt; &gt; &#13;"
+                + " \" '<![CDATA[<&>]]>\u00e9&#x1F600;<?pi data?><?empty?></r>", Collections.<String>emptySet());
+    }
+
+    @Test public void testCodePointOrder() throws Exception {
+        // U+FF21 sorts before U+10000 by code point, but after it by UTF-16 code unit.
+        final String output = new String(canonicalize("<r xmlns:q=\"urn:\uD800\uDC00\" xmlns:p=\"urn:\uFF21\""
+                + " q:a=\"1\" p:a=\"2\"/>", Collections.<String>emptySet()), StandardCharsets.UTF_8);
+        Assert.assertEquals(output, "<r xmlns:p=\"urn:\uFF21\" xmlns:q=\"urn:\uD800\uDC00\" p:a=\"2\" q:a=\"1\"></r>");
+    }
+
+    private void assertSameAsSantuario(final String xml, final Set<String> prefixes)
+            throws XMLStreamException, IOException, XMLParserException, XMLSecurityException {
+        final Document document = parserPool.parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+        final byte[] expected = Canonicalizer.getInstance(Canonicalizer.ALGO_ID_C14N_EXCL_OMIT_COMMENTS)
+                .canonicalizeSubtree(document.getDocumentElement(), Joiner.on(' ').join(prefixes));
+        Assert.assertEquals(new String(canonicalize(xml, prefixes), StandardCharsets.UTF_8),
+                new String(expected, StandardCharsets.UTF_8));
+    }
+
+    private byte[] canonicalize(final String xml, final Set<String> prefixes)
+            throws XMLStreamException, IOException {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        final XMLStreamReader reader = factory.createXMLStreamReader(new StringReader(xml));
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final StreamingExclusiveCanonicalizer canonicalizer = new StreamingExclusiveCanonicalizer(out, prefixes);
+        final Deque<Map<String,String>> scopes = new ArrayDeque<>();
+        scopes.push(Collections.<String,String>emptyMap());
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    final Map<String,String> scope = new HashMap<>(scopes.peek());
+                    for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                        scope.put(nullToEmpty(reader.getNamespacePrefix(i)), nullToEmpty(reader.getNamespaceURI(i)));
+                    }
+                    scopes.push(scope);
+                    canonicalizer.startElement(new StreamingExclusiveCanonicalizer.StartTag(reader, scope));
+                    break;
+
+                case XMLStreamConstants.END_ELEMENT:
+                    final String prefix = nullToEmpty(reader.getPrefix());
+                    canonicalizer.endElement(prefix.isEmpty() ? reader.getLocalName()
+                            : prefix + ':' + reader.getLocalName());
+                    scopes.pop();
+                    break;
+
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    if (scopes.size() > 1) {
+                        canonicalizer.characters(reader.getText());
+                    }
+                    break;
+
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    if (scopes.size() > 1) {
+                        canonicalizer.processingInstruction(reader.getPITarget(), reader.getPIData());
+                    }
+                    break;
+
+                default:
+                    break;
+            }
+        }
+        canonicalizer.flush();
+        return out.toByteArray();
+    }
+
+    private String nullToEmpty(final String value) {
+        return value != null ? value : "";
+    }
+
+}
@@ -0,0 +1,274 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.saml.metadata.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
+import net.shibboleth.utilities.java.support.resolver.ResolverException;
+import net.shibboleth.utilities.java.support.xml.SerializeSupport;
+
+import org.apache.xml.security.transforms.Transforms;
+import org.opensaml.core.criterion.EntityIdCriterion;
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.XMLObjectBaseTestCase;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.saml.common.SAMLObjectContentReference;
+import org.opensaml.saml.metadata.resolver.filter.MetadataFilter;
+import org.opensaml.saml.saml2.metadata.EntitiesDescriptor;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.security.credential.Credential;
+import org.opensaml.security.credential.CredentialSupport;
+import org.opensaml.security.credential.impl.StaticCredentialResolver;
+import org.opensaml.security.crypto.KeySupport;
+import org.opensaml.xmlsec.config.DefaultSecurityConfigurationBootstrap;
+import org.opensaml.xmlsec.signature.Signature;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
+import org.opensaml.xmlsec.signature.support.Signer;
+import org.opensaml.xmlsec.signature.support.impl.ExplicitKeySignatureTrustEngine;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/** Unit test for {@link StreamingMetadataReader} and {@link StreamingSignatureValidationFilter}. */
+public class StreamingMetadataReaderTest extends XMLObjectBaseTestCase {
+
+    private static final String SP1 = "https://sp1.example.org";
+
+    private static final String SP2 = "https://sp2.example.org";
+
+    private static final List<String> TRANSFORMS =
+            Arrays.asList(Transforms.TRANSFORM_ENVELOPED_SIGNATURE, Transforms.TRANSFORM_C14N_EXCL_OMIT_COMMENTS);
+
+    private static final String AGGREGATE = "<md:EntitiesDescriptor xmlns:md=\"urn:oasis:names:tc:SAML:2.0:metadata\""
+            + " xmlns:mdrpi=\"urn:oasis:names:tc:SAML:metadata:rpi\" xmlns:unused=\"urn:example:unused\""
+            + " ID=\"aggregate\" Name=\"group\">\n<md:Extensions><mdrpi:PublicationInfo"
+            + " publisher=\"a &amp; b &lt;c&gt; &quot;d&quot;\" creationInstant=\"2016-01-01T00:00:00Z\"/>"
+            + "</md:Extensions>\n<md:EntitiesDescriptor Name=\"inner\">" + entity(SP1, "SP1 Org")
+            + "</md:EntitiesDescriptor>\n" + entity(SP2, "SP2 &amp; Co &lt;&gt;") + "\n</md:EntitiesDescriptor>";
+
+    private Credential signingCredential;
+
+    private StreamingSignatureValidationFilter signatureFilter;
+
+    private CountingFilter entityFilter;
+
+    private RecordingHandler handler;
+
+    @BeforeClass public void setUpCredential() throws Exception {
+        final KeyPair keyPair = KeySupport.generateKeyPair("RSA", 2048, null);
+        signingCredential = CredentialSupport.getSimpleCredential(keyPair.getPublic(), keyPair.getPrivate());
+    }
+
+    @BeforeMethod public void setUp() {
+        signatureFilter = new StreamingSignatureValidationFilter(new ExplicitKeySignatureTrustEngine(
+                new StaticCredentialResolver(signingCredential),
+                DefaultSecurityConfigurationBootstrap.buildBasicInlineKeyInfoCredentialResolver()));
+        entityFilter = new CountingFilter();
+        handler = new RecordingHandler();
+    }
+
+    @Test public void testSignedAggregate() throws Exception {
+        final EntitiesDescriptor root = read(sign(AGGREGATE));
+        Assert.assertNotNull(root);
+        Assert.assertEquals(root.getName(), "group");
+        Assert.assertEquals(handler.entities, Arrays.asList(SP1, SP2));
+        Assert.assertEquals(handler.groups, 2);
+        Assert.assertEquals(entityFilter.count, 2);
+    }
+
+    @Test public void testResolver() throws Exception {
+        final File file = File.createTempFile("streamed", ".xml");
+        final CompactFilesystemMetadataResolver resolver = new CompactFilesystemMetadataResolver(file);
+        try {
+            Files.write(file.toPath(), sign(AGGREGATE).getBytes(StandardCharsets.UTF_8));
+            resolver.setId("streamed");
+            resolver.setParserPool(parserPool);
+            resolver.setMetadataFilter(signatureFilter);
+            resolver.initialize();
+
+            final EntityDescriptor sp1 = resolver.resolveSingle(new CriteriaSet(new EntityIdCriterion(SP1)));
+            Assert.assertNotNull(sp1);
+            Assert.assertEquals(((EntitiesDescriptor) sp1.getParent()).getName(), "inner");
+            Assert.assertNotNull(resolver.resolveSingle(new CriteriaSet(new EntityIdCriterion(SP2))));
+        } finally {
+            resolver.destroy();
+            file.delete();
+        }
+    }
+
+    @Test public void testTamperedEntity() throws Exception {
+        final String signed = sign(AGGREGATE);
+        assertRejected(signed.replace("SP1 Org", "SP1 Evil"), "does not match");
+        final Pattern sp2 = Pattern.compile("<md:EntityDescriptor entityID=\"" + Pattern.quote(SP2)
+                + "\".*?</md:EntityDescriptor>", Pattern.DOTALL);
+        assertRejected(sp2.matcher(signed).replaceFirst(""), "does not match");
+    }
+
+    @Test public void testTamperedAttribute() throws Exception {
+        final String signed = sign(AGGREGATE);
+        assertRejected(signed.replace(SP2 + "/acs", "https://evil.example.org/acs"), "does not match");
+        assertRejected(signed.replace("Name=\"inner\"", "Name=\"other\""), "does not match");
+    }
+
+    @Test public void testWrongReference() throws Exception {
+        assertRejected(sign(AGGREGATE).replace("ID=\"aggregate\"", "ID=\"other\""), "does not reference the root");
+    }
+
+    @Test public void testWrongTransforms() throws Exception {
+        assertRejected(sign(AGGREGATE, signingCredential, SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256,
+                SignatureConstants.ALGO_ID_DIGEST_SHA256,
+                Arrays.asList(Transforms.TRANSFORM_ENVELOPED_SIGNATURE, Transforms.TRANSFORM_C14N_OMIT_COMMENTS)),
+                "is not supported");
+        assertRejected(sign(AGGREGATE, signingCredential, SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256,
+                SignatureConstants.ALGO_ID_DIGEST_SHA256,
+                Collections.singletonList(Transforms.TRANSFORM_ENVELOPED_SIGNATURE)),
+                "must use exclusive canonicalization");
+    }
+
+    @Test public void testUnsupportedAlgorithms() throws Exception {
+        assertRejected(sign(AGGREGATE, signingCredential, SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA1,
+                SignatureConstants.ALGO_ID_DIGEST_SHA256, TRANSFORMS), "Signature algorithm");
+        assertRejected(sign(AGGREGATE, signingCredential, SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256,
+                SignatureConstants.ALGO_ID_DIGEST_SHA1, TRANSFORMS), "Digest algorithm");
+    }
+
+    @Test public void testUntrustedKey() throws Exception {
+        final KeyPair keyPair = KeySupport.generateKeyPair("RSA", 2048, null);
+        assertRejected(sign(AGGREGATE, CredentialSupport.getSimpleCredential(keyPair.getPublic(),
+                keyPair.getPrivate()), SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256,
+                SignatureConstants.ALGO_ID_DIGEST_SHA256, TRANSFORMS), "not valid or not trusted");
+    }
+
+    @Test public void testMissingSignature() throws Exception {
+        assertRejected(AGGREGATE, "signatures are required");
+
+        signatureFilter.setRequireSignedRoot(false);
+        Assert.assertNotNull(read(AGGREGATE));
+        Assert.assertEquals(handler.entities, Arrays.asList(SP1, SP2));
+    }
+
+    @Test public void testNotAggregate() throws Exception {
+        Assert.assertNull(read(entity(SP1, "SP1 Org").replace("<md:EntityDescriptor ",
+                "<md:EntityDescriptor xmlns:md=\"urn:oasis:names:tc:SAML:2.0:metadata\" ")));
+        Assert.assertTrue(handler.entities.isEmpty());
+        Assert.assertEquals(entityFilter.count, 0);
+    }
+
+    private EntitiesDescriptor read(final String xml) throws ResolverException {
+        return new StreamingMetadataReader(parserPool, signatureFilter,
+                Collections.<MetadataFilter>singletonList(entityFilter))
+                .read(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), handler);
+    }
+
+    private void assertRejected(final String xml, final String reason) {
+        try {
+            read(xml);
+            Assert.fail("Metadata should have been rejected");
+        } catch (final ResolverException e) {
+            Assert.assertTrue(e.getMessage().contains(reason), e.getMessage());
+        }
+        // Nothing from rejected metadata may reach a filter or the handler.
+        Assert.assertEquals(entityFilter.count, 0);
+        Assert.assertTrue(handler.entities.isEmpty());
+        Assert.assertEquals(handler.groups, 0);
+    }
+
+    private String sign(final String xml) throws Exception {
+        return sign(xml, signingCredential, SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256,
+                SignatureConstants.ALGO_ID_DIGEST_SHA256, TRANSFORMS);
+    }
+
+    private String sign(final String xml, final Credential credential, final String signatureAlgorithm,
+            final String digestAlgorithm, final List<String> transforms) throws Exception {
+        final EntitiesDescriptor entities = (EntitiesDescriptor) XMLObjectSupport.unmarshallFromInputStream(
+                parserPool, new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+
+        final Signature signature = (Signature) XMLObjectSupport.buildXMLObject(Signature.DEFAULT_ELEMENT_NAME);
+        signature.setSigningCredential(credential);
+        signature.setSignatureAlgorithm(signatureAlgorithm);
+        signature.setCanonicalizationAlgorithm(SignatureConstants.ALGO_ID_C14N_EXCL_OMIT_COMMENTS);
+        final SAMLObjectContentReference reference = new SAMLObjectContentReference(entities);
+        reference.setDigestAlgorithm(digestAlgorithm);
+        reference.getTransforms().clear();
+        reference.getTransforms().addAll(transforms);
+        signature.getContentReferences().add(reference);
+        entities.setSignature(signature);
+
+        XMLObjectProviderRegistrySupport.getMarshallerFactory().getMarshaller(entities).marshall(entities);
+        Signer.signObject(signature);
+        return SerializeSupport.nodeToString(entities.getDOM());
+    }
+
+    private static String entity(final String entityID, final String organization) {
+        return "<md:EntityDescriptor entityID=\"" + entityID + "\"><md:SPSSODescriptor"
+                + " protocolSupportEnumeration=\"urn:oasis:names:tc:SAML:2.0:protocol\">"
+                + "<md:AssertionConsumerService Binding=\"urn:oasis:names:tc:SAML:2.0:bindings:HTTP-POST\""
+                + " Location=\"" + entityID + "/acs\" index=\"1\"/></md:SPSSODescriptor><md:Organization>"
+                + "<md:OrganizationName xml:lang=\"en\">" + organization + "</md:OrganizationName>"
+                + "<md:OrganizationDisplayName xml:lang=\"en\">" + organization + "</md:OrganizationDisplayName>"
+                + "<md:OrganizationURL xml:lang=\"en\">" + entityID + "/</md:OrganizationURL>"
+                + "</md:Organization></md:EntityDescriptor>";
+    }
+
+    /** Filter that counts the objects it is given. */
+    private static final class CountingFilter implements MetadataFilter {
+
+        private int count;
+
+        /** {@inheritDoc} */
+        public XMLObject filter(final XMLObject metadata) {
+            count++;
+            return metadata;
+        }
+    }
+
+    /** Handler that records what it is given. */
+    private static final class RecordingHandler implements StreamingMetadataReader.Handler {
+
+        private final List<String> entities = new ArrayList<>();
+
+        private int groups;
+
+        /** {@inheritDoc} */
+        public void startGroup(final EntitiesDescriptor group) {
+            groups++;
+        }
+
+        /** {@inheritDoc} */
+        public void endGroup() {
+        }
+
+        /** {@inheritDoc} */
+        public void entity(final EntityDescriptor entity) {
+            entities.add(entity.getEntityID());
+        }
+    }
+
+}
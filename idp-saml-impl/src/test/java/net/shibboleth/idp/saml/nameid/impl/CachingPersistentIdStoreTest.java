@@ -0,0 +1,147 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.saml.nameid.impl;
+
+import java.io.IOException;
+
+import javax.sql.DataSource;
+
+import net.shibboleth.idp.saml.nameid.PersistentIdEntry;
+import net.shibboleth.idp.testing.DatabaseTestingSupport;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+import org.opensaml.storage.impl.MemoryStorageService;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/** Tests for {@link CachingPersistentIdStore}. */
+public class CachingPersistentIdStoreTest {
+
+    private DataSource testSource;
+
+    private JDBCPersistentIdStoreEx jdbcStore;
+
+    private MemoryStorageService storageService;
+
+    @BeforeMethod public void setUp() throws ComponentInitializationException {
+        testSource = DatabaseTestingSupport.GetMockDataSource(PersistentSAML2NameIDGeneratorTest.INIT_FILE,
+                "CachingPersistentIdStore");
+
+        jdbcStore = new JDBCPersistentIdStoreEx();
+        jdbcStore.setDataSource(testSource);
+        jdbcStore.initialize();
+
+        storageService = new MemoryStorageService();
+        storageService.setId("test");
+        storageService.initialize();
+    }
+
+    @AfterMethod public void tearDown() {
+        storageService.destroy();
+        DatabaseTestingSupport.InitializeDataSource(PersistentSAML2NameIDGeneratorTest.DELETE_FILE, testSource);
+    }
+
+    @Test public void testCache() throws ComponentInitializationException, IOException {
+        final CachingPersistentIdStore store = new CachingPersistentIdStore();
+        store.setIDStore(jdbcStore);
+        store.initialize();
+
+        final PersistentIdEntry entry = getBySource(store);
+        Assert.assertNotNull(entry);
+        Assert.assertEquals(store.getMissCount(), 1);
+
+        Assert.assertSame(getBySource(store), entry);
+        Assert.assertSame(store.getByIssuedValue(DatabaseTestingSupport.IDP_ENTITY_ID,
+                DatabaseTestingSupport.SP_ENTITY_ID, entry.getPersistentId()), entry);
+        Assert.assertEquals(store.getHitCount(), 2);
+        Assert.assertEquals(jdbcStore.getLookupCount(), 1);
+
+        store.deactivate(DatabaseTestingSupport.IDP_ENTITY_ID, DatabaseTestingSupport.SP_ENTITY_ID,
+                entry.getPersistentId(), null);
+        Assert.assertNull(store.getByIssuedValue(DatabaseTestingSupport.IDP_ENTITY_ID,
+                DatabaseTestingSupport.SP_ENTITY_ID, entry.getPersistentId()));
+
+        final PersistentIdEntry replacement = getBySource(store);
+        Assert.assertNotNull(replacement);
+        Assert.assertNotEquals(replacement.getPersistentId(), entry.getPersistentId());
+    }
+
+    @Test public void testSharedInvalidation() throws ComponentInitializationException, IOException,
+            InterruptedException {
+        final CachingPersistentIdStore node1 = buildNode();
+        final CachingPersistentIdStore node2 = buildNode();
+
+        final PersistentIdEntry entry = getBySource(node1);
+        Assert.assertNotNull(entry);
+        Assert.assertSame(getBySource(node2), getBySource(node2));
+        Assert.assertEquals(getBySource(node2).getPersistentId(), entry.getPersistentId());
+
+        node1.deactivate(DatabaseTestingSupport.IDP_ENTITY_ID, DatabaseTestingSupport.SP_ENTITY_ID,
+                entry.getPersistentId(), null);
+        Thread.sleep(10);
+
+        final PersistentIdEntry replacement = getBySource(node2);
+        Assert.assertNotNull(replacement);
+        Assert.assertNotEquals(replacement.getPersistentId(), entry.getPersistentId());
+    }
+
+    @Test public void testRecreatedLog() throws ComponentInitializationException, IOException,
+            InterruptedException {
+        final CachingPersistentIdStore node1 = buildNode();
+        final CachingPersistentIdStore node2 = buildNode();
+
+        final PersistentIdEntry entry = getBySource(node1);
+        Assert.assertEquals(getBySource(node2).getPersistentId(), entry.getPersistentId());
+
+        node1.deactivate(DatabaseTestingSupport.IDP_ENTITY_ID, DatabaseTestingSupport.SP_ENTITY_ID,
+                entry.getPersistentId(), null);
+        Thread.sleep(10);
+
+        final PersistentIdEntry replacement = getBySource(node2);
+        Assert.assertNotEquals(replacement.getPersistentId(), entry.getPersistentId());
+        Assert.assertEquals(getBySource(node1).getPersistentId(), replacement.getPersistentId());
+
+        // Simulate expiry of the log, so that its record is created again with the same version.
+        storageService.delete(CachingPersistentIdStore.DEFAULT_STORAGE_CONTEXT, CachingPersistentIdStore.STORAGE_KEY);
+        node1.deactivate(DatabaseTestingSupport.IDP_ENTITY_ID, DatabaseTestingSupport.SP_ENTITY_ID,
+                replacement.getPersistentId(), null);
+        Assert.assertEquals(storageService.read(CachingPersistentIdStore.DEFAULT_STORAGE_CONTEXT,
+                CachingPersistentIdStore.STORAGE_KEY).getVersion(), 1);
+        Thread.sleep(10);
+
+        final PersistentIdEntry second = getBySource(node2);
+        Assert.assertNotEquals(second.getPersistentId(), replacement.getPersistentId());
+    }
+
+    private CachingPersistentIdStore buildNode() throws ComponentInitializationException {
+        final CachingPersistentIdStore store = new CachingPersistentIdStore();
+        store.setIDStore(jdbcStore);
+        store.setStorageService(storageService);
+        store.setPollingInterval(1);
+        store.initialize();
+        return store;
+    }
+
+    private PersistentIdEntry getBySource(final CachingPersistentIdStore store) throws IOException {
+        return store.getBySourceValue(DatabaseTestingSupport.IDP_ENTITY_ID, DatabaseTestingSupport.SP_ENTITY_ID,
+                "localID", DatabaseTestingSupport.PRINCIPAL_ID, true, null);
+    }
+
+}
@@ -172,4 +172,28 @@ public class DatabaseBackedIDStoreTest {
         Assert.assertTrue(comparePersistentIdEntrys(gotback, id));
     }
     
-}
\ No newline at end of file
+    @Test public void lookupAndCreate() throws ComponentInitializationException, IOException {
+        JDBCPersistentIdStoreEx store = new JDBCPersistentIdStoreEx();
+        store.setDataSource(testSource);
+        store.initialize();
+
+        Assert.assertNull(store.getBySourceValue(DatabaseTestingSupport.IDP_ENTITY_ID,
+                DatabaseTestingSupport.SP_ENTITY_ID, "localID", DatabaseTestingSupport.PRINCIPAL_ID, false, null));
+        Assert.assertEquals(store.getLookupCount(), 1);
+        Assert.assertEquals(store.getCreateTransactionCount(), 0);
+
+        final PersistentIdEntry created = store.getBySourceValue(DatabaseTestingSupport.IDP_ENTITY_ID,
+                DatabaseTestingSupport.SP_ENTITY_ID, "localID", DatabaseTestingSupport.PRINCIPAL_ID, true, null);
+        Assert.assertNotNull(created);
+        Assert.assertEquals(store.getLookupCount(), 2);
+        Assert.assertEquals(store.getCreateTransactionCount(), 1);
+
+        final PersistentIdEntry found = store.getBySourceValue(DatabaseTestingSupport.IDP_ENTITY_ID,
+                DatabaseTestingSupport.SP_ENTITY_ID, "localID", DatabaseTestingSupport.PRINCIPAL_ID, true, null);
+        Assert.assertEquals(found.getPersistentId(), created.getPersistentId());
+        Assert.assertEquals(store.getLookupCount(), 3);
+        Assert.assertEquals(store.getCreateTransactionCount(), 1);
+        Assert.assertEquals(store.getRetryCount(), 0);
+    }
+    
+}
@@ -19,6 +19,8 @@ package net.shibboleth.idp.saml.nameid.impl;
 
 import java.util.Collections;
 
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 import javax.sql.DataSource;
 
 import net.shibboleth.idp.attribute.IdPAttribute;
@@ -29,6 +31,7 @@ import net.shibboleth.idp.profile.RequestContextBuilder;
 import net.shibboleth.idp.profile.context.RelyingPartyContext;
 import net.shibboleth.idp.saml.impl.TestSources;
 import net.shibboleth.idp.testing.DatabaseTestingSupport;
+import net.shibboleth.utilities.java.support.codec.Base64Support;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 
 import org.opensaml.core.OpenSAMLInitBaseTestCase;
@@ -158,6 +161,47 @@ public class PersistentSAML2NameIDGeneratorTest extends OpenSAMLInitBaseTestCase
         Assert.assertEquals(id.getSPNameQualifier(), TestSources.SP_ENTITY_ID);
     }
 
+    @Test
+    public void testComputedIdReuse() throws Exception {
+        final ComputedPersistentIdGenerationStrategy strategy = new ComputedPersistentIdGenerationStrategy();
+        strategy.setSalt(salt);
+        strategy.initialize();
+
+        final String first = strategy.generate(TestSources.IDP_ENTITY_ID, TestSources.SP_ENTITY_ID, "foo",
+                TestSources.COMMON_ATTRIBUTE_VALUE_STRING);
+        Assert.assertEquals(first, RESULT);
+        Assert.assertNotEquals(strategy.generate(TestSources.IDP_ENTITY_ID, TestSources.SP_ENTITY_ID, "foo",
+                "other"), RESULT);
+        Assert.assertEquals(strategy.generate(TestSources.IDP_ENTITY_ID, TestSources.SP_ENTITY_ID, "foo",
+                TestSources.COMMON_ATTRIBUTE_VALUE_STRING), first);
+    }
+
+    @Test
+    public void testHmacComputedId() throws Exception {
+        final ComputedPersistentIdGenerationStrategy strategy = new ComputedPersistentIdGenerationStrategy();
+        strategy.setSalt(salt);
+        strategy.setAlgorithm("HmacSHA256");
+        strategy.initialize();
+
+        final Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(salt, "HmacSHA256"));
+        final String expected = Base64Support.encode(mac.doFinal((TestSources.SP_ENTITY_ID + '!'
+                + TestSources.COMMON_ATTRIBUTE_VALUE_STRING + '!').getBytes()), Base64Support.UNCHUNKED);
+
+        for (int i = 0; i < 2; i++) {
+            Assert.assertEquals(strategy.generate(TestSources.IDP_ENTITY_ID, TestSources.SP_ENTITY_ID, "foo",
+                    TestSources.COMMON_ATTRIBUTE_VALUE_STRING), expected);
+        }
+    }
+
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testUnsupportedAlgorithm() throws Exception {
+        final ComputedPersistentIdGenerationStrategy strategy = new ComputedPersistentIdGenerationStrategy();
+        strategy.setSalt(salt);
+        strategy.setAlgorithm("NoSuchDigest");
+        strategy.initialize();
+    }
+
     @Test
     public void testStoredId() throws Exception {
         final StoredPersistentIdGenerationStrategy strategy = new StoredPersistentIdGenerationStrategy();
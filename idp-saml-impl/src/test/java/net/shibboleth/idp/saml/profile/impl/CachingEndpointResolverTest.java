@@ -0,0 +1,179 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.saml.profile.impl;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+
+import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
+import net.shibboleth.utilities.java.support.resolver.ResolverException;
+
+import org.opensaml.core.xml.XMLObjectBaseTestCase;
+import org.opensaml.saml.common.binding.EndpointResolver;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.saml.criterion.BindingCriterion;
+import org.opensaml.saml.criterion.EndpointCriterion;
+import org.opensaml.saml.criterion.RoleDescriptorCriterion;
+import org.opensaml.saml.saml2.metadata.AssertionConsumerService;
+import org.opensaml.saml.saml2.metadata.Endpoint;
+import org.opensaml.saml.saml2.metadata.RoleDescriptor;
+import org.opensaml.saml.saml2.metadata.SPSSODescriptor;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/** Unit test for {@link CachingEndpointResolver}. */
+public class CachingEndpointResolverTest extends XMLObjectBaseTestCase {
+
+    private static final String LOCATION = "https://sp.example.org/ACS";
+
+    private EndpointResolver<Endpoint> delegate;
+
+    private CachingEndpointResolver resolver;
+
+    private Endpoint resolved;
+
+    @SuppressWarnings("unchecked")
+    @BeforeMethod public void setUp() throws ResolverException {
+        delegate = mock(EndpointResolver.class);
+        resolved = mock(Endpoint.class);
+        when(resolved.getLocation()).thenReturn(LOCATION);
+        when(delegate.resolveSingle(any(CriteriaSet.class))).thenReturn(resolved);
+        resolver = new CachingEndpointResolver(delegate);
+    }
+
+    @Test public void testCached() throws ResolverException {
+        final RoleDescriptor role = mock(RoleDescriptor.class);
+
+        Assert.assertSame(resolver.resolveSingle(buildCriteria(role, LOCATION, false)), resolved);
+        Assert.assertSame(resolver.resolveSingle(buildCriteria(role, LOCATION, false)), resolved);
+        verify(delegate, times(1)).resolveSingle(any(CriteriaSet.class));
+
+        resolver.invalidateAll();
+        Assert.assertSame(resolver.resolveSingle(buildCriteria(role, LOCATION, false)), resolved);
+        verify(delegate, times(2)).resolveSingle(any(CriteriaSet.class));
+    }
+
+    @Test public void testDistinctRequests() throws ResolverException {
+        final RoleDescriptor role = mock(RoleDescriptor.class);
+
+        resolver.resolveSingle(buildCriteria(role, LOCATION, false));
+        resolver.resolveSingle(buildCriteria(role, "https://sp.example.org/Other", false));
+        resolver.resolveSingle(buildCriteria(mock(RoleDescriptor.class), LOCATION, false));
+        verify(delegate, times(3)).resolveSingle(any(CriteriaSet.class));
+    }
+
+    @Test public void testTrustedNotCached() throws ResolverException {
+        final RoleDescriptor role = mock(RoleDescriptor.class);
+
+        resolver.resolveSingle(buildCriteria(role, LOCATION, true));
+        resolver.resolveSingle(buildCriteria(role, LOCATION, true));
+        verify(delegate, times(2)).resolveSingle(any(CriteriaSet.class));
+    }
+
+    @Test public void testNoMetadataNotCached() throws ResolverException {
+        resolver.resolveSingle(buildCriteria(null, LOCATION, false));
+        resolver.resolveSingle(buildCriteria(null, LOCATION, false));
+        verify(delegate, times(2)).resolveSingle(any(CriteriaSet.class));
+    }
+
+    @Test public void testFailureNotCached() throws ResolverException {
+        final RoleDescriptor role = mock(RoleDescriptor.class);
+        when(delegate.resolveSingle(any(CriteriaSet.class))).thenReturn(null);
+
+        Assert.assertNull(resolver.resolveSingle(buildCriteria(role, LOCATION, false)));
+        Assert.assertNull(resolver.resolveSingle(buildCriteria(role, LOCATION, false)));
+        verify(delegate, times(2)).resolveSingle(any(CriteriaSet.class));
+    }
+
+    @Test public void testRefreshedRole() throws ResolverException {
+        final EndpointResolver<Endpoint> metadataResolver = new MetadataEndpointResolver();
+        final CachingEndpointResolver caching = new CachingEndpointResolver(metadataResolver);
+
+        final SPSSODescriptor role = buildRole(LOCATION);
+        Assert.assertEquals(caching.resolveSingle(buildCriteria(role, LOCATION, false)).getLocation(), LOCATION);
+
+        // A refresh produces a new role, which must not see the endpoint cached for the old one.
+        final SPSSODescriptor refreshed = buildRole("https://sp.example.org/NewACS");
+        Assert.assertEquals(caching.resolveSingle(buildCriteria(refreshed, LOCATION, false)).getLocation(),
+                "https://sp.example.org/NewACS");
+        Assert.assertSame(caching.resolveSingle(buildCriteria(role, LOCATION, false)),
+                role.getAssertionConsumerServices().get(0));
+    }
+
+    @Test public void testReplacedRoleReleased() throws ResolverException, InterruptedException {
+        final CachingEndpointResolver caching = new CachingEndpointResolver(new MetadataEndpointResolver());
+
+        SPSSODescriptor role = buildRole(LOCATION);
+        Assert.assertNotNull(caching.resolveSingle(buildCriteria(role, LOCATION, false)));
+        final WeakReference<SPSSODescriptor> ref = new WeakReference<>(role);
+        role = null;
+
+        for (int i = 0; i < 50 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertNull(ref.get(), "Cached endpoint kept its role reachable");
+    }
+
+    private SPSSODescriptor buildRole(final String location) {
+        final SPSSODescriptor role = buildXMLObject(SPSSODescriptor.DEFAULT_ELEMENT_NAME);
+        final AssertionConsumerService acs = buildXMLObject(AssertionConsumerService.DEFAULT_ELEMENT_NAME);
+        acs.setBinding(SAMLConstants.SAML2_POST_BINDING_URI);
+        acs.setLocation(location);
+        acs.setIndex(1);
+        role.getAssertionConsumerServices().add(acs);
+        return role;
+    }
+
+    private CriteriaSet buildCriteria(final RoleDescriptor role, final String location, final boolean trusted) {
+        final Endpoint template = mock(Endpoint.class);
+        when(template.getElementQName()).thenReturn(AssertionConsumerService.DEFAULT_ELEMENT_NAME);
+        when(template.getLocation()).thenReturn(location);
+        when(template.getBinding()).thenReturn(SAMLConstants.SAML2_POST_BINDING_URI);
+
+        final CriteriaSet criteria = new CriteriaSet(new EndpointCriterion<>(template, trusted),
+                new BindingCriterion(Collections.singletonList(SAMLConstants.SAML2_POST_BINDING_URI)));
+        if (role != null) {
+            criteria.add(new RoleDescriptorCriterion(role));
+        }
+        return criteria;
+    }
+
+    /** Returns the first endpoint of the role in the criteria, as a metadata-driven resolver would. */
+    private static final class MetadataEndpointResolver implements EndpointResolver<Endpoint> {
+
+        /** {@inheritDoc} */
+        public Iterable<Endpoint> resolve(final CriteriaSet criteria) throws ResolverException {
+            return Collections.singletonList(resolveSingle(criteria));
+        }
+
+        /** {@inheritDoc} */
+        public Endpoint resolveSingle(final CriteriaSet criteria) throws ResolverException {
+            final SPSSODescriptor role = (SPSSODescriptor) criteria.get(RoleDescriptorCriterion.class).getRole();
+            return role.getAssertionConsumerServices().get(0);
+        }
+    }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.saml.saml2.binding.impl;
+
+import java.io.UnsupportedEncodingException;
+
+import net.shibboleth.utilities.java.support.codec.Base64Support;
+import net.shibboleth.utilities.java.support.xml.SerializeSupport;
+
+import org.opensaml.core.OpenSAMLInitBaseTestCase;
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.messaging.encoder.MessageEncodingException;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.core.Attribute;
+import org.opensaml.saml.saml2.core.AttributeStatement;
+import org.opensaml.saml.saml2.core.Response;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.w3c.dom.Element;
+
+/** Unit test for {@link StreamingHTTPPostEncoder}. */
+public class StreamingHTTPPostEncoderTest extends OpenSAMLInitBaseTestCase {
+
+    @Test public void testEncodingMatchesDefault()
+            throws MarshallingException, MessageEncodingException, UnsupportedEncodingException {
+        final Response response = (Response) XMLObjectSupport.buildXMLObject(Response.DEFAULT_ELEMENT_NAME);
+        response.setID("_response");
+        final Assertion assertion = (Assertion) XMLObjectSupport.buildXMLObject(Assertion.DEFAULT_ELEMENT_NAME);
+        assertion.setID("_assertion");
+        final AttributeStatement statement =
+                (AttributeStatement) XMLObjectSupport.buildXMLObject(AttributeStatement.DEFAULT_ELEMENT_NAME);
+        for (int i = 0; i < 500; i++) {
+            final Attribute attribute = (Attribute) XMLObjectSupport.buildXMLObject(Attribute.DEFAULT_ELEMENT_NAME);
+            attribute.setName("urn:example:attribute:" + i);
+            attribute.setFriendlyName("élément" + i);
+            statement.getAttributes().add(attribute);
+        }
+        assertion.getAttributeStatements().add(statement);
+        response.getAssertions().add(assertion);
+
+        final Element dom = XMLObjectSupport.marshall(response);
+        final String expected =
+                Base64Support.encode(SerializeSupport.nodeToString(dom).getBytes("UTF-8"), Base64Support.UNCHUNKED);
+
+        Assert.assertEquals(new StreamingHTTPPostEncoder().encodeMessage(dom), expected);
+    }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.saml.security.impl;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.security.KeyPair;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.util.Collections;
+
+import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
+import net.shibboleth.utilities.java.support.resolver.ResolverException;
+
+import org.opensaml.core.criterion.EntityIdCriterion;
+import org.opensaml.saml.criterion.RoleDescriptorCriterion;
+import org.opensaml.saml.saml2.metadata.RoleDescriptor;
+import org.opensaml.security.credential.BasicCredential;
+import org.opensaml.security.credential.Credential;
+import org.opensaml.security.credential.CredentialContext;
+import org.opensaml.security.crypto.KeySupport;
+import org.opensaml.xmlsec.EncryptionConfiguration;
+import org.opensaml.xmlsec.EncryptionParameters;
+import org.opensaml.xmlsec.EncryptionParametersResolver;
+import org.opensaml.xmlsec.criterion.EncryptionConfigurationCriterion;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/** Unit test for {@link CachingEncryptionParametersResolver}. */
+public class CachingEncryptionParametersResolverTest {
+
+    private EncryptionParametersResolver delegate;
+
+    private CachingEncryptionParametersResolver resolver;
+
+    private EncryptionConfiguration config;
+
+    private EncryptionParameters params;
+
+    @BeforeMethod public void setUp() throws ResolverException {
+        delegate = mock(EncryptionParametersResolver.class);
+        config = mock(EncryptionConfiguration.class);
+        params = new EncryptionParameters();
+        when(delegate.resolveSingle(any(CriteriaSet.class))).thenReturn(params);
+        resolver = new CachingEncryptionParametersResolver(delegate);
+    }
+
+    @Test public void testCached() throws ResolverException {
+        final RoleDescriptor role = mock(RoleDescriptor.class);
+
+        params.setKeyTransportEncryptionAlgorithm("urn:test:keytransport");
+
+        Assert.assertSame(resolver.resolveSingle(buildCriteria(role, config)), params);
+        final EncryptionParameters cached = resolver.resolveSingle(buildCriteria(role, config));
+        Assert.assertNotSame(cached, params);
+        Assert.assertEquals(cached.getKeyTransportEncryptionAlgorithm(), "urn:test:keytransport");
+        verify(delegate, times(1)).resolveSingle(any(CriteriaSet.class));
+
+        resolver.invalidateAll();
+        Assert.assertSame(resolver.resolveSingle(buildCriteria(role, config)), params);
+        verify(delegate, times(2)).resolveSingle(any(CriteriaSet.class));
+    }
+
+    @Test public void testCopiesIsolated() throws ResolverException {
+        final RoleDescriptor role = mock(RoleDescriptor.class);
+        params.setKeyTransportEncryptionAlgorithm("urn:test:keytransport");
+
+        resolver.resolveSingle(buildCriteria(role, config));
+        final EncryptionParameters first = resolver.resolveSingle(buildCriteria(role, config));
+        first.setKeyTransportEncryptionAlgorithm("urn:test:changed");
+        first.setDataEncryptionCredential(mock(Credential.class));
+
+        final EncryptionParameters second = resolver.resolveSingle(buildCriteria(role, config));
+        Assert.assertNotSame(second, first);
+        Assert.assertEquals(second.getKeyTransportEncryptionAlgorithm(), "urn:test:keytransport");
+        Assert.assertNull(second.getDataEncryptionCredential());
+        verify(delegate, times(1)).resolveSingle(any(CriteriaSet.class));
+    }
+
+    @Test public void testCredentialDetached() throws ResolverException, NoSuchAlgorithmException,
+            NoSuchProviderException {
+        final RoleDescriptor role = mock(RoleDescriptor.class);
+        final KeyPair keyPair = KeySupport.generateKeyPair("RSA", 1024, null);
+        final BasicCredential credential = new BasicCredential(keyPair.getPublic());
+        credential.setEntityId("https://sp.example.org");
+        credential.getKeyNames().add("foo");
+        credential.getCredentialContextSet().add(mock(CredentialContext.class));
+        params.setKeyTransportEncryptionCredential(credential);
+
+        Assert.assertSame(resolver.resolveSingle(buildCriteria(role, config)), params);
+        final Credential cached = resolver.resolveSingle(buildCriteria(role, config))
+                .getKeyTransportEncryptionCredential();
+        Assert.assertNotSame(cached, credential);
+        Assert.assertSame(cached.getPublicKey(), keyPair.getPublic());
+        Assert.assertEquals(cached.getEntityId(), "https://sp.example.org");
+        Assert.assertTrue(cached.getKeyNames().contains("foo"));
+        Assert.assertTrue(cached.getCredentialContextSet().isEmpty());
+        verify(delegate, times(1)).resolveSingle(any(CriteriaSet.class));
+    }
+
+    @Test public void testPrivateCredentialNotCached() throws ResolverException, NoSuchAlgorithmException,
+            NoSuchProviderException {
+        final RoleDescriptor role = mock(RoleDescriptor.class);
+        final KeyPair keyPair = KeySupport.generateKeyPair("RSA", 1024, null);
+        params.setKeyTransportEncryptionCredential(new BasicCredential(keyPair.getPublic(), keyPair.getPrivate()));
+
+        resolver.resolveSingle(buildCriteria(role, config));
+        resolver.resolveSingle(buildCriteria(role, config));
+        verify(delegate, times(2)).resolveSingle(any(CriteriaSet.class));
+    }
+
+    @Test public void testDistinctInputs() throws ResolverException {
+        final RoleDescriptor role = mock(RoleDescriptor.class);
+
+        resolver.resolveSingle(buildCriteria(role, config));
+        resolver.resolveSingle(buildCriteria(role, mock(EncryptionConfiguration.class)));
+        resolver.resolveSingle(buildCriteria(mock(RoleDescriptor.class), config));
+        verify(delegate, times(3)).resolveSingle(any(CriteriaSet.class));
+    }
+
+    @Test public void testNoMetadataNotCached() throws ResolverException {
+        resolver.resolveSingle(buildCriteria(null, config));
+        resolver.resolveSingle(buildCriteria(null, config));
+        verify(delegate, times(2)).resolveSingle(any(CriteriaSet.class));
+    }
+
+    @Test public void testDataCredentialNotCached() throws ResolverException {
+        final RoleDescriptor role = mock(RoleDescriptor.class);
+        params.setDataEncryptionCredential(mock(Credential.class));
+
+        resolver.resolveSingle(buildCriteria(role, config));
+        resolver.resolveSingle(buildCriteria(role, config));
+        verify(delegate, times(2)).resolveSingle(any(CriteriaSet.class));
+    }
+
+    private CriteriaSet buildCriteria(final RoleDescriptor role, final EncryptionConfiguration configuration) {
+        final CriteriaSet criteria = new CriteriaSet(
+                new EncryptionConfigurationCriterion(Collections.singletonList(configuration)),
+                new EntityIdCriterion("https://sp.example.org"));
+        if (role != null) {
+            criteria.add(new RoleDescriptorCriterion(role));
+        }
+        return criteria;
+    }
+
+}
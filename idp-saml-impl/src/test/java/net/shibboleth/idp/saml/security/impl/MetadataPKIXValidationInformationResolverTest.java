@@ -177,6 +177,21 @@ public class MetadataPKIXValidationInformationResolverTest extends XMLObjectBase
        Assert.assertFalse(iter.hasNext(), "Iterator was not empty");
     }
     
+    @Test
+    public void testRepeatedResolution() throws ResolverException, XMLParserException,
+            ComponentInitializationException {
+       MetadataPKIXValidationInformationResolver resolver = getResolver("oneset-entities-metadata-pkix.xml");
+       criteriaSet.add( new UsageCriterion(UsageType.SIGNING) );
+       criteriaSet.add( new EntityIdCriterion(fooEntityID) );
+       criteriaSet.add( new EntityRoleCriterion(IDPSSODescriptor.DEFAULT_ELEMENT_NAME) );
+       criteriaSet.add( new ProtocolCriterion(protocolBlue) );
+       
+       final PKIXValidationInformation first = resolver.resolveSingle(criteriaSet);
+       Assert.assertNotNull(first);
+       Assert.assertSame(resolver.resolveSingle(criteriaSet), first);
+       Assert.assertEquals(resolver.resolveTrustedNames(criteriaSet), resolver.resolveTrustedNames(criteriaSet));
+    }
+    
     @Test
     public void testNoVerifyDepth() throws ResolverException, XMLParserException, ComponentInitializationException {
        MetadataPKIXValidationInformationResolver resolver = getResolver("nodepth-entities-metadata-pkix.xml");
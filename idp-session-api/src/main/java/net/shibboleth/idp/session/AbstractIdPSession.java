@@ -44,6 +44,7 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 
 /**
@@ -97,6 +98,9 @@ public abstract class AbstractIdPSession implements IdPSession {
     /** Tracks authentication results that have occurred during this session. */
     @Nonnull private final ConcurrentMap<String, Optional<AuthenticationResult>> authenticationResults;
 
+    /** Tracks the authentication instants of results, whether loaded or not. */
+    @Nonnull private final ConcurrentMap<String, Long> authenticationInstants;
+
     /** Tracks services which have been issued authentication tokens during this session. */
     @Nonnull private final ConcurrentMap<String, Optional<SPSession>> spSessions;
 
@@ -117,6 +121,7 @@ public abstract class AbstractIdPSession implements IdPSession {
         lastActivityInstant = creationTime;
 
         authenticationResults = new ConcurrentHashMap(5);
+        authenticationInstants = new ConcurrentHashMap(5);
         spSessions = new ConcurrentHashMap(10);
     }
 
@@ -224,6 +229,21 @@ public abstract class AbstractIdPSession implements IdPSession {
         return ImmutableSet.copyOf(Optional.presentInstances(authenticationResults.values()));
     }
 
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull @NonnullElements @NotLive @Unmodifiable public Map<String,Long> getAuthenticationResultIndex() {
+        final ImmutableMap.Builder<String,Long> builder = ImmutableMap.builder();
+        for (final Map.Entry<String, Optional<AuthenticationResult>> entry : authenticationResults.entrySet()) {
+            if (entry.getValue().isPresent()) {
+                builder.put(entry.getKey(), entry.getValue().get().getAuthenticationInstant());
+            } else {
+                final Long instant = authenticationInstants.get(entry.getKey());
+                builder.put(entry.getKey(), instant != null ? instant : 0L);
+            }
+        }
+        return builder.build();
+    }
+
     /** {@inheritDoc} */
     @Override
     @Nullable public AuthenticationResult getAuthenticationResult(@Nonnull @NotEmpty final String flowId) {
@@ -259,6 +279,7 @@ public abstract class AbstractIdPSession implements IdPSession {
     @Nullable public AuthenticationResult doAddAuthenticationResult(@Nonnull final AuthenticationResult result) {
         Constraint.isNotNull(result, "AuthenticationResult cannot be null");
     
+        authenticationInstants.put(result.getAuthenticationFlowId(), result.getAuthenticationInstant());
         Optional<AuthenticationResult> prev =
                 authenticationResults.put(result.getAuthenticationFlowId(), Optional.of(result));
         if (prev != null && prev.isPresent()) {
@@ -284,11 +305,12 @@ public abstract class AbstractIdPSession implements IdPSession {
         Constraint.isNotNull(result, "Authentication event can not be null");
     
         // Record may be actually present, or not yet loaded.
-        if (authenticationResults.remove(result.getAuthenticationFlowId(), Optional.of(result))) {
+        if (authenticationResults.remove(result.getAuthenticationFlowId(), Optional.of(result))
+                || authenticationResults.remove(result.getAuthenticationFlowId(), Optional.absent())) {
+            authenticationInstants.remove(result.getAuthenticationFlowId());
             return true;
-        } else {
-            return authenticationResults.remove(result.getAuthenticationFlowId(), Optional.absent());
         }
+        return false;
     }
 
     /** {@inheritDoc} */
@@ -438,6 +460,18 @@ public abstract class AbstractIdPSession implements IdPSession {
         return authenticationResults;
     }
 
+    /**
+     * Accessor for the underlying map of authentication instants maintained with the IdP session.
+     * 
+     * <p>Entries in this map are hints used for results that have not been loaded, and are meaningful
+     * only for flow IDs also present in the {@link #getAuthenticationResultMap()}.</p>
+     * 
+     * @return direct access to the authentication instant map
+     */
+    @Nonnull @NonnullElements @Live protected Map<String, Long> getAuthenticationInstantMap() {
+        return authenticationInstants;
+    }
+
     /**
      * Accessor for the underlying {@link SPSession} map maintained with the IdP session.
      * 
@@ -17,6 +17,7 @@
 
 package net.shibboleth.idp.session;
 
+import java.util.Map;
 import java.util.Set;
 
 import javax.annotation.Nonnull;
@@ -88,6 +89,17 @@ public interface IdPSession extends IdentifiedComponent {
      */
     @Nonnull @NonnullElements @NotLive @Unmodifiable public Set<AuthenticationResult> getAuthenticationResults();
 
+    /**
+     * Get a summary of the {@link AuthenticationResult}s associated with this session that can be
+     * obtained without loading the results themselves.
+     * 
+     * <p>The keys are the IDs of the flows that produced the results, and each value is the time of
+     * authentication for that result, or 0 if not known without loading it.</p>
+     * 
+     * @return unmodifiable map of flow IDs to authentication instants
+     */
+    @Nonnull @NonnullElements @NotLive @Unmodifiable public Map<String,Long> getAuthenticationResultIndex();
+
     /**
      * Get an associated {@link AuthenticationResult} given its flow ID.
      * 
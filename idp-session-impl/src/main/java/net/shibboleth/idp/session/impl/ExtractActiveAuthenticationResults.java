@@ -19,6 +19,7 @@ package net.shibboleth.idp.session.impl;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -44,6 +45,9 @@ import com.google.common.base.Function;
  * {@link AuthenticationResult} objects found in a {@link SessionContext} that is a direct
  * child of the {@link ProfileRequestContext}.
  * 
+ * <p>The session's result index is used to avoid loading results that belong to flows that are not
+ * potentially usable or that have exceeded their lifetime.</p>
+ * 
  * @event {@link org.opensaml.profile.action.EventIds#PROCEED_EVENT_ID}
  * @pre <pre>ProfileRequestContext.getSubcontext(AuthenticationContext.class, false) != null</pre>
  * @post AuthenticationContext.getActiveResults() is modified as above.
@@ -98,17 +102,31 @@ public class ExtractActiveAuthenticationResults extends AbstractAuthenticationAc
     protected void doExecute(@Nonnull final ProfileRequestContext profileRequestContext,
             @Nonnull final AuthenticationContext authenticationContext) {
 
+        final long now = System.currentTimeMillis();
         final List<AuthenticationResult> actives = new ArrayList<>();
-        for (AuthenticationResult result : session.getAuthenticationResults()) {
-            AuthenticationFlowDescriptor descriptor =
-                    authenticationContext.getPotentialFlows().get(result.getAuthenticationFlowId());
+        
+        // Consult the session's index first so that only results that could be active are loaded.
+        for (final Map.Entry<String,Long> entry : session.getAuthenticationResultIndex().entrySet()) {
+            final AuthenticationFlowDescriptor descriptor =
+                    authenticationContext.getPotentialFlows().get(entry.getKey());
             if (descriptor == null) {
                 log.debug("{} authentication result {} has no corresponding flow descriptor, considering inactive", 
-                        getLogPrefix(), result.getAuthenticationFlowId());
+                        getLogPrefix(), entry.getKey());
+                continue;
+            }
+            
+            if (entry.getValue() > 0 && descriptor.getLifetime() > 0
+                    && entry.getValue() + descriptor.getLifetime() <= now) {
+                log.debug("{} authentication result {} has exceeded its lifetime, skipping it", getLogPrefix(),
+                        entry.getKey());
                 continue;
             }
             
-            if (descriptor.isResultActive(result)) {
+            final AuthenticationResult result = session.getAuthenticationResult(entry.getKey());
+            if (result == null) {
+                log.debug("{} authentication result {} could not be loaded, skipping it", getLogPrefix(),
+                        entry.getKey());
+            } else if (descriptor.isResultActive(result)) {
                 log.debug("{} authentication result {} is active, copying from session", getLogPrefix(),
                         result.getAuthenticationFlowId());
                 actives.add(result);
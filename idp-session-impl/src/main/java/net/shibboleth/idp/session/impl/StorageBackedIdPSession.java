@@ -164,6 +164,7 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
                     } else {
                         // A null here means the reference to the record should be removed.
                         entries.remove();
+                        getAuthenticationInstantMap().remove(entry.getKey());
                     }
                 } catch (final IOException e) {
                     // An exception implies the record *might* still be accessible later.
@@ -197,6 +198,7 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
             } else {
                 // A null here means the reference to the record should be removed.
                 getAuthenticationResultMap().remove(trimmed);
+                getAuthenticationInstantMap().remove(trimmed);
             }
         } catch (final IOException e) {
             // An exception implies the record *might* still be accessible later.
@@ -508,6 +510,12 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
         return super.getAuthenticationResultMap();
     }
 
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull @NonnullElements @Live public Map<String, Long> getAuthenticationInstantMap() {
+        return super.getAuthenticationInstantMap();
+    }
+
     /** {@inheritDoc} */
     @Override
     @Nonnull @NonnullElements @Live public Map<String, Optional<SPSession>> getSPSessionMap() {
@@ -20,6 +20,8 @@ package net.shibboleth.idp.session.impl;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 
 import javax.annotation.Nonnull;
@@ -34,9 +36,11 @@ import javax.json.JsonString;
 import javax.json.JsonStructure;
 import javax.json.stream.JsonGenerator;
 
+import net.shibboleth.idp.authn.AuthenticationFlowDescriptor;
 import net.shibboleth.idp.authn.AuthenticationResult;
 import net.shibboleth.idp.session.AbstractIdPSession;
 import net.shibboleth.idp.session.SPSession;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
 import net.shibboleth.utilities.java.support.logic.Constraint;
@@ -70,6 +74,9 @@ public class StorageBackedIdPSessionSerializer extends AbstractInitializableComp
     /** Field name of flow ID array. */
     @Nonnull @NotEmpty private static final String FLOW_ID_ARRAY_FIELD = "flows";
 
+    /** Field name of authentication instant index. */
+    @Nonnull @NotEmpty private static final String AUTHN_INSTANT_INDEX_FIELD = "ainst";
+
     /** Field name of service ID array. */
     @Nonnull @NotEmpty private static final String SERVICE_ID_ARRAY_FIELD = "svcs";
 
@@ -112,11 +119,20 @@ public class StorageBackedIdPSessionSerializer extends AbstractInitializableComp
                 gen.write(IPV6_ADDRESS_FIELD, instance.getAddress(AbstractIdPSession.AddressFamily.IPV6));
             }
 
-            final Set<AuthenticationResult> results = instance.getAuthenticationResults();
-            if (!results.isEmpty()) {
+            // The index avoids loading every result just to record its flow ID.
+            final Map<String,Long> resultIndex = getUnexpiredResults(instance.getAuthenticationResultIndex());
+            if (!resultIndex.isEmpty()) {
                 gen.writeStartArray(FLOW_ID_ARRAY_FIELD);
-                for (final AuthenticationResult result : results) {
-                    gen.write(result.getAuthenticationFlowId());
+                for (final String flowId : resultIndex.keySet()) {
+                    gen.write(flowId);
+                }
+                gen.writeEnd();
+                
+                gen.writeStartObject(AUTHN_INSTANT_INDEX_FIELD);
+                for (final Map.Entry<String,Long> entry : resultIndex.entrySet()) {
+                    if (entry.getValue() > 0) {
+                        gen.write(entry.getKey(), entry.getValue());
+                    }
                 }
                 gen.writeEnd();
             }
@@ -183,6 +199,7 @@ public class StorageBackedIdPSessionSerializer extends AbstractInitializableComp
             }
 
             objectToPopulate.getAuthenticationResultMap().clear();
+            objectToPopulate.getAuthenticationInstantMap().clear();
             if (obj.containsKey(FLOW_ID_ARRAY_FIELD)) {
                 final JsonArray flowIds = obj.getJsonArray(FLOW_ID_ARRAY_FIELD);
                 if (flowIds != null) {
@@ -193,6 +210,18 @@ public class StorageBackedIdPSessionSerializer extends AbstractInitializableComp
                     }
                 }
             }
+            if (obj.containsKey(AUTHN_INSTANT_INDEX_FIELD)) {
+                final JsonObject instants = obj.getJsonObject(AUTHN_INSTANT_INDEX_FIELD);
+                if (instants != null) {
+                    for (final String flowId : instants.keySet()) {
+                        // Instants are only meaningful for results listed in the flow array.
+                        if (objectToPopulate.getAuthenticationResultMap().containsKey(flowId)) {
+                            objectToPopulate.getAuthenticationInstantMap().put(flowId,
+                                    instants.getJsonNumber(flowId).longValueExact());
+                        }
+                    }
+                }
+            }
 
             objectToPopulate.getSPSessionMap().clear();
             if (obj.containsKey(SERVICE_ID_ARRAY_FIELD)) {
@@ -214,4 +243,31 @@ public class StorageBackedIdPSessionSerializer extends AbstractInitializableComp
     }
     // Checkstyle: CyclomaticComplexity ON
 
+    /**
+     * Filter a session's result index to remove results that have exceeded the lifetime of their flow, and so
+     * can never be active again.
+     * 
+     * <p>Results whose flow is unknown, or whose instant is unknown, are retained.</p>
+     * 
+     * @param resultIndex the session's result index
+     * 
+     * @return the results to record in the session
+     */
+    @Nonnull @NonnullElements private Map<String,Long> getUnexpiredResults(
+            @Nonnull @NonnullElements final Map<String,Long> resultIndex) {
+        final long now = System.currentTimeMillis();
+        final Map<String,Long> unexpired = new LinkedHashMap<>(resultIndex.size());
+        for (final Map.Entry<String,Long> entry : resultIndex.entrySet()) {
+            final AuthenticationFlowDescriptor descriptor =
+                    sessionManager.getAuthenticationFlowDescriptor(entry.getKey());
+            if (descriptor != null && descriptor.getLifetime() > 0 && entry.getValue() > 0
+                    && entry.getValue() + descriptor.getLifetime() <= now) {
+                log.debug("Pruning expired AuthenticationResult for flow {} from session record", entry.getKey());
+            } else {
+                unexpired.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return unexpired;
+    }
+
 }
\ No newline at end of file
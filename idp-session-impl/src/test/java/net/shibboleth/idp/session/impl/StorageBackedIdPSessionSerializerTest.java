@@ -21,7 +21,9 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.Collections;
 
+import net.shibboleth.idp.authn.AuthenticationFlowDescriptor;
 import net.shibboleth.idp.authn.AuthenticationResult;
 import net.shibboleth.idp.authn.principal.UsernamePrincipal;
 import net.shibboleth.idp.session.BasicSPSession;
@@ -72,6 +74,10 @@ public class StorageBackedIdPSessionSerializerTest {
         manager.setId("Test Session Manager");
         manager.setTrackSPSessions(true);
         manager.setSPSessionSerializerRegistry(new SPSessionSerializerRegistry());
+        final AuthenticationFlowDescriptor expiring = new AuthenticationFlowDescriptor();
+        expiring.setId("expiring");
+        expiring.setLifetime(60 * 60 * 1000);
+        manager.setAuthenticationFlowDescriptors(Collections.singletonList(expiring));
         manager.initialize();
 
         serializer = new StorageBackedIdPSessionSerializer(manager, null);
@@ -132,9 +138,11 @@ public class StorageBackedIdPSessionSerializerTest {
         
         StorageBackedIdPSession session = new StorageBackedIdPSession(manager, "test", "foo", INSTANT);
         session.doBindToAddress("127.0.0.1");
-        session.doAddAuthenticationResult(new AuthenticationResult("a", new UsernamePrincipal("jdoe")));
-        session.doAddAuthenticationResult(new AuthenticationResult("b", new UsernamePrincipal("jdoe")));
-        session.doAddAuthenticationResult(new AuthenticationResult("c", new UsernamePrincipal("jdoe")));
+        for (final String flowId : new String[] {"a", "b", "c"}) {
+            final AuthenticationResult result = new AuthenticationResult(flowId, new UsernamePrincipal("jdoe"));
+            result.setAuthenticationInstant(INSTANT);
+            session.doAddAuthenticationResult(result);
+        }
         session.doAddSPSession(new BasicSPSession("bar", INSTANT, exp));
         session.doAddSPSession(new BasicSPSession("baz", INSTANT, exp));
         
@@ -148,8 +156,38 @@ public class StorageBackedIdPSessionSerializerTest {
         Assert.assertEquals(session.getPrincipalName(), session2.getPrincipalName());
         Assert.assertEquals(session.getCreationInstant(), session2.getCreationInstant());
         Assert.assertEquals(session.getLastActivityInstant(), session2.getLastActivityInstant());
+        Assert.assertEquals(session2.getAuthenticationResultIndex().size(), 3);
+        Assert.assertEquals(session2.getAuthenticationResultIndex().get("a"), Long.valueOf(INSTANT));
+        Assert.assertEquals(session2.getAuthenticationResultIndex().get("c"), Long.valueOf(INSTANT));
     }
     
+    @Test public void testResultIndexMaintenance() throws Exception {
+        long exp = System.currentTimeMillis() + (60 * 60 * 1000);
+
+        StorageBackedIdPSession session = new StorageBackedIdPSession(manager, "test", "foo", INSTANT);
+        final AuthenticationResult current = new AuthenticationResult("a", new UsernamePrincipal("jdoe"));
+        session.doAddAuthenticationResult(current);
+        final AuthenticationResult expired = new AuthenticationResult("expiring", new UsernamePrincipal("jdoe"));
+        expired.setAuthenticationInstant(INSTANT);
+        session.doAddAuthenticationResult(expired);
+        Assert.assertEquals(session.getAuthenticationResultIndex().size(), 2);
+
+        // The expired result is pruned from the serialized record.
+        StorageBackedIdPSession session2 = serializer.deserialize(1, "test", KEY, serializer.serialize(session), exp);
+        Assert.assertEquals(session2.getAuthenticationResultIndex().keySet(), Collections.singleton("a"));
+        Assert.assertEquals(session2.getAuthenticationInstantMap().keySet(), Collections.singleton("a"));
+
+        // Removing a result removes its instant.
+        Assert.assertTrue(session.doRemoveAuthenticationResult(current));
+        Assert.assertEquals(session.getAuthenticationResultIndex().keySet(), Collections.singleton("expiring"));
+        Assert.assertFalse(session.getAuthenticationInstantMap().containsKey("a"));
+
+        // Including one not yet loaded.
+        Assert.assertTrue(session2.doRemoveAuthenticationResult(current));
+        Assert.assertTrue(session2.getAuthenticationResultIndex().isEmpty());
+        Assert.assertTrue(session2.getAuthenticationInstantMap().isEmpty());
+    }
+
     private boolean isV8() {
         final String ver = System.getProperty("java.version");
         return ver.startsWith("1.8");